@@ -5,6 +5,7 @@ import java.util.Scanner;
 
 import com.anyscreen.implementations.Log4jAdapter;
 import com.anyscreen.models.ScreenInfo;
+import com.anyscreen.server.RtspServer;
 import com.anyscreen.server.ScreenStreamingServer;
 import com.anyscreen.services.LoggerService;
 import com.anyscreen.services.ScreenCaptureService;
@@ -57,5 +58,12 @@ public class App {
         for (ScreenInfo info : screenInfos) {
             LoggerService.info("  http://localhost:8080/stream/" + info.getIndex());
         }
+        int rtspPort = RtspServer.portFromSystemProperties();
+        if (rtspPort > 0) {
+            LoggerService.info("and via RTSP:");
+            for (ScreenInfo info : screenInfos) {
+                LoggerService.info("  rtsp://localhost:" + rtspPort + "/" + info.getIndex());
+            }
+        }
     }
 }
\ No newline at end of file
@@ -87,6 +87,7 @@ public class HTMLConstants {
                         <button onclick="startStream(1)" id="stream1">Stream Screen 1</button>
                         <button onclick="stopStream()">Stop Stream</button>
                         <button onclick="getStatus()">Get Status</button>
+                        <button onclick="location.href = '/viewer/tiles'">Open Tile Viewer</button>
                     </div>
                     
                     <div class="stream-container">
@@ -174,4 +175,201 @@ public class HTMLConstants {
             </body>
             </html>
             """;
+
+    /**
+     * Viewer for the delta tile protocol: reads /tiles/{screen} as a byte stream and draws each
+     * keyframe and changed-tile patch onto a canvas. See TileStreamSession for the message layout.
+     */
+    public static final String TILE_VIEWER_PAGE = """
+            <!DOCTYPE html>
+            <html lang="en">
+            <head>
+                <meta charset="UTF-8">
+                <meta name="viewport" content="width=device-width, initial-scale=1.0">
+                <title>AnyScreen - Tile Viewer</title>
+                <style>
+                    body {
+                        font-family: Arial, sans-serif;
+                        margin: 20px;
+                        background-color: #f5f5f5;
+                    }
+                    .container {
+                        max-width: 1200px;
+                        margin: 0 auto;
+                        background: white;
+                        padding: 20px;
+                        border-radius: 8px;
+                        box-shadow: 0 2px 10px rgba(0,0,0,0.1);
+                    }
+                    .controls {
+                        margin-bottom: 20px;
+                        padding: 15px;
+                        background: #f8f9fa;
+                        border-radius: 5px;
+                    }
+                    .stream-container {
+                        text-align: center;
+                        border: 2px solid #ddd;
+                        border-radius: 5px;
+                        overflow: hidden;
+                        background: #000;
+                    }
+                    canvas {
+                        max-width: 100%;
+                        height: auto;
+                        display: block;
+                    }
+                    button {
+                        padding: 10px 20px;
+                        margin: 5px;
+                        background: #007bff;
+                        color: white;
+                        border: none;
+                        border-radius: 5px;
+                        cursor: pointer;
+                    }
+                    button:hover {
+                        background: #0056b3;
+                    }
+                    .status {
+                        margin-top: 15px;
+                        padding: 10px;
+                        background: #e9ecef;
+                        border-radius: 5px;
+                        font-family: monospace;
+                        font-size: 12px;
+                    }
+                    .error {
+                        color: red;
+                        background: #ffe6e6;
+                    }
+                    .success {
+                        color: green;
+                        background: #e6ffe6;
+                    }
+                </style>
+            </head>
+            <body>
+                <div class="container">
+                    <h1>AnyScreen - Tile Viewer</h1>
+
+                    <div class="controls">
+                        <button onclick="startStream(0)">Stream Screen 0</button>
+                        <button onclick="startStream(1)">Stream Screen 1</button>
+                        <button onclick="stopStream()">Stop Stream</button>
+                        <button onclick="location.href = '/'">Back to MJPEG Test Page</button>
+                    </div>
+
+                    <div class="stream-container">
+                        <canvas id="screen" width="640" height="360"></canvas>
+                    </div>
+
+                    <div id="status" class="status">
+                        Ready - Click "Stream Screen X" to start
+                    </div>
+                </div>
+
+                <script>
+                    const TYPE_KEYFRAME = 1;
+                    const FORMATS = ['image/jpeg', 'image/png', 'image/webp'];
+                    const canvas = document.getElementById('screen');
+                    const context = canvas.getContext('2d');
+                    let controller = null;
+                    let received = { messages: 0, patches: 0, bytes: 0 };
+
+                    function updateStatus(message, isError = false) {
+                        const statusDiv = document.getElementById('status');
+                        statusDiv.textContent = new Date().toLocaleTimeString() + ' - ' + message;
+                        statusDiv.className = 'status ' + (isError ? 'error' : 'success');
+                    }
+
+                    function concat(a, b) {
+                        const joined = new Uint8Array(a.length + b.length);
+                        joined.set(a, 0);
+                        joined.set(b, a.length);
+                        return joined;
+                    }
+
+                    // Decodes every patch first, then draws them in order so a message lands atomically
+                    async function drawMessage(message) {
+                        const view = new DataView(message.buffer, message.byteOffset, message.byteLength);
+                        const type = view.getUint8(0);
+                        const format = FORMATS[view.getUint8(1)];
+                        const count = view.getUint16(2);
+                        const width = view.getUint16(4);
+                        const height = view.getUint16(6);
+                        if (type === TYPE_KEYFRAME && (canvas.width !== width || canvas.height !== height)) {
+                            canvas.width = width;
+                            canvas.height = height;
+                        }
+
+                        const patches = [];
+                        let offset = 12;
+                        for (let i = 0; i < count; i++) {
+                            const x = view.getUint16(offset);
+                            const y = view.getUint16(offset + 2);
+                            const length = view.getUint32(offset + 8);
+                            const bytes = message.subarray(offset + 12, offset + 12 + length);
+                            patches.push(createImageBitmap(new Blob([bytes], { type: format })).then(bitmap => ({ x, y, bitmap })));
+                            offset += 12 + length;
+                        }
+                        for (const patch of await Promise.all(patches)) {
+                            context.drawImage(patch.bitmap, patch.x, patch.y);
+                            patch.bitmap.close();
+                        }
+                        received.messages++;
+                        received.patches += count;
+                        received.bytes += message.byteLength + 4;
+                    }
+
+                    async function startStream(screenIndex) {
+                        stopStream();
+                        controller = new AbortController();
+                        received = { messages: 0, patches: 0, bytes: 0 };
+                        const started = Date.now();
+                        updateStatus(`Streaming screen ${screenIndex}...`);
+                        try {
+                            const response = await fetch(`/tiles/${screenIndex}?t=${Date.now()}`, { signal: controller.signal });
+                            if (!response.ok) {
+                                throw new Error(await response.text());
+                            }
+                            const reader = response.body.getReader();
+                            let pending = new Uint8Array(0);
+                            while (true) {
+                                const { value, done } = await reader.read();
+                                if (done) {
+                                    break;
+                                }
+                                pending = concat(pending, value);
+                                while (pending.length >= 4) {
+                                    const length = new DataView(pending.buffer, pending.byteOffset).getUint32(0);
+                                    if (pending.length < 4 + length) {
+                                        break;
+                                    }
+                                    await drawMessage(pending.subarray(4, 4 + length));
+                                    pending = pending.subarray(4 + length);
+                                }
+                                const seconds = Math.max(1, (Date.now() - started) / 1000);
+                                updateStatus(`Screen ${screenIndex}: ${received.messages} updates, ${received.patches} patches, ` +
+                                    `${Math.round(received.bytes / seconds / 1024)} KB/s`);
+                            }
+                            updateStatus(`Stream for screen ${screenIndex} ended`);
+                        } catch (error) {
+                            if (error.name !== 'AbortError') {
+                                updateStatus(`Failed to stream screen ${screenIndex}: ${error.message}`, true);
+                            }
+                        }
+                    }
+
+                    function stopStream() {
+                        if (controller) {
+                            controller.abort();
+                            controller = null;
+                            updateStatus('Stream stopped');
+                        }
+                    }
+                </script>
+            </body>
+            </html>
+            """;
 }
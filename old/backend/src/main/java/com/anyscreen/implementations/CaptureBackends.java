@@ -0,0 +1,92 @@
+package com.anyscreen.implementations;
+
+import java.nio.file.Path;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+
+/**
+ * Factory for the screen capture backend.
+ * The default captures the real display through Robot; the synthetic and replay backends make
+ * the server runnable and measurable on headless hosts.
+ */
+public class CaptureBackends {
+
+    /**
+     * System property selecting the backend: {@code robot},
+     * {@code synthetic[:<width>x<height>[:<screens>[:<pattern>]]]} or {@code replay:<path>}.
+     */
+    public static final String CAPTURE_PROPERTY = "anyscreen.capture";
+    public static final String DEFAULT_BACKEND = "robot";
+
+    private static final int DEFAULT_SYNTHETIC_WIDTH = 1920;
+    private static final int DEFAULT_SYNTHETIC_HEIGHT = 1080;
+
+    private CaptureBackends() {}
+
+    /**
+     * Creates the backend selected by the {@value #CAPTURE_PROPERTY} system property.
+     */
+    public static ScreenCaptureInterface fromSystemProperties() throws ScreenCaptureException {
+        return create(System.getProperty(CAPTURE_PROPERTY, DEFAULT_BACKEND));
+    }
+
+    /**
+     * Creates a backend from its description.
+     * @param spec {@code robot} for the real display; {@code synthetic} with optional resolution,
+     *             screen count and motion pattern ({@code static}, {@code scrolling-text}, {@code typing} or
+     *             {@code noise}), e.g. {@code synthetic:1280x720:2:noise}; or {@code replay:<path>}
+     *             for a recorded trace
+     * @return the backend
+     * @throws ScreenCaptureException if the backend cannot be created
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    public static ScreenCaptureInterface create(String spec) throws ScreenCaptureException {
+        if (spec == null || spec.isBlank() || spec.equalsIgnoreCase("robot")) {
+            return new RobotScreenCapture();
+        }
+
+        String[] parts = spec.trim().split(":", 2);
+        String type = parts[0].toLowerCase();
+        String options = parts.length > 1 ? parts[1] : "";
+        if (type.equals("synthetic")) {
+            return createSynthetic(options);
+        }
+        if (type.equals("replay")) {
+            if (options.isBlank()) {
+                throw new IllegalArgumentException("Replay backend needs a trace path: " + spec);
+            }
+            return ReplayScreenCapture.fromPath(Path.of(options));
+        }
+        throw new IllegalArgumentException("Unknown capture backend: " + spec);
+    }
+
+    private static SyntheticScreenCapture createSynthetic(String options) {
+        int width = DEFAULT_SYNTHETIC_WIDTH;
+        int height = DEFAULT_SYNTHETIC_HEIGHT;
+        int screens = 1;
+        MotionPattern pattern = MotionPattern.SCROLLING_TEXT;
+
+        String[] values = options.isBlank() ? new String[0] : options.split(":");
+        try {
+            if (values.length > 0) {
+                String[] resolution = values[0].toLowerCase().split("x");
+                if (resolution.length != 2) {
+                    throw new IllegalArgumentException("Invalid synthetic resolution: " + values[0]);
+                }
+                width = Integer.parseInt(resolution[0].trim());
+                height = Integer.parseInt(resolution[1].trim());
+            }
+            if (values.length > 1) {
+                screens = Integer.parseInt(values[1].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid synthetic capture options: " + options, e);
+        }
+        if (values.length > 2) {
+            pattern = MotionPattern.fromName(values[2].trim());
+        }
+        return new SyntheticScreenCapture(width, height, screens, pattern);
+    }
+}
@@ -0,0 +1,337 @@
+package com.anyscreen.implementations;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import static org.bytedeco.ffmpeg.global.swscale.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import com.anyscreen.interfaces.FrameEncoderInterface;
+
+/**
+ * Frame encoder on FFmpeg's native image encoders, through the javacv bindings.
+ * The codec context, the source and destination frames, the packet and the color converter are
+ * created for the first frame and reused for every following frame of the same size, so a frame
+ * costs one copy of its pixels into native memory, one swscale pass and one encoder call.
+ * Not thread-safe; each stream session owns its encoder. The native memory is freed by
+ * {@link #dispose()}, or once the encoder is garbage collected.
+ */
+public class FfmpegFrameEncoder implements FrameEncoderInterface {
+
+    /**
+     * Supported FFmpeg encoders.
+     */
+    public enum Codec {
+        MJPEG("mjpeg", "ffmpeg-mjpeg", "image/jpeg"),
+        WEBP("libwebp", "ffmpeg-webp", "image/webp");
+
+        private final String encoderName;
+        private final String name;
+        private final String contentType;
+
+        Codec(String encoderName, String name, String contentType) {
+            this.encoderName = encoderName;
+            this.name = name;
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return name of the FFmpeg encoder
+         */
+        public String getEncoderName() {
+            return encoderName;
+        }
+
+        /**
+         * @return name of the encoder in session configurations, e.g. {@code ffmpeg-mjpeg}
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    // libwebp effort from 0 (fastest) to 6; frames are shown once, so favor speed
+    private static final int WEBP_COMPRESSION_LEVEL = 1;
+
+    // Frees the native state of encoders that are dropped without dispose(), e.g. by a reconfigured session
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Codec codec;
+    private final int quality;
+    private NativeState state;
+    private Cleaner.Cleanable cleanable;
+    private int width;
+    private int height;
+    private int[] frameBuffer;
+    private byte[] packetBuffer = new byte[64 * 1024];
+    private long encodedFrames;
+
+    /**
+     * @param codec The FFmpeg encoder to use
+     * @param quality Quality from 1 to 100, mapped onto the encoder's own scale
+     */
+    public FfmpegFrameEncoder(Codec codec, int quality) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 1 and 100: " + quality);
+        }
+        this.codec = codec;
+        this.quality = quality;
+    }
+
+    /**
+     * @return true if the FFmpeg natives load on this platform and include the codec's encoder
+     */
+    public static boolean isAvailable(Codec codec) {
+        try {
+            return avcodec_find_encoder_by_name(codec.getEncoderName()) != null;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps quality 1 to 100 onto FFmpeg's JPEG quantizer scale 31 to 2, so that equal
+     * qualities give roughly equal sizes as ImageIO.
+     */
+    static int qscale(int quality) {
+        return Math.max(2, Math.min(31, Math.round((100 - quality) / 4f) + 1));
+    }
+
+    @Override
+    public String getName() {
+        return codec.getName();
+    }
+
+    @Override
+    public String getContentType() {
+        return codec.getContentType();
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream outputStream) throws IOException {
+        if (state == null || image.getWidth() != width || image.getHeight() != height) {
+            open(image.getWidth(), image.getHeight());
+        }
+        NativeState state = this.state;
+        AVCodecContext context = state.context;
+        AVFrame frame = state.frame;
+        AVPacket packet = state.packet;
+        copyPixels(image, state.sourcePixels);
+
+        check(av_frame_make_writable(frame), "av_frame_make_writable");
+        sws_scale(state.converter, state.sourcePlanes, state.sourceStrides, 0, height, frame.data(), frame.linesize());
+        frame.pts(encodedFrames);
+        if (codec == Codec.MJPEG) {
+            frame.quality(context.global_quality());
+        }
+
+        check(avcodec_send_frame(context, frame), "avcodec_send_frame");
+        int result;
+        while ((result = avcodec_receive_packet(context, packet)) == 0) {
+            int size = packet.size();
+            if (packetBuffer.length < size) {
+                packetBuffer = new byte[Math.max(size, packetBuffer.length * 2)];
+            }
+            packet.data().get(packetBuffer, 0, size);
+            av_packet_unref(packet);
+            outputStream.write(packetBuffer, 0, size);
+        }
+        if (result != AVERROR_EAGAIN()) {
+            check(result, "avcodec_receive_packet");
+        }
+        encodedFrames++;
+    }
+
+    /**
+     * Copies the frame into native memory as 32-bit pixels, the layout of packed int RGB.
+     */
+    private void copyPixels(BufferedImage image, IntPointer sourcePixels) {
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+            && image.getSampleModel() instanceof SinglePixelPackedSampleModel packed) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int stride = packed.getScanlineStride();
+            int origin = originOffset(image.getRaster(), stride);
+            if (stride == width) {
+                sourcePixels.position(0).put(pixels, origin, width * height);
+            } else {
+                for (int y = 0; y < height; y++) {
+                    sourcePixels.position((long) y * width).put(pixels, origin + y * stride, width);
+                }
+            }
+        } else {
+            if (frameBuffer == null || frameBuffer.length < width * height) {
+                frameBuffer = new int[width * height];
+            }
+            image.getRGB(0, 0, width, height, frameBuffer, 0, width);
+            sourcePixels.position(0).put(frameBuffer, 0, width * height);
+        }
+        sourcePixels.position(0);
+    }
+
+    /**
+     * Index of the frame's top-left pixel in its data array, honoring sub-images.
+     */
+    private static int originOffset(Raster raster, int stride) {
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * stride
+               - raster.getSampleModelTranslateX();
+    }
+
+    /**
+     * (Re)creates the native state for frames of the given size.
+     */
+    private void open(int newWidth, int newHeight) throws IOException {
+        release();
+        AVCodec encoder = avcodec_find_encoder_by_name(codec.getEncoderName());
+        if (encoder == null) {
+            throw new IOException("FFmpeg encoder not available: " + codec.getEncoderName());
+        }
+        av_log_set_level(AV_LOG_ERROR);
+
+        NativeState opened = new NativeState();
+        Cleaner.Cleanable openedCleanable = CLEANER.register(this, opened);
+        try {
+            // MJPEG takes full-range YUV, like JFIF; libwebp takes video-range YUV
+            int pixelFormat = codec == Codec.MJPEG ? AV_PIX_FMT_YUVJ420P : AV_PIX_FMT_YUV420P;
+            AVCodecContext context = avcodec_alloc_context3(encoder);
+            opened.context = context;
+            context.width(newWidth);
+            context.height(newHeight);
+            context.pix_fmt(pixelFormat);
+            context.time_base(av_make_q(1, 30));
+            AVDictionary options = new AVDictionary(null);
+            if (codec == Codec.MJPEG) {
+                context.flags(context.flags() | AV_CODEC_FLAG_QSCALE);
+                context.global_quality(qscale(quality) * FF_QP2LAMBDA);
+            } else {
+                av_dict_set(options, "quality", String.valueOf(quality), 0);
+                av_dict_set(options, "compression_level", String.valueOf(WEBP_COMPRESSION_LEVEL), 0);
+            }
+            int result = avcodec_open2(context, encoder, options);
+            av_dict_free(options);
+            check(result, "avcodec_open2");
+
+            opened.frame = av_frame_alloc();
+            opened.frame.format(pixelFormat);
+            opened.frame.width(newWidth);
+            opened.frame.height(newHeight);
+            check(av_frame_get_buffer(opened.frame, 0), "av_frame_get_buffer");
+            opened.packet = av_packet_alloc();
+
+            // Packed int RGB is B, G, R, X in memory on little-endian machines
+            int sourceFormat = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? AV_PIX_FMT_BGR0 : AV_PIX_FMT_0RGB;
+            opened.converter = sws_getCachedContext(null, newWidth, newHeight, sourceFormat,
+                                                    newWidth, newHeight, pixelFormat,
+                                                    SWS_BILINEAR, null, null, (DoublePointer) null);
+            opened.sourcePixels = new IntPointer((long) newWidth * newHeight);
+            opened.sourceStrides = new IntPointer(newWidth * Integer.BYTES, 0, 0, 0);
+            opened.sourcePlanes = new PointerPointer<>(4);
+            opened.sourcePlanes.put(0, opened.sourcePixels);
+        } catch (IOException | RuntimeException e) {
+            openedCleanable.clean();
+            throw e;
+        }
+        state = opened;
+        cleanable = openedCleanable;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    private static void check(int result, String call) throws IOException {
+        if (result < 0) {
+            byte[] message = new byte[128];
+            av_strerror(result, message, message.length);
+            int length = 0;
+            while (length < message.length && message[length] != 0) {
+                length++;
+            }
+            throw new IOException(call + " failed: " + new String(message, 0, length));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        release();
+    }
+
+    /**
+     * Frees the native state now rather than when the encoder is collected; the next frame recreates it.
+     */
+    private void release() {
+        if (cleanable != null) {
+            cleanable.clean();
+            cleanable = null;
+            state = null;
+        }
+        width = 0;
+        height = 0;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * Native objects of one frame size. Holds no reference to the encoder, so the cleaner can run
+     * it once the encoder is unreachable.
+     */
+    private static final class NativeState implements Runnable {
+        AVCodecContext context;
+        AVFrame frame;
+        AVPacket packet;
+        SwsContext converter;
+        IntPointer sourcePixels;
+        IntPointer sourceStrides;
+        PointerPointer<IntPointer> sourcePlanes;
+
+        @Override
+        public void run() {
+            if (context != null) {
+                avcodec_free_context(context);
+            }
+            if (frame != null) {
+                av_frame_free(frame);
+            }
+            if (packet != null) {
+                av_packet_free(packet);
+            }
+            if (converter != null) {
+                sws_freeContext(converter);
+            }
+            if (sourcePixels != null) {
+                sourcePlanes.close();
+                sourceStrides.close();
+                sourcePixels.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.anyscreen.implementations;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import static org.bytedeco.ffmpeg.global.swscale.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.EncodedVideoFrame;
+
+/**
+ * H.264 encoder on FFmpeg, through the javacv bindings.
+ * Uses libx264 tuned for zero latency where the FFmpeg build has it, and Cisco's libopenh264,
+ * which the default javacv build ships, otherwise; both produce every frame from the call that
+ * encodes it. The parameter sets go into the codec's extradata instead of every keyframe, so
+ * muxers write them once. The codec context, frame and converter are kept for the stream's
+ * lifetime. Not thread-safe; the native memory is freed by {@link #dispose()}, or once the
+ * encoder is garbage collected.
+ */
+public class FfmpegH264Encoder implements VideoEncoderInterface {
+
+    // Tried in order; the first the FFmpeg build has is used
+    private static final String[] ENCODER_NAMES = {"libx264", "libopenh264"};
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int quality;
+    private final int frameRate;
+    private NativeState state;
+    private Cleaner.Cleanable cleanable;
+    private String encoderName;
+    private int width;
+    private int height;
+    private int sourceWidth;
+    private int sourceHeight;
+    private byte[] sequenceParameterSet;
+    private byte[] pictureParameterSet;
+    private int[] frameBuffer;
+    private byte[] packetBuffer = new byte[64 * 1024];
+
+    /**
+     * @param quality Quality from 1 to 100, mapped onto a bitrate for the frame size and rate
+     * @param frameRate Frames per second the stream is expected to average, for rate control
+     */
+    public FfmpegH264Encoder(int quality, int frameRate) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 1 and 100: " + quality);
+        }
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+        }
+        this.quality = quality;
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * @return true if the FFmpeg natives load on this platform and include an H.264 encoder
+     */
+    public static boolean isAvailable() {
+        return findEncoder() != null;
+    }
+
+    private static AVCodec findEncoder() {
+        try {
+            for (String name : ENCODER_NAMES) {
+                AVCodec encoder = avcodec_find_encoder_by_name(name);
+                if (encoder != null) {
+                    return encoder;
+                }
+            }
+        } catch (LinkageError e) {
+            // No natives for this platform
+        }
+        return null;
+    }
+
+    /**
+     * Bitrate for a quality: from 0.02 bits per pixel at quality 1 to 0.1 at quality 100, which
+     * keeps text sharp; screens change little between frames, so most of it goes to keyframes.
+     */
+    public static long bitrate(int quality, int width, int height, int frameRate) {
+        double ratio = (quality - 1) / 99.0;
+        double bitsPerPixel = 0.02 + 0.08 * ratio * ratio;
+        return Math.round(bitsPerPixel * width * height * frameRate);
+    }
+
+    @Override
+    public String getName() {
+        return encoderName != null ? encoderName : "h264";
+    }
+
+    @Override
+    public EncodedVideoFrame encode(BufferedImage image, long timestamp, boolean keyframe) throws IOException {
+        if (state == null) {
+            open(image.getWidth(), image.getHeight());
+        }
+        NativeState state = this.state;
+        if (image.getWidth() != sourceWidth || image.getHeight() != sourceHeight) {
+            resizeSource(state, image.getWidth(), image.getHeight());
+        }
+        copyPixels(image, state.sourcePixels);
+
+        AVFrame frame = state.frame;
+        check(av_frame_make_writable(frame), "av_frame_make_writable");
+        sws_scale(state.converter, state.sourcePlanes, state.sourceStrides, 0, sourceHeight,
+                  frame.data(), frame.linesize());
+        frame.pts(timestamp);
+        frame.pict_type(keyframe ? AV_PICTURE_TYPE_I : AV_PICTURE_TYPE_NONE);
+
+        check(avcodec_send_frame(state.context, frame), "avcodec_send_frame");
+        AVPacket packet = state.packet;
+        EncodedVideoFrame encoded = null;
+        int result;
+        while ((result = avcodec_receive_packet(state.context, packet)) == 0) {
+            int size = packet.size();
+            if (packetBuffer.length < size) {
+                packetBuffer = new byte[Math.max(size, packetBuffer.length * 2)];
+            }
+            packet.data().get(packetBuffer, 0, size);
+            encoded = new EncodedVideoFrame(EncodedVideoFrame.splitAnnexB(packetBuffer, size),
+                                            packet.pts(), (packet.flags() & AV_PKT_FLAG_KEY) != 0);
+            av_packet_unref(packet);
+        }
+        if (result != AVERROR_EAGAIN()) {
+            check(result, "avcodec_receive_packet");
+        }
+        return encoded;
+    }
+
+    /**
+     * Copies the frame into native memory as 32-bit pixels, the layout of packed int RGB.
+     */
+    private void copyPixels(BufferedImage image, IntPointer sourcePixels) {
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+            && image.getSampleModel() instanceof SinglePixelPackedSampleModel packed) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int stride = packed.getScanlineStride();
+            int origin = originOffset(image.getRaster(), stride);
+            if (stride == sourceWidth) {
+                sourcePixels.position(0).put(pixels, origin, sourceWidth * sourceHeight);
+            } else {
+                for (int y = 0; y < sourceHeight; y++) {
+                    sourcePixels.position((long) y * sourceWidth).put(pixels, origin + y * stride, sourceWidth);
+                }
+            }
+        } else {
+            if (frameBuffer == null || frameBuffer.length < sourceWidth * sourceHeight) {
+                frameBuffer = new int[sourceWidth * sourceHeight];
+            }
+            image.getRGB(0, 0, sourceWidth, sourceHeight, frameBuffer, 0, sourceWidth);
+            sourcePixels.position(0).put(frameBuffer, 0, sourceWidth * sourceHeight);
+        }
+        sourcePixels.position(0);
+    }
+
+    /**
+     * Index of the frame's top-left pixel in its data array, honoring sub-images.
+     */
+    private static int originOffset(Raster raster, int stride) {
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * stride
+               - raster.getSampleModelTranslateX();
+    }
+
+    /**
+     * Opens the codec for pictures of the first frame's size, rounded down to even numbers as
+     * 4:2:0 chroma needs.
+     */
+    private void open(int frameWidth, int frameHeight) throws IOException {
+        AVCodec encoder = findEncoder();
+        if (encoder == null) {
+            throw new IOException("No FFmpeg H.264 encoder available");
+        }
+        av_log_set_level(AV_LOG_ERROR);
+        int pictureWidth = Math.max(2, frameWidth & ~1);
+        int pictureHeight = Math.max(2, frameHeight & ~1);
+
+        NativeState opened = new NativeState();
+        Cleaner.Cleanable openedCleanable = CLEANER.register(this, opened);
+        try {
+            AVCodecContext context = avcodec_alloc_context3(encoder);
+            opened.context = context;
+            context.width(pictureWidth);
+            context.height(pictureHeight);
+            context.pix_fmt(AV_PIX_FMT_YUV420P);
+            context.time_base(av_make_q(1, EncodedVideoFrame.TIMESCALE));
+            context.framerate(av_make_q(frameRate, 1));
+            context.bit_rate(bitrate(quality, pictureWidth, pictureHeight, frameRate));
+            // Keyframes are requested by the caller at segment boundaries
+            context.gop_size(Integer.MAX_VALUE);
+            context.max_b_frames(0);
+            context.flags(context.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+            AVDictionary options = new AVDictionary(null);
+            if ("libx264".equals(encoder.name().getString())) {
+                av_dict_set(options, "preset", "ultrafast", 0);
+                av_dict_set(options, "tune", "zerolatency", 0);
+            } else {
+                av_dict_set(options, "allow_skip_frames", "0", 0);
+            }
+            int result = avcodec_open2(context, encoder, options);
+            av_dict_free(options);
+            check(result, "avcodec_open2");
+
+            opened.frame = av_frame_alloc();
+            opened.frame.format(AV_PIX_FMT_YUV420P);
+            opened.frame.width(pictureWidth);
+            opened.frame.height(pictureHeight);
+            check(av_frame_get_buffer(opened.frame, 0), "av_frame_get_buffer");
+            opened.packet = av_packet_alloc();
+            opened.sourceStrides = new IntPointer(4);
+            opened.sourcePlanes = new PointerPointer<>(4);
+
+            byte[] extradata = new byte[context.extradata_size()];
+            context.extradata().get(extradata);
+            readParameterSets(EncodedVideoFrame.splitAnnexB(extradata, extradata.length));
+        } catch (IOException | RuntimeException e) {
+            openedCleanable.clean();
+            throw e;
+        }
+        state = opened;
+        cleanable = openedCleanable;
+        encoderName = encoder.name().getString();
+        width = pictureWidth;
+        height = pictureHeight;
+        resizeSource(opened, frameWidth, frameHeight);
+    }
+
+    private void readParameterSets(List<byte[]> nalUnits) throws IOException {
+        for (byte[] nalUnit : nalUnits) {
+            if (EncodedVideoFrame.typeOf(nalUnit) == NAL_SPS) {
+                sequenceParameterSet = nalUnit;
+            } else if (EncodedVideoFrame.typeOf(nalUnit) == NAL_PPS) {
+                pictureParameterSet = nalUnit;
+            }
+        }
+        if (sequenceParameterSet == null || pictureParameterSet == null) {
+            throw new IOException("H.264 encoder did not export its parameter sets");
+        }
+    }
+
+    /**
+     * Sets up the converter and source buffer for frames of a new size.
+     */
+    private void resizeSource(NativeState state, int frameWidth, int frameHeight) {
+        // Packed int RGB is B, G, R, X in memory on little-endian machines
+        int sourceFormat = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? AV_PIX_FMT_BGR0 : AV_PIX_FMT_0RGB;
+        state.converter = sws_getCachedContext(state.converter, frameWidth, frameHeight, sourceFormat,
+                                               width, height, AV_PIX_FMT_YUV420P,
+                                               SWS_BILINEAR, null, null, (DoublePointer) null);
+        if (state.sourcePixels != null) {
+            state.sourcePixels.close();
+        }
+        state.sourcePixels = new IntPointer((long) frameWidth * frameHeight);
+        state.sourceStrides.put(0, frameWidth * Integer.BYTES);
+        state.sourcePlanes.put(0, state.sourcePixels);
+        sourceWidth = frameWidth;
+        sourceHeight = frameHeight;
+    }
+
+    private static void check(int result, String call) throws IOException {
+        if (result < 0) {
+            byte[] message = new byte[128];
+            av_strerror(result, message, message.length);
+            int length = 0;
+            while (length < message.length && message[length] != 0) {
+                length++;
+            }
+            throw new IOException(call + " failed: " + new String(message, 0, length));
+        }
+    }
+
+    @Override
+    public byte[] getSequenceParameterSet() {
+        return sequenceParameterSet;
+    }
+
+    @Override
+    public byte[] getPictureParameterSet() {
+        return pictureParameterSet;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public void dispose() {
+        if (cleanable != null) {
+            cleanable.clean();
+            cleanable = null;
+            state = null;
+        }
+    }
+
+    /**
+     * Native objects of one stream. Holds no reference to the encoder, so the cleaner can run it
+     * once the encoder is unreachable.
+     */
+    private static final class NativeState implements Runnable {
+        AVCodecContext context;
+        AVFrame frame;
+        AVPacket packet;
+        SwsContext converter;
+        IntPointer sourcePixels;
+        IntPointer sourceStrides;
+        PointerPointer<IntPointer> sourcePlanes;
+
+        @Override
+        public void run() {
+            if (context != null) {
+                avcodec_free_context(context);
+            }
+            if (frame != null) {
+                av_frame_free(frame);
+            }
+            if (packet != null) {
+                av_packet_free(packet);
+            }
+            if (converter != null) {
+                sws_freeContext(converter);
+            }
+            if (sourcePlanes != null) {
+                sourcePlanes.close();
+                sourceStrides.close();
+            }
+            if (sourcePixels != null) {
+                sourcePixels.close();
+            }
+        }
+    }
+}
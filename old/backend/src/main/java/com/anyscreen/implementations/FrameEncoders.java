@@ -0,0 +1,73 @@
+package com.anyscreen.implementations;
+
+import com.anyscreen.implementations.FfmpegFrameEncoder.Codec;
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.services.JpegFrameEncoder;
+import com.anyscreen.services.LoggerService;
+
+/**
+ * Factory for the frame encoders a stream session can use, selected per session through the
+ * {@value EncodingProfile#PARAM_ENCODER} parameter:
+ * {@code imageio} (the default), {@code ffmpeg-mjpeg} or {@code ffmpeg-webp}.
+ * The FFmpeg encoders need the javacv natives for the platform; without them the session falls
+ * back to ImageIO.
+ */
+public class FrameEncoders {
+
+    private FrameEncoders() {}
+
+    /**
+     * Creates the encoder a session configuration asks for.
+     * @param config The session configuration
+     * @return the encoder, or the ImageIO encoder if the requested FFmpeg encoder is unavailable
+     * @throws IllegalArgumentException if the encoder name is unknown
+     */
+    public static FrameEncoderInterface forConfig(StreamingConfig config) {
+        String name = EncodingProfile.of(config).getEncoder();
+        Codec codec = codecOf(name);
+        if (codec != null && !FfmpegFrameEncoder.isAvailable(codec)) {
+            LoggerService.warn("FFmpeg encoder " + codec.getEncoderName() + " unavailable, using ImageIO");
+            return JpegFrameEncoder.forConfig(config);
+        }
+        return create(name, config);
+    }
+
+    /**
+     * Creates an encoder from its name.
+     * @param name Encoder name, see {@link #isKnown}
+     * @param config Configuration supplying quality and encoder options
+     * @return the encoder
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static FrameEncoderInterface create(String name, StreamingConfig config) {
+        if (name == null || name.isBlank() || JpegFrameEncoder.NAME.equalsIgnoreCase(name.trim())) {
+            return JpegFrameEncoder.forConfig(config);
+        }
+        Codec codec = codecOf(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown frame encoder: " + name);
+        }
+        return new FfmpegFrameEncoder(codec, config.getQuality());
+    }
+
+    /**
+     * @return true if the name selects an encoder, whether or not it is available on this platform
+     */
+    public static boolean isKnown(String name) {
+        return name != null && (JpegFrameEncoder.NAME.equalsIgnoreCase(name.trim()) || codecOf(name) != null);
+    }
+
+    private static Codec codecOf(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Codec codec : Codec.values()) {
+            if (codec.getName().equalsIgnoreCase(name.trim())) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+package com.anyscreen.implementations;
+
+import com.anyscreen.interfaces.ImageOpsInterface;
+import com.anyscreen.services.LoggerService;
+
+/**
+ * Factory for the image kernels.
+ * The vector kernels need the incubating {@code jdk.incubator.vector} module, which is only
+ * resolved when the JVM is started with {@code --add-modules jdk.incubator.vector}; without it
+ * the scalar kernels are used, with identical results.
+ */
+public class ImageOpsBackends {
+
+    /**
+     * System property selecting the kernels: {@code auto} (the default), {@code vector} or {@code scalar}.
+     */
+    public static final String IMAGE_OPS_PROPERTY = "anyscreen.imageOps";
+    public static final String DEFAULT_BACKEND = "auto";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASS = "com.anyscreen.implementations.VectorImageOps";
+
+    private ImageOpsBackends() {}
+
+    /**
+     * Lazily created default, so the vector module is only probed once and only when needed.
+     */
+    private static final class DefaultHolder {
+        static final ImageOpsInterface INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * @return the shared kernels selected by the {@value #IMAGE_OPS_PROPERTY} system property
+     */
+    public static ImageOpsInterface get() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Creates the kernels selected by the {@value #IMAGE_OPS_PROPERTY} system property.
+     */
+    public static ImageOpsInterface fromSystemProperties() {
+        ImageOpsInterface ops = create(System.getProperty(IMAGE_OPS_PROPERTY, DEFAULT_BACKEND));
+        LoggerService.info("Image kernels: " + ops.getName());
+        return ops;
+    }
+
+    /**
+     * Creates kernels from their name.
+     * @param spec {@code auto} for the vector kernels when available and the scalar ones otherwise,
+     *             {@code vector} or {@code scalar}
+     * @return the kernels
+     * @throws IllegalArgumentException if the name is unknown, or {@code vector} is requested but unavailable
+     */
+    public static ImageOpsInterface create(String spec) {
+        String type = spec == null || spec.isBlank() ? DEFAULT_BACKEND : spec.trim().toLowerCase();
+        switch (type) {
+            case "scalar":
+                return new ScalarImageOps();
+            case "vector": {
+                ImageOpsInterface vector = createVector();
+                if (vector == null) {
+                    throw new IllegalArgumentException("Vector kernels need --add-modules " + VECTOR_MODULE);
+                }
+                return vector;
+            }
+            case "auto": {
+                ImageOpsInterface vector = createVector();
+                return vector != null ? vector : new ScalarImageOps();
+            }
+            default:
+                throw new IllegalArgumentException("Unknown image kernels: " + spec);
+        }
+    }
+
+    /**
+     * @return true if the JVM was started with the vector module
+     */
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+
+    /**
+     * Loads the vector kernels reflectively, so this class links without the module.
+     * @return the kernels, or null if unavailable
+     */
+    private static ImageOpsInterface createVector() {
+        if (!isVectorAvailable()) {
+            return null;
+        }
+        try {
+            return (ImageOpsInterface) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LoggerService.warn("Vector kernels unavailable: " + e);
+            return null;
+        }
+    }
+}
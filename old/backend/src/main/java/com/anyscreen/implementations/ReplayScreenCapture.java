@@ -0,0 +1,182 @@
+package com.anyscreen.implementations;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.models.ScreenInfo;
+
+/**
+ * Replays a recorded frame trace as a single screen, for reproducible headless benchmarks.
+ * A trace is either a directory of images, played in file name order, or a file of concatenated
+ * JPEG frames such as a saved {@code /stream} response. All frames are decoded up front so
+ * replay cost does not depend on the codec, and every capture returns the next frame, looping
+ * at the end of the trace.
+ */
+public class ReplayScreenCapture implements ScreenCaptureInterface {
+
+    private static final String DEVICE_ID = "replay";
+
+    private final List<int[]> frames;
+    private final int width;
+    private final int height;
+    private final AtomicLong position = new AtomicLong(0);
+
+    /**
+     * @param frames Recorded frames; all must have the size of the first one
+     * @throws ScreenCaptureException if the trace is empty or its frame sizes differ
+     */
+    public ReplayScreenCapture(List<BufferedImage> frames) throws ScreenCaptureException {
+        if (frames == null || frames.isEmpty()) {
+            throw new ScreenCaptureException("Replay trace contains no frames");
+        }
+        this.width = frames.get(0).getWidth();
+        this.height = frames.get(0).getHeight();
+        this.frames = new ArrayList<>(frames.size());
+        for (BufferedImage frame : frames) {
+            if (frame.getWidth() != width || frame.getHeight() != height) {
+                throw new ScreenCaptureException("Replay frames must all be " + width + "x" + height +
+                                                 ", found " + frame.getWidth() + "x" + frame.getHeight());
+            }
+            this.frames.add(frame.getRGB(0, 0, width, height, null, 0, width));
+        }
+    }
+
+    /**
+     * Loads a trace from disk.
+     * @param trace A directory of image files or a file of concatenated JPEG frames
+     * @return the replay source
+     * @throws ScreenCaptureException if the trace cannot be read or holds no frames
+     */
+    public static ReplayScreenCapture fromPath(Path trace) throws ScreenCaptureException {
+        try {
+            if (Files.isDirectory(trace)) {
+                return new ReplayScreenCapture(readImageDirectory(trace));
+            }
+            return new ReplayScreenCapture(readConcatenatedJpegs(Files.readAllBytes(trace)));
+        } catch (IOException e) {
+            throw new ScreenCaptureException("Failed to read replay trace " + trace + ": " + e.getMessage());
+        }
+    }
+
+    private static List<BufferedImage> readImageDirectory(Path directory) throws IOException {
+        List<BufferedImage> images = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                BufferedImage image = ImageIO.read(file.toFile());
+                if (image != null) {
+                    images.add(image);
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Splits a byte stream on JPEG start and end of image markers, skipping anything in between
+     * such as multipart boundaries and part headers.
+     */
+    static List<BufferedImage> readConcatenatedJpegs(byte[] data) throws IOException {
+        List<BufferedImage> images = new ArrayList<>();
+        int start = indexOf(data, 0, (byte) 0xD8);
+        while (start >= 0) {
+            int end = indexOf(data, start + 2, (byte) 0xD9);
+            if (end < 0) {
+                break;
+            }
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(Arrays.copyOfRange(data, start, end + 2)));
+            if (image != null) {
+                images.add(image);
+            }
+            start = indexOf(data, end + 2, (byte) 0xD8);
+        }
+        return images;
+    }
+
+    /**
+     * @return index of the next 0xFF marker byte followed by the given marker, or -1
+     */
+    private static int indexOf(byte[] data, int from, byte marker) {
+        for (int i = from; i < data.length - 1; i++) {
+            if (data[i] == (byte) 0xFF && data[i + 1] == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public BufferedImage captureScreen() throws ScreenCaptureException {
+        return captureScreen(0);
+    }
+
+    public BufferedImage captureRegion(Rectangle region) throws ScreenCaptureException {
+        if (region == null) {
+            throw new ScreenCaptureException("Region cannot be null");
+        }
+        if (!getPrimaryScreenBounds().contains(region)) {
+            throw new ScreenCaptureException("Region must lie within the replayed screen: " + region);
+        }
+        BufferedImage frame = captureScreen(0);
+        BufferedImage copy = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        copy.createGraphics().drawImage(frame.getSubimage(region.x, region.y, region.width, region.height), 0, 0, null);
+        return copy;
+    }
+
+    public BufferedImage captureScreen(int screenIndex) throws ScreenCaptureException {
+        return captureScreen(screenIndex, null);
+    }
+
+    /**
+     * Copies the next frame straight into the target when it is a packed int RGB image of the
+     * trace size.
+     */
+    public BufferedImage captureScreen(int screenIndex, BufferedImage target) throws ScreenCaptureException {
+        if (screenIndex != 0) {
+            throw new ScreenCaptureException("Invalid screen index: " + screenIndex + ". Available screens: 0-0");
+        }
+        if (target == null || target.getType() != BufferedImage.TYPE_INT_RGB
+            || target.getWidth() != width || target.getHeight() != height
+            || ((DataBufferInt) target.getRaster().getDataBuffer()).getData().length != width * height) {
+            target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] frame = frames.get((int) (position.getAndIncrement() % frames.size()));
+        System.arraycopy(frame, 0, ((DataBufferInt) target.getRaster().getDataBuffer()).getData(), 0, frame.length);
+        return target;
+    }
+
+    public List<ScreenInfo> getAvailableScreens() {
+        return List.of(new ScreenInfo(0, getPrimaryScreenBounds(), true, DEVICE_ID));
+    }
+
+    public Rectangle getPrimaryScreenBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    public boolean isSupported() {
+        return true;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * @return how many frames have been captured so far
+     */
+    public long getPosition() {
+        return position.get();
+    }
+}
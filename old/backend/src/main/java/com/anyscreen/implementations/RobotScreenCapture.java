@@ -6,6 +6,7 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,6 +45,32 @@ public class RobotScreenCapture implements ScreenCaptureInterface {
     }
     
     public BufferedImage captureScreen(int screenIndex) throws ScreenCaptureException {
+        return robot.createScreenCapture(getScreenBounds(screenIndex));
+    }
+    
+    /**
+     * Robot always hands back its own pixel array, so a compatible target is filled with a single
+     * array copy and the Robot image is dropped right away; only that backend copy is allocated.
+     */
+    public BufferedImage captureScreen(int screenIndex, BufferedImage target) throws ScreenCaptureException {
+        BufferedImage capture = robot.createScreenCapture(getScreenBounds(screenIndex));
+        if (target == null || target.getType() != capture.getType()
+            || target.getWidth() != capture.getWidth() || target.getHeight() != capture.getHeight()
+            || !(capture.getRaster().getDataBuffer() instanceof DataBufferInt)
+            || !(target.getRaster().getDataBuffer() instanceof DataBufferInt)) {
+            return capture;
+        }
+        
+        int[] source = ((DataBufferInt) capture.getRaster().getDataBuffer()).getData();
+        int[] pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        if (source.length != pixels.length) {
+            return capture;
+        }
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        return target;
+    }
+    
+    private Rectangle getScreenBounds(int screenIndex) throws ScreenCaptureException {
         GraphicsDevice[] screens = graphicsEnvironment.getScreenDevices();
         
         if (screenIndex < 0 || screenIndex >= screens.length) {
@@ -52,8 +79,7 @@ public class RobotScreenCapture implements ScreenCaptureInterface {
             );
         }
         
-        Rectangle bounds = screens[screenIndex].getDefaultConfiguration().getBounds();
-        return robot.createScreenCapture(bounds);
+        return screens[screenIndex].getDefaultConfiguration().getBounds();
     }
     
     public List<ScreenInfo> getAvailableScreens() {
@@ -0,0 +1,226 @@
+package com.anyscreen.implementations;
+
+import java.util.Arrays;
+
+import com.anyscreen.interfaces.ImageOpsInterface;
+
+/**
+ * Plain Java image kernels, one pixel at a time.
+ * The reference implementation, used when the Vector API is not available. The row kernels are
+ * protected so {@link VectorImageOps} can replace them while keeping the frame-level loops.
+ */
+public class ScalarImageOps implements ImageOpsInterface {
+
+    // Bilinear weights are 8-bit fixed point
+    protected static final int WEIGHT_BITS = 8;
+    protected static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    // Fixed-point BT.601 coefficients, scaled by 2^16 as in libjpeg
+    protected static final int Y_R = 19595;
+    protected static final int Y_G = 38470;
+    protected static final int Y_B = 7471;
+    protected static final int CB_R = -11059;
+    protected static final int CB_G = -21709;
+    protected static final int CB_B = 32768;
+    protected static final int CR_R = 32768;
+    protected static final int CR_G = -27439;
+    protected static final int CR_B = -5329;
+    protected static final int Y_ROUNDING = 1 << 15;
+    // 128 offset plus rounding, biased down by one so full-scale chroma stays within 255
+    protected static final int CHROMA_OFFSET = (128 << 16) + (1 << 15) - 1;
+
+    // Averages multiply by 40-bit reciprocals, exact for sums of up to 65536 8-bit samples
+    private static final int RECIPROCAL_BITS = 40;
+    private static final int MAX_RECIPROCAL_COUNT = 1 << 16;
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void accumulateRow(int[] pixels, int offset, int length, int[] red, int[] green, int[] blue) {
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[offset + i];
+            red[i] += (pixel >> 16) & 0xFF;
+            green[i] += (pixel >> 8) & 0xFF;
+            blue[i] += pixel & 0xFF;
+        }
+    }
+
+    @Override
+    public void downscaleBox(int[] source, int sourceOffset, int sourceStride, int sourceWidth, int sourceHeight,
+                             int[] target, int targetWidth, int targetHeight) {
+        if (targetWidth > sourceWidth || targetHeight > sourceHeight) {
+            throw new IllegalArgumentException("Box filter only shrinks: " + sourceWidth + "x" + sourceHeight
+                                               + " to " + targetWidth + "x" + targetHeight);
+        }
+        int[] red = new int[sourceWidth];
+        int[] green = new int[sourceWidth];
+        int[] blue = new int[sourceWidth];
+        long[] reciprocals = reciprocals(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        int[] columnStarts = new int[targetWidth];
+        int[] columnEnds = new int[targetWidth];
+        for (int x = 0; x < targetWidth; x++) {
+            columnStarts[x] = spanStart(x, sourceWidth, targetWidth);
+            columnEnds[x] = spanEnd(x, sourceWidth, targetWidth);
+        }
+        for (int y = 0; y < targetHeight; y++) {
+            int rowStart = spanStart(y, sourceHeight, targetHeight);
+            int rowEnd = spanEnd(y, sourceHeight, targetHeight);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            for (int sy = rowStart; sy < rowEnd; sy++) {
+                accumulateRow(source, sourceOffset + sy * sourceStride, sourceWidth, red, green, blue);
+            }
+            int rows = rowEnd - rowStart;
+            int targetRow = y * targetWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                target[targetRow + x] = average(red, green, blue, columnStarts[x], columnEnds[x], rows, reciprocals);
+            }
+        }
+    }
+
+    /**
+     * First source index covered by output index i; spans are near-equal and never empty.
+     */
+    public static int spanStart(int i, int sourceLength, int targetLength) {
+        return (int) ((long) i * sourceLength / targetLength);
+    }
+
+    /**
+     * Source index after the span of output index i.
+     */
+    public static int spanEnd(int i, int sourceLength, int targetLength) {
+        return Math.max(spanStart(i, sourceLength, targetLength) + 1,
+                        (int) ((long) (i + 1) * sourceLength / targetLength));
+    }
+
+    /**
+     * Reciprocals of every pixel count a box filter between the given sizes averages over, so
+     * averaging needs no division.
+     * @return the reciprocals indexed by count, or null if the spans are too large for them
+     */
+    public static long[] reciprocals(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        long maxCount = (long) spanEnd(0, sourceWidth, targetWidth) * spanEnd(0, sourceHeight, targetHeight);
+        // Spans differ by at most one pixel
+        maxCount += spanEnd(0, sourceWidth, targetWidth) + spanEnd(0, sourceHeight, targetHeight) + 1;
+        if (maxCount > MAX_RECIPROCAL_COUNT) {
+            return null;
+        }
+        long[] reciprocals = new long[(int) maxCount + 1];
+        for (int count = 1; count <= maxCount; count++) {
+            reciprocals[count] = ((1L << RECIPROCAL_BITS) + count - 1) / count;
+        }
+        return reciprocals;
+    }
+
+    /**
+     * Rounded average of the column sums in [from, to), over the given number of rows.
+     * @param reciprocals Result of {@link #reciprocals} for the sizes being scaled, or null to divide
+     */
+    public static int average(int[] red, int[] green, int[] blue, int from, int to, int rows, long[] reciprocals) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int i = from; i < to; i++) {
+            r += red[i];
+            g += green[i];
+            b += blue[i];
+        }
+        int count = rows * (to - from);
+        int half = count >> 1;
+        if (reciprocals == null) {
+            return ((r + half) / count) << 16 | ((g + half) / count) << 8 | ((b + half) / count);
+        }
+        long reciprocal = reciprocals[count];
+        return (int) ((r + half) * reciprocal >>> RECIPROCAL_BITS) << 16
+               | (int) ((g + half) * reciprocal >>> RECIPROCAL_BITS) << 8
+               | (int) ((b + half) * reciprocal >>> RECIPROCAL_BITS);
+    }
+
+    @Override
+    public void downscaleBilinear(int[] source, int sourceOffset, int sourceStride, int sourceWidth, int sourceHeight,
+                                  int[] target, int targetWidth, int targetHeight) {
+        // Pixel centres are aligned, so shrinking by 2x averages neighbouring pairs
+        int[] left = new int[targetWidth];
+        int[] right = new int[targetWidth];
+        int[] weights = new int[targetWidth];
+        for (int x = 0; x < targetWidth; x++) {
+            int position = samplePosition(x, sourceWidth, targetWidth);
+            left[x] = position >> WEIGHT_BITS;
+            right[x] = Math.min(left[x] + 1, sourceWidth - 1);
+            weights[x] = position & (WEIGHT_ONE - 1);
+        }
+        for (int y = 0; y < targetHeight; y++) {
+            int position = samplePosition(y, sourceHeight, targetHeight);
+            int top = position >> WEIGHT_BITS;
+            int bottom = Math.min(top + 1, sourceHeight - 1);
+            interpolateRow(source, sourceOffset + top * sourceStride, sourceOffset + bottom * sourceStride,
+                           position & (WEIGHT_ONE - 1), left, right, weights, target, y * targetWidth, targetWidth);
+        }
+    }
+
+    /**
+     * Source coordinate of an output pixel centre, in fixed point, clamped to the source.
+     */
+    private static int samplePosition(int i, int sourceLength, int targetLength) {
+        long position = (((2L * i + 1) * sourceLength << WEIGHT_BITS) / targetLength - WEIGHT_ONE) / 2;
+        return (int) Math.max(0, Math.min(position, (long) (sourceLength - 1) << WEIGHT_BITS));
+    }
+
+    /**
+     * Interpolates one output row between two source rows.
+     * @param topRow Index of the upper source row's first pixel
+     * @param bottomRow Index of the lower source row's first pixel
+     * @param weightY Weight of the lower row, 0 to {@link #WEIGHT_ONE} - 1
+     * @param left Column of the left source pixel of every output pixel
+     * @param right Column of the right source pixel of every output pixel
+     * @param weights Weight of the right source pixel of every output pixel
+     */
+    protected void interpolateRow(int[] source, int topRow, int bottomRow, int weightY,
+                                  int[] left, int[] right, int[] weights, int[] target, int targetRow, int width) {
+        for (int x = 0; x < width; x++) {
+            target[targetRow + x] = interpolate(source[topRow + left[x]], source[topRow + right[x]],
+                                                source[bottomRow + left[x]], source[bottomRow + right[x]],
+                                                weights[x], weightY);
+        }
+    }
+
+    protected static int interpolate(int topLeft, int topRight, int bottomLeft, int bottomRight,
+                                     int weightX, int weightY) {
+        int result = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int top = ((topLeft >> shift) & 0xFF) * (WEIGHT_ONE - weightX) + ((topRight >> shift) & 0xFF) * weightX;
+            int bottom = ((bottomLeft >> shift) & 0xFF) * (WEIGHT_ONE - weightX) + ((bottomRight >> shift) & 0xFF) * weightX;
+            int value = (top * (WEIGHT_ONE - weightY) + bottom * weightY + (1 << (2 * WEIGHT_BITS - 1))) >> (2 * WEIGHT_BITS);
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    @Override
+    public void toYCbCr(int[] source, int sourceOffset, int sourceStride, int width, int height,
+                        byte[] luma, byte[] blueChroma, byte[] redChroma) {
+        for (int y = 0; y < height; y++) {
+            convertRow(source, sourceOffset + y * sourceStride, width, luma, blueChroma, redChroma, y * width);
+        }
+    }
+
+    /**
+     * Converts one row of pixels into the three planes.
+     */
+    protected void convertRow(int[] source, int offset, int length,
+                              byte[] luma, byte[] blueChroma, byte[] redChroma, int planeOffset) {
+        for (int i = 0; i < length; i++) {
+            int pixel = source[offset + i];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            luma[planeOffset + i] = (byte) ((Y_R * r + Y_G * g + Y_B * b + Y_ROUNDING) >> 16);
+            blueChroma[planeOffset + i] = (byte) ((CB_R * r + CB_G * g + CB_B * b + CHROMA_OFFSET) >> 16);
+            redChroma[planeOffset + i] = (byte) ((CR_R * r + CR_G * g + CR_B * b + CHROMA_OFFSET) >> 16);
+        }
+    }
+}
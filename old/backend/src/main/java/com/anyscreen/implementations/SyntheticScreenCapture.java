@@ -0,0 +1,277 @@
+package com.anyscreen.implementations;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.models.ScreenInfo;
+
+/**
+ * Deterministic synthetic screen source for headless load testing.
+ * Renders a number of virtual screens, laid out side by side, each showing a desktop with a
+ * configurable motion pattern. Every capture of a screen advances that screen's frame counter,
+ * so the N-th capture always yields the same pixels regardless of timing or host.
+ */
+public class SyntheticScreenCapture implements ScreenCaptureInterface {
+
+    /**
+     * What changes between frames.
+     */
+    public enum MotionPattern {
+        /** The desktop never changes */
+        STATIC,
+        /** An editor window whose text scrolls a few lines per frame */
+        SCROLLING_TEXT,
+        /** An editor window where one character is typed per frame, like office work */
+        TYPING,
+        /** A video-like window where every pixel changes every frame */
+        NOISE;
+
+        public static MotionPattern fromName(String name) {
+            for (MotionPattern pattern : values()) {
+                if (pattern.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                    return pattern;
+                }
+            }
+            throw new IllegalArgumentException("Unknown motion pattern: " + name);
+        }
+    }
+
+    private static final int SCROLL_PIXELS_PER_FRAME = 6;
+    private static final int TEXT_LINE_HEIGHT = 18;
+    private static final int TEXT_LINES = 200;
+    private static final int TYPED_PIXELS_PER_FRAME = 8;
+    private static final int CURSOR_WIDTH = 2;
+
+    private final int width;
+    private final int height;
+    private final MotionPattern pattern;
+    private final List<VirtualScreen> screens = new ArrayList<>();
+
+    /**
+     * @param width Width of every virtual screen
+     * @param height Height of every virtual screen
+     * @param screenCount Number of virtual screens
+     * @param pattern Motion pattern shown on every screen
+     */
+    public SyntheticScreenCapture(int width, int height, int screenCount, MotionPattern pattern) {
+        if (width < 64 || height < 64) {
+            throw new IllegalArgumentException("Synthetic screens must be at least 64x64: " + width + "x" + height);
+        }
+        if (screenCount < 1) {
+            throw new IllegalArgumentException("At least one synthetic screen is required: " + screenCount);
+        }
+        this.width = width;
+        this.height = height;
+        this.pattern = pattern;
+        for (int i = 0; i < screenCount; i++) {
+            screens.add(new VirtualScreen(i));
+        }
+    }
+
+    public BufferedImage captureScreen() throws ScreenCaptureException {
+        return captureScreen(0);
+    }
+
+    public BufferedImage captureRegion(Rectangle region) throws ScreenCaptureException {
+        if (region == null) {
+            throw new ScreenCaptureException("Region cannot be null");
+        }
+        int screenIndex = region.x / width;
+        Rectangle bounds = new Rectangle(screenIndex * width, 0, width, height);
+        if (region.x < 0 || !bounds.contains(region)) {
+            throw new ScreenCaptureException("Region must lie within one synthetic screen: " + region);
+        }
+
+        BufferedImage frame = captureScreen(screenIndex);
+        BufferedImage copy = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        copy.createGraphics().drawImage(frame.getSubimage(region.x - bounds.x, region.y, region.width, region.height), 0, 0, null);
+        return copy;
+    }
+
+    public BufferedImage captureScreen(int screenIndex) throws ScreenCaptureException {
+        return captureScreen(screenIndex, null);
+    }
+
+    /**
+     * Renders the next frame straight into the target when it is a packed int RGB image of the
+     * screen size, so pooled capture loops allocate nothing.
+     */
+    public BufferedImage captureScreen(int screenIndex, BufferedImage target) throws ScreenCaptureException {
+        VirtualScreen screen = getScreen(screenIndex);
+        if (target == null || target.getType() != BufferedImage.TYPE_INT_RGB
+            || target.getWidth() != width || target.getHeight() != height
+            || ((DataBufferInt) target.getRaster().getDataBuffer()).getData().length != width * height) {
+            target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        screen.render(((DataBufferInt) target.getRaster().getDataBuffer()).getData());
+        return target;
+    }
+
+    private VirtualScreen getScreen(int screenIndex) throws ScreenCaptureException {
+        if (screenIndex < 0 || screenIndex >= screens.size()) {
+            throw new ScreenCaptureException(
+                "Invalid screen index: " + screenIndex + ". Available screens: 0-" + (screens.size() - 1)
+            );
+        }
+        return screens.get(screenIndex);
+    }
+
+    public List<ScreenInfo> getAvailableScreens() {
+        List<ScreenInfo> infos = new ArrayList<>();
+        for (int i = 0; i < screens.size(); i++) {
+            infos.add(new ScreenInfo(i, new Rectangle(i * width, 0, width, height), i == 0, "synthetic-" + i));
+        }
+        return infos;
+    }
+
+    public Rectangle getPrimaryScreenBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    public boolean isSupported() {
+        return true;
+    }
+
+    public MotionPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param screenIndex The virtual screen
+     * @return how many frames the screen has produced
+     */
+    public long getFrameCount(int screenIndex) throws ScreenCaptureException {
+        return getScreen(screenIndex).frame.get();
+    }
+
+    /**
+     * One virtual screen: a pre-rendered desktop plus the moving part of the pattern.
+     * The window holding the motion sits in the middle of the screen.
+     */
+    private class VirtualScreen {
+        private final int[] desktop;
+        private final Rectangle window;
+        private final int[] text;
+        private final AtomicLong frame = new AtomicLong(0);
+
+        VirtualScreen(int index) {
+            window = new Rectangle(width / 4, height / 4, width / 2, height / 2);
+            desktop = renderDesktop(index);
+            text = pattern == MotionPattern.SCROLLING_TEXT || pattern == MotionPattern.TYPING ? renderText(index) : null;
+        }
+
+        private int[] renderDesktop(int index) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            float hue = index * 0.17f;
+            g.setPaint(new GradientPaint(0, 0, Color.getHSBColor(hue, 0.6f, 0.5f),
+                                         width, height, Color.getHSBColor(hue + 0.3f, 0.7f, 0.8f)));
+            g.fillRect(0, 0, width, height);
+            g.setColor(new Color(40, 40, 40));
+            g.fillRect(0, height - 32, width, 32);
+            g.setColor(Color.WHITE);
+            g.fillRect(window.x, window.y, window.width, window.height);
+            g.setColor(new Color(60, 60, 90));
+            g.fillRect(window.x, window.y - 24, window.width, 24);
+            g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+            g.setColor(Color.WHITE);
+            g.drawString("Synthetic screen " + index + " - " + pattern, window.x + 8, window.y - 7);
+            g.dispose();
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        private int[] renderText(int index) {
+            BufferedImage image = new BufferedImage(window.width, TEXT_LINES * TEXT_LINE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+            g.setColor(Color.DARK_GRAY);
+            for (int line = 0; line < TEXT_LINES; line++) {
+                g.drawString(String.format("%04d  screen%d.render(frame[%d], 0x%08X);", line, index, line * 7, line * 2654435761L & 0xFFFFFFFFL),
+                             8, (line + 1) * TEXT_LINE_HEIGHT - 4);
+            }
+            g.dispose();
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        void render(int[] pixels) {
+            long n = frame.getAndIncrement();
+            System.arraycopy(desktop, 0, pixels, 0, desktop.length);
+            switch (pattern) {
+                case SCROLLING_TEXT:
+                    renderScrollingText(pixels, n);
+                    break;
+                case TYPING:
+                    renderTyping(pixels, n);
+                    break;
+                case NOISE:
+                    renderNoise(pixels, n);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void renderScrollingText(int[] pixels, long n) {
+            int textHeight = TEXT_LINES * TEXT_LINE_HEIGHT;
+            int scroll = (int) ((n * SCROLL_PIXELS_PER_FRAME) % textHeight);
+            for (int y = 0; y < window.height; y++) {
+                int sourceRow = (scroll + y) % textHeight;
+                System.arraycopy(text, sourceRow * window.width, pixels, (window.y + y) * width + window.x, window.width);
+            }
+        }
+
+        /**
+         * Reveals the text one character width per frame behind a cursor, starting over on an
+         * empty page once the window is full.
+         */
+        private void renderTyping(int[] pixels, long n) {
+            int framesPerLine = window.width / TYPED_PIXELS_PER_FRAME;
+            int linesPerPage = window.height / TEXT_LINE_HEIGHT;
+            int line = (int) ((n / framesPerLine) % linesPerPage);
+            int typed = (int) (n % framesPerLine) * TYPED_PIXELS_PER_FRAME;
+            for (int y = 0; y < (line + 1) * TEXT_LINE_HEIGHT; y++) {
+                int length = y < line * TEXT_LINE_HEIGHT ? window.width : typed;
+                System.arraycopy(text, y * window.width, pixels, (window.y + y) * width + window.x, length);
+            }
+            for (int y = line * TEXT_LINE_HEIGHT; y < (line + 1) * TEXT_LINE_HEIGHT; y++) {
+                int row = (window.y + y) * width + window.x + typed;
+                for (int x = 0; x < CURSOR_WIDTH && typed + x < window.width; x++) {
+                    pixels[row + x] = 0x202020;
+                }
+            }
+        }
+
+        /**
+         * A moving color wash with per-pixel grain from a frame-seeded xorshift generator.
+         */
+        private void renderNoise(int[] pixels, long n) {
+            int seed = (int) (n * 0x9E3779B9L) | 1;
+            int shift = (int) (n * 3);
+            for (int y = 0; y < window.height; y++) {
+                int row = (window.y + y) * width + window.x;
+                for (int x = 0; x < window.width; x++) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 17;
+                    seed ^= seed << 5;
+                    int grain = seed & 0x3F;
+                    int r = ((x + shift) & 0xFF) / 2 + grain;
+                    int g = ((y + shift) & 0xFF) / 2 + grain;
+                    int b = ((x + y) & 0xFF) / 2 + grain;
+                    pixels[row + x] = (r << 16) | (g << 8) | b;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.anyscreen.implementations;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Image kernels on the Vector API, processing as many pixels per instruction as the CPU's
+ * widest integer vectors hold (8 with AVX2, 16 with AVX-512). Channels are unpacked from the
+ * packed pixels with lane-wise shifts and masks; bilinear sampling gathers its source pixels
+ * through the precomputed column indexes. Row tails shorter than a vector are finished one
+ * pixel at a time with the same arithmetic, so results equal {@link ScalarImageOps} bit for bit.
+ * Needs {@code --add-modules jdk.incubator.vector}; {@link ImageOpsBackends} only creates it then.
+ */
+public class VectorImageOps extends ScalarImageOps {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // Bytes for one int vector's lanes; the smallest byte vector is 64 bits, so 4-lane ints use half of one
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+        VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, LANES * Byte.SIZE)));
+    private static final VectorMask<Byte> BYTE_LANES = BYTE_SPECIES.indexInRange(0, LANES);
+
+    @Override
+    public String getName() {
+        return "vector-" + LANES + "x32";
+    }
+
+    @Override
+    public void accumulateRow(int[] pixels, int offset, int length, int[] red, int[] green, int[] blue) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            IntVector pixel = IntVector.fromArray(SPECIES, pixels, offset + i);
+            IntVector.fromArray(SPECIES, red, i).add(channel(pixel, 16)).intoArray(red, i);
+            IntVector.fromArray(SPECIES, green, i).add(channel(pixel, 8)).intoArray(green, i);
+            IntVector.fromArray(SPECIES, blue, i).add(channel(pixel, 0)).intoArray(blue, i);
+        }
+        for (; i < length; i++) {
+            int pixel = pixels[offset + i];
+            red[i] += (pixel >> 16) & 0xFF;
+            green[i] += (pixel >> 8) & 0xFF;
+            blue[i] += pixel & 0xFF;
+        }
+    }
+
+    @Override
+    protected void interpolateRow(int[] source, int topRow, int bottomRow, int weightY,
+                                  int[] left, int[] right, int[] weights, int[] target, int targetRow, int width) {
+        int bound = SPECIES.loopBound(width);
+        int x = 0;
+        for (; x < bound; x += LANES) {
+            IntVector weightRight = IntVector.fromArray(SPECIES, weights, x);
+            IntVector weightLeft = weightRight.neg().add(WEIGHT_ONE);
+            IntVector topLeft = IntVector.fromArray(SPECIES, source, topRow, left, x);
+            IntVector topRight = IntVector.fromArray(SPECIES, source, topRow, right, x);
+            IntVector bottomLeft = IntVector.fromArray(SPECIES, source, bottomRow, left, x);
+            IntVector bottomRight = IntVector.fromArray(SPECIES, source, bottomRow, right, x);
+            IntVector result = IntVector.zero(SPECIES);
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                IntVector top = channel(topLeft, shift).mul(weightLeft).add(channel(topRight, shift).mul(weightRight));
+                IntVector bottom = channel(bottomLeft, shift).mul(weightLeft).add(channel(bottomRight, shift).mul(weightRight));
+                IntVector value = top.mul(WEIGHT_ONE - weightY).add(bottom.mul(weightY))
+                    .add(1 << (2 * WEIGHT_BITS - 1)).lanewise(VectorOperators.LSHR, 2 * WEIGHT_BITS);
+                result = result.or(value.lanewise(VectorOperators.LSHL, shift));
+            }
+            result.intoArray(target, targetRow + x);
+        }
+        for (; x < width; x++) {
+            target[targetRow + x] = interpolate(source[topRow + left[x]], source[topRow + right[x]],
+                                                source[bottomRow + left[x]], source[bottomRow + right[x]],
+                                                weights[x], weightY);
+        }
+    }
+
+    @Override
+    protected void convertRow(int[] source, int offset, int length,
+                              byte[] luma, byte[] blueChroma, byte[] redChroma, int planeOffset) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            IntVector pixel = IntVector.fromArray(SPECIES, source, offset + i);
+            IntVector r = channel(pixel, 16);
+            IntVector g = channel(pixel, 8);
+            IntVector b = channel(pixel, 0);
+            store(r.mul(Y_R).add(g.mul(Y_G)).add(b.mul(Y_B)).add(Y_ROUNDING), luma, planeOffset + i);
+            store(r.mul(CB_R).add(g.mul(CB_G)).add(b.mul(CB_B)).add(CHROMA_OFFSET), blueChroma, planeOffset + i);
+            store(r.mul(CR_R).add(g.mul(CR_G)).add(b.mul(CR_B)).add(CHROMA_OFFSET), redChroma, planeOffset + i);
+        }
+        if (i < length) {
+            super.convertRow(source, offset + i, length - i, luma, blueChroma, redChroma, planeOffset + i);
+        }
+    }
+
+    private static IntVector channel(IntVector pixels, int shift) {
+        return (shift == 0 ? pixels : pixels.lanewise(VectorOperators.LSHR, shift)).and(0xFF);
+    }
+
+    /**
+     * Stores the top 16 bits of every lane as one byte each.
+     */
+    private static void store(IntVector fixedPoint, byte[] plane, int offset) {
+        ((ByteVector) fixedPoint.lanewise(VectorOperators.ASHR, 16).convertShape(VectorOperators.I2B, BYTE_SPECIES, 0))
+            .intoArray(plane, offset, BYTE_LANES);
+    }
+}
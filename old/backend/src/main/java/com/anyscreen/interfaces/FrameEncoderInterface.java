@@ -0,0 +1,36 @@
+package com.anyscreen.interfaces;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes single captured frames into a still image format a browser can show on its own.
+ * Implementations keep their codec state between frames and are not thread-safe; each stream
+ * session owns its encoder and serializes calls on it.
+ */
+public interface FrameEncoderInterface {
+
+    /**
+     * @return short name of the encoder, e.g. for logs, benchmarks and session profiles
+     */
+    String getName();
+
+    /**
+     * @return MIME type of the encoded frames, e.g. {@code image/jpeg}
+     */
+    String getContentType();
+
+    /**
+     * Encodes one frame.
+     * @param image The frame
+     * @param outputStream Receives the encoded image; it is not closed
+     * @throws IOException if the frame cannot be encoded or written
+     */
+    void encode(BufferedImage image, OutputStream outputStream) throws IOException;
+
+    /**
+     * Releases the encoder's resources; it must not be used afterwards.
+     */
+    void dispose();
+}
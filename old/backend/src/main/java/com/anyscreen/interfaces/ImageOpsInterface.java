@@ -0,0 +1,64 @@
+package com.anyscreen.interfaces;
+
+/**
+ * Pixel kernels for resizing and color conversion of captured frames.
+ * All methods work on packed int RGB pixels ({@code 0xRRGGBB}; the top byte is ignored) in
+ * plain arrays, addressed by an offset and a row stride so sub-images and pooled buffers can be
+ * used without copying. Implementations give bit-identical results.
+ */
+public interface ImageOpsInterface {
+
+    /**
+     * @return short name of the implementation, e.g. for logs and benchmarks
+     */
+    String getName();
+
+    /**
+     * Adds the channels of one row of pixels to per-column sums, the vertical half of a box filter.
+     * @param pixels Source pixels
+     * @param offset Index of the first pixel
+     * @param length Number of pixels
+     * @param red Red sums; {@code red[i]} receives pixel {@code offset + i}
+     * @param green Green sums, indexed like red
+     * @param blue Blue sums, indexed like red
+     */
+    void accumulateRow(int[] pixels, int offset, int length, int[] red, int[] green, int[] blue);
+
+    /**
+     * Downscales with a box filter: every output pixel is the rounded average of the source
+     * pixels it covers. Keeps small text readable at any ratio.
+     * @param source Source pixels
+     * @param sourceOffset Index of the source's top-left pixel
+     * @param sourceStride Distance between source rows
+     * @param sourceWidth Source width
+     * @param sourceHeight Source height
+     * @param target Output pixels, {@code targetWidth * targetHeight} without padding
+     * @param targetWidth Output width, at most the source width
+     * @param targetHeight Output height, at most the source height
+     */
+    void downscaleBox(int[] source, int sourceOffset, int sourceStride, int sourceWidth, int sourceHeight,
+                      int[] target, int targetWidth, int targetHeight);
+
+    /**
+     * Resizes with bilinear interpolation between the four nearest source pixels.
+     * Cheaper than a box filter for large ratios, but only samples four pixels per output pixel,
+     * so it aliases when shrinking by more than 2x.
+     * Parameters as for {@link #downscaleBox}, except that the output may also be larger.
+     */
+    void downscaleBilinear(int[] source, int sourceOffset, int sourceStride, int sourceWidth, int sourceHeight,
+                           int[] target, int targetWidth, int targetHeight);
+
+    /**
+     * Converts to full-range YCbCr as used by JPEG (ITU-R BT.601), one byte per sample and plane.
+     * @param source Source pixels
+     * @param sourceOffset Index of the source's top-left pixel
+     * @param sourceStride Distance between source rows
+     * @param width Width of the area to convert
+     * @param height Height of the area to convert
+     * @param luma Y plane, {@code width * height} bytes without padding
+     * @param blueChroma Cb plane, like luma
+     * @param redChroma Cr plane, like luma
+     */
+    void toYCbCr(int[] source, int sourceOffset, int sourceStride, int width, int height,
+                 byte[] luma, byte[] blueChroma, byte[] redChroma);
+}
@@ -36,6 +36,20 @@ public interface ScreenCaptureInterface {
      */
     BufferedImage captureScreen(int screenIndex) throws ScreenCaptureException;
 
+    /**
+     * Captures a specific screen/monitor into a caller-supplied frame buffer.
+     * Implementations that can write into an existing image fill the target in place when it
+     * matches the screen size and return it; otherwise they return a newly allocated image.
+     * The default implementation always allocates.
+     * @param screenIndex The index of the screen to capture (0-based)
+     * @param target Buffer to capture into, or null
+     * @return the target filled with the captured screen, or a new image
+     * @throws ScreenCaptureException if capture fails or invalid screen index
+     */
+    default BufferedImage captureScreen(int screenIndex, BufferedImage target) throws ScreenCaptureException {
+        return captureScreen(screenIndex);
+    }
+
     /**
      * Gets information about available screens/monitors.
      * @return List of screen information (dimensions, position, etc.)
@@ -0,0 +1,56 @@
+package com.anyscreen.interfaces;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import com.anyscreen.models.EncodedVideoFrame;
+
+/**
+ * Encodes captured frames into one H.264 stream.
+ * Encoders are set up without frame reordering or look-ahead, so every frame comes out of the
+ * call that encodes it, and timestamps are chosen by the caller, which may space frames
+ * irregularly, as a still screen is captured less often. Not thread-safe.
+ */
+public interface VideoEncoderInterface {
+
+    /**
+     * @return short name of the encoder, e.g. for logs and stats
+     */
+    String getName();
+
+    /**
+     * Encodes one frame. The frame size is fixed by the first frame; a frame of another size is
+     * scaled to it.
+     * @param image The frame
+     * @param timestamp Presentation time in {@link EncodedVideoFrame#TIMESCALE} ticks, increasing
+     * @param keyframe True to make the frame an IDR picture, where a viewer can start decoding
+     * @return the encoded picture, or null if the encoder dropped the frame
+     * @throws IOException if the frame cannot be encoded
+     */
+    EncodedVideoFrame encode(BufferedImage image, long timestamp, boolean keyframe) throws IOException;
+
+    /**
+     * @return the sequence parameter set, without start code; available after the first frame
+     */
+    byte[] getSequenceParameterSet();
+
+    /**
+     * @return the picture parameter set, without start code; available after the first frame
+     */
+    byte[] getPictureParameterSet();
+
+    /**
+     * @return width of the encoded pictures, 0 before the first frame
+     */
+    int getWidth();
+
+    /**
+     * @return height of the encoded pictures, 0 before the first frame
+     */
+    int getHeight();
+
+    /**
+     * Releases the encoder's resources; it must not be used afterwards.
+     */
+    void dispose();
+}
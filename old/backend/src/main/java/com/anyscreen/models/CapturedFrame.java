@@ -0,0 +1,47 @@
+package com.anyscreen.models;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A captured frame held in a pooled buffer.
+ * The holder reads the image and then releases the frame, which hands the buffer back to its
+ * pool for the next capture. The image must not be used after release.
+ */
+public class CapturedFrame {
+    private final BufferedImage image;
+    private final Consumer<BufferedImage> recycler;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    /**
+     * @param image The frame
+     * @param recycler Receives the image once the frame is released
+     */
+    public CapturedFrame(BufferedImage image, Consumer<BufferedImage> recycler) {
+        this.image = image;
+        this.recycler = recycler;
+    }
+
+    /**
+     * @return the image, or null if the capture returned none
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Hands the buffer back to its pool.
+     * @throws IllegalStateException if the frame was already released
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            throw new IllegalStateException("CapturedFrame already released");
+        }
+        recycler.accept(image);
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+}
@@ -0,0 +1,224 @@
+package com.anyscreen.models;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which fixed-size tiles of a frame changed since the previous frame.
+ * Tiles are numbered row by row; tiles in the last column and row may be smaller than the tile
+ * size when the frame size is not a multiple of it.
+ */
+public class DirtyTileMap {
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final BitSet dirty;
+
+    /**
+     * @param frameWidth Width of the frame
+     * @param frameHeight Height of the frame
+     * @param tileSize Edge length of a tile in pixels
+     * @param dirty Set bits mark changed tiles; the map keeps its own copy
+     */
+    public DirtyTileMap(int frameWidth, int frameHeight, int tileSize, BitSet dirty) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.tileSize = tileSize;
+        this.columns = (frameWidth + tileSize - 1) / tileSize;
+        this.rows = (frameHeight + tileSize - 1) / tileSize;
+        this.dirty = (BitSet) dirty.clone();
+    }
+
+    /**
+     * @return a map of the given frame with every tile marked dirty
+     */
+    public static DirtyTileMap allDirty(int frameWidth, int frameHeight, int tileSize) {
+        BitSet dirty = new BitSet();
+        int columns = (frameWidth + tileSize - 1) / tileSize;
+        int rows = (frameHeight + tileSize - 1) / tileSize;
+        dirty.set(0, columns * rows);
+        return new DirtyTileMap(frameWidth, frameHeight, tileSize, dirty);
+    }
+
+    public int getFrameWidth() { return frameWidth; }
+    public int getFrameHeight() { return frameHeight; }
+    public int getTileSize() { return tileSize; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+
+    public int getTileCount() {
+        return columns * rows;
+    }
+
+    public int getDirtyCount() {
+        return dirty.cardinality();
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return dirty.isEmpty();
+    }
+
+    public boolean isAllDirty() {
+        return getDirtyCount() == getTileCount();
+    }
+
+    public boolean isDirty(int column, int row) {
+        return dirty.get(row * columns + column);
+    }
+
+    /**
+     * @return share of tiles that changed, from 0 to 1
+     */
+    public double getDirtyRatio() {
+        return (double) getDirtyCount() / getTileCount();
+    }
+
+    /**
+     * @param tile Tile number, row by row
+     * @return the tile's pixel area, clipped to the frame
+     */
+    public Rectangle getTileBounds(int tile) {
+        int x = (tile % columns) * tileSize;
+        int y = (tile / columns) * tileSize;
+        return new Rectangle(x, y, Math.min(tileSize, frameWidth - x), Math.min(tileSize, frameHeight - y));
+    }
+
+    /**
+     * @return tile numbers of the changed tiles, in ascending order
+     */
+    public int[] getDirtyTiles() {
+        return dirty.stream().toArray();
+    }
+
+    /**
+     * @return pixel areas of the changed tiles
+     */
+    public List<Rectangle> getDirtyRegions() {
+        List<Rectangle> regions = new ArrayList<>();
+        for (int tile = dirty.nextSetBit(0); tile >= 0; tile = dirty.nextSetBit(tile + 1)) {
+            regions.add(getTileBounds(tile));
+        }
+        return regions;
+    }
+
+    /**
+     * Groups the changed tiles into few rectangles: runs of neighbouring dirty tiles in a tile row
+     * are joined, and a run is extended downwards while the next row has a run with the same
+     * columns. Useful to send a change as a handful of patches instead of one per tile.
+     * @return pixel areas covering exactly the changed tiles, clipped to the frame
+     */
+    public List<Rectangle> getMergedRegions() {
+        List<Rectangle> regions = new ArrayList<>();
+        // Rectangles, in tile units, that the previous row's runs may still extend
+        Map<Long, Rectangle> open = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            Map<Long, Rectangle> next = new HashMap<>();
+            int rowStart = row * columns;
+            int rowEnd = rowStart + columns;
+            int start = dirty.nextSetBit(rowStart);
+            while (start >= 0 && start < rowEnd) {
+                int end = Math.min(dirty.nextClearBit(start), rowEnd);
+                long key = ((long) (start - rowStart) << 32) | (end - rowStart);
+                Rectangle run = open.remove(key);
+                if (run != null) {
+                    run.height++;
+                } else {
+                    run = new Rectangle(start - rowStart, row, end - start, 1);
+                }
+                next.put(key, run);
+                start = dirty.nextSetBit(end);
+            }
+            open.values().forEach(run -> regions.add(toPixels(run)));
+            open = next;
+        }
+        open.values().forEach(run -> regions.add(toPixels(run)));
+        return regions;
+    }
+
+    private Rectangle toPixels(Rectangle tiles) {
+        int x = tiles.x * tileSize;
+        int y = tiles.y * tileSize;
+        return new Rectangle(x, y,
+                             Math.min(tiles.width * tileSize, frameWidth - x),
+                             Math.min(tiles.height * tileSize, frameHeight - y));
+    }
+
+    /**
+     * Combines the changes of two consecutive intervals.
+     * @param other Changes of the same frame geometry
+     * @return a map with the tiles dirty in either map; all dirty if the geometries differ
+     */
+    public DirtyTileMap union(DirtyTileMap other) {
+        if (other.frameWidth != frameWidth || other.frameHeight != frameHeight || other.tileSize != tileSize) {
+            return allDirty(other.frameWidth, other.frameHeight, other.tileSize);
+        }
+        BitSet combined = (BitSet) dirty.clone();
+        combined.or(other.dirty);
+        return new DirtyTileMap(frameWidth, frameHeight, tileSize, combined);
+    }
+
+    /**
+     * Carries the changes over to a scaled copy of the frame.
+     * @param width Width of the scaled frame
+     * @param height Height of the scaled frame
+     * @return a map of the scaled frame, with the same tile size, marking every tile that
+     *         overlaps a changed area of this frame
+     */
+    public DirtyTileMap scaledTo(int width, int height) {
+        if (width == frameWidth && height == frameHeight) {
+            return this;
+        }
+        int scaledColumns = (width + tileSize - 1) / tileSize;
+        BitSet scaled = new BitSet();
+        for (Rectangle region : getMergedRegions()) {
+            Rectangle area = scaleArea(region, frameWidth, frameHeight, width, height);
+            int lastColumn = (area.x + area.width - 1) / tileSize;
+            int lastRow = (area.y + area.height - 1) / tileSize;
+            for (int row = area.y / tileSize; row <= lastRow; row++) {
+                scaled.set(row * scaledColumns + area.x / tileSize, row * scaledColumns + lastColumn + 1);
+            }
+        }
+        return new DirtyTileMap(width, height, tileSize, scaled);
+    }
+
+    /**
+     * Maps an area of a frame to the pixels of a scaled copy that it contributes to, rounding
+     * outwards so that no affected pixel is left out.
+     * @param area Area of the original frame
+     * @return the covering area of the scaled frame, at least one pixel
+     */
+    public static Rectangle scaleArea(Rectangle area, int fromWidth, int fromHeight, int toWidth, int toHeight) {
+        int x0 = (int) ((long) area.x * toWidth / fromWidth);
+        int y0 = (int) ((long) area.y * toHeight / fromHeight);
+        int x1 = (int) Math.min(toWidth, ((long) (area.x + area.width) * toWidth + fromWidth - 1) / fromWidth);
+        int y1 = (int) Math.min(toHeight, ((long) (area.y + area.height) * toHeight + fromHeight - 1) / fromHeight);
+        return new Rectangle(Math.min(x0, toWidth - 1), Math.min(y0, toHeight - 1),
+                             Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+    }
+
+    /**
+     * @return smallest rectangle holding every changed tile, or null if nothing changed
+     */
+    public Rectangle getDirtyBounds() {
+        Rectangle bounds = null;
+        for (int tile = dirty.nextSetBit(0); tile >= 0; tile = dirty.nextSetBit(tile + 1)) {
+            Rectangle region = getTileBounds(tile);
+            bounds = bounds == null ? region : bounds.union(region);
+        }
+        return bounds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DirtyTileMap{%dx%d tiles of %dpx, dirty=%d}", columns, rows, tileSize, getDirtyCount());
+    }
+}
@@ -0,0 +1,98 @@
+package com.anyscreen.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One encoded H.264 picture: its NAL units without start codes, its presentation time on the
+ * 90 kHz clock used by MP4, MPEG-TS and RTP, and whether decoding can start at it.
+ * Immutable; shared by every muxer and viewer of a stream.
+ */
+public class EncodedVideoFrame {
+
+    /** Ticks per second of the timestamps */
+    public static final int TIMESCALE = 90_000;
+
+    private final List<byte[]> nalUnits;
+    private final long timestamp;
+    private final boolean keyframe;
+    private final int size;
+
+    /**
+     * @param nalUnits The picture's NAL units, without start codes
+     * @param timestamp Presentation time in {@link #TIMESCALE} ticks
+     * @param keyframe True for an IDR picture
+     */
+    public EncodedVideoFrame(List<byte[]> nalUnits, long timestamp, boolean keyframe) {
+        this.nalUnits = Collections.unmodifiableList(new ArrayList<>(nalUnits));
+        this.timestamp = timestamp;
+        this.keyframe = keyframe;
+        int total = 0;
+        for (byte[] nalUnit : nalUnits) {
+            total += nalUnit.length;
+        }
+        this.size = total;
+    }
+
+    /**
+     * Splits an Annex B byte stream, as written by most H.264 encoders, into NAL units.
+     * @param annexB NAL units, each preceded by a 3 or 4 byte start code
+     * @param length Number of bytes to read
+     * @return the NAL units without start codes
+     */
+    public static List<byte[]> splitAnnexB(byte[] annexB, int length) {
+        List<byte[]> nalUnits = new ArrayList<>();
+        int start = -1;
+        int i = 0;
+        while (i + 2 < length) {
+            if (annexB[i] == 0 && annexB[i + 1] == 0 && annexB[i + 2] == 1) {
+                if (start >= 0) {
+                    // A 4-byte start code leaves one zero behind the previous unit
+                    int end = i > start && annexB[i - 1] == 0 ? i - 1 : i;
+                    nalUnits.add(copy(annexB, start, end));
+                }
+                i += 3;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start >= 0 && start < length) {
+            nalUnits.add(copy(annexB, start, length));
+        }
+        return nalUnits;
+    }
+
+    private static byte[] copy(byte[] source, int from, int to) {
+        byte[] copy = new byte[to - from];
+        System.arraycopy(source, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * @return the NAL unit type, 1 to 23, of a NAL unit
+     */
+    public static int typeOf(byte[] nalUnit) {
+        return nalUnit[0] & 0x1F;
+    }
+
+    public List<byte[]> getNalUnits() {
+        return nalUnits;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * @return total bytes of the NAL units, start codes or length prefixes excluded
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,114 @@
+package com.anyscreen.models;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Identifies how a stream is encoded: protocol, output resolution, frame rate, quality, encoder
+ * and the encoder's settings among the additional parameters.
+ * Viewers of the same screen with equal profiles share a single encoded stream.
+ */
+public class EncodingProfile {
+
+    /** Additional config parameter naming the frame encoder, e.g. "ffmpeg-webp"; see FrameEncoders */
+    public static final String PARAM_ENCODER = "encoder";
+    public static final String DEFAULT_ENCODER = "imageio";
+    /**
+     * Namespaces of the additional parameters that change the encoded bytes, such as
+     * jpeg.chromaSubsampling or hls.partMillis; capture.* and stream.* only change when frames are sent
+     */
+    static final List<String> ENCODER_PARAM_PREFIXES = List.of("jpeg.", "mp4.", "hls.", "dash.", "rtp.");
+
+    private final StreamingProtocol protocol;
+    private final int width;
+    private final int height;
+    private final int frameRate;
+    private final int quality;
+    private final String encoder;
+    private final SortedMap<String, String> encoderParams;
+
+    public EncodingProfile(StreamingProtocol protocol, int width, int height, int frameRate, int quality) {
+        this(protocol, width, height, frameRate, quality, DEFAULT_ENCODER);
+    }
+
+    public EncodingProfile(StreamingProtocol protocol, int width, int height, int frameRate, int quality,
+                           String encoder) {
+        this(protocol, width, height, frameRate, quality, encoder, Map.of());
+    }
+
+    /**
+     * @param encoderParams Settings of the encoder, by parameter name
+     */
+    public EncodingProfile(StreamingProtocol protocol, int width, int height, int frameRate, int quality,
+                           String encoder, Map<String, String> encoderParams) {
+        this.protocol = protocol;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.quality = quality;
+        this.encoder = encoder;
+        this.encoderParams = Collections.unmodifiableSortedMap(new TreeMap<>(encoderParams));
+    }
+
+    /**
+     * Extracts the encoding-relevant part of a streaming configuration.
+     * @param config The streaming configuration
+     * @return the matching profile
+     */
+    public static EncodingProfile of(StreamingConfig config) {
+        Object encoder = config.getAdditionalParams().get(PARAM_ENCODER);
+        Map<String, String> encoderParams = new TreeMap<>();
+        for (Map.Entry<String, Object> param : config.getAdditionalParams().entrySet()) {
+            if (param.getValue() != null && isEncoderParam(param.getKey())) {
+                encoderParams.put(param.getKey(), param.getValue().toString().trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return new EncodingProfile(config.getProtocol(), config.getWidth(), config.getHeight(),
+                                   config.getFrameRate(), config.getQuality(),
+                                   encoder != null ? encoder.toString().toLowerCase() : DEFAULT_ENCODER,
+                                   encoderParams);
+    }
+
+    private static boolean isEncoderParam(String name) {
+        for (String prefix : ENCODER_PARAM_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public StreamingProtocol getProtocol() { return protocol; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getFrameRate() { return frameRate; }
+    public int getQuality() { return quality; }
+    public String getEncoder() { return encoder; }
+    public Map<String, String> getEncoderParams() { return encoderParams; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncodingProfile)) return false;
+        EncodingProfile that = (EncodingProfile) o;
+        return width == that.width && height == that.height && frameRate == that.frameRate &&
+               quality == that.quality && protocol == that.protocol && encoder.equals(that.encoder) &&
+               encoderParams.equals(that.encoderParams);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(protocol, width, height, frameRate, quality, encoder, encoderParams);
+    }
+
+    @Override
+    public String toString() {
+        String profile = String.format("%s %dx%d@%dfps q%d %s", protocol, width, height, frameRate, quality, encoder);
+        return encoderParams.isEmpty() ? profile : profile + " " + encoderParams;
+    }
+}
@@ -0,0 +1,93 @@
+package com.anyscreen.models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Immutable, reference-counted wire packet for one encoded frame.
+ * Holds the multipart boundary, part headers and encoded image in one contiguous buffer, so every
+ * subscriber writes the same bytes with a single call. The backing buffer is handed back to its
+ * pool once the last reference is released.
+ */
+public class FramePacket {
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+    private final int payloadLength;
+    private final Consumer<byte[]> recycler;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    /**
+     * Creates a packet holding one reference for the caller.
+     * @param buffer Backing buffer
+     * @param offset Start of the packet in the buffer
+     * @param length Length of the packet, headers included
+     * @param payloadLength Length of the encoded image alone
+     * @param recycler Receives the buffer when the last reference is released
+     */
+    public FramePacket(byte[] buffer, int offset, int length, int payloadLength, Consumer<byte[]> recycler) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.payloadLength = payloadLength;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Adds a reference, e.g. when a subscriber queues the packet.
+     * @return this packet
+     * @throws IllegalStateException if the packet was already released
+     */
+    public FramePacket retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("FramePacket already released");
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Drops a reference, recycling the buffer when it was the last one.
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            recycler.accept(buffer);
+        } else if (count < 0) {
+            throw new IllegalStateException("FramePacket released too many times");
+        }
+    }
+
+    /**
+     * Writes the whole packet with a single call.
+     * @param outputStream The subscriber's stream
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, offset, length);
+    }
+
+    /**
+     * @return a read-only view of the packet bytes, valid until the packet is released
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buffer, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+}
@@ -7,7 +7,10 @@ public enum StreamingProtocol {
     MJPEG("Motion JPEG", "image/jpeg"),
     WEBRTC("Web Real-Time Communication", "video/h264"),
     HLS("HTTP Live Streaming", "application/vnd.apple.mpegurl"),
-    DASH("Dynamic Adaptive Streaming", "application/dash+xml");
+    DASH("Dynamic Adaptive Streaming", "application/dash+xml"),
+    MP4("Fragmented MP4", "video/mp4"),
+    RTSP("Real Time Streaming Protocol", "application/sdp"),
+    TILES("Delta Tiles", "application/vnd.anyscreen.tiles");
     
     private final String description;
     private final String mimeType;
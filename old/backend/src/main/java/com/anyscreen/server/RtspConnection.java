@@ -0,0 +1,609 @@
+package com.anyscreen.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.anyscreen.models.ScreenInfo;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.RtcpReceiverReport;
+import com.anyscreen.services.RtpPacketizer;
+import com.anyscreen.services.RtpStreamSession;
+import com.anyscreen.services.StreamVariants;
+import com.anyscreen.services.StreamingService;
+
+/**
+ * One RTSP connection of an {@link RtspServer}, serving OPTIONS, DESCRIBE, SETUP, PLAY,
+ * TEARDOWN and GET_PARAMETER for a single stream.
+ * Reads requests on its own thread; once playing, the stream's packets are written by the
+ * viewer's {@link com.anyscreen.services.ClientConnection}, either as datagrams or interleaved
+ * with the responses on this connection under a shared write lock.
+ */
+final class RtspConnection implements Runnable {
+
+    /** Control URL of the only track, relative to the stream's URL */
+    static final String TRACK_CONTROL = "trackID=0";
+    private static final String PUBLIC_METHODS = "OPTIONS, DESCRIBE, SETUP, PLAY, TEARDOWN, GET_PARAMETER";
+    private static final int SESSION_TIMEOUT_SECONDS = 60;
+    // Longest time DESCRIBE waits for the first keyframe, whose parameter sets go into the SDP
+    private static final long DESCRIBE_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_HEADERS = 64;
+
+    private final RtspServer server;
+    private final Socket socket;
+    private final String sessionId;
+    private final String clientId;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private InputStream in;
+    private OutputStream out;
+
+    // State of the stream, only changed by the connection's thread
+    private Target target;
+    private OutputStream transport;
+    private InetSocketAddress rtcpAddress;
+    private int rtcpChannel = -1;
+    private boolean playing;
+    private volatile RtpStreamSession session;
+
+    /**
+     * Where a request points: a screen and the variant its query selects.
+     */
+    private static final class Target {
+        final int screenIndex;
+        final StreamingConfig config;
+
+        Target(int screenIndex, StreamingConfig config) {
+            this.screenIndex = screenIndex;
+            this.config = config;
+        }
+    }
+
+    /**
+     * A request that cannot be served, answered with its status.
+     */
+    private static final class RtspException extends Exception {
+        final int status;
+
+        RtspException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    RtspConnection(RtspServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+        this.sessionId = String.format("%016X", ThreadLocalRandom.current().nextLong());
+        this.clientId = "rtsp-" + sessionId;
+    }
+
+    @Override
+    public void run() {
+        try {
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            int first;
+            while ((first = in.read()) >= 0) {
+                if (first == RtpPacketizer.INTERLEAVED_MAGIC) {
+                    readInterleaved();
+                } else {
+                    handle(readLine(first), readHeaders());
+                }
+            }
+        } catch (IOException e) {
+            LoggerService.debug("RTSP client " + clientId + " disconnected: " + e.getMessage());
+        } finally {
+            stopPlaying();
+            close();
+            server.onClosed(this);
+        }
+    }
+
+    /**
+     * Closes the connection; its thread then stops the stream.
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    private void handle(String requestLine, Map<String, String> headers) throws IOException {
+        String[] parts = requestLine.split(" ");
+        String cseq = headers.getOrDefault("cseq", "0");
+        int contentLength = parseInt(headers.get("content-length"), 0);
+        if (contentLength > 0) {
+            in.skipNBytes(contentLength);
+        }
+        if (parts.length != 3 || !parts[2].startsWith("RTSP/")) {
+            respond(400, "Bad Request", cseq, Map.of(), null);
+            return;
+        }
+
+        String method = parts[0];
+        String uri = parts[1];
+        try {
+            String requestedSession = headers.get("session");
+            if (requestedSession != null && !requestedSession.split(";")[0].trim().equals(sessionId)) {
+                throw new RtspException(454, "Session Not Found");
+            }
+            switch (method) {
+                case "OPTIONS":
+                    respond(200, "OK", cseq, Map.of("Public", PUBLIC_METHODS), null);
+                    break;
+                case "DESCRIBE":
+                    describe(uri, cseq);
+                    break;
+                case "SETUP":
+                    setup(uri, cseq, headers.get("transport"));
+                    break;
+                case "PLAY":
+                    play(cseq);
+                    break;
+                case "TEARDOWN":
+                    stopPlaying();
+                    respond(200, "OK", cseq, Map.of(), null);
+                    break;
+                case "GET_PARAMETER":
+                    // Players send it to keep the session alive
+                    respond(200, "OK", cseq, sessionHeader(), null);
+                    break;
+                default:
+                    respond(501, "Not Implemented", cseq, Map.of("Public", PUBLIC_METHODS), null);
+            }
+        } catch (RtspException e) {
+            respond(e.status, e.getMessage(), cseq, Map.of(), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (RuntimeException e) {
+            LoggerService.error("Error in RTSP " + method + " for " + clientId + ": " + e.getMessage());
+            respond(500, "Internal Server Error", cseq, Map.of(), null);
+        }
+    }
+
+    private void describe(String uri, String cseq) throws IOException, RtspException, InterruptedException {
+        Target describeTarget = resolve(uri);
+        RtpStreamSession stream = server.getStreamingService().openRtspStream(describeTarget.screenIndex,
+                                                                              describeTarget.config);
+        if (!stream.awaitParameterSets(DESCRIBE_TIMEOUT_MILLIS)) {
+            throw new RtspException(503, "Service Unavailable");
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Base", uri.endsWith("/") ? uri : uri + "/");
+        headers.put("Content-Type", StreamingProtocol.RTSP.getMimeType());
+        respond(200, "OK", cseq, headers, sdp(describeTarget, stream).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Describes the stream: one H.264 track in packetization mode 1, with the parameter sets.
+     */
+    private String sdp(Target describeTarget, RtpStreamSession stream) {
+        byte[] sps = stream.getSequenceParameterSet();
+        byte[] pps = stream.getPictureParameterSet();
+        String address = socket.getLocalAddress().getHostAddress();
+        String addressType = socket.getLocalAddress() instanceof Inet6Address ? "IP6" : "IP4";
+        Base64.Encoder base64 = Base64.getEncoder();
+        return "v=0\r\n"
+               + "o=- " + Long.parseUnsignedLong(sessionId, 16) + " 1 IN " + addressType + " " + address + "\r\n"
+               + "s=AnyScreen screen " + describeTarget.screenIndex + "\r\n"
+               + "c=IN " + addressType + " " + (addressType.equals("IP6") ? "::" : "0.0.0.0") + "\r\n"
+               + "t=0 0\r\n"
+               + "a=range:npt=now-\r\n"
+               + "a=control:*\r\n"
+               + "m=video 0 RTP/AVP " + RtpPacketizer.PAYLOAD_TYPE + "\r\n"
+               + "a=rtpmap:" + RtpPacketizer.PAYLOAD_TYPE + " H264/" + RtpPacketizer.CLOCK_RATE + "\r\n"
+               + "a=fmtp:" + RtpPacketizer.PAYLOAD_TYPE + " packetization-mode=1"
+               + String.format(";profile-level-id=%02X%02X%02X", sps[1], sps[2], sps[3])
+               + ";sprop-parameter-sets=" + base64.encodeToString(sps) + "," + base64.encodeToString(pps) + "\r\n"
+               + "a=framerate:" + describeTarget.config.getFrameRate() + "\r\n"
+               + "a=control:" + TRACK_CONTROL + "\r\n";
+    }
+
+    private void setup(String uri, String cseq, String transportHeader) throws IOException, RtspException {
+        if (playing) {
+            throw new RtspException(455, "Method Not Valid in This State");
+        }
+        Target setupTarget = resolve(uri);
+        Map<String, String> spec = parseTransport(transportHeader);
+        RtpStreamSession stream = server.getStreamingService().openRtspStream(setupTarget.screenIndex,
+                                                                              setupTarget.config);
+        String ssrc = String.format(";ssrc=%08X", stream.getSsrc());
+
+        String reply;
+        if (spec.containsKey("interleaved")) {
+            int[] channels = parsePortRange(spec.get("interleaved"));
+            if (channels[0] > 255 || channels[1] > 255) {
+                throw new RtspException(461, "Unsupported Transport");
+            }
+            releaseTransport();
+            transport = new InterleavedTransport(out, writeLock, channels[0]);
+            rtcpChannel = channels[1];
+            reply = "RTP/AVP/TCP;unicast;interleaved=" + channels[0] + "-" + channels[1] + ssrc;
+        } else {
+            int[] ports = parsePortRange(spec.get("client_port"));
+            releaseTransport();
+            InetSocketAddress rtpAddress = new InetSocketAddress(socket.getInetAddress(), ports[0]);
+            transport = new DatagramTransport(server.getRtpSocket(), rtpAddress);
+            rtcpAddress = new InetSocketAddress(socket.getInetAddress(), ports[1]);
+            server.registerUdpViewer(rtcpAddress, this);
+            reply = "RTP/AVP;unicast;client_port=" + ports[0] + "-" + ports[1]
+                    + ";server_port=" + server.getRtpPort() + "-" + (server.getRtpPort() + 1) + ssrc;
+        }
+        target = setupTarget;
+
+        Map<String, String> headers = new LinkedHashMap<>(sessionHeader());
+        headers.put("Transport", reply);
+        respond(200, "OK", cseq, headers, null);
+    }
+
+    /**
+     * @return the parameters of the first transport the client offers, with the lower transport
+     *         under "interleaved" for TCP or "client_port" for UDP
+     */
+    private static Map<String, String> parseTransport(String header) throws RtspException {
+        if (header == null) {
+            throw new RtspException(461, "Unsupported Transport");
+        }
+        for (String candidate : header.split(",")) {
+            String[] fields = candidate.trim().split(";");
+            String protocol = fields[0].trim().toUpperCase(Locale.ROOT);
+            boolean tcp = protocol.equals("RTP/AVP/TCP");
+            if (!tcp && !protocol.equals("RTP/AVP") && !protocol.equals("RTP/AVP/UDP")) {
+                continue;
+            }
+            Map<String, String> spec = new HashMap<>();
+            for (int i = 1; i < fields.length; i++) {
+                String[] pair = fields[i].trim().split("=", 2);
+                spec.put(pair[0].toLowerCase(Locale.ROOT), pair.length > 1 ? pair[1] : "");
+            }
+            if (spec.containsKey("multicast")) {
+                continue;
+            }
+            if (tcp) {
+                spec.putIfAbsent("interleaved", "0-1");
+                return spec;
+            }
+            if (spec.containsKey("client_port")) {
+                spec.remove("interleaved");
+                return spec;
+            }
+        }
+        throw new RtspException(461, "Unsupported Transport");
+    }
+
+    /**
+     * @return both ends of a range such as {@code 5000-5001}; a single value pairs with the next
+     */
+    private static int[] parsePortRange(String range) throws RtspException {
+        try {
+            String[] ends = range.split("-");
+            int low = Integer.parseInt(ends[0].trim());
+            int high = ends.length > 1 ? Integer.parseInt(ends[1].trim()) : low + 1;
+            if (low < 0 || high < 0 || low > 0xFFFF || high > 0xFFFF) {
+                throw new NumberFormatException(range);
+            }
+            return new int[] {low, high};
+        } catch (NumberFormatException e) {
+            throw new RtspException(461, "Unsupported Transport");
+        }
+    }
+
+    private void play(String cseq) throws IOException, RtspException {
+        if (transport == null) {
+            throw new RtspException(455, "Method Not Valid in This State");
+        }
+        Map<String, String> headers = new LinkedHashMap<>(sessionHeader());
+        headers.put("Range", "npt=now-");
+        // Answer first, so a TCP viewer reads the response before the first packets
+        respond(200, "OK", cseq, headers, null);
+        if (!playing) {
+            StreamingService streamingService = server.getStreamingService();
+            streamingService.subscribe(target.screenIndex, clientId, transport, target.config);
+            playing = true;
+            session = streamingService.findRtspStream(target.screenIndex, target.config);
+            LoggerService.info("RTSP client " + clientId + " playing screen " + target.screenIndex + " over "
+                               + (transport instanceof InterleavedTransport ? "TCP" : "UDP"));
+        }
+    }
+
+    private void stopPlaying() {
+        if (playing) {
+            server.getStreamingService().unsubscribe(target.screenIndex, clientId);
+            playing = false;
+            session = null;
+        }
+        releaseTransport();
+    }
+
+    private void releaseTransport() {
+        if (rtcpAddress != null) {
+            server.unregisterUdpViewer(rtcpAddress, this);
+            rtcpAddress = null;
+        }
+        rtcpChannel = -1;
+        transport = null;
+    }
+
+    /**
+     * Resolves {@code rtsp://host:port/{screenIndex}[?query][/trackID=0]}, the form players
+     * build by appending the track's control URL to the stream's.
+     */
+    private Target resolve(String uri) throws RtspException {
+        String path = uri;
+        if (path.regionMatches(true, 0, "rtsp://", 0, 7)) {
+            int start = path.indexOf('/', 7);
+            path = start >= 0 ? path.substring(start) : "/";
+        }
+        path = path.replace("/" + TRACK_CONTROL, "");
+        String query = "";
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            query = path.substring(queryStart + 1);
+            path = path.substring(0, queryStart);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        int screenIndex;
+        try {
+            screenIndex = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            throw new RtspException(400, "Bad Request");
+        }
+        ScreenInfo screenInfo;
+        try {
+            screenInfo = server.getScreenCaptureService().getScreenInfo(screenIndex);
+        } catch (IndexOutOfBoundsException e) {
+            throw new RtspException(404, "Not Found");
+        }
+        try {
+            return new Target(screenIndex, StreamVariants.select(StreamingProtocol.RTSP, screenInfo.getBounds().width,
+                                                                 screenInfo.getBounds().height, parseQuery(query)));
+        } catch (IllegalArgumentException e) {
+            throw new RtspException(400, "Bad Request");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            query.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                              URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private Map<String, String> sessionHeader() {
+        return Map.of("Session", sessionId + ";timeout=" + SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Reads a packet interleaved by the client, keeping it if it is RTCP about the stream.
+     */
+    private void readInterleaved() throws IOException {
+        int channel = in.read();
+        int high = in.read();
+        int low = in.read();
+        if ((channel | high | low) < 0) {
+            throw new EOFException("Truncated interleaved packet");
+        }
+        byte[] data = in.readNBytes((high << 8) | low);
+        if (channel == rtcpChannel) {
+            onRtcp(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Keeps a receiver report the viewer sent about the stream.
+     */
+    void onRtcp(byte[] data, int offset, int length) {
+        RtpStreamSession stream = session;
+        if (stream != null) {
+            RtcpReceiverReport report = RtcpReceiverReport.parse(data, offset, length, stream.getSsrc());
+            if (report != null) {
+                stream.onReceiverReport(clientId, report);
+            }
+        }
+    }
+
+    private String readLine(int first) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int next = first;
+        while (next != '\n') {
+            if (next < 0) {
+                throw new EOFException("Connection closed inside a request");
+            }
+            if (next != '\r') {
+                line.write(next);
+            }
+            if (line.size() > MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long");
+            }
+            next = in.read();
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the headers up to the empty line, with lower-case names
+     */
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        for (int count = 0; count <= MAX_HEADERS; count++) {
+            String line = readLine(in.read());
+            if (line.isEmpty()) {
+                return headers;
+            }
+            int separator = line.indexOf(':');
+            if (separator > 0) {
+                headers.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT),
+                            line.substring(separator + 1).trim());
+            }
+        }
+        throw new IOException("Too many headers");
+    }
+
+    private void respond(int status, String reason, String cseq, Map<String, String> headers, byte[] body)
+            throws IOException {
+        StringBuilder response = new StringBuilder();
+        response.append("RTSP/1.0 ").append(status).append(' ').append(reason).append("\r\n");
+        response.append("CSeq: ").append(cseq).append("\r\n");
+        response.append("Server: AnyScreen\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            response.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body != null) {
+            response.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        response.append("\r\n");
+        writeLock.lock();
+        try {
+            out.write(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Checks that a buffer holds whole interleaved packets, as {@link RtpPacketizer} writes them.
+     * @return the length of the packet at the position
+     */
+    private static int packetLength(byte[] buffer, int position, int end) throws IOException {
+        if (end - position < RtpPacketizer.INTERLEAVED_HEADER_LENGTH || buffer[position] != RtpPacketizer.INTERLEAVED_MAGIC) {
+            throw new IOException("Not an interleaved RTP packet");
+        }
+        int length = ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+        if (position + RtpPacketizer.INTERLEAVED_HEADER_LENGTH + length > end) {
+            throw new IOException("Truncated interleaved RTP packet");
+        }
+        return length;
+    }
+
+    /**
+     * Writes a picture's packets on the RTSP connection, on the channel the viewer picked.
+     * Expects whole packets in every write, as a viewer's connection writes them.
+     */
+    static final class InterleavedTransport extends OutputStream {
+        private final OutputStream out;
+        private final ReentrantLock writeLock;
+        private final int channel;
+
+        InterleavedTransport(OutputStream out, ReentrantLock writeLock, int channel) {
+            this.out = out;
+            this.writeLock = writeLock;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("RTP packets must be written whole");
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            byte[] data = buffer;
+            int start = offset;
+            if (channel != 0) {
+                data = Arrays.copyOfRange(buffer, offset, offset + length);
+                start = 0;
+            }
+            int end = start + length;
+            for (int position = start; position < end; ) {
+                int packetLength = packetLength(data, position, end);
+                if (channel != 0) {
+                    data[position + 1] = (byte) channel;
+                }
+                position += RtpPacketizer.INTERLEAVED_HEADER_LENGTH + packetLength;
+            }
+            writeLock.lock();
+            try {
+                out.write(data, start, length);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeLock.lock();
+            try {
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends a picture's packets to the viewer's RTP port, one datagram each.
+     * Expects whole packets in every write, as a viewer's connection writes them.
+     */
+    static final class DatagramTransport extends OutputStream {
+        private final DatagramSocket socket;
+        private final InetSocketAddress target;
+
+        DatagramTransport(DatagramSocket socket, InetSocketAddress target) {
+            this.socket = socket;
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("RTP packets must be written whole");
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            int end = offset + length;
+            for (int position = offset; position < end; ) {
+                int packetLength = packetLength(buffer, position, end);
+                socket.send(new DatagramPacket(buffer, position + RtpPacketizer.INTERLEAVED_HEADER_LENGTH,
+                                               packetLength, target));
+                position += RtpPacketizer.INTERLEAVED_HEADER_LENGTH + packetLength;
+            }
+        }
+    }
+}
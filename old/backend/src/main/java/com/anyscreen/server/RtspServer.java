@@ -0,0 +1,227 @@
+package com.anyscreen.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamingService;
+
+/**
+ * RTSP server (RFC 2326) that lets players such as VLC or ffplay pull a screen as H.264 over
+ * RTP, with the sub-second latency of a pushed stream:
+ * {@code rtsp://host:port/{screenIndex}}, with the optional query parameters w, fps and q of
+ * /stream. Every RTSP connection sets up and plays one stream, sent either over UDP or
+ * interleaved in the RTSP connection, and ends with that connection.
+ * <p>
+ * The viewers of a screen and variant share one {@link com.anyscreen.services.RtpStreamSession},
+ * so the screen is encoded once however many players pull it. UDP viewers are all sent RTP from
+ * one server port and send their RTCP receiver reports to the next one, where they are matched
+ * to the viewer by address.
+ */
+public class RtspServer {
+
+    /** System property with the RTSP port of the server; 0 turns RTSP off */
+    public static final String PORT_PROPERTY = "anyscreen.rtsp.port";
+    public static final int DEFAULT_PORT = 8554;
+    // Tries at binding an even RTP port with a free RTCP port right after it
+    private static final int PORT_PAIR_ATTEMPTS = 20;
+    private static final int MAX_RTCP_PACKET = 1500;
+
+    private final ScreenCaptureService screenCaptureService;
+    private final StreamingService streamingService;
+    private final ServerSocket serverSocket;
+    private final DatagramSocket rtpSocket;
+    private final DatagramSocket rtcpSocket;
+    private final ExecutorService executor;
+    private final Set<RtspConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Map<InetSocketAddress, RtspConnection> udpViewers = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    /**
+     * @param port RTSP port to listen on, on every interface
+     */
+    public RtspServer(int port, ScreenCaptureService screenCaptureService, StreamingService streamingService)
+            throws IOException {
+        this(new InetSocketAddress(port), screenCaptureService, streamingService);
+    }
+
+    /**
+     * @param address Address to listen on for RTSP; the RTP ports are picked on the same interface
+     */
+    public RtspServer(InetSocketAddress address, ScreenCaptureService screenCaptureService,
+                      StreamingService streamingService) throws IOException {
+        this.screenCaptureService = screenCaptureService;
+        this.streamingService = streamingService;
+        this.serverSocket = new ServerSocket();
+        DatagramSocket[] pair;
+        try {
+            serverSocket.bind(address);
+            pair = bindPortPair(address);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        this.rtpSocket = pair[0];
+        this.rtcpSocket = pair[1];
+        this.executor = ServerExecutors.fromSystemProperties();
+    }
+
+    /**
+     * @return the RTSP port selected by the {@value #PORT_PROPERTY} system property
+     */
+    public static int portFromSystemProperties() {
+        String port = System.getProperty(PORT_PROPERTY);
+        try {
+            return port != null ? Integer.parseInt(port.trim()) : DEFAULT_PORT;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + PORT_PROPERTY + ": " + port, e);
+        }
+    }
+
+    /**
+     * RTP convention: RTP on an even port, RTCP on the odd port after it.
+     */
+    private static DatagramSocket[] bindPortPair(InetSocketAddress address) throws IOException {
+        for (int attempt = 0; attempt < PORT_PAIR_ATTEMPTS; attempt++) {
+            DatagramSocket rtp = new DatagramSocket(new InetSocketAddress(address.getAddress(), 0));
+            if (rtp.getLocalPort() % 2 == 0) {
+                try {
+                    return new DatagramSocket[] {
+                        rtp, new DatagramSocket(new InetSocketAddress(address.getAddress(), rtp.getLocalPort() + 1))
+                    };
+                } catch (SocketException e) {
+                    // Taken, try another pair
+                }
+            }
+            rtp.close();
+        }
+        throw new IOException("No free RTP/RTCP port pair found");
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread.ofPlatform().name("rtsp-accept").daemon(true).start(this::acceptLoop);
+        Thread.ofPlatform().name("rtsp-rtcp").daemon(true).start(this::rtcpLoop);
+        LoggerService.info("RTSP server started on port " + getPort() + ", RTP/RTCP on " + getRtpPort()
+                           + "-" + (getRtpPort() + 1));
+    }
+
+    /**
+     * Closes every connection, which stops its stream, and the server's sockets.
+     */
+    public synchronized void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+        rtpSocket.close();
+        rtcpSocket.close();
+        for (RtspConnection connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+        LoggerService.info("RTSP server stopped");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                RtspConnection connection = new RtspConnection(this, socket);
+                connections.add(connection);
+                try {
+                    executor.execute(connection);
+                } catch (RuntimeException e) {
+                    // The executor was shut down while the connection was accepted
+                    connection.close();
+                    connections.remove(connection);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LoggerService.error("RTSP accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void rtcpLoop() {
+        byte[] buffer = new byte[MAX_RTCP_PACKET];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                packet.setLength(buffer.length);
+                rtcpSocket.receive(packet);
+                RtspConnection connection = udpViewers.get((InetSocketAddress) packet.getSocketAddress());
+                if (connection != null) {
+                    connection.onRtcp(buffer, packet.getOffset(), packet.getLength());
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LoggerService.debug("RTCP receive failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void registerUdpViewer(InetSocketAddress rtcpAddress, RtspConnection connection) {
+        udpViewers.put(rtcpAddress, connection);
+    }
+
+    void unregisterUdpViewer(InetSocketAddress rtcpAddress, RtspConnection connection) {
+        udpViewers.remove(rtcpAddress, connection);
+    }
+
+    void onClosed(RtspConnection connection) {
+        connections.remove(connection);
+    }
+
+    ScreenCaptureService getScreenCaptureService() {
+        return screenCaptureService;
+    }
+
+    StreamingService getStreamingService() {
+        return streamingService;
+    }
+
+    DatagramSocket getRtpSocket() {
+        return rtpSocket;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the UDP port RTP is sent from; RTCP is received on the port after it
+     */
+    public int getRtpPort() {
+        return rtpSocket.getLocalPort();
+    }
+
+    /**
+     * @return open RTSP connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -5,7 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -30,34 +30,74 @@ public class ScreenStreamingServer {
     private final StreamingService streamingService;
     private final Router router;
     private final int port;
+    private final ExecutorService executor;
+    // Null when RTSP is turned off or its port could not be bound
+    private final RtspServer rtspServer;
     
     public ScreenStreamingServer(int port) throws Exception {
+        this(port, ScreenCaptureService.createDefault());
+    }
+    
+    public ScreenStreamingServer(int port, ScreenCaptureService screenCaptureService) throws IOException {
         this.port = port;
         this.server = HttpServer.create(new InetSocketAddress(port), 0);
-        this.screenCaptureService = ScreenCaptureService.createDefault();
-        this.streamingService = new StreamingService();
+        this.screenCaptureService = screenCaptureService;
+        this.streamingService = new StreamingService(screenCaptureService);
         this.router = new Router(server, screenCaptureService, streamingService);
+        this.executor = ServerExecutors.fromSystemProperties();
+        this.rtspServer = createRtspServer();
         setupServer();
     }
+
+    /**
+     * RTSP is optional: a taken port leaves the HTTP endpoints running.
+     */
+    private RtspServer createRtspServer() {
+        int rtspPort = RtspServer.portFromSystemProperties();
+        if (rtspPort <= 0) {
+            return null;
+        }
+        try {
+            return new RtspServer(rtspPort, screenCaptureService, streamingService);
+        } catch (IOException e) {
+            LoggerService.error("RTSP server not started on port " + rtspPort + ": " + e.getMessage());
+            return null;
+        }
+    }
     
     public void setupServer(){
         this.router.configureRoutes();
-        this.server.setExecutor(Executors.newFixedThreadPool(10));
+        // Every MJPEG viewer keeps its handler running, so requests must not queue behind a fixed pool
+        this.server.setExecutor(executor);
     }
 
     public void start() {
         server.start();
+        if (rtspServer != null) {
+            rtspServer.start();
+        }
         LoggerService.info("Screen streaming server started on port " + port);
     }
     
     public void stop() {
         server.stop(0);
+        if (rtspServer != null) {
+            rtspServer.stop();
+        }
         try {
             streamingService.stopStreaming();
         } catch (Exception e) {
             LoggerService.error("Error stopping streaming service: " + e.getMessage());
         }
+        executor.shutdownNow();
         LoggerService.info("Screen streaming server stopped");
     }
 
+    /**
+     * @return the RTSP server, or null if RTSP is not served
+     */
+    public RtspServer getRtspServer() {
+        return rtspServer;
+    }
+
 }
\ No newline at end of file
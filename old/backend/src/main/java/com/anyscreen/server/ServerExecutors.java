@@ -0,0 +1,49 @@
+package com.anyscreen.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory for the executor that runs the HTTP handlers.
+ * MJPEG viewers hold their handler for the whole life of the stream, so the executor must not cap
+ * the number of concurrent requests. The default runs every request on its own virtual thread.
+ */
+public class ServerExecutors {
+
+    /** System property selecting the executor: {@code virtual}, {@code cached} or {@code fixed:<threads>}. */
+    public static final String EXECUTOR_PROPERTY = "anyscreen.server.executor";
+    public static final String DEFAULT_EXECUTOR = "virtual";
+
+    private ServerExecutors() {}
+
+    /**
+     * Creates the executor selected by the {@value #EXECUTOR_PROPERTY} system property.
+     */
+    public static ExecutorService fromSystemProperties() {
+        return create(System.getProperty(EXECUTOR_PROPERTY, DEFAULT_EXECUTOR));
+    }
+
+    /**
+     * Creates an executor by name.
+     * @param type {@code virtual} for one virtual thread per request, {@code cached} for an elastic
+     *             platform thread pool, or {@code fixed:<threads>} for a bounded pool
+     * @return the executor
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    public static ExecutorService create(String type) {
+        if (type == null || type.isBlank() || type.equalsIgnoreCase("virtual")) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        if (type.equalsIgnoreCase("cached")) {
+            return Executors.newCachedThreadPool();
+        }
+        if (type.toLowerCase().startsWith("fixed:")) {
+            try {
+                return Executors.newFixedThreadPool(Integer.parseInt(type.substring("fixed:".length()).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid thread count in executor type: " + type, e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown executor type: " + type);
+    }
+}
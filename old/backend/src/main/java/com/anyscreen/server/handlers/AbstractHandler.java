@@ -2,6 +2,10 @@ package com.anyscreen.server.handlers;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -17,4 +21,23 @@ public abstract class AbstractHandler implements HttpHandler {
             os.write(responseBytes);
         }
     }
+
+    /**
+     * @return the request's query parameters, decoded; the first value wins for repeated names
+     */
+    protected Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            query.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                              URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
 }
@@ -0,0 +1,140 @@
+package com.anyscreen.server.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.anyscreen.models.ScreenInfo;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.services.DashSegmentStore;
+import com.anyscreen.services.DashStreamSession;
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamVariants;
+import com.anyscreen.services.StreamingService;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Handler for GET /dash/{screenIndex}/manifest.mpd and the segments it lists under
+ * /dash/{screenIndex}/{representation}/.
+ * Serves an adaptive DASH ladder of the screen from memory; the first manifest request starts
+ * the stream and waits for its first segment. Optional query parameters w, fps and q pick the top
+ * of the ladder as for /stream and are carried over to the segment URIs.
+ */
+public class DashHandler extends AbstractHandler {
+
+    // Extra time the first manifest request waits beyond one segment, for encoder start-up
+    private static final long FIRST_SEGMENT_GRACE_MILLIS = 3000;
+
+    private final ScreenCaptureService screenCaptureService;
+    private final StreamingService streamingService;
+
+    public DashHandler(ScreenCaptureService screenCaptureService, StreamingService streamingService) {
+        this.screenCaptureService = screenCaptureService;
+        this.streamingService = streamingService;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+
+        try {
+            String[] pathParts = exchange.getRequestURI().getPath().split("/");
+            if (pathParts.length != 4 && pathParts.length != 5) {
+                sendResponse(exchange, 400, "Invalid URL. Use /dash/{screenIndex}/" + DashSegmentStore.MANIFEST_NAME);
+                return;
+            }
+
+            int screenIndex;
+            try {
+                screenIndex = Integer.parseInt(pathParts[2]);
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "Invalid screen index");
+                return;
+            }
+
+            ScreenInfo screenInfo = screenCaptureService.getScreenInfo(screenIndex);
+            StreamingConfig config;
+            try {
+                config = StreamVariants.select(StreamingProtocol.DASH, screenInfo.getBounds().width,
+                                               screenInfo.getBounds().height, parseQuery(exchange));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, e.getMessage());
+                return;
+            }
+
+            if (pathParts.length == 4) {
+                if (!DashSegmentStore.MANIFEST_NAME.equals(pathParts[3])) {
+                    sendResponse(exchange, 404, "Not Found");
+                    return;
+                }
+                sendManifest(exchange, streamingService.openDashStream(screenIndex, config), config);
+                return;
+            }
+
+            DashStreamSession session = streamingService.findDashStream(screenIndex, config);
+            byte[] data = session != null ? findFile(session.getStore(), pathParts[3], pathParts[4]) : null;
+            if (data == null) {
+                sendResponse(exchange, 404, "Not Found");
+                return;
+            }
+            // Segments never change once listed, so browsers and proxies may keep them
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            send(exchange, "video/mp4", data);
+
+        } catch (Exception e) {
+            LoggerService.error("Error in DASH handler: " + e.getMessage());
+            try {
+                sendResponse(exchange, 500, "Streaming error: " + e.getMessage());
+            } catch (IOException ioException) {
+                // Ignore close errors
+            }
+        }
+    }
+
+    private void sendManifest(HttpExchange exchange, DashStreamSession session, StreamingConfig config)
+            throws IOException, InterruptedException {
+        DashSegmentStore store = session.getStore();
+        long timeout = (long) (session.getSegmentSeconds() * 1000) + FIRST_SEGMENT_GRACE_MILLIS;
+        if (!store.awaitSegments(1, timeout)) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(exchange, 503, "Stream starting");
+            return;
+        }
+        String query = exchange.getRequestURI().getRawQuery();
+        String manifest = store.manifest(config.getFrameRate(), query == null || query.isEmpty() ? "" : "?" + query);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        send(exchange, StreamingProtocol.DASH.getMimeType(), manifest.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the init or media segment of the representation, or null if it is not stored
+     */
+    private static byte[] findFile(DashSegmentStore store, String representation, String name) {
+        if (DashSegmentStore.INIT_NAME.equals(name)) {
+            return store.getInitSegment(representation);
+        }
+        if (name.endsWith(DashSegmentStore.SEGMENT_SUFFIX)) {
+            try {
+                return store.getSegment(representation, Long.parseLong(
+                    name.substring(0, name.length() - DashSegmentStore.SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
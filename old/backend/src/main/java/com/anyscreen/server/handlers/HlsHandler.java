@@ -0,0 +1,193 @@
+package com.anyscreen.server.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.anyscreen.models.ScreenInfo;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.services.HlsSegmentStore;
+import com.anyscreen.services.HlsStreamSession;
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamVariants;
+import com.anyscreen.services.StreamingService;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Handler for GET /hls/{screenIndex}/index.m3u8 and the init, media and partial segments it lists.
+ * Serves a Low-Latency HLS stream of the screen from memory; the first playlist request starts
+ * the stream and waits for its first segment. Optional query parameters w, fps and q pick a
+ * variant as for /stream and are carried over to the listed URIs.
+ * Playlist requests with {@code _HLS_msn} (and {@code _HLS_part}) are held until the playlist
+ * contains that segment (or part), and a request for the part named by the preload hint is held
+ * until the part exists. Held requests wait on the request's own virtual thread, see
+ * {@link com.anyscreen.server.ServerExecutors}.
+ */
+public class HlsHandler extends AbstractHandler {
+
+    // Extra time the first playlist request waits beyond one segment, for encoder start-up
+    private static final long FIRST_SEGMENT_GRACE_MILLIS = 3000;
+    /** Blocking playlist reload parameters of Low-Latency HLS */
+    public static final String QUERY_MSN = "_HLS_msn";
+    public static final String QUERY_PART = "_HLS_part";
+    private static final String LOW_LATENCY_QUERY_PREFIX = "_HLS_";
+
+    private final ScreenCaptureService screenCaptureService;
+    private final StreamingService streamingService;
+
+    public HlsHandler(ScreenCaptureService screenCaptureService, StreamingService streamingService) {
+        this.screenCaptureService = screenCaptureService;
+        this.streamingService = streamingService;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "Method Not Allowed");
+            return;
+        }
+
+        try {
+            String[] pathParts = exchange.getRequestURI().getPath().split("/");
+            if (pathParts.length != 4) {
+                sendResponse(exchange, 400, "Invalid URL. Use /hls/{screenIndex}/" + HlsSegmentStore.PLAYLIST_NAME);
+                return;
+            }
+
+            int screenIndex;
+            try {
+                screenIndex = Integer.parseInt(pathParts[2]);
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "Invalid screen index");
+                return;
+            }
+
+            ScreenInfo screenInfo = screenCaptureService.getScreenInfo(screenIndex);
+            StreamingConfig config;
+            try {
+                config = StreamVariants.select(StreamingProtocol.HLS, screenInfo.getBounds().width,
+                                               screenInfo.getBounds().height, parseQuery(exchange));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, e.getMessage());
+                return;
+            }
+
+            String name = pathParts[3];
+            if (HlsSegmentStore.PLAYLIST_NAME.equals(name)) {
+                sendPlaylist(exchange, streamingService.openHlsStream(screenIndex, config), parseQuery(exchange));
+                return;
+            }
+
+            HlsStreamSession session = streamingService.findHlsStream(screenIndex, config);
+            byte[] data = session != null ? findFile(session, name) : null;
+            if (data == null) {
+                sendResponse(exchange, 404, "Not Found");
+                return;
+            }
+            // Segments never change once listed, so browsers and proxies may keep them
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            send(exchange, "video/mp4", data);
+
+        } catch (Exception e) {
+            LoggerService.error("Error in HLS handler: " + e.getMessage());
+            try {
+                sendResponse(exchange, 500, "Streaming error: " + e.getMessage());
+            } catch (IOException ioException) {
+                // Ignore close errors
+            }
+        }
+    }
+
+    private void sendPlaylist(HttpExchange exchange, HlsStreamSession session, Map<String, String> query)
+            throws IOException, InterruptedException {
+        HlsSegmentStore store = session.getStore();
+        long segmentMillis = (long) (session.getSegmentSeconds() * 1000);
+        if (!store.awaitSegments(1, segmentMillis + FIRST_SEGMENT_GRACE_MILLIS)) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(exchange, 503, "Stream starting");
+            return;
+        }
+        if (query.containsKey(QUERY_MSN)) {
+            long msn;
+            int part;
+            try {
+                msn = Long.parseLong(query.get(QUERY_MSN));
+                part = query.containsKey(QUERY_PART) ? Integer.parseInt(query.get(QUERY_PART)) : -1;
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "Invalid " + QUERY_MSN + " or " + QUERY_PART);
+                return;
+            }
+            // Asking for more than two segments past the playlist can only be a confused client
+            if (msn < 0 || msn > store.getLastSequence() + 2) {
+                sendResponse(exchange, 400, "Invalid " + QUERY_MSN + ": " + msn);
+                return;
+            }
+            // The spec allows a server three target durations before giving up on a blocked reload
+            if (!store.awaitPlaylist(msn, part, 3 * segmentMillis)) {
+                sendResponse(exchange, 503, "Segment " + msn + " not available");
+                return;
+            }
+        }
+        String playlist = store.playlist(variantQuery(exchange.getRequestURI().getRawQuery()));
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        send(exchange, StreamingProtocol.HLS.getMimeType(), playlist.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Keeps the query parameters that select the variant, for the URIs in the playlist.
+     * @return the query with a leading '?', or an empty string
+     */
+    static String variantQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        StringBuilder kept = new StringBuilder();
+        for (String pair : rawQuery.split("&")) {
+            if (!pair.isEmpty() && !pair.startsWith(LOW_LATENCY_QUERY_PREFIX)) {
+                kept.append(kept.length() == 0 ? '?' : '&').append(pair);
+            }
+        }
+        return kept.toString();
+    }
+
+    /**
+     * @return the init, media or partial segment with the file name, or null if it is not stored
+     */
+    private static byte[] findFile(HlsStreamSession session, String name) throws InterruptedException {
+        HlsSegmentStore store = session.getStore();
+        try {
+            if (name.startsWith(HlsSegmentStore.INIT_PREFIX) && name.endsWith(HlsSegmentStore.INIT_SUFFIX)) {
+                return store.getInitSegment(Integer.parseInt(name.substring(
+                    HlsSegmentStore.INIT_PREFIX.length(), name.length() - HlsSegmentStore.INIT_SUFFIX.length())));
+            }
+            if (name.endsWith(HlsSegmentStore.SEGMENT_SUFFIX)) {
+                String base = name.substring(0, name.length() - HlsSegmentStore.SEGMENT_SUFFIX.length());
+                int dot = base.indexOf('.');
+                if (dot < 0) {
+                    HlsSegmentStore.Segment segment = store.getSegment(Long.parseLong(base));
+                    return segment != null ? segment.getData() : null;
+                }
+                // Players fetch the preload hint before the part exists, so hold them for up to a segment
+                HlsSegmentStore.Part part = store.awaitPart(Long.parseLong(base.substring(0, dot)),
+                                                            Integer.parseInt(base.substring(dot + 1)),
+                                                            (long) (session.getSegmentSeconds() * 1000));
+                return part != null ? part.getData() : null;
+            }
+        } catch (NumberFormatException e) {
+            // Not one of ours
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -1,30 +1,44 @@
 package com.anyscreen.server.handlers;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
 import com.anyscreen.models.ScreenInfo;
 import com.anyscreen.models.StreamingConfig;
 import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.services.ClientConnection;
 import com.anyscreen.services.LoggerService;
 import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamVariants;
 import com.anyscreen.services.StreamingService;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
- * Handler for GET /stream/{screenIndex}
- * Streams MJPEG video of specified screen
+ * Handler for GET /stream/{screenIndex}, GET /stream/{screenIndex}.mp4 and GET /tiles/{screenIndex}
+ * Streams MJPEG video, H.264 in fragmented MP4 for a video element, or delta tiles for the tile
+ * viewer, of specified screen.
+ * Optional query parameters w, fps and q pick a smaller size, lower rate or other quality.
  */
 public class ScreenStreamHandler extends AbstractHandler {
 
+    private static final String MP4_SUFFIX = ".mp4";
+
     private ScreenCaptureService screenCaptureService;
     private StreamingService streamingService;
+    private final StreamingProtocol protocol;
 
     public ScreenStreamHandler(ScreenCaptureService screenCaptureService, StreamingService streamingService){
-            this.screenCaptureService = screenCaptureService;
-            this.streamingService = streamingService;
-        
+        this(screenCaptureService, streamingService, StreamingProtocol.MJPEG);
+    }
+
+    /**
+     * @param protocol Protocol of the streams this handler serves, MJPEG or TILES
+     */
+    public ScreenStreamHandler(ScreenCaptureService screenCaptureService, StreamingService streamingService,
+                               StreamingProtocol protocol) {
+        this.screenCaptureService = screenCaptureService;
+        this.streamingService = streamingService;
+        this.protocol = protocol;
     }
     
     public void handle(HttpExchange exchange) throws IOException {
@@ -39,13 +53,21 @@ public class ScreenStreamHandler extends AbstractHandler {
             String[] pathParts = path.split("/");
             
             if (pathParts.length < 3) {
-                sendResponse(exchange, 400, "Invalid URL. Use /stream/{screenIndex}");
+                sendResponse(exchange, 400, "Invalid URL. Use /" + pathParts[1] + "/{screenIndex}");
                 return;
             }
             
+            // /stream/{screenIndex}.mp4 asks for the same screen as H.264 a video element plays
+            StreamingProtocol streamProtocol = protocol;
+            String screen = pathParts[2];
+            if (protocol == StreamingProtocol.MJPEG && screen.endsWith(MP4_SUFFIX)) {
+                streamProtocol = StreamingProtocol.MP4;
+                screen = screen.substring(0, screen.length() - MP4_SUFFIX.length());
+            }
+
             int screenIndex;
             try {
-                screenIndex = Integer.parseInt(pathParts[2]);
+                screenIndex = Integer.parseInt(screen);
             } catch (NumberFormatException e) {
                 sendResponse(exchange, 400, "Invalid screen index");
                 return;
@@ -53,9 +75,20 @@ public class ScreenStreamHandler extends AbstractHandler {
             
             // Get screen info
             ScreenInfo screenInfo = screenCaptureService.getScreenInfo(screenIndex);
+
+            // Viewers pick size, rate and quality with ?w=960&fps=10&q=60, rounded to a shared variant
+            StreamingConfig config;
+            try {
+                config = StreamVariants.select(streamProtocol, screenInfo.getBounds().width,
+                                               screenInfo.getBounds().height, parseQuery(exchange));
+            } catch (IllegalArgumentException e) {
+                sendResponse(exchange, 400, e.getMessage());
+                return;
+            }
             
-            // Set MJPEG headers
-            exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=frame");
+            // MJPEG replaces multipart parts; MP4 and tiles are plain byte streams the browser reads
+            exchange.getResponseHeaders().set("Content-Type", streamProtocol == StreamingProtocol.MJPEG
+                ? "multipart/x-mixed-replace; boundary=frame" : streamProtocol.getMimeType());
             exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store, must-revalidate");
             exchange.getResponseHeaders().set("Pragma", "no-cache");
             exchange.getResponseHeaders().set("Expires", "0");
@@ -68,41 +101,16 @@ public class ScreenStreamHandler extends AbstractHandler {
             String clientId = exchange.getRemoteAddress().toString();
             LoggerService.info("Starting stream for client: " + clientId + ", screen: " + screenIndex);
             
-            // Configure streaming
-            StreamingConfig config = new StreamingConfig.Builder()
-                .protocol(StreamingProtocol.MJPEG)
-                .resolution(screenInfo.getBounds().width, screenInfo.getBounds().height)
-                .frameRate(30)
-                .quality(80)
-                .build();
-            
-            streamingService.configure(config);
-            streamingService.handleClientConnection(clientId, outputStream);
-            streamingService.startStreaming();
-            
-            // Stream frames continuously
-            long frameDelay = 1000 / 30; // 30 FPS
+            // Frames are captured once per screen and pushed to us by the shared broadcaster
+            ClientConnection client = streamingService.subscribe(screenIndex, clientId, outputStream, config);
             
             try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    BufferedImage frame = screenCaptureService.captureScreen(screenIndex);
-                    streamingService.streamFrame(frame);
-                    
-                    // Use a simple delay mechanism instead of Thread.sleep
-                    long startTime = System.currentTimeMillis();
-                    while (System.currentTimeMillis() - startTime < frameDelay) {
-                        // Busy wait for frame delay
-                        if (Thread.currentThread().isInterrupted()) {
-                            break;
-                        }
-                    }
-                }
+                client.awaitDisconnection();
             } catch (InterruptedException e) {
                 LoggerService.info("Streaming interrupted for client: " + clientId);
-            } catch (Exception e) {
-                LoggerService.error("Streaming error: " + e.getMessage());
+                Thread.currentThread().interrupt();
             } finally {
-                streamingService.handleClientDisconnection(clientId);
+                streamingService.unsubscribe(screenIndex, clientId);
                 outputStream.close();
             }
             
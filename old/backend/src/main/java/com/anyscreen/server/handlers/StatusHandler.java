@@ -28,7 +28,7 @@ public class StatusHandler extends AbstractHandler {
             StringBuilder json = new StringBuilder();
             json.append("{\n");
             json.append("  \"server\": \"running\",\n");
-            json.append("  \"port\": ").append(streamingService.getConfig().getPort()).append(",\n");
+            json.append("  \"port\": ").append(exchange.getLocalAddress().getPort()).append(",\n");
             json.append("  \"streaming\": ").append(streamingService.isStreaming()).append(",\n");
             json.append("  \"clients\": ").append(streamingService.getConnectedClientsCount()).append("\n");
             json.append("}");
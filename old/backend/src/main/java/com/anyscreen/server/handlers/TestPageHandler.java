@@ -8,6 +8,19 @@ import com.sun.net.httpserver.HttpExchange;
 
 public class TestPageHandler extends AbstractHandler {
 
+    private final String page;
+
+    public TestPageHandler() {
+        this(HTMLConstants.TEST_PAGE);
+    }
+
+    /**
+     * @param page HTML served for every GET
+     */
+    public TestPageHandler(String page) {
+        this.page = page;
+    }
+
     public void handle(HttpExchange exchange) throws IOException {
         if (!"GET".equals(exchange.getRequestMethod())) {
             sendResponse(exchange, 405, "Method Not Allowed");
@@ -20,6 +33,6 @@ public class TestPageHandler extends AbstractHandler {
     }
 
     private String generateTestPage() {
-        return HTMLConstants.TEST_PAGE;
+        return page;
     }
 }
@@ -1,6 +1,8 @@
 package com.anyscreen.server.routing;
 
 import com.sun.net.httpserver.HttpServer;
+import com.anyscreen.constants.HTMLConstants;
+import com.anyscreen.models.StreamingProtocol;
 import com.anyscreen.server.handlers.*;
 import com.anyscreen.services.ScreenCaptureService;
 import com.anyscreen.services.StreamingService;
@@ -19,6 +21,10 @@ public class Router {
     public void configureRoutes() {
         server.createContext("/screens", new ScreenListHandler(screenCaptureService));
         server.createContext("/stream/", new ScreenStreamHandler(screenCaptureService, streamingService));
+        server.createContext("/tiles/", new ScreenStreamHandler(screenCaptureService, streamingService, StreamingProtocol.TILES));
+        server.createContext("/hls/", new HlsHandler(screenCaptureService, streamingService));
+        server.createContext("/dash/", new DashHandler(screenCaptureService, streamingService));
+        server.createContext("/viewer/tiles", new TestPageHandler(HTMLConstants.TILE_VIEWER_PAGE));
         server.createContext("/status", new StatusHandler(streamingService));
         server.createContext("/", new TestPageHandler());
     }
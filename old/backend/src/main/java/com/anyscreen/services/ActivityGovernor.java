@@ -0,0 +1,117 @@
+package com.anyscreen.services;
+
+import java.util.concurrent.TimeUnit;
+
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Picks the capture rate of one screen from its recent activity.
+ * After a period without changed pixels the capture loop drops to a low idle rate; the first
+ * frame with a change, or a new viewer, brings it straight back to the full rate. Also measures
+ * the rate frames are actually captured at.
+ * Only {@link #wake()} and the getters may be called from outside the capture loop.
+ */
+public class ActivityGovernor {
+
+    /** Config parameter: capture rate of a screen without changes */
+    public static final String PARAM_IDLE_FRAME_RATE = "capture.idleFrameRate";
+    /** Config parameter: ms without changes before a screen counts as idle; 0 disables idling */
+    public static final String PARAM_IDLE_AFTER_MILLIS = "capture.idleAfterMillis";
+    public static final int DEFAULT_IDLE_FRAME_RATE = 2;
+    public static final long DEFAULT_IDLE_AFTER_MILLIS = 3000;
+
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long lastActivityNanos = System.nanoTime();
+    private volatile boolean idle;
+    private volatile int currentFrameRate;
+    private volatile double effectiveFrameRate;
+    private long windowStart = System.nanoTime();
+    private int windowFrames;
+
+    /**
+     * @param config A session's configuration
+     * @return the idle capture rate the session asks for, never above its full rate
+     */
+    public static int idleFrameRateOf(StreamingConfig config) {
+        Object value = config.getAdditionalParams().get(PARAM_IDLE_FRAME_RATE);
+        int idleFrameRate = value != null ? Integer.parseInt(value.toString()) : DEFAULT_IDLE_FRAME_RATE;
+        return Math.max(1, Math.min(idleFrameRate, config.getFrameRate()));
+    }
+
+    /**
+     * @param config A session's configuration
+     * @return how long the session's screen must be still before idling, 0 if never
+     */
+    public static long idleAfterNanosOf(StreamingConfig config) {
+        Object value = config.getAdditionalParams().get(PARAM_IDLE_AFTER_MILLIS);
+        long millis = value != null ? Long.parseLong(value.toString()) : DEFAULT_IDLE_AFTER_MILLIS;
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Chooses the rate of the next frame.
+     * @param activeFrameRate Rate while the screen changes
+     * @param idleFrameRate Rate once the screen has been still for idleAfterNanos
+     * @param idleAfterNanos Still period before idling; 0 or less never idles
+     * @param now Current {@code nanoTime}
+     * @return the frame rate to capture at
+     */
+    public int selectFrameRate(int activeFrameRate, int idleFrameRate, long idleAfterNanos, long now) {
+        idle = idleAfterNanos > 0 && idleFrameRate < activeFrameRate && now - lastActivityNanos >= idleAfterNanos;
+        currentFrameRate = idle ? Math.max(1, idleFrameRate) : activeFrameRate;
+        return currentFrameRate;
+    }
+
+    /**
+     * Records a captured frame.
+     * @param changed Whether any pixel differs from the previous frame
+     * @param now Current {@code nanoTime}
+     */
+    public void recordFrame(boolean changed, long now) {
+        if (changed) {
+            lastActivityNanos = now;
+        }
+        windowFrames++;
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            effectiveFrameRate = windowFrames * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            windowStart = now;
+            windowFrames = 0;
+        }
+    }
+
+    /**
+     * Counts as activity, e.g. a viewer joining, so the next frame is at the full rate.
+     */
+    public void wake() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * Forgets the measured rate, e.g. when capture stops.
+     */
+    public void reset() {
+        effectiveFrameRate = 0;
+        windowStart = System.nanoTime();
+        windowFrames = 0;
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return the rate last chosen by {@link #selectFrameRate}
+     */
+    public int getCurrentFrameRate() {
+        return currentFrameRate;
+    }
+
+    /**
+     * @return frames actually captured per second over the last full second
+     */
+    public double getEffectiveFrameRate() {
+        return effectiveFrameRate;
+    }
+}
@@ -0,0 +1,235 @@
+package com.anyscreen.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import com.anyscreen.models.FramePacket;
+
+/**
+ * A single viewer attached to a stream.
+ * Frames are handed over through a small bounded mailbox and written by the viewer's own writer
+ * thread, so a slow viewer never blocks the capture/encode path or the other viewers. When the
+ * mailbox is full the oldest unsent frame is dropped in favour of the new one.
+ */
+public class ClientConnection {
+
+    public static final int DEFAULT_MAILBOX_CAPACITY = 1;
+    // The writer only copies packets to a stream; a small stack keeps many viewers cheap
+    private static final long WRITER_STACK_SIZE = 256 * 1024;
+
+    private final String clientId;
+    private final OutputStream outputStream;
+    private final int mailboxCapacity;
+    private final LongConsumer bytesWrittenListener;
+    private final ArrayDeque<FramePacket> mailbox;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private final AtomicLong framesWritten = new AtomicLong(0);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private volatile boolean active = true;
+    private volatile long lastFrameTime = System.currentTimeMillis();
+    private Thread writerThread;
+
+    public ClientConnection(String clientId, OutputStream outputStream) {
+        this(clientId, outputStream, DEFAULT_MAILBOX_CAPACITY, bytes -> {});
+    }
+
+    /**
+     * @param clientId Unique id of the viewer
+     * @param outputStream The viewer's response stream
+     * @param mailboxCapacity Maximum number of frames waiting to be written
+     * @param bytesWrittenListener Notified with the payload size of every frame written
+     */
+    public ClientConnection(String clientId, OutputStream outputStream, int mailboxCapacity,
+                            LongConsumer bytesWrittenListener) {
+        if (mailboxCapacity < 1) {
+            throw new IllegalArgumentException("Mailbox capacity must be at least 1: " + mailboxCapacity);
+        }
+        this.clientId = clientId;
+        this.outputStream = outputStream;
+        this.mailboxCapacity = mailboxCapacity;
+        this.bytesWrittenListener = bytesWrittenListener;
+        this.mailbox = new ArrayDeque<>(mailboxCapacity);
+    }
+
+    /**
+     * Starts the viewer's writer on its own daemon platform thread.
+     * Not a virtual thread: the HTTP server's response stream writes inside synchronized methods,
+     * so a writer blocked on a slow viewer's socket would pin its carrier thread, and a handful of
+     * stalled viewers would starve every other virtual thread in the process.
+     */
+    public synchronized void start() {
+        if (writerThread == null) {
+            writerThread = Thread.ofPlatform()
+                                 .name("client-writer-" + clientId)
+                                 .daemon(true)
+                                 .stackSize(WRITER_STACK_SIZE)
+                                 .start(this::writeLoop);
+        }
+    }
+
+    /**
+     * Queues a frame packet for the viewer without blocking.
+     * The connection holds its own reference until the packet is written or dropped.
+     * If the mailbox is full the oldest unsent packet is dropped.
+     * @param packet The encoded frame, headers included
+     * @return true if the packet was queued, false if the viewer is gone
+     */
+    public boolean offerFrame(FramePacket packet) {
+        if (!active) {
+            return false;
+        }
+
+        FramePacket dropped = null;
+        lock.lock();
+        try {
+            if (!active) {
+                return false;
+            }
+            if (mailbox.size() >= mailboxCapacity) {
+                dropped = mailbox.pollFirst();
+                droppedFrames.incrementAndGet();
+            }
+            mailbox.addLast(packet.retain());
+            frameAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (dropped != null) {
+            dropped.release();
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            FramePacket packet;
+            while ((packet = takeFrame()) != null) {
+                try {
+                    packet.writeTo(outputStream);
+                    outputStream.flush();
+                } finally {
+                    packet.release();
+                }
+
+                lastFrameTime = System.currentTimeMillis();
+                framesWritten.incrementAndGet();
+                bytesWritten.addAndGet(packet.getPayloadLength());
+                bytesWrittenListener.accept(packet.getPayloadLength());
+            }
+        } catch (IOException e) {
+            LoggerService.debug("Client " + clientId + " disconnected");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Waits for the next frame.
+     * @return the frame, or null once the connection is closed
+     */
+    private FramePacket takeFrame() throws InterruptedException {
+        lock.lock();
+        try {
+            while (active && mailbox.isEmpty()) {
+                frameAvailable.await();
+            }
+            return active ? mailbox.pollFirst() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the connection is closed, either by a failed write or by {@link #close()}.
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void awaitDisconnection() throws InterruptedException {
+        disconnected.await();
+    }
+
+    /**
+     * Closes the underlying stream, stops the writer and releases anyone waiting on
+     * {@link #awaitDisconnection()}.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            active = false;
+            FramePacket packet;
+            while ((packet = mailbox.pollFirst()) != null) {
+                packet.release();
+            }
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+        disconnected.countDown();
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return mailbox.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentHashMap<>();
+        stats.put("clientId", clientId);
+        stats.put("active", active);
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("framesWritten", framesWritten.get());
+        stats.put("droppedFrames", droppedFrames.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        return stats;
+    }
+}
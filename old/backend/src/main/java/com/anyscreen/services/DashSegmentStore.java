@@ -0,0 +1,374 @@
+package com.anyscreen.services;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.anyscreen.models.EncodedVideoFrame;
+
+/**
+ * In-memory store of one live DASH stream: the init segment of every representation of the
+ * ladder and the most recent segments, cut at the same frames in every representation, with the
+ * MPD describing them.
+ * The store is bounded both by a number of segments and by bytes: the oldest segment is dropped
+ * once either limit is passed, so a high native resolution shortens the time-shift buffer
+ * instead of growing memory.
+ * Thread-safe.
+ */
+public class DashSegmentStore {
+
+    /** File name of the manifest */
+    public static final String MANIFEST_NAME = "manifest.mpd";
+    /** File name of a representation's init segment */
+    public static final String INIT_NAME = "init.mp4";
+    public static final String SEGMENT_SUFFIX = ".m4s";
+
+    /**
+     * One rendition of the ladder.
+     */
+    public static final class Representation {
+        private final String id;
+        private final int width;
+        private final int height;
+        private final long nominalBandwidth;
+        private byte[] initSegment;
+        private String codecs;
+
+        Representation(String id, int width, int height, long nominalBandwidth) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.nominalBandwidth = nominalBandwidth;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    /**
+     * One segment of every representation.
+     */
+    private static final class Segment {
+        final long number;
+        final long startTicks;
+        final long durationTicks;
+        final Map<String, byte[]> data;
+        final long bytes;
+
+        Segment(long number, long startTicks, long durationTicks, Map<String, byte[]> data) {
+            this.number = number;
+            this.startTicks = startTicks;
+            this.durationTicks = durationTicks;
+            this.data = data;
+            long total = 0;
+            for (byte[] bytes : data.values()) {
+                total += bytes.length;
+            }
+            this.bytes = total;
+        }
+    }
+
+    private final int windowSize;
+    private final long maxBytes;
+    private final double segmentSeconds;
+    private final long availabilityStartMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Representation> representations = new LinkedHashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextNumber = 1;
+    private long bytesStored;
+    private long segmentsAdded;
+    private long segmentsEvictedForBytes;
+
+    /**
+     * @param windowSize Most segments kept and listed in the manifest
+     * @param maxBytes Most bytes of segments kept; the newest segment is kept even if larger
+     * @param segmentSeconds Intended segment duration in seconds
+     * @param availabilityStartMillis Wall-clock time of media time 0, in epoch milliseconds
+     */
+    public DashSegmentStore(int windowSize, long maxBytes, double segmentSeconds, long availabilityStartMillis) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Window must hold at least 2 segments: " + windowSize);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid byte limit: " + maxBytes);
+        }
+        this.windowSize = windowSize;
+        this.maxBytes = maxBytes;
+        this.segmentSeconds = segmentSeconds;
+        this.availabilityStartMillis = availabilityStartMillis;
+    }
+
+    /**
+     * Adds a rendition to the ladder; it is listed once its init segment is set.
+     * @param nominalBandwidth Bits per second the encoder aims for, announced until segments exist
+     */
+    public void addRepresentation(String id, int width, int height, long nominalBandwidth) {
+        lock.lock();
+        try {
+            if (representations.containsKey(id)) {
+                throw new IllegalArgumentException("Duplicate representation: " + id);
+            }
+            representations.put(id, new Representation(id, width, height, nominalBandwidth));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets a representation's init segment.
+     * @param codecs RFC 6381 codecs string of the track, e.g. {@code avc1.42c01f}
+     */
+    public void setInitSegment(String id, byte[] data, String codecs) {
+        lock.lock();
+        try {
+            Representation representation = representations.get(id);
+            if (representation == null) {
+                throw new IllegalArgumentException("Unknown representation: " + id);
+            }
+            representation.initSegment = data;
+            representation.codecs = codecs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a segment of every representation, dropping the oldest ones past the window or byte
+     * limit, and wakes any request waiting for it.
+     * @param startTicks Media time of the first frame on the 90 kHz clock
+     * @param durationTicks Duration on the 90 kHz clock
+     * @param data The segment of each representation, by id
+     * @return the segment number
+     */
+    public long addSegment(long startTicks, long durationTicks, Map<String, byte[]> data) {
+        lock.lock();
+        try {
+            for (String id : data.keySet()) {
+                Representation representation = representations.get(id);
+                if (representation == null || representation.initSegment == null) {
+                    throw new IllegalStateException("No init segment for representation: " + id);
+                }
+            }
+            Segment segment = new Segment(nextNumber++, startTicks, durationTicks, Map.copyOf(data));
+            segments.addLast(segment);
+            bytesStored += segment.bytes;
+            segmentsAdded++;
+            while (segments.size() > windowSize || (bytesStored > maxBytes && segments.size() > 1)) {
+                if (segments.size() <= windowSize) {
+                    segmentsEvictedForBytes++;
+                }
+                bytesStored -= segments.removeFirst().bytes;
+            }
+            changed.signalAll();
+            return segment.number;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the store holds at least the given number of segments.
+     * @return true if it does, false on timeout
+     */
+    public boolean awaitSegments(int count, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (segments.size() < count) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a representation's segment, or null if it is not (or no longer) stored
+     */
+    public byte[] getSegment(String id, long number) {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.number == number) {
+                    return segment.data.get(id);
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a representation's init segment, or null if it has none
+     */
+    public byte[] getInitSegment(String id) {
+        lock.lock();
+        try {
+            Representation representation = representations.get(id);
+            return representation != null ? representation.initSegment : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the live MPD of the stored segments: one adaptation set with a representation per
+     * rendition, sharing a segment timeline since all of them are cut at the same frames.
+     * @param frameRate Frame rate to announce
+     * @param uriSuffix Appended to every URI template, e.g. the query string that selected the stream
+     * @return the manifest, or null if no segment is stored yet
+     */
+    public String manifest(int frameRate, String uriSuffix) {
+        lock.lock();
+        try {
+            if (segments.isEmpty()) {
+                return null;
+            }
+            double windowSeconds = 0;
+            long maxDuration = 0;
+            for (Segment segment : segments) {
+                windowSeconds += seconds(segment.durationTicks);
+                maxDuration = Math.max(maxDuration, segment.durationTicks);
+            }
+            String suffix = escape(uriSuffix);
+            StringBuilder mpd = new StringBuilder(1024 + segments.size() * 48);
+            mpd.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" profiles=\"urn:mpeg:dash:profile:isoff-live:2011\"")
+                .append(" type=\"dynamic\"")
+                .append(" availabilityStartTime=\"").append(dateTime(availabilityStartMillis)).append('"')
+                .append(" publishTime=\"").append(dateTime(System.currentTimeMillis())).append('"')
+                .append(" minimumUpdatePeriod=\"").append(duration(segmentSeconds)).append('"')
+                .append(" minBufferTime=\"").append(duration(segmentSeconds)).append('"')
+                .append(" timeShiftBufferDepth=\"").append(duration(windowSeconds)).append('"')
+                .append(" suggestedPresentationDelay=\"").append(duration(2 * segmentSeconds)).append('"')
+                .append(" maxSegmentDuration=\"").append(duration(seconds(maxDuration))).append("\">\n")
+                .append("  <Period id=\"0\" start=\"PT0S\">\n")
+                .append("    <AdaptationSet contentType=\"video\" mimeType=\"video/mp4\" segmentAlignment=\"true\"")
+                .append(" startWithSAP=\"1\">\n")
+                .append("      <SegmentTemplate timescale=\"").append(EncodedVideoFrame.TIMESCALE).append('"')
+                .append(" initialization=\"$RepresentationID$/").append(INIT_NAME).append(suffix).append('"')
+                .append(" media=\"$RepresentationID$/$Number$").append(SEGMENT_SUFFIX).append(suffix).append('"')
+                .append(" startNumber=\"").append(segments.peekFirst().number).append("\">\n")
+                .append("        <SegmentTimeline>\n");
+            for (Segment segment : segments) {
+                mpd.append("          <S t=\"").append(segment.startTicks)
+                    .append("\" d=\"").append(segment.durationTicks).append("\"/>\n");
+            }
+            mpd.append("        </SegmentTimeline>\n")
+                .append("      </SegmentTemplate>\n");
+            for (Representation representation : representations.values()) {
+                if (representation.initSegment == null) {
+                    continue;
+                }
+                mpd.append("      <Representation id=\"").append(representation.id).append('"')
+                    .append(" codecs=\"").append(representation.codecs).append('"')
+                    .append(" bandwidth=\"").append(bandwidth(representation)).append('"')
+                    .append(" width=\"").append(representation.width).append('"')
+                    .append(" height=\"").append(representation.height).append('"')
+                    .append(" frameRate=\"").append(frameRate).append('"')
+                    .append(" sar=\"1:1\"/>\n");
+            }
+            mpd.append("    </AdaptationSet>\n")
+                .append("  </Period>\n")
+                .append("  <UTCTiming schemeIdUri=\"urn:mpeg:dash:utc:direct:2014\" value=\"")
+                .append(dateTime(System.currentTimeMillis())).append("\"/>\n")
+                .append("</MPD>\n");
+            return mpd.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Peak bitrate over the stored segments, which is what a player needs to fetch each one in
+     * time; the encoder's target until a segment exists.
+     */
+    private long bandwidth(Representation representation) {
+        long peak = 0;
+        for (Segment segment : segments) {
+            byte[] data = segment.data.get(representation.id);
+            if (data != null && segment.durationTicks > 0) {
+                peak = Math.max(peak, Math.round(data.length * 8 / seconds(segment.durationTicks)));
+            }
+        }
+        return peak > 0 ? peak : representation.nominalBandwidth;
+    }
+
+    private static double seconds(long ticks) {
+        return (double) ticks / EncodedVideoFrame.TIMESCALE;
+    }
+
+    private static String dateTime(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).truncatedTo(ChronoUnit.MILLIS).toString();
+    }
+
+    private static String duration(double seconds) {
+        return String.format(Locale.ROOT, "PT%.3fS", seconds);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytesStored() {
+        lock.lock();
+        try {
+            return bytesStored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new ConcurrentHashMap<>();
+            stats.put("representations", representations.size());
+            stats.put("segments", segments.size());
+            stats.put("segmentsAdded", segmentsAdded);
+            stats.put("segmentsEvictedForBytes", segmentsEvictedForBytes);
+            stats.put("bytesStored", bytesStored);
+            stats.put("maxBytes", maxBytes);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodedVideoFrame;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Stream session for the {@link com.anyscreen.models.StreamingProtocol#DASH} protocol.
+ * Encodes every captured frame into an adaptive ladder: the configured size plus each of
+ * {@link #LADDER_HEIGHTS} below it, downscaled from the same capture by a {@link FrameScaler}
+ * per rendition. All renditions are asked for a keyframe on the same frame, so their segments in
+ * the {@link DashSegmentStore} line up and a player on a constrained link can step down at any
+ * segment boundary instead of stalling.
+ * A still screen is encoded again at least every {@link #MAX_FRAME_GAP_MILLIS} ms, as tiny
+ * predicted frames, so segments keep being cut on time.
+ */
+public class DashStreamSession extends StreamSession {
+
+    /** Config parameter: target segment duration in ms */
+    public static final String PARAM_SEGMENT_MILLIS = "dash.segmentMillis";
+    /** Config parameter: most segments kept and listed in the manifest */
+    public static final String PARAM_WINDOW_SEGMENTS = "dash.windowSegments";
+    /** Config parameter: most bytes of segments kept over all renditions */
+    public static final String PARAM_MAX_BYTES = "dash.maxBytes";
+    public static final long DEFAULT_SEGMENT_MILLIS = 2000;
+    public static final int DEFAULT_WINDOW_SEGMENTS = 15;
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    /** Heights of the renditions below the configured size */
+    public static final int[] LADDER_HEIGHTS = {1080, 720, 360};
+    /** Longest time between two encoded frames, even while the screen is still */
+    public static final long MAX_FRAME_GAP_MILLIS = 500;
+
+    /**
+     * One rendition and the state of its current segment; only used by the capture thread, and
+     * by close() once no frame is delivered.
+     */
+    private static final class Rendition {
+        final String id;
+        final int width;
+        final int height;
+        // Null for the top rendition, which gets the captured frame as is
+        final FrameScaler scaler;
+        VideoEncoderInterface encoder;
+        EncodedVideoFrame pending;
+        final List<Fmp4Muxer.Sample> samples = new ArrayList<>();
+
+        Rendition(String id, int width, int height, FrameScaler scaler) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.scaler = scaler;
+        }
+    }
+
+    private final DashSegmentStore store;
+    private final List<Rendition> renditions = new ArrayList<>();
+    private final long segmentTicks;
+    private final long startNanos = System.nanoTime();
+    // Only used by the capture thread
+    private boolean started;
+    private long lastTimestamp = -1;
+    private long segmentStart;
+    private long fragmentSequence;
+    private volatile long lastEncodedNanos;
+    // Changes of the frames the throttle dropped, which the scalers have not seen; guarded by the session lock
+    private DirtyTileMap skippedChanges;
+    private boolean skippedUnknown;
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session; its resolution is the top of the ladder
+     */
+    public DashStreamSession(int screenIndex, StreamingConfig config) {
+        super(screenIndex, config);
+        Map<String, Object> params = config.getAdditionalParams();
+        long segmentMillis = params.containsKey(PARAM_SEGMENT_MILLIS)
+            ? Long.parseLong(params.get(PARAM_SEGMENT_MILLIS).toString()) : DEFAULT_SEGMENT_MILLIS;
+        int windowSegments = params.containsKey(PARAM_WINDOW_SEGMENTS)
+            ? Integer.parseInt(params.get(PARAM_WINDOW_SEGMENTS).toString()) : DEFAULT_WINDOW_SEGMENTS;
+        long maxBytes = params.containsKey(PARAM_MAX_BYTES)
+            ? Long.parseLong(params.get(PARAM_MAX_BYTES).toString()) : DEFAULT_MAX_BYTES;
+        if (segmentMillis <= 0) {
+            throw new IllegalArgumentException("Invalid " + PARAM_SEGMENT_MILLIS + ": " + segmentMillis);
+        }
+        this.segmentTicks = segmentMillis * EncodedVideoFrame.TIMESCALE / 1000;
+        long startMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        this.store = new DashSegmentStore(windowSegments, maxBytes, segmentMillis / 1000.0, startMillis);
+
+        int width = config.getWidth() & ~1;
+        int height = config.getHeight() & ~1;
+        addRendition(config, width, height, null);
+        for (int ladderHeight : LADDER_HEIGHTS) {
+            if (ladderHeight < height) {
+                int ladderWidth = Math.max(2, (int) Math.round((double) width * ladderHeight / height) & ~1);
+                addRendition(config, ladderWidth, ladderHeight, new FrameScaler(ladderWidth, ladderHeight));
+            }
+        }
+    }
+
+    /**
+     * Called by the constructor, so it takes the configuration instead of calling the
+     * overridable {@link #getConfig()}.
+     */
+    private void addRendition(StreamingConfig config, int width, int height, FrameScaler scaler) {
+        Rendition rendition = new Rendition(height + "p", width, height, scaler);
+        renditions.add(rendition);
+        store.addRepresentation(rendition.id, width, height,
+                                FfmpegH264Encoder.bitrate(config.getQuality(), width, height,
+                                                          config.getFrameRate()));
+    }
+
+    /**
+     * Keeps the dropped frame's changes for the scalers, which rescale only what changed since
+     * the frame they last saw.
+     */
+    @Override
+    protected synchronized void onThrottled(DirtyTileMap changes) {
+        super.onThrottled(changes);
+        if (changes == null) {
+            skippedUnknown = true;
+        } else {
+            skippedChanges = skippedChanges == null ? changes : skippedChanges.union(changes);
+        }
+    }
+
+    /**
+     * Encodes a frame in every rendition, first closing the segment of every rendition if this
+     * frame starts the next one.
+     */
+    @Override
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        long now = System.nanoTime();
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(now - startNanos) * EncodedVideoFrame.TIMESCALE / 1_000_000;
+        if (timestamp <= lastTimestamp) {
+            onThrottled(changes);
+            return;
+        }
+        DirtyTileMap sinceScaled;
+        synchronized (this) {
+            sinceScaled = skippedUnknown || changes == null ? null
+                : skippedChanges != null ? skippedChanges.union(changes) : changes;
+            skippedChanges = null;
+            skippedUnknown = false;
+        }
+        boolean keyframe = !started || timestamp - segmentStart >= segmentTicks;
+        if (keyframe && started) {
+            closeSegment(timestamp);
+        }
+        for (Rendition rendition : renditions) {
+            BufferedImage image = rendition.scaler != null ? rendition.scaler.scale(frame, sinceScaled) : frame;
+            encode(rendition, image, timestamp, keyframe);
+        }
+        lastEncodedNanos = now;
+        lastTimestamp = timestamp;
+        if (keyframe) {
+            segmentStart = timestamp;
+            started = true;
+        }
+    }
+
+    private void encode(Rendition rendition, BufferedImage image, long timestamp, boolean keyframe) throws IOException {
+        boolean opening = rendition.encoder == null;
+        if (opening) {
+            rendition.encoder = createEncoder(getConfig());
+        }
+        EncodedVideoFrame encoded = rendition.encoder.encode(image, timestamp, keyframe);
+        if (encoded == null) {
+            return;
+        }
+        if (opening) {
+            byte[] sps = rendition.encoder.getSequenceParameterSet();
+            store.setInitSegment(rendition.id,
+                                 Fmp4Muxer.initSegment(rendition.encoder.getWidth(), rendition.encoder.getHeight(),
+                                                       sps, rendition.encoder.getPictureParameterSet()),
+                                 String.format("avc1.%02x%02x%02x", sps[1], sps[2], sps[3]));
+        }
+        if (rendition.pending != null) {
+            rendition.samples.add(new Fmp4Muxer.Sample(
+                rendition.pending, (int) (encoded.getTimestamp() - rendition.pending.getTimestamp())));
+        }
+        rendition.pending = encoded;
+    }
+
+    /**
+     * Adds every rendition's pending frame, which lasts until the given time, and stores the
+     * segment of all renditions.
+     */
+    private void closeSegment(long endTimestamp) {
+        Map<String, byte[]> data = new LinkedHashMap<>();
+        for (Rendition rendition : renditions) {
+            if (rendition.pending != null) {
+                rendition.samples.add(new Fmp4Muxer.Sample(
+                    rendition.pending, (int) (endTimestamp - rendition.pending.getTimestamp())));
+                rendition.pending = null;
+            }
+            if (!rendition.samples.isEmpty()) {
+                data.put(rendition.id, Fmp4Muxer.fragment(++fragmentSequence, rendition.samples));
+                rendition.samples.clear();
+            }
+        }
+        if (!data.isEmpty()) {
+            store.addSegment(segmentStart, endTimestamp - segmentStart, data);
+        }
+    }
+
+    /**
+     * Creates the H.264 encoder of one rendition.
+     */
+    protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+        return new FfmpegH264Encoder(config.getQuality(), config.getFrameRate());
+    }
+
+    /**
+     * Players pull segments, so nobody is ever up to date; a still screen is only skipped until
+     * the next frame is due to keep the segments flowing.
+     */
+    @Override
+    protected boolean isUpToDate() {
+        return started && System.nanoTime() - lastEncodedNanos < TimeUnit.MILLISECONDS.toNanos(MAX_FRAME_GAP_MILLIS);
+    }
+
+    /**
+     * A still screen is captured at least every {@link #MAX_FRAME_GAP_MILLIS} ms to keep the segments on time.
+     */
+    @Override
+    public int getIdleFrameRate() {
+        return getIdleFrameRate(MAX_FRAME_GAP_MILLIS);
+    }
+
+    public DashSegmentStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the ids of the renditions, from the largest down
+     */
+    public List<String> getRenditionIds() {
+        List<String> ids = new ArrayList<>();
+        for (Rendition rendition : renditions) {
+            ids.add(rendition.id);
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * @return the target segment duration in seconds
+     */
+    public double getSegmentSeconds() {
+        return (double) segmentTicks / EncodedVideoFrame.TIMESCALE;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Rendition rendition : renditions) {
+            if (rendition.encoder != null) {
+                rendition.encoder.dispose();
+                rendition.encoder = null;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("dash", store.getStats());
+        stats.put("renditions", getRenditionIds());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "DashStreamSession{screen=" + getScreenIndex() + ", profile=" + getProfile()
+               + ", renditions=" + getRenditionIds() + "}";
+    }
+}
@@ -0,0 +1,212 @@
+package com.anyscreen.services;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.FramePacket;
+
+/**
+ * Size-capped LRU cache of encoded frame packets, keyed by the frame's {@link FrameFingerprint}
+ * and the {@link EncodingProfile} it was encoded with. Switching back to a window or slide seen
+ * recently then costs a hash of the frame instead of a full encode.
+ * Packets are copied into exact-size buffers when cached, so the cache holds no pooled buffers
+ * and its byte count is the memory it really uses. Thread-safe; shared by all sessions.
+ */
+public class EncodedFrameCache {
+
+    /** System property capping the shared cache, in bytes; 0 disables it */
+    public static final String MAX_BYTES_PROPERTY = "anyscreen.frameCache.maxBytes";
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<Key, FramePacket> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes Cap on the bytes of all cached packets; 0 disables caching
+     */
+    public EncodedFrameCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Lazily created shared cache, sized by {@value #MAX_BYTES_PROPERTY}.
+     */
+    private static final class SharedHolder {
+        static final EncodedFrameCache INSTANCE = new EncodedFrameCache(getDefaultMaxBytes());
+    }
+
+    /**
+     * @return the cache shared by all sessions
+     */
+    public static EncodedFrameCache shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * @return the shared cache's size from {@value #MAX_BYTES_PROPERTY}, or {@value #DEFAULT_MAX_BYTES}
+     */
+    public static long getDefaultMaxBytes() {
+        String maxBytes = System.getProperty(MAX_BYTES_PROPERTY);
+        if (maxBytes == null || maxBytes.isBlank()) {
+            return DEFAULT_MAX_BYTES;
+        }
+        try {
+            return Math.max(0, Long.parseLong(maxBytes.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + MAX_BYTES_PROPERTY + ": " + maxBytes, e);
+        }
+    }
+
+    /**
+     * Looks up the packet of a frame.
+     * @param fingerprint Fingerprint of the frame
+     * @param profile Profile the frame is to be encoded with
+     * @return the cached packet with one reference for the caller, or null on a miss
+     */
+    public synchronized FramePacket get(long fingerprint, EncodingProfile profile) {
+        if (maxBytes == 0) {
+            return null;
+        }
+        FramePacket packet = entries.get(new Key(fingerprint, profile));
+        if (packet == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return packet.retain();
+    }
+
+    /**
+     * Stores a copy of a packet, evicting the least recently used packets to stay under the cap.
+     * Packets larger than the whole cache are not stored.
+     * @param fingerprint Fingerprint of the encoded frame
+     * @param profile Profile the frame was encoded with
+     * @param packet The packet; the caller keeps its reference
+     */
+    public void put(long fingerprint, EncodingProfile profile, FramePacket packet) {
+        if (packet.getLength() > maxBytes) {
+            return;
+        }
+        // Copied outside the lock; the source buffer goes back to its pool with the packet
+        ByteBuffer view = packet.asByteBuffer();
+        byte[] copy = new byte[view.remaining()];
+        view.get(copy);
+        FramePacket cached = new FramePacket(copy, 0, copy.length, packet.getPayloadLength(), buffer -> {});
+
+        synchronized (this) {
+            FramePacket previous = entries.put(new Key(fingerprint, profile), cached);
+            bytes += copy.length;
+            if (previous != null) {
+                bytes -= previous.getLength();
+                previous.release();
+            }
+            Iterator<FramePacket> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                FramePacket evicted = eldest.next();
+                eldest.remove();
+                bytes -= evicted.getLength();
+                evicted.release();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops every cached packet; the counters are kept.
+     */
+    public synchronized void clear() {
+        for (FramePacket packet : entries.values()) {
+            packet.release();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return share of lookups that were hits, 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("hitRate", getHitRate());
+        return stats;
+    }
+
+    /**
+     * A frame's content and how it is encoded. Equal 64-bit fingerprints of different frames
+     * are possible but, at screen update rates, practically never seen.
+     */
+    private static final class Key {
+        private final long fingerprint;
+        private final EncodingProfile profile;
+
+        Key(long fingerprint, EncodingProfile profile) {
+            this.fingerprint = fingerprint;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return fingerprint == that.fingerprint && profile.equals(that.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, profile);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.anyscreen.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.anyscreen.models.EncodedVideoFrame;
+
+/**
+ * Writes one H.264 track as fragmented MP4 (ISO/IEC 14496-12), the segment format of HLS
+ * version 7 and of DASH: an initialization segment holding the track description and
+ * parameter sets, then self-contained fragments of samples.
+ * Timestamps are kept on the 90 kHz clock of {@link EncodedVideoFrame}, and every fragment
+ * carries its own decode time, so fragments can be served in any order or skipped.
+ * Stateless and thread-safe.
+ */
+public final class Fmp4Muxer {
+
+    private static final int TRACK_ID = 1;
+    // trun sample flags: sample_depends_on = 2 for sync samples; depends_on = 1 and non-sync otherwise
+    private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+    private static final int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+    // trun flags: data offset, then per sample duration, size and flags
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int[] UNITY_MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private Fmp4Muxer() {}
+
+    /**
+     * A frame with the time until the next frame, which fragments have to state up front.
+     */
+    public static final class Sample {
+        private final EncodedVideoFrame frame;
+        private final int duration;
+
+        /**
+         * @param frame The encoded frame
+         * @param duration Ticks until the next frame
+         */
+        public Sample(EncodedVideoFrame frame, int duration) {
+            this.frame = frame;
+            this.duration = duration;
+        }
+
+        public EncodedVideoFrame getFrame() {
+            return frame;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+    }
+
+    /**
+     * Writes the initialization segment: ftyp and a moov describing the track, without samples.
+     * @param width Picture width
+     * @param height Picture height
+     * @param sequenceParameterSet SPS without start code
+     * @param pictureParameterSet PPS without start code
+     */
+    public static byte[] initSegment(int width, int height, byte[] sequenceParameterSet, byte[] pictureParameterSet) {
+        BoxWriter out = new BoxWriter(1024);
+        int ftyp = out.begin("ftyp");
+        out.fourCc("iso5").u32(512).fourCc("iso5").fourCc("iso6").fourCc("mp41").fourCc("avc1");
+        out.end(ftyp);
+
+        int moov = out.begin("moov");
+        int mvhd = out.beginFull("mvhd", 0, 0);
+        out.u32(0).u32(0).u32(EncodedVideoFrame.TIMESCALE).u32(0);
+        out.u32(0x00010000).u16(0x0100).zeros(10).matrix().zeros(24).u32(TRACK_ID + 1);
+        out.end(mvhd);
+
+        int trak = out.begin("trak");
+        int tkhd = out.beginFull("tkhd", 0, 0x000003);
+        out.u32(0).u32(0).u32(TRACK_ID).u32(0).u32(0).zeros(8);
+        out.u16(0).u16(0).u16(0).u16(0).matrix().u32(width << 16).u32(height << 16);
+        out.end(tkhd);
+
+        int mdia = out.begin("mdia");
+        int mdhd = out.beginFull("mdhd", 0, 0);
+        // Language "und" packed as three 5-bit letters
+        out.u32(0).u32(0).u32(EncodedVideoFrame.TIMESCALE).u32(0).u16(0x55C4).u16(0);
+        out.end(mdhd);
+        int hdlr = out.beginFull("hdlr", 0, 0);
+        out.u32(0).fourCc("vide").zeros(12).bytes("VideoHandler\0".getBytes(StandardCharsets.US_ASCII));
+        out.end(hdlr);
+
+        int minf = out.begin("minf");
+        int vmhd = out.beginFull("vmhd", 0, 1);
+        out.zeros(8);
+        out.end(vmhd);
+        int dinf = out.begin("dinf");
+        int dref = out.beginFull("dref", 0, 0);
+        out.u32(1);
+        out.end(out.beginFull("url ", 0, 1));
+        out.end(dref);
+        out.end(dinf);
+
+        int stbl = out.begin("stbl");
+        int stsd = out.beginFull("stsd", 0, 0);
+        out.u32(1);
+        int avc1 = out.begin("avc1");
+        out.zeros(6).u16(1).zeros(16).u16(width).u16(height);
+        out.u32(0x00480000).u32(0x00480000).u32(0).u16(1).zeros(32).u16(0x0018).u16(0xFFFF);
+        int avcC = out.begin("avcC");
+        // Profile, compatibility and level come from the SPS; NAL lengths are 4 bytes
+        out.u8(1).u8(sequenceParameterSet[1]).u8(sequenceParameterSet[2]).u8(sequenceParameterSet[3]);
+        out.u8(0xFF).u8(0xE1).u16(sequenceParameterSet.length).bytes(sequenceParameterSet);
+        out.u8(1).u16(pictureParameterSet.length).bytes(pictureParameterSet);
+        out.end(avcC);
+        out.end(avc1);
+        out.end(stsd);
+        for (String table : new String[] {"stts", "stsc", "stco"}) {
+            int box = out.beginFull(table, 0, 0);
+            out.u32(0);
+            out.end(box);
+        }
+        int stsz = out.beginFull("stsz", 0, 0);
+        out.u32(0).u32(0);
+        out.end(stsz);
+        out.end(stbl);
+        out.end(minf);
+        out.end(mdia);
+        out.end(trak);
+
+        int mvex = out.begin("mvex");
+        int trex = out.beginFull("trex", 0, 0);
+        out.u32(TRACK_ID).u32(1).u32(0).u32(0).u32(0);
+        out.end(trex);
+        out.end(mvex);
+        out.end(moov);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes one fragment: a moof describing the samples and an mdat holding them, with NAL units
+     * length-prefixed as the init segment declares.
+     * @param sequenceNumber Fragment number, increasing from 1
+     * @param samples The samples, the first one a keyframe if the fragment starts a segment
+     * @return the fragment
+     */
+    public static byte[] fragment(long sequenceNumber, List<Sample> samples) {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("A fragment needs at least one sample");
+        }
+        int mdatSize = 8;
+        for (Sample sample : samples) {
+            mdatSize += sampleSize(sample.frame);
+        }
+        BoxWriter out = new BoxWriter(mdatSize + 64 + samples.size() * 12);
+
+        int moof = out.begin("moof");
+        int mfhd = out.beginFull("mfhd", 0, 0);
+        out.u32((int) sequenceNumber);
+        out.end(mfhd);
+        int traf = out.begin("traf");
+        int tfhd = out.beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        out.u32(TRACK_ID);
+        out.end(tfhd);
+        int tfdt = out.beginFull("tfdt", 1, 0);
+        out.u64(samples.get(0).frame.getTimestamp());
+        out.end(tfdt);
+        int trun = out.beginFull("trun", 0, TRUN_FLAGS);
+        out.u32(samples.size());
+        int dataOffset = out.position();
+        out.u32(0);
+        for (Sample sample : samples) {
+            out.u32(sample.duration).u32(sampleSize(sample.frame));
+            out.u32(sample.frame.isKeyframe() ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+        }
+        out.end(trun);
+        out.end(traf);
+        out.end(moof);
+        // Relative to the moof start, past the mdat header
+        out.patch(dataOffset, out.position() - moof + 8);
+
+        int mdat = out.begin("mdat");
+        for (Sample sample : samples) {
+            for (byte[] nalUnit : sample.frame.getNalUnits()) {
+                out.u32(nalUnit.length).bytes(nalUnit);
+            }
+        }
+        out.end(mdat);
+        return out.toByteArray();
+    }
+
+    private static int sampleSize(EncodedVideoFrame frame) {
+        return frame.getSize() + 4 * frame.getNalUnits().size();
+    }
+
+    /**
+     * Big-endian byte builder that patches box sizes in once a box is complete.
+     */
+    private static final class BoxWriter {
+        private byte[] buffer;
+        private int position;
+
+        BoxWriter(int capacity) {
+            buffer = new byte[Math.max(64, capacity)];
+        }
+
+        /**
+         * @return the box start, for {@link #end}
+         */
+        int begin(String type) {
+            int start = position;
+            u32(0).fourCc(type);
+            return start;
+        }
+
+        int beginFull(String type, int version, int flags) {
+            int start = begin(type);
+            u32(version << 24 | flags);
+            return start;
+        }
+
+        void end(int start) {
+            patch(start, position - start);
+        }
+
+        void patch(int at, int value) {
+            buffer[at] = (byte) (value >>> 24);
+            buffer[at + 1] = (byte) (value >>> 16);
+            buffer[at + 2] = (byte) (value >>> 8);
+            buffer[at + 3] = (byte) value;
+        }
+
+        BoxWriter u8(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+            return this;
+        }
+
+        BoxWriter u16(int value) {
+            return u8(value >>> 8).u8(value);
+        }
+
+        BoxWriter u32(int value) {
+            ensure(4);
+            patch(position, value);
+            position += 4;
+            return this;
+        }
+
+        BoxWriter u64(long value) {
+            return u32((int) (value >>> 32)).u32((int) value);
+        }
+
+        BoxWriter fourCc(String code) {
+            return bytes(code.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        BoxWriter zeros(int count) {
+            ensure(count);
+            position += count;
+            return this;
+        }
+
+        BoxWriter matrix() {
+            for (int value : UNITY_MATRIX) {
+                u32(value);
+            }
+            return this;
+        }
+
+        BoxWriter bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+            return this;
+        }
+
+        int position() {
+            return position;
+        }
+
+        private void ensure(int count) {
+            if (position + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(position + count, buffer.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return buffer.length == position ? buffer : Arrays.copyOf(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.anyscreen.models.CapturedFrame;
+
+/**
+ * Pool of raw frame buffers for one capture loop.
+ * Capture backends that support it fill a pooled buffer in place instead of allocating a new
+ * full-screen image per frame. Buffers of the wrong size are dropped, so a resolution change
+ * simply refills the pool.
+ */
+public class FrameBufferPool {
+
+    private static final int DEFAULT_MAX_POOLED = 2;
+
+    private final ConcurrentLinkedQueue<BufferedImage> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final AtomicInteger allocated = new AtomicInteger(0);
+    private final int maxPooled;
+
+    public FrameBufferPool() {
+        this(DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param maxPooled Maximum number of idle buffers kept for reuse
+     */
+    public FrameBufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return an idle buffer to capture into, or null if none is pooled yet
+     */
+    public BufferedImage acquire() {
+        BufferedImage buffer = freeBuffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+        }
+        return buffer;
+    }
+
+    /**
+     * Wraps a captured image as a frame whose buffer comes back to this pool on release.
+     * @param image The captured image
+     * @param reused Whether the image is a buffer taken from this pool
+     * @return the frame
+     */
+    public CapturedFrame wrap(BufferedImage image, boolean reused) {
+        if (!reused) {
+            allocated.incrementAndGet();
+        }
+        return new CapturedFrame(image, this::recycle);
+    }
+
+    /**
+     * A frame without an image, for a capture that returned nothing.
+     * @param unused The buffer taken from this pool for the capture, or null; it comes back on release
+     * @return the frame
+     */
+    public CapturedFrame empty(BufferedImage unused) {
+        return new CapturedFrame(null, image -> {
+            if (unused != null) {
+                recycle(unused);
+            }
+        });
+    }
+
+    private void recycle(BufferedImage buffer) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            freeBuffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getPooledCount() {
+        return pooled.get();
+    }
+
+    /**
+     * @return how many frames arrived in a freshly allocated image instead of a pooled buffer
+     */
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,87 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * 64-bit hash over every pixel of a frame, for telling identical frames apart without keeping a
+ * copy of the previous one. Hashes all pixels rather than a sample, so a one-pixel change such as
+ * a blinking cursor is never missed. Four independent lanes keep the multiply chains short enough
+ * for the CPU to overlap them. Alpha is ignored, as screen frames are opaque.
+ */
+public final class FrameFingerprint {
+
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private FrameFingerprint() {}
+
+    /**
+     * @param frame The frame
+     * @return the frame's fingerprint; equal frames of equal size always have equal fingerprints
+     */
+    public static long of(BufferedImage frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        long[] lanes = {width, height, 0, 0};
+
+        if (frame.getRaster().getDataBuffer() instanceof DataBufferInt
+            && frame.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) frame.getSampleModel()).getScanlineStride();
+            int rowStart = originOffset(frame.getRaster(), stride);
+            for (int y = 0; y < height; y++, rowStart += stride) {
+                hashRow(lanes, pixels, rowStart, width);
+            }
+        } else {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                frame.getRGB(0, y, width, 1, row, 0, width);
+                hashRow(lanes, row, 0, width);
+            }
+        }
+        return mix(mix(mix(mix(lanes[0]) ^ lanes[1]) ^ lanes[2]) ^ lanes[3]);
+    }
+
+    private static void hashRow(long[] lanes, int[] pixels, int from, int length) {
+        long a = lanes[0];
+        long b = lanes[1];
+        long c = lanes[2];
+        long d = lanes[3];
+        int i = from;
+        int end = from + length;
+        for (; i + 3 < end; i += 4) {
+            a = (a + (pixels[i] & 0xFFFFFFL)) * PRIME;
+            b = (b + (pixels[i + 1] & 0xFFFFFFL)) * PRIME;
+            c = (c + (pixels[i + 2] & 0xFFFFFFL)) * PRIME;
+            d = (d + (pixels[i + 3] & 0xFFFFFFL)) * PRIME;
+        }
+        for (; i < end; i++) {
+            a = (a + (pixels[i] & 0xFFFFFFL)) * PRIME;
+        }
+        // Rotate between rows so a change moved to another row changes the hash
+        lanes[0] = Long.rotateLeft(a, 7);
+        lanes[1] = b;
+        lanes[2] = c;
+        lanes[3] = d;
+    }
+
+    /**
+     * Final avalanche step from SplitMix64.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Index of the frame's top-left pixel in its data array, honoring sub-images.
+     */
+    private static int originOffset(Raster raster, int stride) {
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * stride
+               - raster.getSampleModelTranslateX();
+    }
+}
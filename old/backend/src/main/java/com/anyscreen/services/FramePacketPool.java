@@ -0,0 +1,122 @@
+package com.anyscreen.services;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.anyscreen.models.FramePacket;
+
+/**
+ * Pool of packet buffers for one stream.
+ * An encoder writes a frame straight into a {@link PacketBuffer} after a reserved header area;
+ * the part headers are then placed right in front of it, so the packet is assembled without
+ * copying the encoded image. Buffers come back to the pool when their packet is released.
+ */
+public class FramePacketPool {
+
+    // Room in front of the payload for the multipart boundary and part headers
+    static final int HEADER_RESERVE = 128;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED = 8;
+
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final int maxPooled;
+
+    public FramePacketPool() {
+        this(DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param maxPooled Maximum number of idle buffers kept for reuse
+     */
+    public FramePacketPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return an empty buffer to encode one frame into
+     */
+    public PacketBuffer acquire() {
+        byte[] buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[HEADER_RESERVE + DEFAULT_BUFFER_SIZE];
+        } else {
+            pooled.decrementAndGet();
+        }
+        return new PacketBuffer(buffer);
+    }
+
+    private void recycle(byte[] buffer) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            freeBuffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getPooledCount() {
+        return pooled.get();
+    }
+
+    /**
+     * Growable output stream that leaves {@link #HEADER_RESERVE} bytes free at the start.
+     */
+    public class PacketBuffer extends OutputStream {
+        private byte[] buffer;
+        private int position = HEADER_RESERVE;
+
+        private PacketBuffer(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(position + 1);
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(position + len);
+            System.arraycopy(b, off, buffer, position, len);
+            position += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+        }
+
+        /**
+         * @return number of payload bytes written so far
+         */
+        public int getPayloadLength() {
+            return position - HEADER_RESERVE;
+        }
+
+        /**
+         * Discards the payload written so far.
+         */
+        public void reset() {
+            position = HEADER_RESERVE;
+        }
+
+        /**
+         * Places the headers in front of the payload and seals the buffer into a packet.
+         * The buffer must not be written to afterwards.
+         * @param header Boundary and part headers, at most {@link #HEADER_RESERVE} bytes
+         * @return the packet, holding one reference for the caller
+         */
+        public FramePacket toPacket(byte[] header) {
+            if (header.length > HEADER_RESERVE) {
+                throw new IllegalArgumentException("Header too long: " + header.length + " bytes");
+            }
+            int start = HEADER_RESERVE - header.length;
+            System.arraycopy(header, 0, buffer, start, header.length);
+            return new FramePacket(buffer, start, position - start, getPayloadLength(), FramePacketPool.this::recycle);
+        }
+    }
+}
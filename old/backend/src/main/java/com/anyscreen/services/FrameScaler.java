@@ -0,0 +1,210 @@
+package com.anyscreen.services;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+import com.anyscreen.implementations.ImageOpsBackends;
+import com.anyscreen.implementations.ScalarImageOps;
+import com.anyscreen.interfaces.ImageOpsInterface;
+import com.anyscreen.models.DirtyTileMap;
+
+/**
+ * Downscales captured frames to one fixed output size with a box filter: every output pixel is
+ * the average of the source pixels it covers, so small text stays readable instead of
+ * aliasing as it does with nearest-neighbour sampling. Each source row is read once and added
+ * into per-column totals by the {@link ImageOpsInterface} kernels, vectorized where available,
+ * and only the output rows and columns under the changed tiles are recomputed, so a mostly
+ * still screen costs little to keep scaled.
+ * Never upscales: a source no larger than the output size is passed through.
+ * Not thread-safe; each capture loop owns its scalers.
+ */
+public class FrameScaler {
+
+    private final int width;
+    private final int height;
+    private final ImageOpsInterface ops;
+    private BufferedImage target;
+    private int[] targetPixels;
+    private int sourceWidth;
+    private int sourceHeight;
+    // Source span [start[i], end[i]) of every output column and row
+    private int[] columnStarts;
+    private int[] columnEnds;
+    private int[] rowStarts;
+    private int[] rowEnds;
+    private long[] reciprocals;
+    // Per source column totals of the rows under one output row
+    private int[] red;
+    private int[] green;
+    private int[] blue;
+    private int[] rowBuffer;
+    private long scaledFrames;
+
+    /**
+     * @param width Output width
+     * @param height Output height
+     */
+    public FrameScaler(int width, int height) {
+        this(width, height, ImageOpsBackends.get());
+    }
+
+    /**
+     * @param width Output width
+     * @param height Output height
+     * @param ops Kernels to scale with
+     */
+    public FrameScaler(int width, int height, ImageOpsInterface ops) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid output size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.ops = ops;
+    }
+
+    /**
+     * Scales a whole frame.
+     * @param source The captured frame
+     * @return the scaled frame, valid until the next call, or the source itself if it is not
+     *         larger than the output size
+     */
+    public BufferedImage scale(BufferedImage source) {
+        return scale(source, null);
+    }
+
+    /**
+     * Scales the parts of a frame that changed since the previous call.
+     * @param source The captured frame
+     * @param changes Tiles changed since the frame passed to the previous call, or null to
+     *                scale the whole frame
+     * @return the scaled frame, valid until the next call, or the source itself if it is not
+     *         larger than the output size
+     */
+    public BufferedImage scale(BufferedImage source, DirtyTileMap changes) {
+        if (source.getWidth() <= width && source.getHeight() <= height) {
+            return source;
+        }
+
+        boolean reset = ensureGeometry(source.getWidth(), source.getHeight());
+        if (reset || changes == null || changes.getFrameWidth() != sourceWidth
+            || changes.getFrameHeight() != sourceHeight) {
+            scaleRegion(source, 0, 0, width, height);
+        } else {
+            for (Rectangle region : changes.getMergedRegions()) {
+                Rectangle area = toOutput(region);
+                scaleRegion(source, area.x, area.y, area.x + area.width, area.y + area.height);
+            }
+        }
+        scaledFrames++;
+        return target;
+    }
+
+    private Rectangle toOutput(Rectangle area) {
+        return DirtyTileMap.scaleArea(area, sourceWidth, sourceHeight, width, height);
+    }
+
+    /**
+     * @return true if the output has to be recomputed from scratch
+     */
+    private boolean ensureGeometry(int newSourceWidth, int newSourceHeight) {
+        if (target != null && newSourceWidth == sourceWidth && newSourceHeight == sourceHeight) {
+            return false;
+        }
+        sourceWidth = newSourceWidth;
+        sourceHeight = newSourceHeight;
+        columnStarts = spanStarts(sourceWidth, width);
+        columnEnds = spanEnds(columnStarts, sourceWidth, width);
+        rowStarts = spanStarts(sourceHeight, height);
+        rowEnds = spanEnds(rowStarts, sourceHeight, height);
+        reciprocals = ScalarImageOps.reciprocals(sourceWidth, sourceHeight, width, height);
+        if (target == null) {
+            target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        }
+        red = new int[sourceWidth];
+        green = new int[sourceWidth];
+        blue = new int[sourceWidth];
+        rowBuffer = new int[sourceWidth];
+        return true;
+    }
+
+    /**
+     * Splits a source length into output spans of near-equal size.
+     */
+    private static int[] spanStarts(int sourceLength, int outputLength) {
+        int[] starts = new int[outputLength];
+        for (int i = 0; i < outputLength; i++) {
+            starts[i] = (int) ((long) i * sourceLength / outputLength);
+        }
+        return starts;
+    }
+
+    /**
+     * Ends of the spans; a span is never empty, so an axis shorter than the output, as when only
+     * the other axis shrinks, repeats source pixels instead.
+     */
+    private static int[] spanEnds(int[] starts, int sourceLength, int outputLength) {
+        int[] ends = new int[outputLength];
+        for (int i = 0; i < outputLength; i++) {
+            ends[i] = Math.max(starts[i] + 1, (int) ((long) (i + 1) * sourceLength / outputLength));
+        }
+        return ends;
+    }
+
+    private void scaleRegion(BufferedImage source, int x0, int y0, int x1, int y1) {
+        boolean packed = source.getRaster().getDataBuffer() instanceof DataBufferInt
+                         && source.getSampleModel() instanceof SinglePixelPackedSampleModel;
+        int[] pixels = packed ? ((DataBufferInt) source.getRaster().getDataBuffer()).getData() : rowBuffer;
+        int stride = packed ? ((SinglePixelPackedSampleModel) source.getSampleModel()).getScanlineStride() : 0;
+        int origin = packed ? originOffset(source.getRaster(), stride) : 0;
+        int sourceX0 = columnStarts[x0];
+        int length = columnEnds[x1 - 1] - sourceX0;
+
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(red, 0, length, 0);
+            Arrays.fill(green, 0, length, 0);
+            Arrays.fill(blue, 0, length, 0);
+            for (int sy = rowStarts[y]; sy < rowEnds[y]; sy++) {
+                int rowStart;
+                if (packed) {
+                    rowStart = origin + sy * stride;
+                } else {
+                    source.getRGB(sourceX0, sy, length, 1, rowBuffer, sourceX0, sourceWidth);
+                    rowStart = 0;
+                }
+                ops.accumulateRow(pixels, rowStart + sourceX0, length, red, green, blue);
+            }
+            int rows = rowEnds[y] - rowStarts[y];
+            int outputRow = y * width;
+            for (int x = x0; x < x1; x++) {
+                targetPixels[outputRow + x] = ScalarImageOps.average(red, green, blue, columnStarts[x] - sourceX0,
+                                                                     columnEnds[x] - sourceX0, rows, reciprocals);
+            }
+        }
+    }
+
+    /**
+     * Index of the frame's top-left pixel in its data array, honoring sub-images.
+     */
+    private static int originOffset(Raster raster, int stride) {
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * stride
+               - raster.getSampleModelTranslateX();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getScaledFrames() {
+        return scaledFrames;
+    }
+}
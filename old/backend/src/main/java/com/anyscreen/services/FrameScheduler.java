@@ -0,0 +1,207 @@
+package com.anyscreen.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shared frame clock for capture loops.
+ * Each loop gets its own {@link FrameClock} with monotonic {@code nanoTime} deadlines and parks
+ * the thread until the next deadline instead of spinning. Pacing counters (late frames, skipped
+ * frames, wake-up jitter) are aggregated here across every clock.
+ */
+public class FrameScheduler {
+
+    /**
+     * What a clock does when a frame overruns its budget.
+     */
+    public enum OverrunPolicy {
+        /** Drop the missed frame slots and restart the schedule from now. */
+        SKIP,
+        /** Run the missed frames back to back until the schedule is met again. */
+        CATCH_UP
+    }
+
+    // Beyond this many missed slots CATCH_UP gives up and resynchronizes
+    private static final int MAX_CATCH_UP_FRAMES = 3;
+
+    private final OverrunPolicy overrunPolicy;
+    private final AtomicLong scheduledFrames = new AtomicLong(0);
+    private final AtomicLong lateFrames = new AtomicLong(0);
+    private final AtomicLong skippedFrames = new AtomicLong(0);
+    private final AtomicLong totalJitterNanos = new AtomicLong(0);
+    private final AtomicLong maxJitterNanos = new AtomicLong(0);
+
+    public FrameScheduler() {
+        this(OverrunPolicy.SKIP);
+    }
+
+    public FrameScheduler(OverrunPolicy overrunPolicy) {
+        if (overrunPolicy == null) {
+            throw new IllegalArgumentException("OverrunPolicy cannot be null");
+        }
+        this.overrunPolicy = overrunPolicy;
+    }
+
+    /**
+     * Creates a clock for one capture loop. The first frame is due immediately.
+     * @param frameRate Target frames per second
+     * @return a clock owned by the calling loop; it is not thread-safe
+     */
+    public FrameClock newClock(int frameRate) {
+        return new FrameClock(frameRate);
+    }
+
+    public OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    public long getScheduledFrames() {
+        return scheduledFrames.get();
+    }
+
+    public long getLateFrames() {
+        return lateFrames.get();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * @return average delay between a deadline and the actual wake-up, in milliseconds
+     */
+    public double getAverageJitterMs() {
+        long onTime = scheduledFrames.get() - lateFrames.get();
+        if (onTime <= 0) {
+            return 0.0;
+        }
+        return totalJitterNanos.get() / (double) onTime / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxJitterMs() {
+        return maxJitterNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentHashMap<>();
+        stats.put("overrunPolicy", overrunPolicy.name());
+        stats.put("scheduledFrames", getScheduledFrames());
+        stats.put("lateFrames", getLateFrames());
+        stats.put("skippedFrames", getSkippedFrames());
+        stats.put("avgJitterMs", getAverageJitterMs());
+        stats.put("maxJitterMs", getMaxJitterMs());
+        return stats;
+    }
+
+    private void recordJitter(long jitterNanos) {
+        totalJitterNanos.addAndGet(jitterNanos);
+        maxJitterNanos.accumulateAndGet(jitterNanos, Math::max);
+    }
+
+    /**
+     * Deadline tracker for a single capture loop.
+     * Only {@link #wakeUp()} may be called from other threads.
+     */
+    public class FrameClock {
+
+        private long periodNanos;
+        private long nextDeadline;
+        private boolean started;
+        private volatile Thread owner;
+        private volatile boolean wakeRequested;
+
+        private FrameClock(int frameRate) {
+            setFrameRate(frameRate);
+        }
+
+        /**
+         * Changes the target rate. A slower rate takes effect from the next deadline; a faster
+         * one also pulls the pending deadline in, so speeding up never waits out a long period.
+         * @param frameRate Target frames per second
+         */
+        public void setFrameRate(int frameRate) {
+            if (frameRate <= 0) {
+                throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+            }
+            long period = TimeUnit.SECONDS.toNanos(1) / frameRate;
+            if (started && period < periodNanos) {
+                nextDeadline -= periodNanos - period;
+            }
+            this.periodNanos = period;
+        }
+
+        /**
+         * Ends the current wait early, so the next frame is captured right away.
+         * Safe to call from any thread.
+         */
+        public void wakeUp() {
+            wakeRequested = true;
+            Thread thread = owner;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        public long getPeriodNanos() {
+            return periodNanos;
+        }
+
+        /**
+         * Parks until the next frame is due. Returns immediately if the previous frame overran
+         * its budget, applying the scheduler's {@link OverrunPolicy}.
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        public void awaitNextFrame() throws InterruptedException {
+            owner = Thread.currentThread();
+            long now = System.nanoTime();
+            if (!started) {
+                started = true;
+                nextDeadline = now + periodNanos;
+                return;
+            }
+
+            scheduledFrames.incrementAndGet();
+            if (now - nextDeadline < 0) {
+                if (parkUntil(nextDeadline)) {
+                    // Woken early: restart the schedule from now
+                    nextDeadline = System.nanoTime() + periodNanos;
+                    return;
+                }
+                recordJitter(Math.max(0, System.nanoTime() - nextDeadline));
+                nextDeadline += periodNanos;
+                return;
+            }
+
+            // The previous frame overran its budget
+            lateFrames.incrementAndGet();
+            long missed = (now - nextDeadline) / periodNanos;
+            if (overrunPolicy == OverrunPolicy.CATCH_UP && missed <= MAX_CATCH_UP_FRAMES) {
+                nextDeadline += periodNanos;
+            } else {
+                skippedFrames.addAndGet(missed);
+                nextDeadline = now + periodNanos;
+            }
+        }
+
+        /**
+         * @return true if woken up before the deadline by {@link #wakeUp()}
+         */
+        private boolean parkUntil(long deadline) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (wakeRequested) {
+                    wakeRequested = false;
+                    return true;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return false;
+        }
+    }
+}
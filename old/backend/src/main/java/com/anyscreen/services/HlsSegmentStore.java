@@ -0,0 +1,603 @@
+package com.anyscreen.services;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory store of one live HLS stream: the fMP4 init segments and a sliding window of the
+ * most recent media segments, with the media playlist describing them.
+ * Segments are immutable once added, so any number of players can fetch them concurrently;
+ * a segment that slides out of the window is dropped along with any init segment no remaining
+ * segment uses. A new init segment, after the picture size changed, starts a discontinuity.
+ * With a part duration set, the store serves Low-Latency HLS: each segment is published as it
+ * grows, in partial segments listed with {@code EXT-X-PART} and announced one ahead with
+ * {@code EXT-X-PRELOAD-HINT}, and players can block until a given part exists instead of polling.
+ * Waiting requests park on a {@link Condition} rather than a monitor so that virtual threads
+ * unmount while they wait.
+ * Thread-safe.
+ */
+public class HlsSegmentStore {
+
+    /** File name of the media playlist */
+    public static final String PLAYLIST_NAME = "index.m3u8";
+    public static final String SEGMENT_SUFFIX = ".m4s";
+    public static final String INIT_PREFIX = "init-";
+    public static final String INIT_SUFFIX = ".mp4";
+    // Parts are listed for the segments within this many target durations of the live edge
+    private static final int PART_LIST_TARGET_DURATIONS = 3;
+
+    /**
+     * One partial segment: a fragment of the segment it belongs to.
+     */
+    public static final class Part {
+        private final long sequence;
+        private final int index;
+        private final double duration;
+        private final byte[] data;
+        private final boolean independent;
+
+        Part(long sequence, int index, double duration, byte[] data, boolean independent) {
+            this.sequence = sequence;
+            this.index = index;
+            this.duration = duration;
+            this.data = data;
+            this.independent = independent;
+        }
+
+        /**
+         * @return media sequence number of the segment the part belongs to
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return position of the part in its segment, from 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return duration in seconds
+         */
+        public double getDuration() {
+            return duration;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return true if the part starts with a keyframe
+         */
+        public boolean isIndependent() {
+            return independent;
+        }
+    }
+
+    /**
+     * One media segment.
+     */
+    public static final class Segment {
+        private final long sequence;
+        private final int initId;
+        private final double duration;
+        private final byte[] data;
+        private final boolean discontinuity;
+        private final List<Part> parts;
+
+        Segment(long sequence, int initId, double duration, byte[] data, boolean discontinuity, List<Part> parts) {
+            this.sequence = sequence;
+            this.initId = initId;
+            this.duration = duration;
+            this.data = data;
+            this.discontinuity = discontinuity;
+            this.parts = parts;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getInitId() {
+            return initId;
+        }
+
+        /**
+         * @return duration in seconds
+         */
+        public double getDuration() {
+            return duration;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isDiscontinuity() {
+            return discontinuity;
+        }
+
+        /**
+         * @return the parts the segment was published in, empty without partial segments
+         */
+        public List<Part> getParts() {
+            return parts;
+        }
+    }
+
+    private final int windowSize;
+    private final int minTargetDuration;
+    private final double partTarget;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<Integer, byte[]> initSegments = new HashMap<>();
+    // Parts of the segment being written, which has sequence number nextSequence
+    private final List<Part> openParts = new ArrayList<>();
+    private int currentInitId = -1;
+    private boolean pendingDiscontinuity;
+    private long nextSequence;
+    private long discontinuitySequence;
+    private long bytesStored;
+    private long segmentsAdded;
+    private long partsAdded;
+
+    /**
+     * Creates a store without partial segments.
+     * @param windowSize Number of segments kept and listed in the playlist
+     * @param segmentSeconds Intended segment duration in seconds; the playlist's target duration
+     *                       is at least this, rounded up
+     */
+    public HlsSegmentStore(int windowSize, double segmentSeconds) {
+        this(windowSize, segmentSeconds, 0);
+    }
+
+    /**
+     * @param windowSize Number of segments kept and listed in the playlist
+     * @param segmentSeconds Intended segment duration in seconds; the playlist's target duration
+     *                       is at least this, rounded up
+     * @param partSeconds Intended partial segment duration in seconds, or 0 for plain HLS
+     */
+    public HlsSegmentStore(int windowSize, double segmentSeconds, double partSeconds) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Window must hold at least 2 segments: " + windowSize);
+        }
+        if (partSeconds < 0 || partSeconds > segmentSeconds) {
+            throw new IllegalArgumentException("Invalid part duration: " + partSeconds);
+        }
+        this.windowSize = windowSize;
+        this.minTargetDuration = Math.max(1, (int) Math.ceil(segmentSeconds));
+        this.partTarget = partSeconds;
+    }
+
+    /**
+     * Sets the init segment for the segments added from now on.
+     * @param data The init segment
+     * @return the id it is served under, see {@link #initName(int)}
+     */
+    public int setInitSegment(byte[] data) {
+        lock.lock();
+        try {
+            if (!openParts.isEmpty()) {
+                throw new IllegalStateException("Segment " + nextSequence + " is still open");
+            }
+            currentInitId++;
+            initSegments.put(currentInitId, data);
+            // The first init segment starts the stream; later ones change the picture mid-stream
+            pendingDiscontinuity = nextSequence > 0;
+            return currentInitId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a partial segment to the segment being written and wakes any request waiting for it.
+     * @param data The part, a self-contained fragment
+     * @param duration Duration in seconds
+     * @param independent True if the part starts with a keyframe
+     * @return the part's index in its segment
+     */
+    public int addPart(byte[] data, double duration, boolean independent) {
+        lock.lock();
+        try {
+            if (partTarget == 0) {
+                throw new IllegalStateException("Partial segments are not enabled");
+            }
+            if (currentInitId < 0) {
+                throw new IllegalStateException("No init segment set");
+            }
+            Part part = new Part(nextSequence, openParts.size(), duration, data, independent);
+            openParts.add(part);
+            bytesStored += data.length;
+            partsAdded++;
+            changed.signalAll();
+            return part.index;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes the segment being written from the parts added since the last segment.
+     * @return the segment's media sequence number
+     */
+    public long completeSegment() {
+        lock.lock();
+        try {
+            if (openParts.isEmpty()) {
+                throw new IllegalStateException("Segment " + nextSequence + " has no parts");
+            }
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            double duration = 0;
+            for (Part part : openParts) {
+                data.writeBytes(part.data);
+                duration += part.duration;
+            }
+            return add(data.toByteArray(), duration);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a media segment, dropping the oldest one once the window is full, and wakes any
+     * request waiting for it.
+     * @param data The segment, starting with a keyframe
+     * @param duration Duration in seconds
+     * @return the segment's media sequence number
+     */
+    public long addSegment(byte[] data, double duration) {
+        lock.lock();
+        try {
+            if (!openParts.isEmpty()) {
+                throw new IllegalStateException("Segment " + nextSequence + " is being written in parts");
+            }
+            return add(data, duration);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long add(byte[] data, double duration) {
+        if (currentInitId < 0) {
+            throw new IllegalStateException("No init segment set");
+        }
+        List<Part> parts = List.copyOf(openParts);
+        openParts.clear();
+        Segment segment = new Segment(nextSequence++, currentInitId, duration, data, pendingDiscontinuity, parts);
+        pendingDiscontinuity = false;
+        segments.addLast(segment);
+        bytesStored += data.length;
+        segmentsAdded++;
+        while (segments.size() > windowSize) {
+            Segment removed = segments.removeFirst();
+            bytesStored -= removed.data.length;
+            for (Part part : removed.parts) {
+                bytesStored -= part.data.length;
+            }
+            if (segments.peekFirst().discontinuity) {
+                discontinuitySequence++;
+            }
+        }
+        int oldestInit = segments.peekFirst().initId;
+        initSegments.keySet().removeIf(id -> id < oldestInit);
+        changed.signalAll();
+        return segment.sequence;
+    }
+
+    /**
+     * Waits until the store holds at least the given number of segments.
+     * @return true if it does, false on timeout
+     */
+    public boolean awaitSegments(int count, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (segments.size() < count) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the playlist contains a segment or part, as a blocking playlist reload asks:
+     * segment {@code sequence} complete if {@code part} is negative, otherwise the part with the
+     * index in that segment or any part after it.
+     * @return true if it does, false on timeout
+     */
+    public boolean awaitPlaylist(long sequence, int part, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!contains(sequence, part)) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean contains(long sequence, int part) {
+        if (part < 0) {
+            return sequence < nextSequence;
+        }
+        if (sequence == nextSequence) {
+            return openParts.size() > part;
+        }
+        if (sequence > nextSequence) {
+            return false;
+        }
+        // A complete segment: the part, or the first part after the segment
+        Segment segment = findSegment(sequence);
+        return segment == null || segment.parts.size() > part || sequence + 1 < nextSequence || !openParts.isEmpty();
+    }
+
+    /**
+     * Waits for a part announced by the preload hint.
+     * @return the part, or null if it did not appear in time or is no longer stored
+     */
+    public Part awaitPart(long sequence, int index, long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (sequence == nextSequence && openParts.size() <= index && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+            return getPart(sequence, index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the segment with the media sequence number, or null if it is not (or no longer) stored
+     */
+    public Segment getSegment(long sequence) {
+        lock.lock();
+        try {
+            return findSegment(sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment findSegment(long sequence) {
+        for (Segment segment : segments) {
+            if (segment.sequence == sequence) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the part, or null if it is not (or no longer) stored
+     */
+    public Part getPart(long sequence, int index) {
+        lock.lock();
+        try {
+            List<Part> parts = sequence == nextSequence ? openParts : null;
+            if (parts == null) {
+                Segment segment = findSegment(sequence);
+                parts = segment != null ? segment.parts : List.of();
+            }
+            return index >= 0 && index < parts.size() ? parts.get(index) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the init segment with the id, or null if no stored segment uses it
+     */
+    public byte[] getInitSegment(int id) {
+        lock.lock();
+        try {
+            return initSegments.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the media sequence number of the last complete segment, or -1 if there is none
+     */
+    public long getLastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the duration of the longest part still in the window, 0 if none; a part that ran
+     *         over the target only raises the advertised target until it leaves the window
+     */
+    private double longestPartDuration() {
+        double longest = 0;
+        for (Segment segment : segments) {
+            for (Part part : segment.parts) {
+                longest = Math.max(longest, part.duration);
+            }
+        }
+        for (Part part : openParts) {
+            longest = Math.max(longest, part.duration);
+        }
+        return longest;
+    }
+
+    /**
+     * Writes the live media playlist of the stored segments.
+     * @param uriSuffix Appended to every URI, e.g. the query string that selected the stream
+     * @return the playlist, or null if no segment is stored yet
+     */
+    public String playlist(String uriSuffix) {
+        lock.lock();
+        try {
+            if (segments.isEmpty()) {
+                return null;
+            }
+            int targetDuration = minTargetDuration;
+            for (Segment segment : segments) {
+                targetDuration = Math.max(targetDuration, (int) Math.ceil(segment.duration));
+            }
+            StringBuilder playlist = new StringBuilder(256 + segments.size() * 64);
+            playlist.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:7\n")
+                .append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+            boolean lowLatency = partTarget > 0;
+            double advertisedPartTarget = lowLatency ? Math.max(partTarget, longestPartDuration()) : 0;
+            if (lowLatency) {
+                playlist.append(String.format(Locale.ROOT,
+                        "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.3f\n", 3 * advertisedPartTarget))
+                    .append(String.format(Locale.ROOT, "#EXT-X-PART-INF:PART-TARGET=%.3f\n", advertisedPartTarget));
+            }
+            playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(segments.peekFirst().sequence).append('\n')
+                .append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append('\n')
+                .append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+
+            // Parts are only worth listing near the live edge, where low-latency players start
+            double partsFrom = Double.MAX_VALUE;
+            if (lowLatency) {
+                double fromEnd = 0;
+                for (Iterator<Segment> it = segments.descendingIterator(); it.hasNext();) {
+                    Segment segment = it.next();
+                    fromEnd += segment.duration;
+                    if (fromEnd > PART_LIST_TARGET_DURATIONS * targetDuration) {
+                        break;
+                    }
+                    partsFrom = segment.sequence;
+                }
+            }
+            int initId = -1;
+            for (Segment segment : segments) {
+                initId = appendMap(playlist, initId, segment.initId, uriSuffix);
+                if (segment.sequence >= partsFrom) {
+                    appendParts(playlist, segment.parts, uriSuffix);
+                }
+                playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segment.duration))
+                    .append(segmentName(segment.sequence)).append(uriSuffix).append('\n');
+            }
+            if (lowLatency) {
+                if (!openParts.isEmpty()) {
+                    appendMap(playlist, initId, currentInitId, uriSuffix);
+                    appendParts(playlist, openParts, uriSuffix);
+                }
+                playlist.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"")
+                    .append(partName(nextSequence, openParts.size())).append(uriSuffix).append("\"\n");
+            }
+            return playlist.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int appendMap(StringBuilder playlist, int initId, int segmentInitId, String uriSuffix) {
+        if (segmentInitId != initId) {
+            if (initId >= 0) {
+                playlist.append("#EXT-X-DISCONTINUITY\n");
+            }
+            playlist.append("#EXT-X-MAP:URI=\"").append(initName(segmentInitId)).append(uriSuffix).append("\"\n");
+        }
+        return segmentInitId;
+    }
+
+    private static void appendParts(StringBuilder playlist, List<Part> parts, String uriSuffix) {
+        for (Part part : parts) {
+            playlist.append(String.format(Locale.ROOT, "#EXT-X-PART:DURATION=%.3f,URI=\"", part.duration))
+                .append(partName(part.sequence, part.index)).append(uriSuffix)
+                .append(part.independent ? "\",INDEPENDENT=YES\n" : "\"\n");
+        }
+    }
+
+    /**
+     * @return file name of the init segment with the id
+     */
+    public static String initName(int id) {
+        return INIT_PREFIX + id + INIT_SUFFIX;
+    }
+
+    /**
+     * @return file name of the media segment with the sequence number
+     */
+    public static String segmentName(long sequence) {
+        return sequence + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @return file name of a partial segment
+     */
+    public static String partName(long sequence, int index) {
+        return sequence + "." + index + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * @return the part duration in seconds, 0 without partial segments
+     */
+    public double getPartTarget() {
+        return partTarget;
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytesStored() {
+        lock.lock();
+        try {
+            return bytesStored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new ConcurrentHashMap<>();
+            stats.put("segments", segments.size());
+            stats.put("segmentsAdded", segmentsAdded);
+            stats.put("partsAdded", partsAdded);
+            stats.put("bytesStored", bytesStored);
+            if (!segments.isEmpty()) {
+                stats.put("firstSequence", segments.peekFirst().sequence);
+                stats.put("lastSequence", segments.peekLast().sequence);
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodedVideoFrame;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Stream session for the {@link com.anyscreen.models.StreamingProtocol#HLS} protocol.
+ * Encodes the screen once to H.264 and cuts it into short fMP4 segments in an
+ * {@link HlsSegmentStore}; players fetch the playlist and segments over plain HTTP, so a viewer
+ * costs a few cached GETs instead of a pushed stream of its own.
+ * Every segment starts with a keyframe requested once the segment duration has passed, and is
+ * published as it grows in partial segments of about {@link #DEFAULT_PART_MILLIS} ms for
+ * Low-Latency HLS players. A still screen is encoded again at least every half part, or every
+ * {@link #MAX_FRAME_GAP_MILLIS} ms without parts, as tiny predicted frames, so parts and
+ * segments keep being cut on time; the capture loop does not idle below that rate.
+ */
+public class HlsStreamSession extends StreamSession {
+
+    /** Config parameter: target segment duration in ms */
+    public static final String PARAM_SEGMENT_MILLIS = "hls.segmentMillis";
+    /** Config parameter: number of segments kept and listed in the playlist */
+    public static final String PARAM_WINDOW_SEGMENTS = "hls.windowSegments";
+    /** Config parameter: target partial segment duration in ms, 0 for plain HLS */
+    public static final String PARAM_PART_MILLIS = "hls.partMillis";
+    public static final long DEFAULT_SEGMENT_MILLIS = 2000;
+    public static final long DEFAULT_PART_MILLIS = 200;
+    public static final int DEFAULT_WINDOW_SEGMENTS = 6;
+    /** Longest time between two encoded frames, even while the screen is still */
+    public static final long MAX_FRAME_GAP_MILLIS = 500;
+
+    private final HlsSegmentStore store;
+    private final long segmentTicks;
+    private final long partTicks;
+    private final long maxFrameGapNanos;
+    private final long startNanos = System.nanoTime();
+    // Only used by the capture thread, and by close() once no frame is delivered
+    private VideoEncoderInterface encoder;
+    private EncodedVideoFrame pending;
+    // Samples of the part being written, or of the whole segment without parts
+    private final List<Fmp4Muxer.Sample> partSamples = new ArrayList<>();
+    private long segmentStart;
+    private long partStart;
+    private long fragmentSequence;
+    private volatile long lastEncodedNanos;
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session
+     */
+    public HlsStreamSession(int screenIndex, StreamingConfig config) {
+        super(screenIndex, config);
+        Map<String, Object> params = config.getAdditionalParams();
+        long segmentMillis = params.containsKey(PARAM_SEGMENT_MILLIS)
+            ? Long.parseLong(params.get(PARAM_SEGMENT_MILLIS).toString()) : DEFAULT_SEGMENT_MILLIS;
+        int windowSegments = params.containsKey(PARAM_WINDOW_SEGMENTS)
+            ? Integer.parseInt(params.get(PARAM_WINDOW_SEGMENTS).toString()) : DEFAULT_WINDOW_SEGMENTS;
+        long partMillis = params.containsKey(PARAM_PART_MILLIS)
+            ? Long.parseLong(params.get(PARAM_PART_MILLIS).toString()) : DEFAULT_PART_MILLIS;
+        if (segmentMillis <= 0) {
+            throw new IllegalArgumentException("Invalid " + PARAM_SEGMENT_MILLIS + ": " + segmentMillis);
+        }
+        if (partMillis < 0 || partMillis > segmentMillis) {
+            throw new IllegalArgumentException("Invalid " + PARAM_PART_MILLIS + ": " + partMillis);
+        }
+        this.segmentTicks = segmentMillis * EncodedVideoFrame.TIMESCALE / 1000;
+        this.partTicks = partMillis * EncodedVideoFrame.TIMESCALE / 1000;
+        this.maxFrameGapNanos = TimeUnit.MILLISECONDS.toNanos(
+            partMillis > 0 ? Math.min(MAX_FRAME_GAP_MILLIS, partMillis / 2) : MAX_FRAME_GAP_MILLIS);
+        this.store = new HlsSegmentStore(windowSegments, segmentMillis / 1000.0, partMillis / 1000.0);
+    }
+
+    /**
+     * Encodes a frame and adds the frame before it to the current part, which needed this frame's
+     * timestamp for its duration. Closes the part first if that frame would make it too long, and
+     * the segment if this frame became its successor's keyframe.
+     */
+    @Override
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        long now = System.nanoTime();
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(now - startNanos) * EncodedVideoFrame.TIMESCALE / 1_000_000;
+        if (pending != null && timestamp <= pending.getTimestamp()) {
+            return;
+        }
+        if (encoder != null && (encoder.getWidth() != (frame.getWidth() & ~1)
+                                || encoder.getHeight() != (frame.getHeight() & ~1))) {
+            // New picture size: finish the segment with the old encoder and start over
+            closeSegment(timestamp);
+            encoder.dispose();
+            encoder = null;
+        }
+        boolean opening = encoder == null;
+        if (opening) {
+            encoder = createEncoder(getConfig());
+        }
+        boolean keyframe = pending == null || timestamp - segmentStart >= segmentTicks;
+        EncodedVideoFrame encoded = encoder.encode(frame, timestamp, keyframe);
+        lastEncodedNanos = now;
+        if (encoded == null) {
+            return;
+        }
+        if (opening) {
+            store.setInitSegment(Fmp4Muxer.initSegment(encoder.getWidth(), encoder.getHeight(),
+                                                       encoder.getSequenceParameterSet(),
+                                                       encoder.getPictureParameterSet()));
+        }
+        if (encoded.isKeyframe()) {
+            closeSegment(encoded.getTimestamp());
+            segmentStart = encoded.getTimestamp();
+            partStart = segmentStart;
+        } else if (pending != null) {
+            addPending(encoded.getTimestamp());
+        }
+        pending = encoded;
+    }
+
+    /**
+     * Adds the pending frame, which lasts until the given time, to the current part, closing the
+     * part before it if the frame would take the part past its target duration.
+     */
+    private void addPending(long endTimestamp) {
+        if (partTicks > 0 && !partSamples.isEmpty() && endTimestamp - partStart > partTicks) {
+            closePart();
+            partStart = pending.getTimestamp();
+        }
+        partSamples.add(new Fmp4Muxer.Sample(pending, (int) (endTimestamp - pending.getTimestamp())));
+        pending = null;
+    }
+
+    /**
+     * Stores the current part as one fragment.
+     */
+    private void closePart() {
+        store.addPart(Fmp4Muxer.fragment(++fragmentSequence, partSamples), secondsOf(partSamples),
+                      partSamples.get(0).getFrame().isKeyframe());
+        partSamples.clear();
+    }
+
+    /**
+     * Adds the pending frame, which lasts until the given time, and stores the segment.
+     */
+    private void closeSegment(long endTimestamp) {
+        if (pending == null) {
+            return;
+        }
+        addPending(endTimestamp);
+        if (partTicks > 0) {
+            closePart();
+            store.completeSegment();
+        } else {
+            store.addSegment(Fmp4Muxer.fragment(++fragmentSequence, partSamples), secondsOf(partSamples));
+            partSamples.clear();
+        }
+    }
+
+    /**
+     * @return the duration of the samples in seconds
+     */
+    private static double secondsOf(List<Fmp4Muxer.Sample> samples) {
+        long ticks = 0;
+        for (Fmp4Muxer.Sample sample : samples) {
+            ticks += sample.getDuration();
+        }
+        return (double) ticks / EncodedVideoFrame.TIMESCALE;
+    }
+
+    /**
+     * Creates the H.264 encoder of the session.
+     */
+    protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+        return new FfmpegH264Encoder(config.getQuality(), config.getFrameRate());
+    }
+
+    /**
+     * Players pull segments, so nobody is ever up to date; a still screen is only skipped until
+     * the next frame is due to keep the parts and segments flowing.
+     */
+    @Override
+    protected boolean isUpToDate() {
+        return encoder != null && System.nanoTime() - lastEncodedNanos < maxFrameGapNanos;
+    }
+
+    /**
+     * Captures a still screen at least once per frame gap, so every part gets at least two frames.
+     */
+    @Override
+    public int getIdleFrameRate() {
+        return getIdleFrameRate(TimeUnit.NANOSECONDS.toMillis(maxFrameGapNanos));
+    }
+
+    public HlsSegmentStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the target segment duration in seconds
+     */
+    public double getSegmentSeconds() {
+        return (double) segmentTicks / EncodedVideoFrame.TIMESCALE;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (encoder != null) {
+            encoder.dispose();
+            encoder = null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("hls", store.getStats());
+        VideoEncoderInterface videoEncoder = encoder;
+        if (videoEncoder != null) {
+            stats.put("videoEncoder", videoEncoder.getName());
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "HlsStreamSession{screen=" + getScreenIndex() + ", profile=" + getProfile() + "}";
+    }
+}
@@ -0,0 +1,297 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Reusable JPEG encoder for one stream.
+ * Looks up the ImageIO writer once and keeps its write parameters, image metadata and output
+ * stream adapter between frames, so encoding a frame does no service registry lookup and no
+ * per-frame stream wrapper allocation. Applies the configured quality, chroma subsampling and
+ * Huffman table optimization. Frames of at least {@link #PARALLEL_MIN_PIXELS} can instead go to a
+ * {@link StripJpegEncoder}, which spreads one frame over several cores.
+ * Not thread-safe; each stream session owns its own encoder.
+ */
+public class JpegFrameEncoder implements FrameEncoderInterface {
+
+    /** Additional config parameter selecting the chroma subsampling, e.g. "4:2:0" */
+    public static final String PARAM_CHROMA_SUBSAMPLING = "jpeg.chromaSubsampling";
+    /** Additional config parameter enabling optimized Huffman tables, a Boolean */
+    public static final String PARAM_OPTIMIZE_HUFFMAN = "jpeg.optimizeHuffman";
+    /** Additional config parameter enabling parallel strip encoding of large frames, a Boolean; off by default */
+    public static final String PARAM_PARALLEL_STRIPS = "jpeg.parallelStrips";
+
+    /** Smallest frame, in pixels, encoded in parallel strips when enabled; below it one core keeps up */
+    public static final int PARALLEL_MIN_PIXELS = 1920 * 1080;
+
+    public static final String NAME = "imageio";
+    public static final String CONTENT_TYPE = "image/jpeg";
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    /**
+     * Luma sampling factors; the chroma components are always sampled once per block.
+     */
+    public enum ChromaSubsampling {
+        YUV444("4:4:4", 1, 1),
+        YUV422("4:2:2", 2, 1),
+        YUV420("4:2:0", 2, 2);
+
+        private final String label;
+        private final int horizontal;
+        private final int vertical;
+
+        ChromaSubsampling(String label, int horizontal, int vertical) {
+            this.label = label;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        public static ChromaSubsampling fromLabel(String label) {
+            for (ChromaSubsampling subsampling : values()) {
+                if (subsampling.label.equals(label) || subsampling.name().equalsIgnoreCase(label)) {
+                    return subsampling;
+                }
+            }
+            throw new IllegalArgumentException("Unknown chroma subsampling: " + label);
+        }
+
+        /**
+         * @return luma samples per chroma sample horizontally
+         */
+        public int getHorizontal() {
+            return horizontal;
+        }
+
+        /**
+         * @return luma samples per chroma sample vertically
+         */
+        public int getVertical() {
+            return vertical;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final int quality;
+    private final ChromaSubsampling subsampling;
+    private final boolean optimizeHuffman;
+    private final ImageWriter writer;
+    private final StripJpegEncoder stripEncoder;
+    private final JPEGImageWriteParam param;
+    private final RetargetableOutputStream output = new RetargetableOutputStream();
+    private final RgbFrameAdapter frameAdapter = new RgbFrameAdapter();
+    private ColorModel metadataColorModel;
+    private IIOMetadata metadata;
+
+    /**
+     * @param quality JPEG quality from 1 to 100
+     * @param subsampling Chroma subsampling
+     * @param optimizeHuffman Whether to compute optimal Huffman tables per frame
+     */
+    public JpegFrameEncoder(int quality, ChromaSubsampling subsampling, boolean optimizeHuffman) {
+        this(quality, subsampling, optimizeHuffman, false);
+    }
+
+    /**
+     * @param quality JPEG quality from 1 to 100
+     * @param subsampling Chroma subsampling
+     * @param optimizeHuffman Whether to compute optimal Huffman tables per frame
+     * @param parallelStrips Whether to encode large frames in parallel strips, with the standard
+     *                       Huffman tables
+     */
+    public JpegFrameEncoder(int quality, ChromaSubsampling subsampling, boolean optimizeHuffman,
+                            boolean parallelStrips) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("JPEG quality must be between 1 and 100: " + quality);
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("No JPEG ImageWriter available");
+        }
+        this.quality = quality;
+        this.subsampling = subsampling;
+        this.optimizeHuffman = optimizeHuffman;
+        this.writer = writers.next();
+        this.param = (JPEGImageWriteParam) writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        param.setOptimizeHuffmanTables(optimizeHuffman);
+        writer.setOutput(output);
+        this.stripEncoder = parallelStrips ? new StripJpegEncoder(quality, subsampling) : null;
+    }
+
+    /**
+     * Creates an encoder for a streaming configuration.
+     * Subsampling and Huffman optimization are read from the additional parameters
+     * {@link #PARAM_CHROMA_SUBSAMPLING}, {@link #PARAM_OPTIMIZE_HUFFMAN} and {@link #PARAM_PARALLEL_STRIPS};
+     * they default to 4:2:0, off and off. Parallel strips are opt-in: they replace ImageIO with
+     * {@link StripJpegEncoder} for large frames.
+     * @param config The streaming configuration
+     * @return the encoder
+     */
+    public static JpegFrameEncoder forConfig(StreamingConfig config) {
+        Map<String, Object> params = config.getAdditionalParams();
+        Object subsampling = params.get(PARAM_CHROMA_SUBSAMPLING);
+        Object optimizeHuffman = params.get(PARAM_OPTIMIZE_HUFFMAN);
+        Object parallelStrips = params.get(PARAM_PARALLEL_STRIPS);
+        return new JpegFrameEncoder(
+            config.getQuality(),
+            subsampling != null ? ChromaSubsampling.fromLabel(subsampling.toString()) : ChromaSubsampling.YUV420,
+            optimizeHuffman != null && Boolean.parseBoolean(optimizeHuffman.toString()),
+            parallelStrips != null && Boolean.parseBoolean(parallelStrips.toString()));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Encodes one frame as a baseline JPEG.
+     * Frames are first brought into the writer's native layout by the encoder's
+     * {@link RgbFrameAdapter}, which reuses one buffer instead of allocating per frame.
+     * Large frames go to the strip encoder when parallel strips are enabled.
+     * @param image The frame
+     * @param outputStream Receives the JPEG bytes; it is not closed
+     */
+    @Override
+    public void encode(BufferedImage image, OutputStream outputStream) throws IOException {
+        if (stripEncoder != null && (long) image.getWidth() * image.getHeight() >= PARALLEL_MIN_PIXELS) {
+            stripEncoder.encode(image, outputStream);
+            return;
+        }
+        BufferedImage rgbImage = frameAdapter.adapt(image);
+
+        output.setTarget(outputStream);
+        try {
+            writer.write(null, new IIOImage(rgbImage, null, metadataFor(rgbImage)), param);
+        } finally {
+            output.setTarget(null);
+        }
+    }
+
+    /**
+     * Image metadata carrying the sampling factors, rebuilt only when the color model changes.
+     * Keyed on the color model rather than the full type, whose sample model includes the size,
+     * so patches of varying size share one metadata tree.
+     */
+    private IIOMetadata metadataFor(BufferedImage image) throws IOException {
+        if (metadata != null && image.getColorModel().equals(metadataColorModel)) {
+            return metadata;
+        }
+        ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(image);
+
+        IIOMetadata defaults = writer.getDefaultImageMetadata(type, param);
+        Element tree = (Element) defaults.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList components = tree.getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            Element component = (Element) components.item(i);
+            boolean luma = i == 0;
+            component.setAttribute("HsamplingFactor", String.valueOf(luma ? subsampling.horizontal : 1));
+            component.setAttribute("VsamplingFactor", String.valueOf(luma ? subsampling.vertical : 1));
+        }
+        defaults.setFromTree(JPEG_METADATA_FORMAT, tree);
+
+        metadataColorModel = image.getColorModel();
+        metadata = defaults;
+        return metadata;
+    }
+
+    /**
+     * Releases the underlying ImageIO writer.
+     */
+    @Override
+    public void dispose() {
+        writer.dispose();
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public ChromaSubsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public boolean isOptimizeHuffman() {
+        return optimizeHuffman;
+    }
+
+    /**
+     * @return the encoder of large frames, or null if parallel strips are disabled
+     */
+    public StripJpegEncoder getStripEncoder() {
+        return stripEncoder;
+    }
+
+    public RgbFrameAdapter getFrameAdapter() {
+        return frameAdapter;
+    }
+
+    /**
+     * Write-only ImageOutputStream that forwards straight to the current target stream.
+     * Unlike ImageIO.createImageOutputStream it keeps no cache and is reused for every frame.
+     */
+    private static final class RetargetableOutputStream extends ImageOutputStreamImpl {
+        private OutputStream target;
+
+        void setTarget(OutputStream target) {
+            this.target = target;
+            this.streamPos = 0;
+            this.flushedPos = 0;
+            this.bitOffset = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            target.write(b);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            target.write(b, off, len);
+            streamPos += len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Write-only stream");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throw new IOException("Write-only stream");
+        }
+    }
+}
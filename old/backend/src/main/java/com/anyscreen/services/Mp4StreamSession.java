@@ -0,0 +1,272 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodedVideoFrame;
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Stream session for the {@link com.anyscreen.models.StreamingProtocol#MP4} protocol.
+ * Encodes the screen once to H.264 and pushes it to every viewer as one endless fragmented MP4,
+ * which a plain {@code <video>} element plays: an init segment, then one fragment per frame.
+ * <p>
+ * The init segment and the fragments since the last keyframe are kept, so a joining viewer is
+ * handed them in one packet and starts at the most recent keyframe instead of waiting for the
+ * next one. A keyframe is requested every {@link #DEFAULT_GOP_MILLIS} ms, bounding both that
+ * cache and how far behind a new viewer starts. A fragment only decodes on top of the ones
+ * before it, so viewers are never made to skip one: a viewer whose mailbox is full gets nothing
+ * until it has caught up, and then resumes at the next keyframe.
+ * A still screen is encoded again at least every {@link #MAX_FRAME_GAP_MILLIS} ms, as tiny
+ * predicted frames, so keyframes stay on time and the connection never goes quiet.
+ */
+public class Mp4StreamSession extends StreamSession {
+
+    /** Config parameter: target time between two keyframes in ms */
+    public static final String PARAM_GOP_MILLIS = "mp4.gopMillis";
+    public static final long DEFAULT_GOP_MILLIS = 2000;
+    /** Longest time between two encoded frames, even while the screen is still */
+    public static final long MAX_FRAME_GAP_MILLIS = 500;
+    // Fragments are small; a few may queue up before a viewer counts as lagging
+    private static final int MAILBOX_CAPACITY = 8;
+
+    private final long gopTicks;
+    private final int frameTicks;
+    private final long startNanos = System.nanoTime();
+    // Only used by the capture thread, and by close() once no frame is delivered
+    private VideoEncoderInterface encoder;
+    private long lastTimestamp = -1;
+    private long gopStart;
+    private long fragmentSequence;
+    private volatile long lastEncodedNanos;
+
+    // Guarded by the session lock
+    private byte[] initSegment;
+    private final List<byte[]> gop = new ArrayList<>();
+    private int gopBytes;
+    private final Set<ClientConnection> awaitingStart = new HashSet<>();
+    private final Set<ClientConnection> awaitingKeyframe = new HashSet<>();
+
+    private final AtomicLong keyframes = new AtomicLong(0);
+    private final AtomicLong resyncs = new AtomicLong(0);
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session
+     */
+    public Mp4StreamSession(int screenIndex, StreamingConfig config) {
+        super(screenIndex, config);
+        Object gopMillis = config.getAdditionalParams().get(PARAM_GOP_MILLIS);
+        long millis = gopMillis != null ? Long.parseLong(gopMillis.toString()) : DEFAULT_GOP_MILLIS;
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Invalid " + PARAM_GOP_MILLIS + ": " + millis);
+        }
+        this.gopTicks = millis * EncodedVideoFrame.TIMESCALE / 1000;
+        this.frameTicks = EncodedVideoFrame.TIMESCALE / Math.max(1, config.getFrameRate());
+    }
+
+    @Override
+    protected int getMailboxCapacity() {
+        return MAILBOX_CAPACITY;
+    }
+
+    /**
+     * Hands a new viewer the init segment and the current group of pictures, or makes it wait
+     * for the first frame if nothing was encoded yet.
+     */
+    @Override
+    protected void onClientAdded(ClientConnection client) {
+        if (gop.isEmpty()) {
+            awaitingStart.add(client);
+        } else {
+            offerStart(client);
+        }
+    }
+
+    /**
+     * Encodes a frame into one fragment and queues it for every viewer.
+     * The encoder keeps the size of the first frame and scales later ones to it, since viewers
+     * cannot be sent a new init segment in the middle of their stream.
+     */
+    @Override
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        long now = System.nanoTime();
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(now - startNanos) * EncodedVideoFrame.TIMESCALE / 1_000_000;
+        if (timestamp <= lastTimestamp) {
+            return;
+        }
+        if (encoder == null) {
+            encoder = createEncoder(getConfig());
+        }
+        boolean keyframe = lastTimestamp < 0 || timestamp - gopStart >= gopTicks;
+        EncodedVideoFrame encoded = encoder.encode(frame, timestamp, keyframe);
+        lastEncodedNanos = now;
+        if (encoded == null) {
+            return;
+        }
+        lastTimestamp = timestamp;
+        if (encoded.isKeyframe()) {
+            gopStart = encoded.getTimestamp();
+            keyframes.incrementAndGet();
+        }
+
+        // The real gap to the next frame is unknown yet; players place each fragment by its own
+        // decode time, so a later frame simply holds this one on screen longer
+        byte[] fragment = Fmp4Muxer.fragment(++fragmentSequence, List.of(new Fmp4Muxer.Sample(encoded, frameTicks)));
+        FramePacket packet = new FramePacket(fragment, 0, fragment.length, fragment.length, buffer -> {});
+        try {
+            synchronized (this) {
+                if (initSegment == null) {
+                    initSegment = Fmp4Muxer.initSegment(encoder.getWidth(), encoder.getHeight(),
+                                                        encoder.getSequenceParameterSet(),
+                                                        encoder.getPictureParameterSet());
+                }
+                if (encoded.isKeyframe()) {
+                    gop.clear();
+                    gopBytes = 0;
+                }
+                if (encoded.isKeyframe() || !gop.isEmpty()) {
+                    gop.add(fragment);
+                    gopBytes += fragment.length;
+                }
+                // Viewers removed since the last frame are closed
+                awaitingStart.removeIf(client -> !client.isActive());
+                awaitingKeyframe.removeIf(client -> !client.isActive());
+                getClients().removeIf(client -> !offerTo(client, packet, encoded.isKeyframe()));
+            }
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Hands a viewer the fragment, or its start if it is new.
+     * @return false if the viewer is gone
+     */
+    private boolean offerTo(ClientConnection client, FramePacket packet, boolean keyframe) {
+        if (awaitingStart.contains(client)) {
+            // The group of pictures already holds this fragment
+            return gop.isEmpty() ? client.isActive() : offerStart(client);
+        }
+        boolean waiting = awaitingKeyframe.contains(client);
+        if (client.getQueueDepth() >= MAILBOX_CAPACITY || (waiting && !keyframe)) {
+            // Never drop a fragment: let the viewer catch up and resume it at a keyframe
+            if (awaitingKeyframe.add(client)) {
+                resyncs.incrementAndGet();
+            }
+            return client.isActive();
+        }
+        awaitingKeyframe.remove(client);
+        return client.offerFrame(packet);
+    }
+
+    /**
+     * Queues the init segment and the current group of pictures as one packet.
+     * Called with the session lock held.
+     * @return false if the viewer is gone
+     */
+    private boolean offerStart(ClientConnection client) {
+        awaitingStart.remove(client);
+        byte[] start = new byte[initSegment.length + gopBytes];
+        System.arraycopy(initSegment, 0, start, 0, initSegment.length);
+        int position = initSegment.length;
+        for (byte[] fragment : gop) {
+            System.arraycopy(fragment, 0, start, position, fragment.length);
+            position += fragment.length;
+        }
+        FramePacket packet = new FramePacket(start, 0, start.length, start.length, buffer -> {});
+        try {
+            return client.offerFrame(packet);
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Creates the H.264 encoder of the session.
+     */
+    protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+        return new FfmpegH264Encoder(config.getQuality(), config.getFrameRate());
+    }
+
+    /**
+     * A still screen is only skipped until the next frame is due, to keep keyframes on time.
+     */
+    @Override
+    protected boolean isUpToDate() {
+        return encoder != null && System.nanoTime() - lastEncodedNanos < TimeUnit.MILLISECONDS.toNanos(MAX_FRAME_GAP_MILLIS);
+    }
+
+    /**
+     * Captures a still screen often enough to keep the keyframes on time.
+     */
+    @Override
+    public int getIdleFrameRate() {
+        return getIdleFrameRate(MAX_FRAME_GAP_MILLIS);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            awaitingStart.clear();
+            awaitingKeyframe.clear();
+        }
+        if (encoder != null) {
+            encoder.dispose();
+            encoder = null;
+        }
+    }
+
+    public long getKeyframeCount() {
+        return keyframes.get();
+    }
+
+    /**
+     * @return how often a lagging viewer was made to wait for a keyframe
+     */
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    /**
+     * @return the bytes a viewer joining now is sent first: the init segment and the current
+     *         group of pictures, 0 before the first frame
+     */
+    public synchronized int getStartBytes() {
+        return gop.isEmpty() ? 0 : initSegment.length + gopBytes;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("keyframes", keyframes.get());
+        stats.put("resyncs", resyncs.get());
+        synchronized (this) {
+            stats.put("gopFrames", gop.size());
+            stats.put("gopBytes", gopBytes);
+            stats.put("awaitingKeyframe", awaitingKeyframe.size());
+        }
+        VideoEncoderInterface videoEncoder = encoder;
+        if (videoEncoder != null) {
+            stats.put("videoEncoder", videoEncoder.getName());
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "Mp4StreamSession{screen=" + getScreenIndex() + ", profile=" + getProfile() + "}";
+    }
+}
@@ -0,0 +1,163 @@
+package com.anyscreen.services;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Brings captured frames into the pixel layout the JPEG writer consumes natively: interleaved
+ * bytes in R, G, B order. For any other layout the ImageIO writer copies the frame sample by
+ * sample into temporary arrays, tens of MB per full HD frame; this adapter converts once, in a
+ * single pass, into a frame buffer it reuses, so the steady state allocates nothing per frame.
+ * Packed int RGB and 3-byte BGR captures take a direct loop; other layouts go row by row
+ * through getRGB. Screen frames are opaque, so alpha is ignored rather than composited.
+ * Not thread-safe; each encoder owns its own adapter.
+ */
+public class RgbFrameAdapter {
+
+    private static final int[] RGB_BAND_OFFSETS = {0, 1, 2};
+    private static final int[] BGR_BAND_OFFSETS = {2, 1, 0};
+    private static final ColorModel RGB_MODEL = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private BufferedImage target;
+    private byte[] targetPixels;
+    private int[] rowBuffer;
+    private long convertedFrames;
+
+    /**
+     * @param image A captured frame
+     * @return the frame itself if it already is interleaved RGB bytes, otherwise the frame
+     *         converted into the reused buffer, which is only valid until the next call
+     */
+    public BufferedImage adapt(BufferedImage image) {
+        if (isInterleaved(image, RGB_BAND_OFFSETS) && image.getColorModel().getColorSpace().isCS_sRGB()
+            && !image.getColorModel().hasAlpha()) {
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ensureTarget(width, height);
+        if (isPackedIntRgb(image)) {
+            convertPackedInt(image, width, height);
+        } else if (image.getType() == BufferedImage.TYPE_3BYTE_BGR && isInterleaved(image, BGR_BAND_OFFSETS)) {
+            convertBgr(image, width, height);
+        } else {
+            convertGeneric(image, width, height);
+        }
+        convertedFrames++;
+        return target;
+    }
+
+    /**
+     * Creates an empty frame in the native layout.
+     * @param width Frame width
+     * @param height Frame height
+     * @return an interleaved RGB byte image
+     */
+    public static BufferedImage createRgbImage(int width, int height) {
+        return new BufferedImage(RGB_MODEL,
+            Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, width * 3, 3, RGB_BAND_OFFSETS, null),
+            false, null);
+    }
+
+    private void ensureTarget(int width, int height) {
+        if (target == null || target.getWidth() != width || target.getHeight() != height) {
+            target = createRgbImage(width, height);
+            targetPixels = ((DataBufferByte) target.getRaster().getDataBuffer()).getData();
+            rowBuffer = new int[width];
+        }
+    }
+
+    private static boolean isInterleaved(BufferedImage image, int[] bandOffsets) {
+        return image.getSampleModel() instanceof PixelInterleavedSampleModel
+               && image.getRaster().getDataBuffer() instanceof DataBufferByte
+               && ((PixelInterleavedSampleModel) image.getSampleModel()).getPixelStride() == 3
+               && Arrays.equals(((PixelInterleavedSampleModel) image.getSampleModel()).getBandOffsets(), bandOffsets);
+    }
+
+    private static boolean isPackedIntRgb(BufferedImage image) {
+        if (!(image.getColorModel() instanceof DirectColorModel)
+            || !(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+            || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return false;
+        }
+        DirectColorModel model = (DirectColorModel) image.getColorModel();
+        return model.getRedMask() == 0x00FF0000 && model.getGreenMask() == 0x0000FF00
+               && model.getBlueMask() == 0x000000FF;
+    }
+
+    /**
+     * Index of the frame's top-left sample in its data array, honoring sub-images.
+     */
+    private static int originOffset(BufferedImage image, int pixelStride, int scanlineStride) {
+        Raster raster = image.getRaster();
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * scanlineStride
+               - raster.getSampleModelTranslateX() * pixelStride;
+    }
+
+    private void convertPackedInt(BufferedImage image, int width, int height) {
+        int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+        int rowStart = originOffset(image, 1, stride);
+        byte[] out = targetPixels;
+        int o = 0;
+        for (int y = 0; y < height; y++, rowStart += stride) {
+            for (int i = rowStart, end = rowStart + width; i < end; i++) {
+                int pixel = source[i];
+                out[o++] = (byte) (pixel >> 16);
+                out[o++] = (byte) (pixel >> 8);
+                out[o++] = (byte) pixel;
+            }
+        }
+    }
+
+    private void convertBgr(BufferedImage image, int width, int height) {
+        byte[] source = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = ((PixelInterleavedSampleModel) image.getSampleModel()).getScanlineStride();
+        int rowStart = originOffset(image, 3, stride);
+        byte[] out = targetPixels;
+        int o = 0;
+        for (int y = 0; y < height; y++, rowStart += stride) {
+            for (int i = rowStart, end = rowStart + width * 3; i < end; i += 3) {
+                out[o++] = source[i + 2];
+                out[o++] = source[i + 1];
+                out[o++] = source[i];
+            }
+        }
+    }
+
+    private void convertGeneric(BufferedImage image, int width, int height) {
+        int[] row = rowBuffer;
+        byte[] out = targetPixels;
+        int o = 0;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                out[o++] = (byte) (pixel >> 16);
+                out[o++] = (byte) (pixel >> 8);
+                out[o++] = (byte) pixel;
+            }
+        }
+    }
+
+    /**
+     * @return how many frames needed a pixel copy
+     */
+    public long getConvertedFrames() {
+        return convertedFrames;
+    }
+}
@@ -0,0 +1,114 @@
+package com.anyscreen.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What a viewer reported about receiving one RTP stream: the report block an RTCP receiver or
+ * sender report (RFC 3550, 6.4) carries for the stream's SSRC.
+ */
+public final class RtcpReceiverReport {
+
+    static final int TYPE_SENDER_REPORT = 200;
+    static final int TYPE_RECEIVER_REPORT = 201;
+    private static final int REPORT_BLOCK_LENGTH = 24;
+    private static final int SENDER_INFO_LENGTH = 20;
+
+    private final double fractionLost;
+    private final int cumulativeLost;
+    private final long highestSequence;
+    private final long jitter;
+    private final long receivedAt = System.currentTimeMillis();
+
+    /**
+     * @param fractionLost Share of packets lost since the previous report, 0 to 1
+     * @param cumulativeLost Packets lost since the viewer started receiving
+     * @param highestSequence Extended highest sequence number received
+     * @param jitter Interarrival jitter in RTP clock ticks
+     */
+    public RtcpReceiverReport(double fractionLost, int cumulativeLost, long highestSequence, long jitter) {
+        this.fractionLost = fractionLost;
+        this.cumulativeLost = cumulativeLost;
+        this.highestSequence = highestSequence;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Finds the report block about a stream in a compound RTCP packet.
+     * @param data Buffer holding the packet
+     * @param offset Start of the packet
+     * @param length Length of the packet
+     * @param ssrc Synchronization source of the stream
+     * @return the report, or null if the packet has none about the stream or is malformed
+     */
+    public static RtcpReceiverReport parse(byte[] data, int offset, int length, int ssrc) {
+        int end = offset + length;
+        int position = offset;
+        while (position + 8 <= end) {
+            if ((data[position] & 0xC0) != 0x80) {
+                return null;
+            }
+            int count = data[position] & 0x1F;
+            int type = data[position + 1] & 0xFF;
+            int packetEnd = position + 4 * (readU16(data, position + 2) + 1);
+            if (packetEnd > end) {
+                return null;
+            }
+            if (type == TYPE_SENDER_REPORT || type == TYPE_RECEIVER_REPORT) {
+                int block = position + 8 + (type == TYPE_SENDER_REPORT ? SENDER_INFO_LENGTH : 0);
+                for (int i = 0; i < count && block + REPORT_BLOCK_LENGTH <= packetEnd; i++, block += REPORT_BLOCK_LENGTH) {
+                    if (readInt(data, block) == ssrc) {
+                        // Cumulative loss is a signed 24-bit number; duplicates can make it negative
+                        int lost = (readInt(data, block + 4) << 8) >> 8;
+                        return new RtcpReceiverReport((data[block + 4] & 0xFF) / 256.0, lost,
+                                                      readInt(data, block + 8) & 0xFFFFFFFFL,
+                                                      readInt(data, block + 12) & 0xFFFFFFFFL);
+                    }
+                }
+            }
+            position = packetEnd;
+        }
+        return null;
+    }
+
+    private static int readU16(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (readU16(data, offset) << 16) | readU16(data, offset + 2);
+    }
+
+    public double getFractionLost() {
+        return fractionLost;
+    }
+
+    public int getCumulativeLost() {
+        return cumulativeLost;
+    }
+
+    public long getHighestSequence() {
+        return highestSequence;
+    }
+
+    /**
+     * @return interarrival jitter in RTP clock ticks
+     */
+    public long getJitter() {
+        return jitter;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fractionLost", fractionLost);
+        stats.put("cumulativeLost", cumulativeLost);
+        stats.put("highestSequence", highestSequence);
+        stats.put("jitterMs", jitter * 1000.0 / RtpPacketizer.CLOCK_RATE);
+        stats.put("receivedAt", receivedAt);
+        return stats;
+    }
+}
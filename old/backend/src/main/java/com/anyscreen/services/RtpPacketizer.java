@@ -0,0 +1,151 @@
+package com.anyscreen.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.anyscreen.models.EncodedVideoFrame;
+
+/**
+ * Splits H.264 pictures into RTP packets (RFC 3550) in packetization mode 1 of RFC 6184.
+ * A NAL unit that fits a packet is sent as is; a larger one is cut into FU-A fragments. The last
+ * packet of a picture carries the marker bit.
+ * <p>
+ * Every packet is written behind the 4-byte interleaved header of RTSP (RFC 2326, 10.12):
+ * {@code '$'}, channel 0, u16 length. One picture's packets thus form a single buffer that a
+ * viewer on the RTSP connection writes as is, and that a UDP viewer splits into datagrams.
+ * Not thread-safe: one per stream, used by its capture thread.
+ */
+public final class RtpPacketizer {
+
+    /** Dynamic payload type announced for H.264 */
+    public static final int PAYLOAD_TYPE = 96;
+    /** RTP clock of H.264, the timescale of {@link EncodedVideoFrame} */
+    public static final int CLOCK_RATE = EncodedVideoFrame.TIMESCALE;
+    public static final int HEADER_LENGTH = 12;
+    public static final int INTERLEAVED_HEADER_LENGTH = 4;
+    public static final byte INTERLEAVED_MAGIC = '$';
+    /** Largest RTP packet, header included; keeps datagrams below a typical 1500 byte MTU */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+    static final int NAL_FU_A = 28;
+    private static final int FU_START = 0x80;
+    private static final int FU_END = 0x40;
+
+    private final int ssrc;
+    private final int timestampOffset;
+    private final int maxPacketSize;
+    private final byte[] header = new byte[INTERLEAVED_HEADER_LENGTH + HEADER_LENGTH];
+    private int sequence;
+    private volatile long packets;
+    private volatile long fragmentedUnits;
+
+    /**
+     * @param ssrc Synchronization source of the stream
+     * @param initialSequence Sequence number of the first packet
+     * @param timestampOffset Added to every picture's timestamp, so RTP time starts at a random value
+     * @param maxPacketSize Largest RTP packet, header included
+     */
+    public RtpPacketizer(int ssrc, int initialSequence, int timestampOffset, int maxPacketSize) {
+        if (maxPacketSize < HEADER_LENGTH + 3) {
+            throw new IllegalArgumentException("Packet size too small: " + maxPacketSize);
+        }
+        if (maxPacketSize > 0xFFFF) {
+            throw new IllegalArgumentException("Packet size too large for interleaving: " + maxPacketSize);
+        }
+        this.ssrc = ssrc;
+        this.sequence = initialSequence & 0xFFFF;
+        this.timestampOffset = timestampOffset;
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * Writes the packets of one picture.
+     * @param nalUnits NAL units of the picture, without start codes
+     * @param timestamp Presentation time in {@link #CLOCK_RATE} ticks
+     * @param out Receives the interleaved packets
+     * @return the number of packets written
+     */
+    public int packetize(List<byte[]> nalUnits, long timestamp, OutputStream out) throws IOException {
+        int rtpTimestamp = toRtpTimestamp(timestamp);
+        int written = 0;
+        for (int i = 0; i < nalUnits.size(); i++) {
+            byte[] nalUnit = nalUnits.get(i);
+            boolean last = i == nalUnits.size() - 1;
+            if (HEADER_LENGTH + nalUnit.length <= maxPacketSize) {
+                writeHeader(out, nalUnit.length, last, rtpTimestamp);
+                out.write(nalUnit);
+                written++;
+                continue;
+            }
+
+            // FU-A: the NAL header is split into the FU indicator and FU header of every fragment
+            int indicator = (nalUnit[0] & 0xE0) | NAL_FU_A;
+            int type = nalUnit[0] & 0x1F;
+            int chunk = maxPacketSize - HEADER_LENGTH - 2;
+            for (int offset = 1; offset < nalUnit.length; offset += chunk) {
+                int length = Math.min(chunk, nalUnit.length - offset);
+                boolean end = offset + length == nalUnit.length;
+                writeHeader(out, length + 2, last && end, rtpTimestamp);
+                out.write(indicator);
+                out.write((offset == 1 ? FU_START : 0) | (end ? FU_END : 0) | type);
+                out.write(nalUnit, offset, length);
+                written++;
+            }
+            fragmentedUnits++;
+        }
+        packets += written;
+        return written;
+    }
+
+    private void writeHeader(OutputStream out, int payloadLength, boolean marker, int rtpTimestamp) throws IOException {
+        int length = HEADER_LENGTH + payloadLength;
+        header[0] = INTERLEAVED_MAGIC;
+        header[1] = 0;
+        header[2] = (byte) (length >>> 8);
+        header[3] = (byte) length;
+        header[4] = (byte) 0x80;
+        header[5] = (byte) ((marker ? 0x80 : 0) | PAYLOAD_TYPE);
+        header[6] = (byte) (sequence >>> 8);
+        header[7] = (byte) sequence;
+        putInt(header, 8, rtpTimestamp);
+        putInt(header, 12, ssrc);
+        out.write(header);
+        sequence = (sequence + 1) & 0xFFFF;
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * @return the RTP timestamp of a presentation time, wrapping at 32 bits
+     */
+    public int toRtpTimestamp(long timestamp) {
+        return (int) (timestampOffset + timestamp);
+    }
+
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    /**
+     * @return sequence number of the next packet
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public long getPacketCount() {
+        return packets;
+    }
+
+    /**
+     * @return NAL units that were too large for one packet
+     */
+    public long getFragmentedUnitCount() {
+        return fragmentedUnits;
+    }
+}
@@ -0,0 +1,301 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodedVideoFrame;
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Stream session for the {@link com.anyscreen.models.StreamingProtocol#RTSP} protocol.
+ * Encodes the screen once to H.264 and packetizes every picture into RTP with an
+ * {@link RtpPacketizer}; all viewers share the packets, sequence numbers and SSRC, as receivers
+ * of one source would. Frames are sent as soon as they are encoded, with nothing buffered for
+ * late viewers, so players see the screen within their own jitter buffer.
+ * <p>
+ * A joining viewer waits for a keyframe, which it asks for right away instead of waiting out
+ * the {@link #DEFAULT_GOP_MILLIS} ms keyframe interval. Keyframes carry the parameter sets in
+ * band, for players that ignore the SDP. A viewer whose mailbox is full, which only happens on a
+ * slow RTSP connection, skips frames until the next regular keyframe; it sees the gap as packet
+ * loss. Receiver reports the viewers send back are kept for the stats.
+ * A still screen is encoded again at least every {@link #MAX_FRAME_GAP_MILLIS} ms, as tiny
+ * predicted frames, so keyframes stay on time and players do not time out.
+ */
+public class RtpStreamSession extends StreamSession {
+
+    /** Config parameter: target time between two keyframes in ms */
+    public static final String PARAM_GOP_MILLIS = "rtp.gopMillis";
+    /** Config parameter: largest RTP packet in bytes, header included */
+    public static final String PARAM_MAX_PACKET_SIZE = "rtp.maxPacketSize";
+    public static final long DEFAULT_GOP_MILLIS = 2000;
+    /** Longest time between two encoded frames, even while the screen is still */
+    public static final long MAX_FRAME_GAP_MILLIS = 500;
+    // A picture is one packet; a few may queue up before a viewer counts as lagging
+    private static final int MAILBOX_CAPACITY = 8;
+    private static final byte[] NO_HEADER = new byte[0];
+
+    private final RtpPacketizer packetizer;
+    private final long gopTicks;
+    private final long startNanos = System.nanoTime();
+    private final CountDownLatch parameterSetsReady = new CountDownLatch(1);
+    // Only used by the capture thread, and by close() once no frame is delivered
+    private VideoEncoderInterface encoder;
+    private long lastTimestamp = -1;
+    private long gopStart;
+    private volatile long lastEncodedNanos;
+    private final AtomicBoolean keyframeRequested = new AtomicBoolean();
+    private volatile byte[] sequenceParameterSet;
+    private volatile byte[] pictureParameterSet;
+
+    // Guarded by the session lock
+    private final Set<ClientConnection> awaitingKeyframe = new HashSet<>();
+
+    private final Map<String, RtcpReceiverReport> receiverReports = new ConcurrentHashMap<>();
+    private final AtomicLong keyframes = new AtomicLong(0);
+    private final AtomicLong resyncs = new AtomicLong(0);
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session
+     */
+    public RtpStreamSession(int screenIndex, StreamingConfig config) {
+        super(screenIndex, config);
+        Map<String, Object> params = config.getAdditionalParams();
+        long gopMillis = params.containsKey(PARAM_GOP_MILLIS)
+            ? Long.parseLong(params.get(PARAM_GOP_MILLIS).toString()) : DEFAULT_GOP_MILLIS;
+        int maxPacketSize = params.containsKey(PARAM_MAX_PACKET_SIZE)
+            ? Integer.parseInt(params.get(PARAM_MAX_PACKET_SIZE).toString()) : RtpPacketizer.DEFAULT_MAX_PACKET_SIZE;
+        if (gopMillis <= 0) {
+            throw new IllegalArgumentException("Invalid " + PARAM_GOP_MILLIS + ": " + gopMillis);
+        }
+        this.gopTicks = gopMillis * EncodedVideoFrame.TIMESCALE / 1000;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.packetizer = new RtpPacketizer(random.nextInt(), random.nextInt(0x10000), random.nextInt(), maxPacketSize);
+    }
+
+    @Override
+    protected int getMailboxCapacity() {
+        return MAILBOX_CAPACITY;
+    }
+
+    /**
+     * New viewers wait for a keyframe, which the next captured frame produces even if unchanged.
+     */
+    @Override
+    protected void onClientAdded(ClientConnection client) {
+        awaitingKeyframe.add(client);
+        keyframeRequested.set(true);
+    }
+
+    @Override
+    public boolean removeClient(String clientId) {
+        receiverReports.remove(clientId);
+        return super.removeClient(clientId);
+    }
+
+    /**
+     * Encodes a frame, packetizes it and queues the packets for every viewer as one buffer.
+     */
+    @Override
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        long now = System.nanoTime();
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(now - startNanos) * EncodedVideoFrame.TIMESCALE / 1_000_000;
+        if (timestamp <= lastTimestamp) {
+            return;
+        }
+        if (encoder == null) {
+            encoder = createEncoder(getConfig());
+        }
+        // A viewer joining from here on asks again, so its request is never lost
+        boolean keyframe = keyframeRequested.getAndSet(false) || lastTimestamp < 0 || timestamp - gopStart >= gopTicks;
+        EncodedVideoFrame encoded = encoder.encode(frame, timestamp, keyframe);
+        lastEncodedNanos = now;
+        if (encoded == null) {
+            if (keyframe) {
+                keyframeRequested.set(true);
+            }
+            return;
+        }
+        lastTimestamp = timestamp;
+        List<byte[]> nalUnits = encoded.getNalUnits();
+        if (encoded.isKeyframe()) {
+            gopStart = encoded.getTimestamp();
+            keyframes.incrementAndGet();
+            if (sequenceParameterSet == null) {
+                sequenceParameterSet = encoder.getSequenceParameterSet();
+                pictureParameterSet = encoder.getPictureParameterSet();
+                parameterSetsReady.countDown();
+            }
+            nalUnits = new ArrayList<>(nalUnits.size() + 2);
+            nalUnits.add(sequenceParameterSet);
+            nalUnits.add(pictureParameterSet);
+            nalUnits.addAll(encoded.getNalUnits());
+        }
+
+        FramePacketPool.PacketBuffer buffer = getPacketPool().acquire();
+        packetizer.packetize(nalUnits, encoded.getTimestamp(), buffer);
+        FramePacket packet = buffer.toPacket(NO_HEADER);
+        try {
+            synchronized (this) {
+                // Viewers removed since the last frame are closed
+                awaitingKeyframe.removeIf(client -> !client.isActive());
+                getClients().removeIf(client -> !offerTo(client, packet, encoded.isKeyframe()));
+            }
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Hands a viewer the picture's packets unless it is waiting for a keyframe.
+     * @return false if the viewer is gone
+     */
+    private boolean offerTo(ClientConnection client, FramePacket packet, boolean keyframe) {
+        boolean waiting = awaitingKeyframe.contains(client);
+        if (client.getQueueDepth() >= MAILBOX_CAPACITY || (waiting && !keyframe)) {
+            // Never drop part of the queue: a lagging viewer resumes at the next regular keyframe
+            if (awaitingKeyframe.add(client)) {
+                resyncs.incrementAndGet();
+            }
+            return client.isActive();
+        }
+        awaitingKeyframe.remove(client);
+        return client.offerFrame(packet);
+    }
+
+    /**
+     * Creates the H.264 encoder of the session.
+     */
+    protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+        return new FfmpegH264Encoder(config.getQuality(), config.getFrameRate());
+    }
+
+    /**
+     * A still screen is only skipped until the next frame is due, or a viewer asked for a keyframe.
+     */
+    @Override
+    protected boolean isUpToDate() {
+        return encoder != null && !keyframeRequested.get()
+               && System.nanoTime() - lastEncodedNanos < TimeUnit.MILLISECONDS.toNanos(MAX_FRAME_GAP_MILLIS);
+    }
+
+    /**
+     * Captures a still screen often enough that players do not time out.
+     */
+    @Override
+    public int getIdleFrameRate() {
+        return getIdleFrameRate(MAX_FRAME_GAP_MILLIS);
+    }
+
+    /**
+     * Waits until the first keyframe gave the parameter sets the SDP announces.
+     * @param timeoutMillis Longest time to wait
+     * @return true if they are available
+     */
+    public boolean awaitParameterSets(long timeoutMillis) throws InterruptedException {
+        return parameterSetsReady.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the sequence parameter set, without start code, or null before the first keyframe
+     */
+    public byte[] getSequenceParameterSet() {
+        return sequenceParameterSet;
+    }
+
+    /**
+     * @return the picture parameter set, without start code, or null before the first keyframe
+     */
+    public byte[] getPictureParameterSet() {
+        return pictureParameterSet;
+    }
+
+    public int getSsrc() {
+        return packetizer.getSsrc();
+    }
+
+    /**
+     * Keeps the latest receiver report of a viewer.
+     * @param clientId Unique id of the viewer
+     * @param report What the viewer reported about this stream
+     */
+    public void onReceiverReport(String clientId, RtcpReceiverReport report) {
+        receiverReports.put(clientId, report);
+    }
+
+    /**
+     * @return the latest receiver report of a viewer, or null if it sent none
+     */
+    public RtcpReceiverReport getReceiverReport(String clientId) {
+        return receiverReports.get(clientId);
+    }
+
+    public long getKeyframeCount() {
+        return keyframes.get();
+    }
+
+    /**
+     * @return how often a lagging viewer was made to wait for a keyframe
+     */
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            awaitingKeyframe.clear();
+        }
+        receiverReports.clear();
+        if (encoder != null) {
+            encoder.dispose();
+            encoder = null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("keyframes", keyframes.get());
+        stats.put("resyncs", resyncs.get());
+        stats.put("rtpPackets", packetizer.getPacketCount());
+        stats.put("fragmentedNalUnits", packetizer.getFragmentedUnitCount());
+        synchronized (this) {
+            stats.put("awaitingKeyframe", awaitingKeyframe.size());
+        }
+        Map<String, Object> reports = new ConcurrentHashMap<>();
+        long packetsLost = 0;
+        for (Map.Entry<String, RtcpReceiverReport> entry : receiverReports.entrySet()) {
+            reports.put(entry.getKey(), entry.getValue().getStats());
+            packetsLost += Math.max(0, entry.getValue().getCumulativeLost());
+        }
+        stats.put("receiverReports", reports);
+        stats.put("packetsLost", packetsLost);
+        VideoEncoderInterface videoEncoder = encoder;
+        if (videoEncoder != null) {
+            stats.put("videoEncoder", videoEncoder.getName());
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "RtpStreamSession{screen=" + getScreenIndex() + ", profile=" + getProfile() + "}";
+    }
+}
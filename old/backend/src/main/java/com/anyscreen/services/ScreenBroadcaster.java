@@ -0,0 +1,377 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anyscreen.models.CapturedFrame;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Shared capture producer for a single screen.
+ * Captures each frame once and hands it to one {@link StreamSession} per encoding profile, which
+ * encodes it once for all of its subscribers. Sessions asking for a smaller size share one
+ * downscaled copy per size, kept up to date by a {@link FrameScaler}. The capture loop runs at the highest frame rate any
+ * session asks for, starts with the first subscriber and stops when the last one leaves. Viewers
+ * whose connection fails are dropped by their session and unsubscribed by their handler, so a
+ * screen nobody watches is neither captured nor encoded.
+ */
+public class ScreenBroadcaster {
+
+    // How long stop() waits for a frame in progress to finish
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    private final int screenIndex;
+    private final ScreenCaptureService screenCaptureService;
+    private final FrameScheduler frameScheduler;
+    private final FrameBufferPool framePool = new FrameBufferPool();
+    private final TileChangeDetector changeDetector = new TileChangeDetector();
+    private final ActivityGovernor governor = new ActivityGovernor();
+    // Keyed by output width and height; only changed by the capture thread
+    private final Map<Long, FrameScaler> scalers = new ConcurrentHashMap<>();
+    private final Map<EncodingProfile, StreamSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, StreamSession> clientSessions = new ConcurrentHashMap<>();
+    private final AtomicLong frameCount = new AtomicLong(0);
+    private final AtomicLong retiredBytesTransferred = new AtomicLong(0);
+    private volatile Thread captureThread;
+    // Set by a capture loop that ended on a capture error, until the next one starts
+    private volatile boolean captureFailed;
+    private volatile FrameScheduler.FrameClock clock;
+
+    public ScreenBroadcaster(int screenIndex, ScreenCaptureService screenCaptureService) {
+        this(screenIndex, screenCaptureService, new FrameScheduler());
+    }
+
+    /**
+     * @param screenIndex Index of the screen to capture
+     * @param screenCaptureService Capture service for the screen
+     * @param frameScheduler Frame clock shared with the other capture loops
+     */
+    public ScreenBroadcaster(int screenIndex, ScreenCaptureService screenCaptureService, FrameScheduler frameScheduler) {
+        this.screenIndex = screenIndex;
+        this.screenCaptureService = screenCaptureService;
+        this.frameScheduler = frameScheduler;
+    }
+
+    /**
+     * Adds a viewer to the session matching its encoding profile, creating the session if needed
+     * and starting the capture loop if this is the first viewer of the screen.
+     * @param clientId Unique id of the viewer
+     * @param outputStream The viewer's response stream
+     * @param config Streaming configuration requested by the viewer
+     * @return the connection, which the caller can wait on until the viewer leaves
+     */
+    public synchronized ClientConnection subscribe(String clientId, OutputStream outputStream, StreamingConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("StreamingConfig cannot be null");
+        }
+
+        reapFailedLoop();
+        StreamSession session = sessionFor(config);
+        ClientConnection client = session.addClient(clientId, outputStream);
+        clientSessions.put(clientId, session);
+
+        if (captureThread == null) {
+            start();
+        } else {
+            // Serve the new viewer at the full rate even if the screen was idling
+            governor.wake();
+            FrameScheduler.FrameClock captureClock = clock;
+            if (captureClock != null) {
+                captureClock.wakeUp();
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Registers a viewer that fetches from its session instead of having frames pushed to it,
+     * such as an HLS player, creating the session and starting the capture loop if needed.
+     * Calling it again with the same id only returns the session. The viewer stays registered
+     * until {@link #unsubscribe} is called with its id.
+     * @param subscriberId Unique id of the viewer
+     * @param config Streaming configuration requested by the viewer
+     * @return the viewer's session
+     */
+    public synchronized StreamSession attach(String subscriberId, StreamingConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("StreamingConfig cannot be null");
+        }
+
+        reapFailedLoop();
+        StreamSession session = sessionFor(config);
+        clientSessions.put(subscriberId, session);
+        if (captureThread == null) {
+            start();
+        }
+        return session;
+    }
+
+    /**
+     * Removes a viewer, dropping its session if it was the session's last viewer and
+     * stopping the capture loop if no session is left.
+     * @param clientId Unique id of the viewer
+     */
+    public synchronized void unsubscribe(String clientId) {
+        StreamSession session = clientSessions.remove(clientId);
+        if (session != null) {
+            session.removeClient(clientId);
+            // Attached viewers have no connection in the session, only an entry here
+            if (session.isEmpty() && !clientSessions.containsValue(session)
+                && sessions.remove(session.getProfile(), session)) {
+                retiredBytesTransferred.addAndGet(session.getBytesTransferred());
+                session.close();
+            }
+        }
+
+        if (sessions.isEmpty()) {
+            stop();
+        }
+    }
+
+    /**
+     * @return the session encoding the configuration's profile, replacing one closed by a capture
+     *         error
+     */
+    private StreamSession sessionFor(StreamingConfig config) {
+        return sessions.compute(EncodingProfile.of(config), (profile, session) ->
+            session == null || session.isClosed() ? StreamSession.create(screenIndex, config) : session);
+    }
+
+    /**
+     * Disconnects every subscriber and stops the capture loop.
+     */
+    public synchronized void shutdown() {
+        for (StreamSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+        clientSessions.clear();
+        stop();
+    }
+
+    /**
+     * Joins a capture loop that ended on a capture error, after it closed its sessions, so the
+     * viewer being added gets a new session and a new loop instead of a stream nobody feeds.
+     */
+    private void reapFailedLoop() {
+        if (captureFailed) {
+            stop();
+        }
+    }
+
+    private void start() {
+        captureFailed = false;
+        captureThread = new Thread(this::captureLoop, "capture-screen-" + screenIndex);
+        captureThread.setDaemon(true);
+        captureThread.start();
+        LoggerService.info("Capture started for screen " + screenIndex);
+    }
+
+    /**
+     * Stops the capture loop and waits for the frame in progress, so a loop started right after
+     * never shares the detector and buffers with the old one.
+     */
+    private void stop() {
+        Thread thread = captureThread;
+        captureThread = null;
+        if (thread != null) {
+            thread.interrupt();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join(STOP_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (thread.isAlive()) {
+                    LoggerService.warn("Capture loop of screen " + screenIndex + " did not stop within "
+                                       + STOP_TIMEOUT_MILLIS + "ms");
+                }
+            }
+            LoggerService.info("Capture stopped for screen " + screenIndex + ". Frames streamed: " + frameCount.get());
+        }
+    }
+
+    private void captureLoop() {
+        FrameScheduler.FrameClock clock = frameScheduler.newClock(getTargetFrameRate());
+        this.clock = clock;
+        governor.reset();
+        governor.wake();
+        Thread self = Thread.currentThread();
+
+        try {
+            // Also checks ownership, in case a capture backend swallowed the interrupt
+            while (captureThread == self && !self.isInterrupted()) {
+                clock.setFrameRate(governor.selectFrameRate(
+                    getTargetFrameRate(), getIdleFrameRate(), getIdleAfterNanos(), System.nanoTime()));
+                clock.awaitNextFrame();
+
+                // Sessions encode synchronously, so the buffer is free again once broadcast returns
+                CapturedFrame frame = screenCaptureService.captureScreen(screenIndex, framePool);
+                try {
+                    broadcast(frame.getImage());
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LoggerService.error("Capture error on screen " + screenIndex + ": " + e.getMessage());
+            captureFailed = true;
+            // Release the waiting handlers; they unsubscribe and stop this loop
+            for (StreamSession session : sessions.values()) {
+                session.close();
+            }
+        } finally {
+            // Scaled buffers are rebuilt by the next loop
+            scalers.clear();
+        }
+    }
+
+    /**
+     * Hands one captured frame to every session; each one encodes it at most once, and not at
+     * all if no tile changed since the previous capture.
+     * @param frame The captured frame
+     */
+    void broadcast(BufferedImage frame) throws Exception {
+        if (frame == null) {
+            LoggerService.warn("Received null frame for screen " + screenIndex + ", skipping");
+            return;
+        }
+
+        DirtyTileMap changes = changeDetector.detect(frame);
+        governor.recordFrame(!changes.isEmpty(), System.nanoTime());
+        Map<Long, ScaledFrame> scaledFrames = new HashMap<>();
+        for (StreamSession session : sessions.values()) {
+            StreamingConfig config = session.getConfig();
+            if (config.getWidth() >= frame.getWidth() && config.getHeight() >= frame.getHeight()) {
+                session.publish(frame, changes);
+                continue;
+            }
+
+            // Scaled once per size, however many sessions use it
+            int width = Math.min(config.getWidth(), frame.getWidth());
+            int height = Math.min(config.getHeight(), frame.getHeight());
+            long size = ((long) width << 32) | height;
+            ScaledFrame scaled = scaledFrames.get(size);
+            if (scaled == null) {
+                FrameScaler scaler = scalers.computeIfAbsent(size, key -> new FrameScaler(width, height));
+                scaled = new ScaledFrame(scaler.scale(frame, changes), changes.scaledTo(width, height));
+                scaledFrames.put(size, scaled);
+            }
+            session.publish(scaled.image, scaled.changes);
+        }
+        // A scaler skipping a frame would miss its changes, so drop the ones no session used
+        scalers.keySet().retainAll(scaledFrames.keySet());
+        frameCount.incrementAndGet();
+    }
+
+    private static final class ScaledFrame {
+        final BufferedImage image;
+        final DirtyTileMap changes;
+
+        ScaledFrame(BufferedImage image, DirtyTileMap changes) {
+            this.image = image;
+            this.changes = changes;
+        }
+    }
+
+    private int getTargetFrameRate() {
+        int frameRate = 1;
+        for (StreamSession session : sessions.values()) {
+            frameRate = Math.max(frameRate, session.getConfig().getFrameRate());
+        }
+        return frameRate;
+    }
+
+    /**
+     * @return the highest idle rate any session asks for
+     */
+    private int getIdleFrameRate() {
+        int frameRate = 1;
+        for (StreamSession session : sessions.values()) {
+            frameRate = Math.max(frameRate, session.getIdleFrameRate());
+        }
+        return frameRate;
+    }
+
+    /**
+     * @return the shortest still period any session asks for, or 0 if some session never idles
+     */
+    private long getIdleAfterNanos() {
+        long idleAfter = Long.MAX_VALUE;
+        for (StreamSession session : sessions.values()) {
+            long sessionIdleAfter = ActivityGovernor.idleAfterNanosOf(session.getConfig());
+            if (sessionIdleAfter <= 0) {
+                return 0;
+            }
+            idleAfter = Math.min(idleAfter, sessionIdleAfter);
+        }
+        return idleAfter == Long.MAX_VALUE ? 0 : idleAfter;
+    }
+
+    public int getScreenIndex() {
+        return screenIndex;
+    }
+
+    public Collection<StreamSession> getSessions() {
+        return sessions.values();
+    }
+
+    /**
+     * @return the session encoding the profile, or null if nobody watches it
+     */
+    public StreamSession getSession(EncodingProfile profile) {
+        return sessions.get(profile);
+    }
+
+    public int getSubscriberCount() {
+        return clientSessions.size();
+    }
+
+    public synchronized boolean isRunning() {
+        return captureThread != null;
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public FrameBufferPool getFramePool() {
+        return framePool;
+    }
+
+    public TileChangeDetector getChangeDetector() {
+        return changeDetector;
+    }
+
+    /**
+     * @return number of output sizes currently downscaled to
+     */
+    public int getScalerCount() {
+        return scalers.size();
+    }
+
+    public ActivityGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * @return frames captured per second over the last second, 0 while not capturing
+     */
+    public double getEffectiveFrameRate() {
+        return isRunning() ? governor.getEffectiveFrameRate() : 0.0;
+    }
+
+    public long getBytesTransferred() {
+        return retiredBytesTransferred.get() +
+               sessions.values().stream().mapToLong(StreamSession::getBytesTransferred).sum();
+    }
+}
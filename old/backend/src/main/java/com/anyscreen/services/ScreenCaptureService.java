@@ -6,10 +6,11 @@ import java.io.OutputStream;
 import java.util.List;
 
 import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.implementations.CaptureBackends;
 import com.anyscreen.implementations.ImageIOScreenCaptureSaver;
-import com.anyscreen.implementations.RobotScreenCapture;
 import com.anyscreen.interfaces.ScreenCaptureInterface;
 import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.models.CapturedFrame;
 import com.anyscreen.models.ScreenInfo;
 
 /**
@@ -26,11 +27,12 @@ public class ScreenCaptureService {
     }
     
     /**
-     * Creates a service with default Robot-based capture and ImageIO-based saving.
+     * Creates a service with ImageIO-based saving and the capture backend selected by the
+     * {@value CaptureBackends#CAPTURE_PROPERTY} system property, Robot-based by default.
      */
     public static ScreenCaptureService createDefault() throws ScreenCaptureException {
         return new ScreenCaptureService(
-            new RobotScreenCapture(),
+            CaptureBackends.fromSystemProperties(),
             new ImageIOScreenCaptureSaver()
         );
     }
@@ -48,6 +50,25 @@ public class ScreenCaptureService {
         return captureInterface.captureScreen(screenIndex);
     }
     
+    /**
+     * Captures a screen into a buffer from the given pool.
+     * The caller must release the returned frame once it no longer reads the image.
+     * @param screenIndex The index of the screen to capture (0-based)
+     * @param pool Frame buffers of the calling capture loop
+     * @return the captured frame, whose image is null if the backend returned none
+     * @throws ScreenCaptureException if capture fails
+     */
+    public CapturedFrame captureScreen(int screenIndex, FrameBufferPool pool) throws ScreenCaptureException {
+        BufferedImage target = pool.acquire();
+        BufferedImage image = captureInterface.captureScreen(screenIndex, target);
+        if (image == null) {
+            // A transient empty grab; the caller skips it
+            return pool.empty(target);
+        }
+        // A target the backend could not use (e.g. after a resolution change) is dropped
+        return pool.wrap(image, image == target);
+    }
+    
     public List<ScreenInfo> getAvailableScreens() {
         return captureInterface.getAvailableScreens();
     }
@@ -0,0 +1,517 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.anyscreen.implementations.FrameEncoders;
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+
+/**
+ * One encoded stream of one screen.
+ * Holds its own configuration, viewers, counters and frame throttle, so sessions for different
+ * screens or encoding profiles never overwrite or slow down each other.
+ */
+public class StreamSession {
+
+    /** Config parameter: how often, in ms, a still screen's last frame is sent again; 0 disables */
+    public static final String PARAM_KEEPALIVE_MILLIS = "stream.keepaliveMillis";
+    public static final long DEFAULT_KEEPALIVE_MILLIS = 2000;
+
+    private final int screenIndex;
+    private volatile StreamingConfig config;
+    private volatile EncodingProfile profile;
+    // Held while a frame is published, so closing or reconfiguring waits for the frame in
+    // progress; guards encoder and closed
+    private final Object publishLock = new Object();
+    // Built on first use, since video sessions never need it
+    private FrameEncoderInterface encoder;
+    private boolean closed;
+    private final Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
+    private final FramePacketPool packetPool = new FramePacketPool();
+    private volatile EncodedFrameCache frameCache = EncodedFrameCache.shared();
+    private final AtomicLong frameCount = new AtomicLong(0);
+    private final AtomicLong throttledFrames = new AtomicLong(0);
+    private final AtomicLong unchangedFrames = new AtomicLong(0);
+    private final AtomicLong keepaliveFrames = new AtomicLong(0);
+    private final AtomicLong cachedFrames = new AtomicLong(0);
+    private final AtomicLong bytesTransferred = new AtomicLong(0);
+    private volatile long frameIntervalNanos;
+    private volatile long keepaliveNanos;
+    private final long startTime = System.currentTimeMillis();
+    private long nextFrameDue = System.nanoTime();
+    // Last packet sent, handed to viewers that join while the screen is not changing
+    private FramePacket lastPacket;
+    // Whether lastPacket shows the latest captured frame, i.e. no change was throttled since
+    private boolean lastPacketCurrent;
+    // Fingerprint of the last frame published without a change map, 0 if none
+    private long lastFingerprint;
+    // When viewers were last sent anything, for the keepalive
+    private long lastSentNanos = System.nanoTime();
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session
+     */
+    public StreamSession(int screenIndex, StreamingConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("StreamingConfig cannot be null");
+        }
+        this.screenIndex = screenIndex;
+        applyConfig(config);
+    }
+
+    /**
+     * Creates the session type that serves the configuration's protocol.
+     * @param screenIndex Index of the screen the session streams
+     * @param config Configuration of the session
+     * @return a {@link TileStreamSession} for {@link StreamingProtocol#TILES}, an {@link HlsStreamSession}
+     *         for {@link StreamingProtocol#HLS}, a {@link DashStreamSession} for
+     *         {@link StreamingProtocol#DASH}, an {@link Mp4StreamSession} for {@link StreamingProtocol#MP4},
+     *         an {@link RtpStreamSession} for {@link StreamingProtocol#RTSP}, otherwise an MJPEG session
+     */
+    public static StreamSession create(int screenIndex, StreamingConfig config) {
+        if (config != null && config.getProtocol() == StreamingProtocol.TILES) {
+            return new TileStreamSession(screenIndex, config);
+        }
+        if (config != null && config.getProtocol() == StreamingProtocol.HLS) {
+            return new HlsStreamSession(screenIndex, config);
+        }
+        if (config != null && config.getProtocol() == StreamingProtocol.DASH) {
+            return new DashStreamSession(screenIndex, config);
+        }
+        if (config != null && config.getProtocol() == StreamingProtocol.MP4) {
+            return new Mp4StreamSession(screenIndex, config);
+        }
+        if (config != null && config.getProtocol() == StreamingProtocol.RTSP) {
+            return new RtpStreamSession(screenIndex, config);
+        }
+        return new StreamSession(screenIndex, config);
+    }
+
+    /**
+     * Replaces the configuration while keeping the viewers connected.
+     * Only for sessions that are not looked up by profile, such as the service's default session.
+     * @param config The new configuration
+     */
+    void reconfigure(StreamingConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("StreamingConfig cannot be null");
+        }
+        applyConfig(config);
+    }
+
+    private void applyConfig(StreamingConfig config) {
+        synchronized (publishLock) {
+            this.config = config;
+            this.profile = EncodingProfile.of(config);
+            disposeEncoder();
+        }
+        this.frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.getFrameRate());
+        Object keepalive = config.getAdditionalParams().get(PARAM_KEEPALIVE_MILLIS);
+        this.keepaliveNanos = TimeUnit.MILLISECONDS.toNanos(
+            keepalive != null ? Long.parseLong(keepalive.toString()) : DEFAULT_KEEPALIVE_MILLIS);
+        // The cached packet was encoded with the old settings
+        replaceLastPacket(null);
+    }
+
+    public ClientConnection addClient(String clientId, OutputStream outputStream) {
+        ClientConnection client = new ClientConnection(
+            clientId, outputStream, getMailboxCapacity(), bytesTransferred::addAndGet);
+        client.start();
+        // Registering under the lock publish() delivers under means a joining viewer either gets
+        // the new frame or whatever onClientAdded hands it, never neither
+        synchronized (this) {
+            clients.put(clientId, client);
+            onClientAdded(client);
+        }
+        LoggerService.info("Client " + clientId + " joined " + this + " (total: " + clients.size() + ")");
+        return client;
+    }
+
+    /**
+     * Removes and closes a viewer.
+     * @param clientId Unique id of the viewer
+     * @return true if the viewer belonged to this session
+     */
+    public boolean removeClient(String clientId) {
+        ClientConnection client = clients.remove(clientId);
+        if (client == null) {
+            return false;
+        }
+        client.close();
+        LoggerService.info("Client " + clientId + " left " + this + " (remaining: " + clients.size() + ")");
+        return true;
+    }
+
+    /**
+     * Encodes a frame and queues it for every viewer, unless the session's frame rate
+     * says it is too early for another frame. Never blocks on viewer I/O.
+     * @param frame The captured frame
+     * @return true if the frame was sent, false if it was throttled
+     */
+    public boolean publish(BufferedImage frame) throws IOException {
+        return publish(frame, null);
+    }
+
+    /**
+     * Like {@link #publish(BufferedImage)}, but skips encoding entirely when the frame is identical
+     * to the previous one and the viewers already have the current picture. While the screen
+     * stays still, the last frame is sent again every keepalive interval so viewers and proxies
+     * do not time out.
+     * @param frame The captured frame
+     * @param changes Tiles changed since the previous captured frame, or null to compare the
+     *                frame's {@link FrameFingerprint} with the previous one instead
+     * @return true if the frame was sent, false if it was throttled or unchanged, or the session
+     *         is closed
+     */
+    public boolean publish(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        if (frame == null) {
+            LoggerService.warn("Received null frame for " + this + ", skipping");
+            return false;
+        }
+        synchronized (publishLock) {
+            return !closed && publishFrame(frame, changes);
+        }
+    }
+
+    private boolean publishFrame(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        boolean unchanged = changes != null ? changes.isEmpty() : isSameAsLastFrame(FrameFingerprint.of(frame));
+        long now = System.nanoTime();
+        if (unchanged && isUpToDate()) {
+            unchangedFrames.incrementAndGet();
+            if (keepaliveNanos > 0 && now - lastSentNanos >= keepaliveNanos) {
+                lastSentNanos = now;
+                sendKeepalive();
+                keepaliveFrames.incrementAndGet();
+            }
+            return false;
+        }
+        if (!acquireFrameSlot(now)) {
+            onThrottled(changes);
+            throttledFrames.incrementAndGet();
+            return false;
+        }
+
+        deliver(frame, changes);
+        lastSentNanos = now;
+        frameCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers the fingerprint of a frame published without a change map.
+     * @return true if it equals the previous one
+     */
+    private synchronized boolean isSameAsLastFrame(long fingerprint) {
+        boolean same = fingerprint == lastFingerprint;
+        lastFingerprint = fingerprint;
+        return same;
+    }
+
+    /**
+     * Sends the viewers the last packet again, without encoding anything.
+     * Called instead of {@link #deliver} for a still screen once the keepalive interval passed.
+     */
+    protected synchronized void sendKeepalive() {
+        FramePacket packet = lastPacket;
+        if (packet != null) {
+            clients.values().removeIf(client -> !client.offerFrame(packet));
+        }
+    }
+
+    /**
+     * Encodes a frame that passed the throttle and queues it for the viewers.
+     * A frame this profile already encoded recently is taken from the {@link EncodedFrameCache}.
+     * Called by one capture thread at a time.
+     * @param frame The captured frame
+     * @param changes Tiles changed since the previous captured frame, or null if unknown
+     */
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        // Encoded once; every viewer's writer shares the same packet
+        FramePacket packet = encodeOrReuse(frame, changes);
+        try {
+            synchronized (this) {
+                clients.values().removeIf(client -> !client.offerFrame(packet));
+                replaceLastPacket(packet);
+            }
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * @return the frame's packet with one reference for the caller
+     */
+    private FramePacket encodeOrReuse(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        EncodedFrameCache cache = frameCache;
+        EncodingProfile encodedProfile = profile;
+        long fingerprint = 0;
+        if (cache.isEnabled()) {
+            fingerprint = changes == null ? getLastFingerprint() : FrameFingerprint.of(frame);
+            FramePacket cached = cache.get(fingerprint, encodedProfile);
+            if (cached != null) {
+                cachedFrames.incrementAndGet();
+                return cached;
+            }
+        }
+        FramePacket packet;
+        FrameEncoderInterface frameEncoder = getEncoder();
+        synchronized (frameEncoder) {
+            packet = StreamingService.createFramePacket(frame, frameEncoder, packetPool);
+        }
+        if (cache.isEnabled()) {
+            cache.put(fingerprint, encodedProfile, packet);
+        }
+        return packet;
+    }
+
+    /**
+     * @return fingerprint of the frame last published without a change map
+     */
+    private synchronized long getLastFingerprint() {
+        return lastFingerprint;
+    }
+
+    /**
+     * Called with the session lock held when a viewer joins.
+     * Shows it the current picture right away instead of waiting for the screen to change.
+     * @param client The new viewer
+     */
+    protected void onClientAdded(ClientConnection client) {
+        if (lastPacket != null) {
+            client.offerFrame(lastPacket);
+        }
+    }
+
+    /**
+     * Called when a frame was dropped by the throttle.
+     * @param changes The dropped frame's changes, or null if unknown
+     */
+    protected synchronized void onThrottled(DirtyTileMap changes) {
+        lastPacketCurrent = false;
+    }
+
+    /**
+     * @return true if every viewer already has the latest captured picture, so an unchanged frame
+     *         needs no encoding
+     */
+    protected synchronized boolean isUpToDate() {
+        return lastPacket != null && lastPacketCurrent;
+    }
+
+    /**
+     * @return the lowest rate the screen may be captured at while it is still; the capture loop
+     *         idles at the highest rate any of its sessions asks for
+     */
+    public int getIdleFrameRate() {
+        return ActivityGovernor.idleFrameRateOf(config);
+    }
+
+    /**
+     * For sessions that must encode a still screen every so often.
+     * @param maxFrameGapMillis Longest time the session may go without a captured frame
+     * @return the configured idle rate, raised to capture at least once per gap but never above
+     *         the session's rate
+     */
+    protected int getIdleFrameRate(long maxFrameGapMillis) {
+        int needed = (int) Math.ceil(1000.0 / Math.max(1, maxFrameGapMillis));
+        return Math.max(ActivityGovernor.idleFrameRateOf(config), Math.min(needed, config.getFrameRate()));
+    }
+
+    /**
+     * @return how many frames a viewer's mailbox holds before the oldest is dropped
+     */
+    protected int getMailboxCapacity() {
+        return ClientConnection.DEFAULT_MAILBOX_CAPACITY;
+    }
+
+    /**
+     * @return live view of the connected viewers; mutate only with the session lock held
+     */
+    protected Collection<ClientConnection> getClients() {
+        return clients.values();
+    }
+
+    /**
+     * @return the frame encoder of the configuration, built on first use
+     */
+    protected FrameEncoderInterface getEncoder() {
+        synchronized (publishLock) {
+            if (encoder == null) {
+                encoder = FrameEncoders.forConfig(config);
+            }
+            return encoder;
+        }
+    }
+
+    /**
+     * Releases the frame encoder; the next frame builds a new one.
+     */
+    private void disposeEncoder() {
+        synchronized (publishLock) {
+            if (encoder != null) {
+                encoder.dispose();
+                encoder = null;
+            }
+        }
+    }
+
+    protected FramePacketPool getPacketPool() {
+        return packetPool;
+    }
+
+    /**
+     * Replaces the shared cache of encoded frames, e.g. with a disabled one.
+     * @param frameCache The cache to look frames up in
+     */
+    public void setFrameCache(EncodedFrameCache frameCache) {
+        if (frameCache == null) {
+            throw new IllegalArgumentException("EncodedFrameCache cannot be null");
+        }
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * Keeps a reference to the newest packet, releasing the one it replaces.
+     * @param packet The packet just sent, or null to drop the cached one
+     */
+    private synchronized void replaceLastPacket(FramePacket packet) {
+        FramePacket previous = lastPacket;
+        lastPacket = packet != null ? packet.retain() : null;
+        lastPacketCurrent = packet != null;
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Frame throttle: a frame is accepted once the next slot is due, with a quarter-interval
+     * tolerance so capture jitter does not halve the effective rate.
+     */
+    private synchronized boolean acquireFrameSlot(long now) {
+        if (now - nextFrameDue < -frameIntervalNanos / 4) {
+            return false;
+        }
+        if (now - nextFrameDue > frameIntervalNanos) {
+            nextFrameDue = now + frameIntervalNanos;
+        } else {
+            nextFrameDue += frameIntervalNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Disconnects every viewer of this session and releases its encoder, once the frame in
+     * progress is done. Frames published afterwards are dropped.
+     * Sessions with encoders of their own release them in an override; by then no frame is
+     * being delivered.
+     */
+    public void close() {
+        for (ClientConnection client : clients.values()) {
+            client.close();
+        }
+        clients.clear();
+        synchronized (publishLock) {
+            closed = true;
+            disposeEncoder();
+        }
+        replaceLastPacket(null);
+    }
+
+    public boolean isClosed() {
+        synchronized (publishLock) {
+            return closed;
+        }
+    }
+
+    public int getScreenIndex() {
+        return screenIndex;
+    }
+
+    public StreamingConfig getConfig() {
+        return config;
+    }
+
+    public EncodingProfile getProfile() {
+        return profile;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public boolean isEmpty() {
+        return clients.isEmpty();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public long getUnchangedFrames() {
+        return unchangedFrames.get();
+    }
+
+    public long getKeepaliveFrames() {
+        return keepaliveFrames.get();
+    }
+
+    /**
+     * @return frames sent from the encoded frame cache instead of being encoded
+     */
+    public long getCachedFrames() {
+        return cachedFrames.get();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new ConcurrentHashMap<>();
+        stats.put("screenIndex", screenIndex);
+        stats.put("profile", profile.toString());
+        stats.put("connectedClients", clients.size());
+        stats.put("frameCount", frameCount.get());
+        stats.put("throttledFrames", throttledFrames.get());
+        stats.put("unchangedFrames", unchangedFrames.get());
+        stats.put("keepaliveFrames", keepaliveFrames.get());
+        stats.put("cachedFrames", cachedFrames.get());
+        stats.put("bytesTransferred", bytesTransferred.get());
+
+        List<Map<String, Object>> clientStats = new ArrayList<>();
+        long droppedFrames = 0;
+        for (ClientConnection client : clients.values()) {
+            clientStats.add(client.getStats());
+            droppedFrames += client.getDroppedFrames();
+        }
+        stats.put("droppedFrames", droppedFrames);
+        stats.put("clients", clientStats);
+
+        long uptime = System.currentTimeMillis() - startTime;
+        stats.put("uptimeMs", uptime);
+        if (uptime > 0) {
+            stats.put("avgFps", (frameCount.get() * 1000.0) / uptime);
+            stats.put("avgBytesPerSecond", (bytesTransferred.get() * 1000.0) / uptime);
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamSession{screen=" + screenIndex + ", profile=" + profile + "}";
+    }
+}
@@ -0,0 +1,107 @@
+package com.anyscreen.services;
+
+import java.util.Map;
+
+import com.anyscreen.implementations.FrameEncoders;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+
+/**
+ * Maps what a viewer asks for onto a small set of shared encoding variants.
+ * Viewers with the same variant share one session, which encodes each frame once for all of
+ * them, so requests are rounded to fixed steps instead of honoured exactly: width down to the
+ * next step of {@link #WIDTHS} (never above the screen's), frame rate down to the next step of
+ * {@link #FRAME_RATES} and quality to the nearest multiple of 10. Height follows the screen's
+ * aspect ratio. An explicitly requested frame encoder makes its own variant.
+ */
+public final class StreamVariants {
+
+    /** Query parameter: requested width in pixels */
+    public static final String QUERY_WIDTH = "w";
+    /** Query parameter: requested frames per second */
+    public static final String QUERY_FRAME_RATE = "fps";
+    /** Query parameter: requested JPEG quality, 1 to 100 */
+    public static final String QUERY_QUALITY = "q";
+    /** Query parameter: frame encoder, e.g. {@code ffmpeg-webp}; see {@link FrameEncoders} */
+    public static final String QUERY_ENCODER = "encoder";
+
+    public static final int[] WIDTHS = {3840, 2560, 1920, 1280, 960, 640, 480, 320};
+    public static final int[] FRAME_RATES = {30, 15, 10, 5, 2, 1};
+    public static final int DEFAULT_FRAME_RATE = 30;
+    public static final int DEFAULT_QUALITY = 80;
+
+    private StreamVariants() {}
+
+    /**
+     * Builds the configuration of the variant closest to a viewer's request.
+     * @param protocol Protocol of the stream
+     * @param screenWidth Native width of the screen
+     * @param screenHeight Native height of the screen
+     * @param query The viewer's query parameters; missing ones take the native size, 30 fps and quality 80
+     * @return the variant's configuration
+     * @throws IllegalArgumentException if a parameter is not a positive number or the encoder is unknown
+     */
+    public static StreamingConfig select(StreamingProtocol protocol, int screenWidth, int screenHeight,
+                                         Map<String, String> query) {
+        int width = screenWidth;
+        int height = screenHeight;
+        Integer requestedWidth = parse(query, QUERY_WIDTH);
+        if (requestedWidth != null && stepDown(WIDTHS, requestedWidth) < screenWidth) {
+            width = stepDown(WIDTHS, requestedWidth);
+            // Even heights keep chroma-subsampled encoders happy
+            height = Math.max(2, (int) Math.round((double) screenHeight * width / screenWidth) & ~1);
+        }
+
+        Integer requestedFrameRate = parse(query, QUERY_FRAME_RATE);
+        int frameRate = requestedFrameRate != null
+            ? stepDown(FRAME_RATES, Math.min(requestedFrameRate, DEFAULT_FRAME_RATE)) : DEFAULT_FRAME_RATE;
+
+        Integer requestedQuality = parse(query, QUERY_QUALITY);
+        int quality = requestedQuality != null
+            ? Math.max(10, Math.min(100, Math.round(requestedQuality / 10.0f) * 10)) : DEFAULT_QUALITY;
+
+        StreamingConfig.Builder builder = new StreamingConfig.Builder()
+            .protocol(protocol)
+            .resolution(width, height)
+            .frameRate(frameRate)
+            .quality(quality);
+        String encoder = query.get(QUERY_ENCODER);
+        if (encoder != null && !encoder.isEmpty()) {
+            if (!FrameEncoders.isKnown(encoder)) {
+                throw new IllegalArgumentException("Invalid " + QUERY_ENCODER + ": " + encoder);
+            }
+            builder.addParam(EncodingProfile.PARAM_ENCODER, encoder.toLowerCase());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the largest step not above the value, or the smallest step
+     */
+    private static int stepDown(int[] descendingSteps, int value) {
+        for (int step : descendingSteps) {
+            if (step <= value) {
+                return step;
+            }
+        }
+        return descendingSteps[descendingSteps.length - 1];
+    }
+
+    private static Integer parse(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        if (number <= 0) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        return number;
+    }
+}
@@ -1,215 +1,445 @@
 package com.anyscreen.services;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javax.imageio.ImageIO;
-
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.FramePacket;
 import com.anyscreen.models.StreamingConfig;
 
 /**
  * Simple streaming service for MJPEG streaming.
  * This is a simplified version without the full Strategy pattern for initial implementation.
+ * Screens streamed over HTTP are served by one shared {@link ScreenBroadcaster} per screen index,
+ * with one {@link StreamSession} per encoding profile of that screen.
  */
 public class StreamingService {
     
     private static final String BOUNDARY = "frame";
+    /** How long a pulled stream (HLS, DASH) keeps being encoded after its last request */
+    public static final long DEFAULT_LEASE_MILLIS = 15000;
     
-    private StreamingConfig config;
+    private final ScreenCaptureService screenCaptureService;
+    private final FrameScheduler frameScheduler = new FrameScheduler();
+    private final Map<Integer, ScreenBroadcaster> broadcasters = new ConcurrentHashMap<>();
     private final AtomicBoolean streaming = new AtomicBoolean(false);
-    private final Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
-    private final AtomicLong frameCount = new AtomicLong(0);
-    private final AtomicLong bytesTransferred = new AtomicLong(0);
-    private long startTime;
-    private volatile long lastFrameTime = 0;
+    private final long startTime = System.currentTimeMillis();
+    // Session fed through streamFrame() by callers that run their own capture loop
+    private volatile StreamSession defaultSession;
     private static final int MAX_CLIENTS = 10; // Limit concurrent clients
-    private static final long FRAME_SKIP_THRESHOLD = 33; // ~30fps max
-    // Add reusable objects
-    private static final ThreadLocal<ByteArrayOutputStream> JPEG_BUFFER = 
-        ThreadLocal.withInitial(() -> new ByteArrayOutputStream(64 * 1024)); // 64KB initial
-        
-    private static class ClientConnection {
-        final String clientId;
-        final OutputStream outputStream;
-        volatile boolean active = true;
-        long lastFrameTime = System.currentTimeMillis();
-        
-        ClientConnection(String clientId, OutputStream outputStream) {
-            this.clientId = clientId;
-            this.outputStream = outputStream;
-        }
+    // HLS and DASH players only poll, so each stream is kept alive by a lease renewed on every request
+    private final Map<String, StreamLease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong leaseIds = new AtomicLong(0);
+    private volatile long leaseMillis = DEFAULT_LEASE_MILLIS;
+    private ScheduledExecutorService leaseReaper;
+
+    public StreamingService() {
+        this(null);
+    }
+
+    /**
+     * @param screenCaptureService Capture service used by the per-screen broadcasters
+     */
+    public StreamingService(ScreenCaptureService screenCaptureService) {
+        this.screenCaptureService = screenCaptureService;
     }
     
-    public void configure(StreamingConfig config) throws Exception {
+    /**
+     * Configures the default session used by {@link #streamFrame(BufferedImage)}.
+     * Viewers subscribed per screen are unaffected; they each get a session for their own profile.
+     */
+    public synchronized void configure(StreamingConfig config) throws Exception {
         if (config == null) {
             throw new IllegalArgumentException("StreamingConfig cannot be null");
         }
         
-        this.config = config;
+        if (defaultSession == null) {
+            defaultSession = new StreamSession(0, config);
+        } else {
+            defaultSession.reconfigure(config);
+        }
         LoggerService.info("Streaming service configured: " + 
                           config.getWidth() + "x" + config.getHeight() + 
                           " @ " + config.getFrameRate() + "fps, quality=" + config.getQuality());
     }
 
     public StreamingConfig getConfig() {
-        return config;
+        StreamSession session = defaultSession;
+        return session != null ? session.getConfig() : null;
     }
     
     public void startStreaming() throws Exception {
-        if (config == null) {
+        if (defaultSession == null) {
             throw new IllegalStateException("Service not configured. Call configure() first.");
         }
         
         if (streaming.compareAndSet(false, true)) {
-            startTime = System.currentTimeMillis();
-            frameCount.set(0);
-            bytesTransferred.set(0);
             LoggerService.info("Streaming started");
         }
     }
     
     public void streamFrame(BufferedImage frame) throws Exception {
-        if (!streaming.get()) {
-            return; // Not streaming, ignore frame
+        StreamSession session = defaultSession;
+        if (!streaming.get() || session.isEmpty()) {
+            return; // Not streaming or nobody watching, ignore frame
         }
         
-        if (frame == null) {
-            LoggerService.warn("Received null frame, skipping");
-            return;
-        }
-        
-        long currentTime = System.currentTimeMillis();
-        if(currentTime - lastFrameTime < FRAME_SKIP_THRESHOLD) return;
-
-        lastFrameTime = currentTime;
-
-        // Convert frame to JPEG
-        byte[] jpegData = convertToJPEG(frame);
-        
-        // Stream to all connected clients
-        String boundary = "\r\n--" + BOUNDARY + "\r\n";
-        String headers = "Content-Type: image/jpeg\r\n" +
-                        "Content-Length: " + jpegData.length + "\r\n\r\n";
-        
-        clients.entrySet().removeIf(entry -> {
-            ClientConnection client = entry.getValue();
-            if (!client.active) {
-                return true;
-            }
-            
-            try {
-                // Use synchronized block only for writing
-                synchronized (client.outputStream) {
-                    client.outputStream.write(boundary.getBytes());
-                    client.outputStream.write(headers.getBytes());
-                    client.outputStream.write(jpegData);
-                    client.outputStream.flush();
-                }
-                
-                client.lastFrameTime = currentTime;
-                return false;
-                
-            } catch (IOException e) {
-                LoggerService.debug("Client " + client.clientId + " disconnected");
-                client.active = false;
-                return true;
-            }
-        });
-        
-        // Update statistics
-        frameCount.incrementAndGet();
-        bytesTransferred.addAndGet(jpegData.length);
+        // Without a change map the session fingerprints the frame and skips it if identical
+        session.publish(frame);
     }
     
-private byte[] convertToJPEG(BufferedImage image) throws IOException {
-    ByteArrayOutputStream baos = JPEG_BUFFER.get();
-    baos.reset(); // Reuse the buffer
-    
-    // Only convert if not already RGB
-    if (image.getType() == BufferedImage.TYPE_INT_RGB) {
-        ImageIO.write(image, "jpeg", baos);
-    } else {
-        // Fast conversion without creating new BufferedImage
-        BufferedImage rgbImage = new BufferedImage(
-            image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        rgbImage.createGraphics().drawImage(image, 0, 0, null);
-        ImageIO.write(rgbImage, "jpeg", baos);
-        rgbImage.flush(); // Free memory immediately
+    /**
+     * Builds the multipart boundary and part headers that precede one JPEG frame.
+     * @param contentLength Size of the JPEG frame in bytes
+     */
+    static byte[] createFrameHeader(int contentLength) {
+        return createFrameHeader(JpegFrameEncoder.CONTENT_TYPE, contentLength);
+    }
+
+    /**
+     * Builds the multipart boundary and part headers that precede one frame.
+     * @param contentType MIME type of the frame
+     * @param contentLength Size of the frame in bytes
+     */
+    static byte[] createFrameHeader(String contentType, int contentLength) {
+        String header = "\r\n--" + BOUNDARY + "\r\n" +
+                        "Content-Type: " + contentType + "\r\n" +
+                        "Content-Length: " + contentLength + "\r\n\r\n";
+        return header.getBytes();
     }
     
-    return baos.toByteArray();
-}
+    /**
+     * Encodes a frame once into a pooled buffer and seals it, headers included, into a packet
+     * that every subscriber can write with a single call.
+     * @param image The frame to encode
+     * @param encoder Frame encoder of the calling stream
+     * @param pool Buffer pool of the calling stream
+     * @return the packet, holding one reference for the caller
+     */
+    static FramePacket createFramePacket(BufferedImage image, FrameEncoderInterface encoder,
+                                         FramePacketPool pool) throws IOException {
+        FramePacketPool.PacketBuffer buffer = pool.acquire();
+        encoder.encode(image, buffer);
+        return buffer.toPacket(createFrameHeader(encoder.getContentType(), buffer.getPayloadLength()));
+    }
     public void stopStreaming() throws Exception {
         if (streaming.compareAndSet(true, false)) {
             // Close all client connections
-            for (ClientConnection client : clients.values()) {
-                try {
-                    client.active = false;
-                    client.outputStream.close();
-                } catch (IOException e) {
-                    LoggerService.warn("Error closing client connection: " + e.getMessage());
-                }
-            }
-            clients.clear();
+            StreamSession session = defaultSession;
+            session.close();
+            // A closed session drops frames, so the next start streams to a fresh one
+            defaultSession = new StreamSession(0, session.getConfig());
             
-            LoggerService.info("Streaming stopped. Frames streamed: " + frameCount.get());
+            LoggerService.info("Streaming stopped. Frames streamed: " + session.getFrameCount());
+        }
+
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            broadcaster.shutdown();
         }
+        broadcasters.clear();
+        stopLeaseReaper();
     }
     
     public boolean isStreaming() {
-        return streaming.get();
+        return streaming.get() || broadcasters.values().stream().anyMatch(ScreenBroadcaster::isRunning);
+    }
+
+    /**
+     * Subscribes a viewer to the shared broadcaster of a screen.
+     * The screen is captured and encoded once no matter how many viewers it has.
+     * @param screenIndex Index of the screen to watch
+     * @param clientId Unique id of the viewer
+     * @param outputStream The viewer's response stream
+     * @param config Streaming configuration requested by the viewer
+     * @return the connection, which the caller can wait on until the viewer leaves
+     */
+    public ClientConnection subscribe(int screenIndex, String clientId, OutputStream outputStream, StreamingConfig config) {
+        if (screenCaptureService == null) {
+            throw new IllegalStateException("No ScreenCaptureService available for broadcasting");
+        }
+
+        ScreenBroadcaster broadcaster = broadcasters.computeIfAbsent(
+            screenIndex, index -> new ScreenBroadcaster(index, screenCaptureService, frameScheduler));
+        return broadcaster.subscribe(clientId, outputStream, config);
+    }
+
+    /**
+     * Removes a viewer from a screen, stopping that screen's capture if it was the last viewer.
+     * @param screenIndex Index of the screen being watched
+     * @param clientId Unique id of the viewer
+     */
+    public void unsubscribe(int screenIndex, String clientId) {
+        ScreenBroadcaster broadcaster = broadcasters.get(screenIndex);
+        if (broadcaster != null) {
+            broadcaster.unsubscribe(clientId);
+        }
+    }
+
+    /**
+     * Returns the HLS stream of a screen and profile, starting it if nobody watched it, and
+     * renews its lease: the stream is stopped once no request renewed it for the lease time.
+     * @param screenIndex Index of the screen
+     * @param config Configuration of the stream; its protocol must be HLS
+     * @return the stream's session
+     */
+    public HlsStreamSession openHlsStream(int screenIndex, StreamingConfig config) {
+        return (HlsStreamSession) openLeasedStream(screenIndex, config);
+    }
+
+    /**
+     * Returns a running HLS stream without starting one, renewing its lease.
+     * @return the stream's session, or null if it is not running
+     */
+    public HlsStreamSession findHlsStream(int screenIndex, StreamingConfig config) {
+        return findLeasedStream(screenIndex, config, HlsStreamSession.class);
+    }
+
+    /**
+     * Returns the DASH stream of a screen and profile, starting it if nobody watched it, and
+     * renews its lease like {@link #openHlsStream}.
+     * @param screenIndex Index of the screen
+     * @param config Configuration of the stream's top rendition; its protocol must be DASH
+     * @return the stream's session
+     */
+    public DashStreamSession openDashStream(int screenIndex, StreamingConfig config) {
+        return (DashStreamSession) openLeasedStream(screenIndex, config);
+    }
+
+    /**
+     * Returns a running DASH stream without starting one, renewing its lease.
+     * @return the stream's session, or null if it is not running
+     */
+    public DashStreamSession findDashStream(int screenIndex, StreamingConfig config) {
+        return findLeasedStream(screenIndex, config, DashStreamSession.class);
+    }
+
+    /**
+     * Returns the RTP stream of a screen and profile, starting it if nobody watched it, and
+     * renews its lease like {@link #openHlsStream}. RTSP players describe the stream before they
+     * subscribe to it, and the description needs the stream's parameter sets.
+     * @param screenIndex Index of the screen
+     * @param config Configuration of the stream; its protocol must be RTSP
+     * @return the stream's session
+     */
+    public RtpStreamSession openRtspStream(int screenIndex, StreamingConfig config) {
+        return (RtpStreamSession) openLeasedStream(screenIndex, config);
+    }
+
+    /**
+     * Returns a running RTP stream without starting one, renewing its lease.
+     * @return the stream's session, or null if it is not running
+     */
+    public RtpStreamSession findRtspStream(int screenIndex, StreamingConfig config) {
+        return findLeasedStream(screenIndex, config, RtpStreamSession.class);
+    }
+
+    private StreamSession openLeasedStream(int screenIndex, StreamingConfig config) {
+        if (screenCaptureService == null) {
+            throw new IllegalStateException("No ScreenCaptureService available for broadcasting");
+        }
+        String key = screenIndex + "/" + EncodingProfile.of(config);
+        String prefix = config.getProtocol().name().toLowerCase();
+        ScreenBroadcaster broadcaster = broadcasters.computeIfAbsent(
+            screenIndex, index -> new ScreenBroadcaster(index, screenCaptureService, frameScheduler));
+        ensureLeaseReaper();
+        while (true) {
+            StreamLease lease = leases.computeIfAbsent(
+                key, k -> new StreamLease(screenIndex, prefix + "-" + leaseIds.incrementAndGet()));
+            lease.renew();
+            StreamSession session = broadcaster.attach(lease.subscriberId, config);
+            if (leases.get(key) == lease) {
+                // Expiring it from now on also unsubscribes what was just attached
+                return session;
+            }
+            // Expired while attaching, maybe before its unsubscribe: undo the attach and retry
+            unsubscribe(screenIndex, lease.subscriberId);
+        }
+    }
+
+    private <T extends StreamSession> T findLeasedStream(int screenIndex, StreamingConfig config, Class<T> type) {
+        EncodingProfile profile = EncodingProfile.of(config);
+        // Renewed before the lookup, so an expiring stream is either kept or no longer found
+        leases.computeIfPresent(screenIndex + "/" + profile, (key, lease) -> {
+            lease.renew();
+            return lease;
+        });
+        ScreenBroadcaster broadcaster = broadcasters.get(screenIndex);
+        StreamSession session = broadcaster != null ? broadcaster.getSession(profile) : null;
+        return type.isInstance(session) ? type.cast(session) : null;
+    }
+
+    /**
+     * Sets how long pulled streams live without requests.
+     */
+    void setLeaseMillis(long millis) {
+        this.leaseMillis = millis;
+    }
+
+    private synchronized void ensureLeaseReaper() {
+        if (leaseReaper == null) {
+            leaseReaper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "stream-lease-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(10, Math.min(1000, leaseMillis / 4));
+            leaseReaper.scheduleWithFixedDelay(this::expireLeases, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopLeaseReaper() {
+        if (leaseReaper != null) {
+            leaseReaper.shutdownNow();
+            leaseReaper = null;
+        }
+        leases.clear();
+    }
+
+    /**
+     * Unsubscribes the pulled streams nobody requested within the lease time.
+     */
+    private void expireLeases() {
+        long now = System.nanoTime();
+        for (String key : leases.keySet()) {
+            // Decided under the key's lock, so a renewal either keeps the lease or finds it gone
+            List<StreamLease> expired = new ArrayList<>(1);
+            leases.computeIfPresent(key, (k, lease) -> {
+                if (now - lease.lastRenewed <= TimeUnit.MILLISECONDS.toNanos(leaseMillis)) {
+                    return lease;
+                }
+                expired.add(lease);
+                return null;
+            });
+            // Unsubscribing may wait for the capture loop to stop, which must not hold the key's lock
+            for (StreamLease lease : expired) {
+                LoggerService.info("Stream " + lease.subscriberId + " of " + key + " expired");
+                unsubscribe(lease.screenIndex, lease.subscriberId);
+            }
+        }
+    }
+
+    private static final class StreamLease {
+        final int screenIndex;
+        final String subscriberId;
+        volatile long lastRenewed = System.nanoTime();
+
+        StreamLease(int screenIndex, String subscriberId) {
+            this.screenIndex = screenIndex;
+            this.subscriberId = subscriberId;
+        }
+
+        void renew() {
+            lastRenewed = System.nanoTime();
+        }
+    }
+
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    public ScreenBroadcaster getBroadcaster(int screenIndex) {
+        return broadcasters.get(screenIndex);
+    }
+    
+    /**
+     * @return every live session: the default one plus one per screen and encoding profile
+     */
+    public List<StreamSession> getSessions() {
+        List<StreamSession> sessions = new ArrayList<>();
+        StreamSession session = defaultSession;
+        if (session != null) {
+            sessions.add(session);
+        }
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            sessions.addAll(broadcaster.getSessions());
+        }
+        return sessions;
     }
     
     public Map<String, Object> getStreamingStats() {
+        List<StreamSession> sessions = getSessions();
+        long frameCount = sessions.stream().mapToLong(StreamSession::getFrameCount).sum();
+        long bytesTransferred = sessions.stream().mapToLong(StreamSession::getBytesTransferred).sum();
+        
         Map<String, Object> stats = new ConcurrentHashMap<>();
         stats.put("protocol", "MJPEG");
-        stats.put("isStreaming", streaming.get());
-        stats.put("connectedClients", clients.size());
-        stats.put("frameCount", frameCount.get());
-        stats.put("bytesTransferred", bytesTransferred.get());
+        stats.put("isStreaming", isStreaming());
+        stats.put("connectedClients", getConnectedClientsCount());
+        stats.put("frameCount", frameCount);
+        stats.put("bytesTransferred", bytesTransferred);
         
-        if (startTime > 0) {
-            long uptime = System.currentTimeMillis() - startTime;
-            stats.put("uptimeMs", uptime);
-            
-            if (uptime > 0) {
-                stats.put("avgFps", (frameCount.get() * 1000.0) / uptime);
-                stats.put("avgBytesPerSecond", (bytesTransferred.get() * 1000.0) / uptime);
+        long activeScreens = broadcasters.values().stream().filter(ScreenBroadcaster::isRunning).count();
+        stats.put("activeScreens", activeScreens);
+        stats.put("capturedFrames",
+                  broadcasters.values().stream().mapToLong(ScreenBroadcaster::getFrameCount).sum());
+        List<Map<String, Object>> captureRates = new ArrayList<>();
+        double effectiveFps = 0;
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            if (broadcaster.isRunning()) {
+                Map<String, Object> rate = new ConcurrentHashMap<>();
+                rate.put("screenIndex", broadcaster.getScreenIndex());
+                rate.put("targetFps", broadcaster.getGovernor().getCurrentFrameRate());
+                rate.put("effectiveFps", broadcaster.getEffectiveFrameRate());
+                rate.put("idle", broadcaster.getGovernor().isIdle());
+                captureRates.add(rate);
+                effectiveFps += broadcaster.getEffectiveFrameRate();
             }
         }
+        stats.put("captureRates", captureRates);
+        stats.put("effectiveCaptureFps", effectiveFps);
+        StreamSession fedSession = defaultSession;
+        stats.put("unchangedFrames", (fedSession != null ? fedSession.getUnchangedFrames() : 0) + broadcasters.values().stream()
+                  .mapToLong(broadcaster -> broadcaster.getChangeDetector().getUnchangedFrames()).sum());
+        
+        List<Map<String, Object>> sessionStats = new ArrayList<>();
+        for (StreamSession session : sessions) {
+            sessionStats.add(session.getStats());
+        }
+        stats.put("sessions", sessionStats);
+        stats.put("frameCache", EncodedFrameCache.shared().getStats());
+        
+        // Pacing quality of the capture loops
+        stats.putAll(frameScheduler.getStats());
+        
+        long uptime = System.currentTimeMillis() - startTime;
+        stats.put("uptimeMs", uptime);
+        if (uptime > 0) {
+            stats.put("avgFps", (frameCount * 1000.0) / uptime);
+            stats.put("avgBytesPerSecond", (bytesTransferred * 1000.0) / uptime);
+        }
         
         return stats;
     }
     
     public void handleClientConnection(String clientId, OutputStream outputStream) throws Exception {
-        // Add client to active connections
-        
-        ClientConnection client = new ClientConnection(clientId, outputStream);
-        clients.put(clientId, client);
+        if (defaultSession == null) {
+            throw new IllegalStateException("Service not configured. Call configure() first.");
+        }
         
-        LoggerService.info("Client connected: " + clientId + " (total: " + clients.size() + ")");
+        defaultSession.addClient(clientId, outputStream);
     }
     
     public void handleClientDisconnection(String clientId) {
-        ClientConnection client = clients.remove(clientId);
-        if (client != null) {
-            client.active = false;
-            try {
-                client.outputStream.close();
-            } catch (IOException e) {
-                // Ignore close errors
-            }
-            LoggerService.info("Client disconnected: " + clientId + " (remaining: " + clients.size() + ")");
+        StreamSession session = defaultSession;
+        if (session != null) {
+            session.removeClient(clientId);
         }
     }
     
     public int getConnectedClientsCount() {
-        return clients.size();
+        StreamSession session = defaultSession;
+        int defaultClients = session != null ? session.getClientCount() : 0;
+        return defaultClients + broadcasters.values().stream().mapToInt(ScreenBroadcaster::getSubscriberCount).sum();
     }
 }
@@ -0,0 +1,583 @@
+package com.anyscreen.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+import javax.imageio.plugins.jpeg.JPEGQTable;
+
+import com.anyscreen.implementations.ImageOpsBackends;
+import com.anyscreen.interfaces.ImageOpsInterface;
+import com.anyscreen.services.JpegFrameEncoder.ChromaSubsampling;
+
+/**
+ * Baseline JPEG encoder that encodes horizontal strips of a frame concurrently.
+ * The frame is cut into strips of whole MCU rows, one or two per pool thread. Each strip is
+ * color converted, transformed and entropy coded on its own into its own buffer, starting from
+ * zeroed DC predictors, and the strips are joined with restart markers under a DRI interval of
+ * one strip. Decoders reset their predictors at every marker, so the result is one ordinary
+ * baseline JPEG that decodes to exactly the same pixels as a single-strip encode.
+ * Uses the standard Huffman tables and the quantization tables ImageIO derives for the same
+ * quality, so it is a drop-in for {@link JpegFrameEncoder}'s ImageIO path on large frames.
+ * Not thread-safe; each stream owns its encoder, the pool is shared.
+ */
+public class StripJpegEncoder {
+
+    /** System property: threads of the shared encoding pool; defaults to the number of processors */
+    public static final String THREADS_PROPERTY = "anyscreen.jpeg.threads";
+
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+    // Strips per pool thread; more than one evens out strips of unequal complexity
+    private static final int STRIPS_PER_THREAD = 2;
+
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10, 17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63};
+    // Row and column scale factors of the AAN DCT, folded into the quantization divisors
+    private static final double[] AAN_SCALES = {
+        1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379};
+
+    private static final HuffmanCode LUMA_DC = new HuffmanCode(JPEGHuffmanTable.StdDCLuminance);
+    private static final HuffmanCode LUMA_AC = new HuffmanCode(JPEGHuffmanTable.StdACLuminance);
+    private static final HuffmanCode CHROMA_DC = new HuffmanCode(JPEGHuffmanTable.StdDCChrominance);
+    private static final HuffmanCode CHROMA_AC = new HuffmanCode(JPEGHuffmanTable.StdACChrominance);
+
+    private final int quality;
+    private final ChromaSubsampling subsampling;
+    private final ForkJoinPool pool;
+    private final ImageOpsInterface ops = ImageOpsBackends.get();
+    private final int[] lumaTable;
+    private final int[] chromaTable;
+    private final float[] lumaDivisors;
+    private final float[] chromaDivisors;
+    private final List<Strip> strips = new ArrayList<>();
+    private int[] frameBuffer;
+    private long encodedFrames;
+
+    /**
+     * Lazily created shared pool, so hosts that never encode a large frame start no threads.
+     */
+    private static final class SharedPoolHolder {
+        static final ForkJoinPool INSTANCE = newPool(getDefaultThreads());
+    }
+
+    /**
+     * Creates an encoder on the shared pool.
+     * @param quality JPEG quality from 1 to 100
+     * @param subsampling Chroma subsampling
+     */
+    public StripJpegEncoder(int quality, ChromaSubsampling subsampling) {
+        this(quality, subsampling, sharedPool());
+    }
+
+    /**
+     * @param quality JPEG quality from 1 to 100
+     * @param subsampling Chroma subsampling
+     * @param pool Pool the strips are encoded on; its parallelism sets the number of strips
+     */
+    public StripJpegEncoder(int quality, ChromaSubsampling subsampling, ForkJoinPool pool) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("JPEG quality must be between 1 and 100: " + quality);
+        }
+        this.quality = quality;
+        this.subsampling = subsampling;
+        this.pool = pool;
+        // Same linear scale as ImageIO's compression quality
+        float scale = quality < 50 ? 50f / quality : 2f - quality / 50f;
+        this.lumaTable = JPEGQTable.K1Luminance.getScaledInstance(scale, true).getTable();
+        this.chromaTable = JPEGQTable.K2Chrominance.getScaledInstance(scale, true).getTable();
+        this.lumaDivisors = divisors(lumaTable);
+        this.chromaDivisors = divisors(chromaTable);
+    }
+
+    /**
+     * @return the number of threads of the shared pool, from {@value #THREADS_PROPERTY} or the processor count
+     */
+    public static int getDefaultThreads() {
+        String threads = System.getProperty(THREADS_PROPERTY);
+        if (threads == null || threads.isBlank()) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            return Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + THREADS_PROPERTY + ": " + threads, e);
+        }
+    }
+
+    /**
+     * @return the pool shared by all encoders created without one
+     */
+    public static ForkJoinPool sharedPool() {
+        return SharedPoolHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a pool of daemon threads named {@code jpeg-encoder-<n>}.
+     * @param threads Number of threads
+     */
+    public static ForkJoinPool newPool(int threads) {
+        return new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("jpeg-encoder-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Divisors of the AAN DCT output that quantize it with the given table.
+     */
+    private static float[] divisors(int[] table) {
+        float[] divisors = new float[64];
+        for (int row = 0; row < 8; row++) {
+            for (int column = 0; column < 8; column++) {
+                int i = row * 8 + column;
+                divisors[i] = (float) (1.0 / (table[i] * AAN_SCALES[row] * AAN_SCALES[column] * 8.0));
+            }
+        }
+        return divisors;
+    }
+
+    /**
+     * Encodes one frame as a baseline JPEG, blocking until all strips are done.
+     * @param image The frame
+     * @param outputStream Receives the JPEG bytes; it is not closed
+     */
+    public void encode(BufferedImage image, OutputStream outputStream) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new IOException("Frame too large for JPEG: " + width + "x" + height);
+        }
+
+        int[] pixels;
+        int origin;
+        int stride;
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+            && image.getSampleModel() instanceof SinglePixelPackedSampleModel packed) {
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            stride = packed.getScanlineStride();
+            origin = originOffset(image.getRaster(), stride);
+        } else {
+            if (frameBuffer == null || frameBuffer.length < width * height) {
+                frameBuffer = new int[width * height];
+            }
+            pixels = image.getRGB(0, 0, width, height, frameBuffer, 0, width);
+            stride = width;
+            origin = 0;
+        }
+
+        int mcuWidth = 8 * subsampling.getHorizontal();
+        int mcuHeight = 8 * subsampling.getVertical();
+        int mcuColumns = (width + mcuWidth - 1) / mcuWidth;
+        int mcuRows = (height + mcuHeight - 1) / mcuHeight;
+        int targetStrips = pool.getParallelism() > 1 ? pool.getParallelism() * STRIPS_PER_THREAD : 1;
+        int rowsPerStrip = Math.max(1, Math.min((mcuRows + targetStrips - 1) / targetStrips,
+                                                MAX_RESTART_INTERVAL / mcuColumns));
+        int stripCount = (mcuRows + rowsPerStrip - 1) / rowsPerStrip;
+
+        while (strips.size() < stripCount) {
+            strips.add(new Strip());
+        }
+        for (int i = 0; i < stripCount; i++) {
+            strips.get(i).prepare(pixels, origin, stride, width, height, i * rowsPerStrip,
+                                  Math.min(rowsPerStrip, mcuRows - i * rowsPerStrip), mcuColumns);
+        }
+        if (stripCount == 1) {
+            strips.get(0).run();
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(stripCount);
+            for (int i = 0; i < stripCount; i++) {
+                tasks.add(pool.submit(strips.get(i)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+
+        writeHeaders(outputStream, width, height, stripCount > 1 ? rowsPerStrip * mcuColumns : 0);
+        for (int i = 0; i < stripCount; i++) {
+            if (i > 0) {
+                outputStream.write(0xFF);
+                outputStream.write(0xD0 + (i - 1) % 8);
+            }
+            strips.get(i).writeTo(outputStream);
+        }
+        outputStream.write(0xFF);
+        outputStream.write(0xD9);
+        encodedFrames++;
+    }
+
+    /**
+     * Index of the frame's top-left pixel in its data array, honoring sub-images.
+     */
+    private static int originOffset(Raster raster, int stride) {
+        return raster.getDataBuffer().getOffset()
+               - raster.getSampleModelTranslateY() * stride
+               - raster.getSampleModelTranslateX();
+    }
+
+    /**
+     * Writes SOI, JFIF, quantization tables, frame header, Huffman tables, restart interval and scan header.
+     * @param restartInterval MCUs between restart markers, or 0 for none
+     */
+    private void writeHeaders(OutputStream out, int width, int height, int restartInterval) throws IOException {
+        ByteBuilder header = new ByteBuilder(700);
+        header.putShort(0xFFD8);
+
+        header.putShort(0xFFE0);
+        header.putShort(16);
+        header.put('J').put('F').put('I').put('F').put(0);
+        header.putShort(0x0101).put(0).putShort(1).putShort(1).put(0).put(0);
+
+        header.putShort(0xFFDB);
+        header.putShort(2 + 2 * 65);
+        for (int id = 0; id < 2; id++) {
+            int[] table = id == 0 ? lumaTable : chromaTable;
+            header.put(id);
+            for (int k = 0; k < 64; k++) {
+                header.put(table[ZIGZAG[k]]);
+            }
+        }
+
+        header.putShort(0xFFC0);
+        header.putShort(17);
+        header.put(8).putShort(height).putShort(width).put(3);
+        header.put(1).put(subsampling.getHorizontal() << 4 | subsampling.getVertical()).put(0);
+        header.put(2).put(0x11).put(1);
+        header.put(3).put(0x11).put(1);
+
+        HuffmanCode[] codes = {LUMA_DC, LUMA_AC, CHROMA_DC, CHROMA_AC};
+        int[] classes = {0x00, 0x10, 0x01, 0x11};
+        int length = 2;
+        for (HuffmanCode code : codes) {
+            length += 17 + code.table.getValues().length;
+        }
+        header.putShort(0xFFC4);
+        header.putShort(length);
+        for (int i = 0; i < codes.length; i++) {
+            header.put(classes[i]);
+            for (short count : codes[i].table.getLengths()) {
+                header.put(count);
+            }
+            for (short value : codes[i].table.getValues()) {
+                header.put(value);
+            }
+        }
+
+        if (restartInterval > 0) {
+            header.putShort(0xFFDD);
+            header.putShort(4);
+            header.putShort(restartInterval);
+        }
+
+        header.putShort(0xFFDA);
+        header.putShort(12);
+        header.put(3);
+        header.put(1).put(0x00);
+        header.put(2).put(0x11);
+        header.put(3).put(0x11);
+        header.put(0).put(63).put(0);
+        header.writeTo(out);
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public ChromaSubsampling getSubsampling() {
+        return subsampling;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * One strip of whole MCU rows, with its own planes, coefficient scratch and entropy-coded output.
+     */
+    private final class Strip implements Runnable {
+        private final float[] block = new float[64];
+        private final int[] coefficients = new int[64];
+        private final ByteBuilder output = new ByteBuilder(64 * 1024);
+        private byte[] luma = new byte[0];
+        private byte[] blueChroma = new byte[0];
+        private byte[] redChroma = new byte[0];
+        private int[] pixels;
+        private int origin;
+        private int stride;
+        private int width;
+        private int firstRow;
+        private int rows;
+        private int mcuRows;
+        private int mcuColumns;
+        private long bitBuffer;
+        private int bitCount;
+        private final int[] predictors = new int[3];
+
+        void prepare(int[] pixels, int origin, int stride, int width, int height,
+                     int firstMcuRow, int mcuRows, int mcuColumns) {
+            this.pixels = pixels;
+            this.origin = origin;
+            this.stride = stride;
+            this.width = width;
+            this.firstRow = firstMcuRow * 8 * subsampling.getVertical();
+            this.rows = Math.min(mcuRows * 8 * subsampling.getVertical(), height - firstRow);
+            this.mcuRows = mcuRows;
+            this.mcuColumns = mcuColumns;
+        }
+
+        @Override
+        public void run() {
+            int samples = width * rows;
+            if (luma.length < samples) {
+                luma = new byte[samples];
+                blueChroma = new byte[samples];
+                redChroma = new byte[samples];
+            }
+            ops.toYCbCr(pixels, origin + firstRow * stride, stride, width, rows, luma, blueChroma, redChroma);
+
+            output.reset();
+            bitBuffer = 0;
+            bitCount = 0;
+            Arrays.fill(predictors, 0);
+            int horizontal = subsampling.getHorizontal();
+            int vertical = subsampling.getVertical();
+            for (int mcuY = 0; mcuY < mcuRows; mcuY++) {
+                for (int mcuX = 0; mcuX < mcuColumns; mcuX++) {
+                    int x = mcuX * 8 * horizontal;
+                    int y = mcuY * 8 * vertical;
+                    for (int v = 0; v < vertical; v++) {
+                        for (int h = 0; h < horizontal; h++) {
+                            loadBlock(luma, x + h * 8, y + v * 8, 1, 1);
+                            encodeBlock(lumaDivisors, 0, LUMA_DC, LUMA_AC);
+                        }
+                    }
+                    loadBlock(blueChroma, x, y, horizontal, vertical);
+                    encodeBlock(chromaDivisors, 1, CHROMA_DC, CHROMA_AC);
+                    loadBlock(redChroma, x, y, horizontal, vertical);
+                    encodeBlock(chromaDivisors, 2, CHROMA_DC, CHROMA_AC);
+                }
+            }
+            // Pad the last byte with ones
+            if (bitCount > 0) {
+                writeBits((1 << (8 - bitCount)) - 1, 8 - bitCount);
+            }
+        }
+
+        /**
+         * Reads an 8x8 block, averaging stepX by stepY samples per value and repeating the last
+         * column and row past the edges, and level shifts it around zero.
+         */
+        private void loadBlock(byte[] plane, int x0, int y0, int stepX, int stepY) {
+            boolean inside = x0 + 8 * stepX <= width && y0 + 8 * stepY <= rows;
+            if (stepX == 1 && stepY == 1 && inside) {
+                for (int i = 0; i < 8; i++) {
+                    int row = (y0 + i) * width + x0;
+                    for (int j = 0; j < 8; j++) {
+                        block[i * 8 + j] = (plane[row + j] & 0xFF) - 128;
+                    }
+                }
+                return;
+            }
+            float scale = 1f / (stepX * stepY);
+            for (int i = 0; i < 8; i++) {
+                for (int j = 0; j < 8; j++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < stepY; dy++) {
+                        int y = y0 + i * stepY + dy;
+                        int row = (inside ? y : Math.min(y, rows - 1)) * width;
+                        for (int dx = 0; dx < stepX; dx++) {
+                            int x = x0 + j * stepX + dx;
+                            sum += plane[row + (inside ? x : Math.min(x, width - 1))] & 0xFF;
+                        }
+                    }
+                    block[i * 8 + j] = sum * scale - 128;
+                }
+            }
+        }
+
+        private void encodeBlock(float[] divisors, int component, HuffmanCode dc, HuffmanCode ac) {
+            forwardDct(block);
+            for (int i = 0; i < 64; i++) {
+                coefficients[i] = Math.round(block[i] * divisors[i]);
+            }
+
+            int value = coefficients[0];
+            int difference = value - predictors[component];
+            predictors[component] = value;
+            int size = magnitudeBits(difference);
+            writeBits(dc.codes[size], dc.sizes[size]);
+            if (size > 0) {
+                writeBits(difference < 0 ? difference - 1 : difference, size);
+            }
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                value = coefficients[ZIGZAG[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    writeBits(ac.codes[0xF0], ac.sizes[0xF0]);
+                    run -= 16;
+                }
+                size = magnitudeBits(value);
+                int symbol = run << 4 | size;
+                writeBits(ac.codes[symbol], ac.sizes[symbol]);
+                writeBits(value < 0 ? value - 1 : value, size);
+                run = 0;
+            }
+            if (run > 0) {
+                writeBits(ac.codes[0x00], ac.sizes[0x00]);
+            }
+        }
+
+        /**
+         * Appends the low bits of a value, stuffing a zero byte after every 0xFF.
+         */
+        private void writeBits(int bits, int count) {
+            bitBuffer = bitBuffer << count | (bits & ((1L << count) - 1));
+            bitCount += count;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                int b = (int) (bitBuffer >> bitCount) & 0xFF;
+                output.put(b);
+                if (b == 0xFF) {
+                    output.put(0);
+                }
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            output.writeTo(out);
+        }
+    }
+
+    private static int magnitudeBits(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * In-place forward DCT of an 8x8 block, the AAN algorithm as in libjpeg's jfdctflt.c.
+     * The outputs are scaled by the AAN factors, which the quantization divisors undo.
+     */
+    private static void forwardDct(float[] data) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;
+            int next = pass == 0 ? 8 : 1;
+            for (int line = 0; line < 8; line++) {
+                int p = line * next;
+                float tmp0 = data[p] + data[p + 7 * step];
+                float tmp7 = data[p] - data[p + 7 * step];
+                float tmp1 = data[p + step] + data[p + 6 * step];
+                float tmp6 = data[p + step] - data[p + 6 * step];
+                float tmp2 = data[p + 2 * step] + data[p + 5 * step];
+                float tmp5 = data[p + 2 * step] - data[p + 5 * step];
+                float tmp3 = data[p + 3 * step] + data[p + 4 * step];
+                float tmp4 = data[p + 3 * step] - data[p + 4 * step];
+
+                // Even part
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+                data[p] = tmp10 + tmp11;
+                data[p + 4 * step] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                data[p + 2 * step] = tmp13 + z1;
+                data[p + 6 * step] = tmp13 - z1;
+
+                // Odd part
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+                data[p + 5 * step] = z13 + z2;
+                data[p + 3 * step] = z13 - z2;
+                data[p + step] = z11 + z4;
+                data[p + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    /**
+     * Code and length of every symbol of a Huffman table, as in Annex C of the JPEG standard.
+     */
+    private static final class HuffmanCode {
+        final JPEGHuffmanTable table;
+        final int[] codes = new int[256];
+        final int[] sizes = new int[256];
+
+        HuffmanCode(JPEGHuffmanTable table) {
+            this.table = table;
+            short[] lengths = table.getLengths();
+            short[] values = table.getValues();
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < lengths[length - 1]; i++) {
+                    codes[values[k]] = code++;
+                    sizes[values[k]] = length;
+                    k++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+    /**
+     * Growable byte array, reused between frames.
+     */
+    private static final class ByteBuilder {
+        private byte[] bytes;
+        private int length;
+
+        ByteBuilder(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        ByteBuilder put(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) b;
+            return this;
+        }
+
+        ByteBuilder putShort(int value) {
+            return put(value >> 8).put(value);
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+    }
+}
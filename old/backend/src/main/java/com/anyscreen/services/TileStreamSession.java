@@ -0,0 +1,258 @@
+package com.anyscreen.services;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.models.StreamingConfig;
+
+/**
+ * Stream session for the {@link com.anyscreen.models.StreamingProtocol#TILES} protocol.
+ * A viewer first gets a keyframe holding the whole screen, then only the tiles that changed,
+ * encoded as small image patches that the viewer draws over its copy of the screen.
+ * <p>
+ * Every message is length-prefixed, so it can be sent over any byte stream; all numbers are
+ * big-endian:
+ * <pre>
+ * u32 length of the rest of the message
+ * u8  type: 1 keyframe, 2 delta
+ * u8  patch format: 0 JPEG, 1 PNG, 2 WebP
+ * u16 patch count
+ * u16 frame width, u16 frame height (0 in a keepalive)
+ * u32 sequence number
+ * per patch: u16 x, u16 y, u16 width, u16 height, u32 length, image bytes
+ * </pre>
+ * While the screen is still, an empty delta is sent every keepalive interval.
+ * A delta only makes sense on top of every earlier message, so viewers are never made to skip
+ * one: a viewer whose mailbox is full gets nothing until it has caught up, and then a keyframe.
+ */
+public class TileStreamSession extends StreamSession {
+
+    static final int TYPE_KEYFRAME = 1;
+    static final int TYPE_DELTA = 2;
+    static final int FORMAT_JPEG = 0;
+    static final int FORMAT_PNG = 1;
+    static final int FORMAT_WEBP = 2;
+    static final int HEADER_LENGTH = 16;
+    static final int PATCH_HEADER_LENGTH = 12;
+    // Deltas are small; a few may queue up before a viewer counts as lagging
+    private static final int MAILBOX_CAPACITY = 4;
+    // Beyond this share of changed tiles one full image is cheaper than many patches
+    private static final double KEYFRAME_DIRTY_RATIO = 0.5;
+
+    // Guarded by the session lock
+    private final Set<ClientConnection> awaitingKeyframe = new HashSet<>();
+    private DirtyTileMap pendingChanges;
+    private boolean pendingUnknown;
+    private boolean sentAny;
+    private int sequence;
+
+    private final ByteArrayOutputStream patchBuffer = new ByteArrayOutputStream();
+    private final AtomicLong keyframes = new AtomicLong(0);
+    private final AtomicLong deltas = new AtomicLong(0);
+    private final AtomicLong patches = new AtomicLong(0);
+
+    /**
+     * @param screenIndex Index of the screen this session streams
+     * @param config Configuration of this session; quality 100 sends lossless PNG patches
+     */
+    public TileStreamSession(int screenIndex, StreamingConfig config) {
+        super(screenIndex, config);
+    }
+
+    @Override
+    protected int getMailboxCapacity() {
+        return MAILBOX_CAPACITY;
+    }
+
+    /**
+     * New viewers wait for a keyframe, which the next captured frame produces even if unchanged.
+     */
+    @Override
+    protected void onClientAdded(ClientConnection client) {
+        awaitingKeyframe.add(client);
+    }
+
+    @Override
+    protected synchronized void onThrottled(DirtyTileMap changes) {
+        accumulate(changes);
+    }
+
+    @Override
+    protected synchronized boolean isUpToDate() {
+        return sentAny && pendingChanges == null && !pendingUnknown && awaitingKeyframe.isEmpty();
+    }
+
+    private void accumulate(DirtyTileMap changes) {
+        if (changes == null) {
+            pendingUnknown = true;
+        } else {
+            pendingChanges = pendingChanges == null ? changes : pendingChanges.union(changes);
+        }
+    }
+
+    @Override
+    protected void deliver(BufferedImage frame, DirtyTileMap changes) throws IOException {
+        DirtyTileMap dirty;
+        boolean keyframeNeeded;
+        synchronized (this) {
+            accumulate(changes);
+            dirty = pendingUnknown ? null : pendingChanges;
+            pendingChanges = null;
+            pendingUnknown = false;
+            sentAny = true;
+            sequence++;
+            // Viewers removed since the last frame are closed
+            awaitingKeyframe.removeIf(client -> !client.isActive());
+            keyframeNeeded = !awaitingKeyframe.isEmpty();
+        }
+
+        boolean full = dirty == null || dirty.getDirtyRatio() > KEYFRAME_DIRTY_RATIO;
+        FramePacket keyframe = full || keyframeNeeded ? encodeKeyframe(frame) : null;
+        FramePacket delta = !full && !dirty.isEmpty() ? encodeDelta(frame, dirty) : null;
+        try {
+            synchronized (this) {
+                getClients().removeIf(client -> !offerTo(client, keyframe, full ? keyframe : delta));
+            }
+        } finally {
+            if (keyframe != null) {
+                keyframe.release();
+            }
+            if (delta != null) {
+                delta.release();
+            }
+        }
+    }
+
+    /**
+     * A still screen has nothing to resend: an empty delta keeps the connection busy instead.
+     */
+    @Override
+    protected void sendKeepalive() {
+        FramePacket heartbeat;
+        try {
+            heartbeat = encodeMessage(TYPE_DELTA, null, List.of());
+        } catch (IOException e) {
+            LoggerService.warn("Failed to build keepalive for " + this + ": " + e.getMessage());
+            return;
+        }
+        try {
+            synchronized (this) {
+                getClients().removeIf(client -> awaitingKeyframe.contains(client)
+                    ? client.isActive() : !offerTo(client, null, heartbeat));
+            }
+        } finally {
+            heartbeat.release();
+        }
+    }
+
+    /**
+     * Hands a viewer the keyframe if it is waiting for one, otherwise the update.
+     * @return false if the viewer is gone
+     */
+    private boolean offerTo(ClientConnection client, FramePacket keyframe, FramePacket update) {
+        boolean waiting = awaitingKeyframe.contains(client);
+        FramePacket packet = waiting ? keyframe : update;
+        if (packet == null) {
+            // Nothing changed, or the viewer joined after this frame's keyframe decision
+            return client.isActive();
+        }
+        if (client.getQueueDepth() >= MAILBOX_CAPACITY) {
+            // Never drop a delta: let the viewer catch up and restart it from a keyframe
+            awaitingKeyframe.add(client);
+            return client.isActive();
+        }
+        if (waiting) {
+            awaitingKeyframe.remove(client);
+        }
+        return client.offerFrame(packet);
+    }
+
+    private FramePacket encodeKeyframe(BufferedImage frame) throws IOException {
+        keyframes.incrementAndGet();
+        return encodeMessage(TYPE_KEYFRAME, frame, List.of(new Rectangle(0, 0, frame.getWidth(), frame.getHeight())));
+    }
+
+    private FramePacket encodeDelta(BufferedImage frame, DirtyTileMap dirty) throws IOException {
+        deltas.incrementAndGet();
+        return encodeMessage(TYPE_DELTA, frame, dirty.getMergedRegions());
+    }
+
+    /**
+     * Encodes the given areas of the frame into one message.
+     * @param frame The frame, or null for a message without patches
+     */
+    private FramePacket encodeMessage(int type, BufferedImage frame, List<Rectangle> regions) throws IOException {
+        boolean lossless = getConfig().getQuality() >= 100;
+        FramePacketPool.PacketBuffer buffer = getPacketPool().acquire();
+        DataOutputStream out = new DataOutputStream(buffer);
+        FrameEncoderInterface encoder = getEncoder();
+        int format = lossless ? FORMAT_PNG : formatOf(encoder.getContentType());
+        synchronized (encoder) {
+            for (Rectangle region : regions) {
+                BufferedImage patch = frame.getSubimage(region.x, region.y, region.width, region.height);
+                patchBuffer.reset();
+                if (lossless) {
+                    ImageIO.write(patch, "png", patchBuffer);
+                } else {
+                    encoder.encode(patch, patchBuffer);
+                }
+                out.writeShort(region.x);
+                out.writeShort(region.y);
+                out.writeShort(region.width);
+                out.writeShort(region.height);
+                out.writeInt(patchBuffer.size());
+                patchBuffer.writeTo(out);
+            }
+        }
+        patches.addAndGet(regions.size());
+
+        byte[] header = ByteBuffer.allocate(HEADER_LENGTH)
+            .putInt(HEADER_LENGTH - Integer.BYTES + buffer.getPayloadLength())
+            .put((byte) type)
+            .put((byte) format)
+            .putShort((short) regions.size())
+            .putShort((short) (frame != null ? frame.getWidth() : 0))
+            .putShort((short) (frame != null ? frame.getHeight() : 0))
+            .putInt(sequence)
+            .array();
+        return buffer.toPacket(header);
+    }
+
+    private static int formatOf(String contentType) {
+        return "image/webp".equals(contentType) ? FORMAT_WEBP : FORMAT_JPEG;
+    }
+
+    public long getKeyframeCount() {
+        return keyframes.get();
+    }
+
+    public long getDeltaCount() {
+        return deltas.get();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = super.getStats();
+        stats.put("keyframes", keyframes.get());
+        stats.put("deltas", deltas.get());
+        stats.put("patches", patches.get());
+        synchronized (this) {
+            stats.put("awaitingKeyframe", awaitingKeyframe.size());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,240 @@
+package com.anyscreen.implementations;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.FfmpegFrameEncoder.Codec;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.FrameEncoderInterface;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.services.JpegFrameEncoder;
+import com.anyscreen.services.LoggerService;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for FfmpegFrameEncoder and FrameEncoders.
+ * Decodes the MJPEG output, checks the WebP container, context reuse and encoder selection, and
+ * benchmarks both FFmpeg encoders against ImageIO.
+ */
+class FfmpegFrameEncoderTest {
+
+    @BeforeAll
+    static void requireNatives() {
+        assumeTrue(FfmpegFrameEncoder.isAvailable(Codec.MJPEG), "FFmpeg natives not available");
+    }
+
+    private static BufferedImage screen(int width, int height) throws Exception {
+        return new SyntheticScreenCapture(width, height, 1, MotionPattern.SCROLLING_TEXT).captureScreen(0, null);
+    }
+
+    private static byte[] encode(FrameEncoderInterface encoder, BufferedImage image) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.encode(image, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Peak signal-to-noise ratio over the three channels, in dB.
+     */
+    private static double psnr(BufferedImage expected, BufferedImage actual) {
+        double squaredError = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    squaredError += difference * difference;
+                }
+            }
+        }
+        double meanSquaredError = squaredError / (3.0 * expected.getWidth() * expected.getHeight());
+        return 10 * Math.log10(255 * 255 / Math.max(meanSquaredError, 1e-9));
+    }
+
+    @Nested
+    @DisplayName("Encoding Tests")
+    class EncodingTests {
+
+        @Test
+        @DisplayName("Should encode MJPEG frames that ImageIO decodes close to the source")
+        void shouldEncodeDecodableJpegFrames() throws Exception {
+            // Given
+            BufferedImage frame = screen(320, 240);
+            FfmpegFrameEncoder encoder = new FfmpegFrameEncoder(Codec.MJPEG, 80);
+
+            // When
+            byte[] jpeg = encode(encoder, frame);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+            encoder.dispose();
+
+            // Then
+            assertThat(jpeg[0] & 0xFF).isEqualTo(0xFF);
+            assertThat(jpeg[1] & 0xFF).isEqualTo(0xD8);
+            assertThat(decoded.getWidth()).isEqualTo(320);
+            assertThat(decoded.getHeight()).isEqualTo(240);
+            assertThat(psnr(frame, decoded)).isGreaterThan(28);
+            assertThat(encoder.getContentType()).isEqualTo("image/jpeg");
+        }
+
+        @Test
+        @DisplayName("Should encode WebP frames in a RIFF container")
+        void shouldEncodeWebpFrames() throws Exception {
+            assumeTrue(FfmpegFrameEncoder.isAvailable(Codec.WEBP), "libwebp not available");
+
+            // Given
+            FfmpegFrameEncoder encoder = new FfmpegFrameEncoder(Codec.WEBP, 80);
+
+            // When
+            byte[] webp = encode(encoder, screen(320, 240));
+            encoder.dispose();
+
+            // Then
+            assertThat(new String(webp, 0, 4, StandardCharsets.US_ASCII)).isEqualTo("RIFF");
+            assertThat(new String(webp, 8, 4, StandardCharsets.US_ASCII)).isEqualTo("WEBP");
+            assertThat(encoder.getContentType()).isEqualTo("image/webp");
+        }
+
+        @Test
+        @DisplayName("Should reuse its context across frames and reopen it when the size changes")
+        void shouldReuseContextAndReopenOnSizeChange() throws Exception {
+            // Given
+            FfmpegFrameEncoder encoder = new FfmpegFrameEncoder(Codec.MJPEG, 80);
+            BufferedImage small = screen(160, 120);
+
+            // When
+            byte[] first = encode(encoder, small);
+            byte[] second = encode(encoder, small);
+            BufferedImage larger = ImageIO.read(new ByteArrayInputStream(encode(encoder, screen(200, 150))));
+            BufferedImage sub = ImageIO.read(new ByteArrayInputStream(
+                encode(encoder, screen(400, 300).getSubimage(10, 20, 200, 150))));
+            encoder.dispose();
+            byte[] afterDispose = encode(encoder, small);
+            encoder.dispose();
+
+            // Then
+            assertThat(second).isEqualTo(first);
+            assertThat(afterDispose).isEqualTo(first);
+            assertThat(larger.getWidth()).isEqualTo(200);
+            assertThat(sub.getHeight()).isEqualTo(150);
+            assertThat(encoder.getEncodedFrames()).isEqualTo(5);
+        }
+
+        @Test
+        @DisplayName("Should make lower qualities smaller")
+        void shouldMakeLowerQualitiesSmaller() throws Exception {
+            // Given
+            BufferedImage frame = screen(320, 240);
+
+            // When
+            int low = encode(new FfmpegFrameEncoder(Codec.MJPEG, 30), frame).length;
+            int high = encode(new FfmpegFrameEncoder(Codec.MJPEG, 90), frame).length;
+
+            // Then
+            assertThat(low).isLessThan(high);
+            assertThat(FfmpegFrameEncoder.qscale(100)).isEqualTo(2);
+            assertThat(FfmpegFrameEncoder.qscale(1)).isEqualTo(26);
+        }
+    }
+
+    @Nested
+    @DisplayName("Selection Tests")
+    class SelectionTests {
+
+        @Test
+        @DisplayName("Should create the encoder a session configuration names")
+        void shouldCreateTheConfiguredEncoder() {
+            // Given
+            StreamingConfig imageIO = new StreamingConfig.Builder().build();
+            StreamingConfig mjpeg = new StreamingConfig.Builder()
+                .quality(70).addParam(EncodingProfile.PARAM_ENCODER, "ffmpeg-mjpeg").build();
+
+            // When
+            FrameEncoderInterface defaultEncoder = FrameEncoders.forConfig(imageIO);
+            FrameEncoderInterface ffmpegEncoder = FrameEncoders.forConfig(mjpeg);
+
+            // Then
+            assertThat(defaultEncoder).isInstanceOf(JpegFrameEncoder.class);
+            assertThat(ffmpegEncoder.getName()).isEqualTo("ffmpeg-mjpeg");
+            assertThat(((FfmpegFrameEncoder) ffmpegEncoder).getQuality()).isEqualTo(70);
+            assertThat(EncodingProfile.of(mjpeg)).isNotEqualTo(EncodingProfile.of(imageIO));
+        }
+
+        @Test
+        @DisplayName("Should reject unknown encoder names")
+        void shouldRejectUnknownEncoderNames() {
+            StreamingConfig config = new StreamingConfig.Builder()
+                .addParam(EncodingProfile.PARAM_ENCODER, "ffmpeg-gif").build();
+
+            assertThat(FrameEncoders.isKnown("FFmpeg-WebP")).isTrue();
+            assertThat(FrameEncoders.isKnown("ffmpeg-gif")).isFalse();
+            assertThatThrownBy(() -> FrameEncoders.forConfig(config))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("ffmpeg-gif");
+        }
+    }
+
+    @Test
+    @DisplayName("Benchmark: FFmpeg MJPEG and WebP against ImageIO at 1080p")
+    void benchmarkAgainstImageIO() throws Exception {
+        // Given
+        SyntheticScreenCapture capture = new SyntheticScreenCapture(1920, 1080, 1, MotionPattern.SCROLLING_TEXT);
+        BufferedImage[] frames = new BufferedImage[8];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = capture.captureScreen(0, null);
+        }
+        StreamingConfig config = new StreamingConfig.Builder().quality(80).build();
+        FrameEncoderInterface[] encoders = {
+            JpegFrameEncoder.forConfig(config),
+            new FfmpegFrameEncoder(Codec.MJPEG, 80),
+            FfmpegFrameEncoder.isAvailable(Codec.WEBP) ? new FfmpegFrameEncoder(Codec.WEBP, 80) : null};
+        ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+        for (FrameEncoderInterface encoder : encoders) {
+            if (encoder != null) {
+                encoder.encode(frames[0], output);
+                encoder.encode(frames[1], output);
+            }
+        }
+
+        // When
+        long[] nanos = new long[encoders.length];
+        long[] bytes = new long[encoders.length];
+        for (BufferedImage frame : frames) {
+            for (int i = 0; i < encoders.length; i++) {
+                if (encoders[i] == null) {
+                    continue;
+                }
+                output.reset();
+                long start = System.nanoTime();
+                encoders[i].encode(frame, output);
+                nanos[i] += System.nanoTime() - start;
+                bytes[i] += output.size();
+            }
+        }
+        StringBuilder report = new StringBuilder("Frame encoder benchmark 1920x1080 q80:");
+        for (int i = 0; i < encoders.length; i++) {
+            if (encoders[i] != null) {
+                double millis = nanos[i] / 1e6 / frames.length;
+                report.append(String.format(" %s %.1fms (%.1f fps, %d KB)", encoders[i].getName(), millis,
+                                            1000 / millis, bytes[i] / 1024 / frames.length));
+                encoders[i].dispose();
+            }
+        }
+        LoggerService.info(report.toString());
+
+        // Then - FFmpeg's JPEG stays in the same size class as ImageIO's at the same quality
+        assertThat(bytes[1]).isBetween(bytes[0] / 3, bytes[0] * 3);
+    }
+}
@@ -0,0 +1,100 @@
+package com.anyscreen.implementations;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ImageOpsInterface;
+
+/**
+ * JMH benchmark of the image kernels, halving a 1080p frame; {@code ops} selects the kernels.
+ * {@link JdkScalingBenchmark} measures the JDK's own resizing of the same frame for comparison.
+ * <p>
+ * Not part of the test suite: {@link #main} runs both in a forked JVM, after
+ * {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/test.classpath}:
+ * <pre>
+ * java --add-modules jdk.incubator.vector \
+ *      -cp target/classes:target/test-classes:$(cat target/test.classpath) \
+ *      com.anyscreen.implementations.ImageOpsBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageOpsBenchmark {
+
+    static final int SOURCE_WIDTH = 1920;
+    static final int SOURCE_HEIGHT = 1080;
+    static final int TARGET_WIDTH = 960;
+    static final int TARGET_HEIGHT = 540;
+
+    @Param({"scalar", "vector"})
+    public String ops;
+
+    private ImageOpsInterface kernels;
+    private BufferedImage source;
+    private int[] sourcePixels;
+    private BufferedImage target;
+    private int[] targetPixels;
+    private byte[] luma;
+    private byte[] blueChroma;
+    private byte[] redChroma;
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(ImageOpsBenchmark.class.getSimpleName())
+            .include(JdkScalingBenchmark.class.getSimpleName())
+            .forks(1)
+            .jvmArgsAppend("--add-modules", "jdk.incubator.vector")
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        kernels = ImageOpsBackends.create(ops);
+        source = new SyntheticScreenCapture(SOURCE_WIDTH, SOURCE_HEIGHT, 1, MotionPattern.SCROLLING_TEXT)
+            .captureScreen(0, null);
+        sourcePixels = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+        target = new BufferedImage(TARGET_WIDTH, TARGET_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        luma = new byte[SOURCE_WIDTH * SOURCE_HEIGHT];
+        blueChroma = new byte[SOURCE_WIDTH * SOURCE_HEIGHT];
+        redChroma = new byte[SOURCE_WIDTH * SOURCE_HEIGHT];
+    }
+
+    @Benchmark
+    public int[] boxFilter() {
+        kernels.downscaleBox(sourcePixels, 0, SOURCE_WIDTH, SOURCE_WIDTH, SOURCE_HEIGHT,
+                             targetPixels, TARGET_WIDTH, TARGET_HEIGHT);
+        return targetPixels;
+    }
+
+    @Benchmark
+    public int[] bilinear() {
+        kernels.downscaleBilinear(sourcePixels, 0, SOURCE_WIDTH, SOURCE_WIDTH, SOURCE_HEIGHT,
+                                  targetPixels, TARGET_WIDTH, TARGET_HEIGHT);
+        return targetPixels;
+    }
+
+    @Benchmark
+    public byte[] toYCbCr() {
+        kernels.toYCbCr(sourcePixels, 0, SOURCE_WIDTH, SOURCE_WIDTH, SOURCE_HEIGHT, luma, blueChroma, redChroma);
+        return luma;
+    }
+}
@@ -0,0 +1,202 @@
+package com.anyscreen.implementations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.interfaces.ImageOpsInterface;
+import com.anyscreen.services.FrameScaler;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/**
+ * Test suite for the image kernels.
+ * Covers known values, agreement of the vector kernels with the scalar reference and backend
+ * selection; {@link ImageOpsBenchmark} measures their speed.
+ */
+class ImageOpsTest {
+
+    private final ImageOpsInterface scalar = new ScalarImageOps();
+    private final ImageOpsInterface vector = ImageOpsBackends.create("auto");
+
+    private static int[] randomPixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    @Nested
+    @DisplayName("Scalar Kernel Tests")
+    class ScalarKernelTests {
+
+        @Test
+        @DisplayName("Should convert primaries to the JPEG YCbCr values")
+        void shouldConvertPrimariesToJpegYCbCrValues() {
+            // Given
+            int[] pixels = {0xFFFFFF, 0x000000, 0xFF0000, 0x00FF00, 0x0000FF};
+            byte[] luma = new byte[5];
+            byte[] blueChroma = new byte[5];
+            byte[] redChroma = new byte[5];
+
+            // When
+            scalar.toYCbCr(pixels, 0, 5, 5, 1, luma, blueChroma, redChroma);
+
+            // Then
+            assertThat(luma).containsExactly(255, 0, 76, 150, 29);
+            assertThat(blueChroma).containsExactly(128, 128, 85, 44, 255);
+            assertThat(redChroma).containsExactly(128, 128, 255, 21, 107);
+        }
+
+        @Test
+        @DisplayName("Should average the pixels under each output pixel")
+        void shouldAverageThePixelsUnderEachOutputPixel() {
+            // Given - a 4x2 frame: black and white columns, then solid red
+            int[] pixels = {
+                0x000000, 0xFFFFFF, 0xFF0000, 0xFF0000,
+                0x000000, 0xFFFFFF, 0xFF0000, 0xFF0000};
+            int[] target = new int[2];
+
+            // When
+            scalar.downscaleBox(pixels, 0, 4, 4, 2, target, 2, 1);
+
+            // Then
+            assertThat(target).containsExactly(0x808080, 0xFF0000);
+        }
+
+        @Test
+        @DisplayName("Should average without division exactly as with division")
+        void shouldAverageWithoutDivisionExactlyAsWithDivision() {
+            // Given - the largest spans the reciprocals cover, 255 by 255 pixels
+            long[] reciprocals = ScalarImageOps.reciprocals(255 * 100, 255 * 100, 100, 100);
+            assertThat(reciprocals).isNotNull();
+
+            // When / Then - every count, with the sums that round up and down the most
+            for (int count = 1; count < reciprocals.length; count++) {
+                for (int sum : new int[] {0, 1, count / 2, 127 * count + count / 2, 255 * count - 1, 255 * count}) {
+                    int[] total = {sum};
+                    assertThat(ScalarImageOps.average(total, total, total, 0, 1, count, reciprocals))
+                        .as("%d / %d", sum, count)
+                        .isEqualTo(ScalarImageOps.average(total, total, total, 0, 1, count, null));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should average neighbouring pairs when halving bilinearly")
+        void shouldAverageNeighbouringPairsWhenHalvingBilinearly() {
+            // Given
+            int[] pixels = {
+                0x000000, 0x0000FE, 0x00FE00, 0x00FE00,
+                0x000000, 0x0000FE, 0x00FE00, 0x00FE00};
+            int[] target = new int[2];
+
+            // When
+            scalar.downscaleBilinear(pixels, 0, 4, 4, 2, target, 2, 1);
+
+            // Then
+            assertThat(target).containsExactly(0x00007F, 0x00FE00);
+        }
+
+        @Test
+        @DisplayName("Should reject growing with the box filter")
+        void shouldRejectGrowingWithBoxFilter() {
+            assertThatThrownBy(() -> scalar.downscaleBox(new int[4], 0, 2, 2, 2, new int[9], 3, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Vector Kernel Tests")
+    class VectorKernelTests {
+
+        @Test
+        @DisplayName("Should use the vector kernels when the module is present")
+        void shouldUseVectorKernelsWhenModuleIsPresent() {
+            // Surefire starts the tests with --add-modules jdk.incubator.vector
+            assertThat(ImageOpsBackends.isVectorAvailable()).isTrue();
+            assertThat(vector.getName()).startsWith("vector-");
+        }
+
+        @Test
+        @DisplayName("Should match the scalar kernels on odd sizes and offsets")
+        void shouldMatchScalarKernelsOnOddSizesAndOffsets() {
+            // Given - widths around every vector length, read from inside a padded buffer
+            for (int width : new int[] {1, 7, 8, 9, 15, 16, 17, 33, 101}) {
+                int height = 13;
+                int stride = width + 5;
+                int[] source = randomPixels(3 + stride * height, width);
+
+                for (int[] size : new int[][] {{Math.max(1, width / 2), 5}, {Math.max(1, width / 3), 13}}) {
+                    int[] expected = new int[size[0] * size[1]];
+                    int[] actual = new int[size[0] * size[1]];
+                    scalar.downscaleBox(source, 3, stride, width, height, expected, size[0], size[1]);
+                    vector.downscaleBox(source, 3, stride, width, height, actual, size[0], size[1]);
+                    assertThat(actual).as("box %d to %d", width, size[0]).isEqualTo(expected);
+                }
+
+                for (int[] size : new int[][] {{Math.max(1, width / 2), 5}, {width * 2 + 1, 20}}) {
+                    int[] expected = new int[size[0] * size[1]];
+                    int[] actual = new int[size[0] * size[1]];
+                    scalar.downscaleBilinear(source, 3, stride, width, height, expected, size[0], size[1]);
+                    vector.downscaleBilinear(source, 3, stride, width, height, actual, size[0], size[1]);
+                    assertThat(actual).as("bilinear %d to %d", width, size[0]).isEqualTo(expected);
+                }
+
+                byte[][] expected = {new byte[width * height], new byte[width * height], new byte[width * height]};
+                byte[][] actual = {new byte[width * height], new byte[width * height], new byte[width * height]};
+                scalar.toYCbCr(source, 3, stride, width, height, expected[0], expected[1], expected[2]);
+                vector.toYCbCr(source, 3, stride, width, height, actual[0], actual[1], actual[2]);
+                assertThat(actual).as("YCbCr %d", width).isEqualTo(expected);
+            }
+        }
+
+        @Test
+        @DisplayName("Should scale frames identically with either kernels")
+        void shouldScaleFramesIdenticallyWithEitherKernels() {
+            // Given
+            BufferedImage frame = TestUtils.createMockImage(333, 211);
+            int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            System.arraycopy(randomPixels(pixels.length, 42), 0, pixels, 0, pixels.length);
+
+            // When
+            BufferedImage fromScalar = new FrameScaler(100, 64, scalar).scale(frame);
+            BufferedImage fromVector = new FrameScaler(100, 64, vector).scale(frame);
+            int[] reference = new int[100 * 64];
+            scalar.downscaleBox(pixels, 0, 333, 333, 211, reference, 100, 64);
+
+            // Then
+            assertThat(((DataBufferInt) fromVector.getRaster().getDataBuffer()).getData())
+                .isEqualTo(((DataBufferInt) fromScalar.getRaster().getDataBuffer()).getData())
+                .isEqualTo(reference);
+        }
+    }
+
+    @Nested
+    @DisplayName("Backend Selection Tests")
+    class BackendSelectionTests {
+
+        @Test
+        @DisplayName("Should create the requested kernels")
+        void shouldCreateRequestedKernels() {
+            assertThat(ImageOpsBackends.create("scalar")).isExactlyInstanceOf(ScalarImageOps.class);
+            assertThat(ImageOpsBackends.create("vector")).isInstanceOf(VectorImageOps.class);
+            assertThat(ImageOpsBackends.create(null).getName()).isEqualTo(ImageOpsBackends.get().getName());
+        }
+
+        @Test
+        @DisplayName("Should reject unknown kernels")
+        void shouldRejectUnknownKernels() {
+            assertThatThrownBy(() -> ImageOpsBackends.create("gpu"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("gpu");
+        }
+    }
+}
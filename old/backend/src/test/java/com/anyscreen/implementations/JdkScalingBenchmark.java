@@ -0,0 +1,61 @@
+package com.anyscreen.implementations;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+
+import static com.anyscreen.implementations.ImageOpsBenchmark.SOURCE_HEIGHT;
+import static com.anyscreen.implementations.ImageOpsBenchmark.SOURCE_WIDTH;
+import static com.anyscreen.implementations.ImageOpsBenchmark.TARGET_HEIGHT;
+import static com.anyscreen.implementations.ImageOpsBenchmark.TARGET_WIDTH;
+
+/**
+ * JMH baseline for {@link ImageOpsBenchmark}: the JDK's bilinear resizing of the same 1080p frame.
+ * Run through {@link ImageOpsBenchmark#main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JdkScalingBenchmark {
+
+    private BufferedImage source;
+    private BufferedImage target;
+    private AffineTransformOp transformOp;
+
+    @Setup
+    public void setUp() throws Exception {
+        source = new SyntheticScreenCapture(SOURCE_WIDTH, SOURCE_HEIGHT, 1, MotionPattern.SCROLLING_TEXT)
+            .captureScreen(0, null);
+        target = new BufferedImage(TARGET_WIDTH, TARGET_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        transformOp = new AffineTransformOp(
+            AffineTransform.getScaleInstance((double) TARGET_WIDTH / SOURCE_WIDTH, (double) TARGET_HEIGHT / SOURCE_HEIGHT),
+            AffineTransformOp.TYPE_BILINEAR);
+    }
+
+    @Benchmark
+    public BufferedImage graphics2dBilinear() {
+        Graphics2D graphics = target.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, TARGET_WIDTH, TARGET_HEIGHT, null);
+        graphics.dispose();
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage affineTransformOpBilinear() {
+        return transformOp.filter(source, target);
+    }
+}
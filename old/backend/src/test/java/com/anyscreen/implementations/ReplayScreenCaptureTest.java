@@ -0,0 +1,129 @@
+package com.anyscreen.implementations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for ReplayScreenCapture.
+ * Verifies loading of image directories and concatenated JPEG traces and looping playback.
+ */
+class ReplayScreenCaptureTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Nested
+    @DisplayName("Playback Tests")
+    class PlaybackTests {
+
+        @Test
+        @DisplayName("Should replay frames in order and loop")
+        void shouldReplayFramesInOrderAndLoop() throws Exception {
+            // Given
+            ReplayScreenCapture replay = new ReplayScreenCapture(List.of(
+                TestUtils.createMockImage(32, 24, Color.RED),
+                TestUtils.createMockImage(32, 24, Color.GREEN)));
+
+            // When
+            int first = replay.captureScreen(0).getRGB(0, 0);
+            int second = replay.captureScreen(0).getRGB(0, 0);
+            int third = replay.captureScreen(0).getRGB(0, 0);
+
+            // Then
+            assertThat(first & 0xFFFFFF).isEqualTo(0xFF0000);
+            assertThat(second & 0xFFFFFF).isEqualTo(0x00FF00);
+            assertThat(third).isEqualTo(first);
+            assertThat(replay.getPosition()).isEqualTo(3);
+            assertThat(replay.getAvailableScreens()).hasSize(1);
+        }
+
+        @Test
+        @DisplayName("Should copy frames into a matching target")
+        void shouldCopyFramesIntoMatchingTarget() throws Exception {
+            // Given
+            ReplayScreenCapture replay = new ReplayScreenCapture(List.of(TestUtils.createMockImage(32, 24)));
+            BufferedImage target = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+
+            // When / Then
+            assertThat(replay.captureScreen(0, target)).isSameAs(target);
+            assertThat(target.getRGB(5, 5) & 0xFFFFFF).isEqualTo(0xFFFFFF);
+        }
+
+        @Test
+        @DisplayName("Should reject empty traces, mixed sizes and other screens")
+        void shouldRejectEmptyTracesMixedSizesAndOtherScreens() throws Exception {
+            assertThatThrownBy(() -> new ReplayScreenCapture(List.of()))
+                    .isInstanceOf(ScreenCaptureException.class);
+            assertThatThrownBy(() -> new ReplayScreenCapture(List.of(
+                    TestUtils.createMockImage(32, 24), TestUtils.createMockImage(16, 16))))
+                    .isInstanceOf(ScreenCaptureException.class);
+            ReplayScreenCapture replay = new ReplayScreenCapture(List.of(TestUtils.createMockImage(32, 24)));
+            assertThatThrownBy(() -> replay.captureScreen(1)).isInstanceOf(ScreenCaptureException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Trace Loading Tests")
+    class TraceLoadingTests {
+
+        @Test
+        @DisplayName("Should load a directory of images in name order")
+        void shouldLoadDirectoryOfImagesInNameOrder() throws Exception {
+            // Given
+            ImageIO.write(TestUtils.createMockImage(32, 24, Color.BLUE), "png", tempDir.resolve("frame-001.png").toFile());
+            ImageIO.write(TestUtils.createMockImage(32, 24, Color.RED), "png", tempDir.resolve("frame-000.png").toFile());
+
+            // When
+            ReplayScreenCapture replay = (ReplayScreenCapture) CaptureBackends.create("replay:" + tempDir);
+
+            // Then
+            assertThat(replay.getFrameCount()).isEqualTo(2);
+            assertThat(replay.captureScreen(0).getRGB(0, 0) & 0xFFFFFF).isEqualTo(0xFF0000);
+        }
+
+        @Test
+        @DisplayName("Should load a recorded MJPEG stream")
+        void shouldLoadRecordedMjpegStream() throws Exception {
+            // Given
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for (int i = 0; i < 3; i++) {
+                stream.write("\r\n--frame\r\nContent-Type: image/jpeg\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                ImageIO.write(TestUtils.createMockImage(48, 32), "jpeg", stream);
+            }
+            Path trace = tempDir.resolve("trace.mjpeg");
+            Files.write(trace, stream.toByteArray());
+
+            // When
+            ScreenCaptureInterface replay = CaptureBackends.create("replay:" + trace);
+
+            // Then
+            assertThat(((ReplayScreenCapture) replay).getFrameCount()).isEqualTo(3);
+            assertThat(replay.getPrimaryScreenBounds().width).isEqualTo(48);
+        }
+
+        @Test
+        @DisplayName("Should fail on unreadable traces")
+        void shouldFailOnUnreadableTraces() {
+            assertThatThrownBy(() -> CaptureBackends.create("replay:" + tempDir.resolve("missing.mjpeg")))
+                    .isInstanceOf(ScreenCaptureException.class);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.anyscreen.implementations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.models.ScreenInfo;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
+
+/**
+ * Test suite for SyntheticScreenCapture and the CaptureBackends factory.
+ */
+class SyntheticScreenCaptureTest {
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData().clone();
+    }
+
+    @Nested
+    @DisplayName("Virtual Screen Tests")
+    class VirtualScreenTests {
+
+        @Test
+        @DisplayName("Should lay out virtual screens side by side")
+        void shouldLayOutVirtualScreensSideBySide() {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 200, 3, MotionPattern.STATIC);
+
+            // When
+            List<ScreenInfo> screens = capture.getAvailableScreens();
+
+            // Then
+            assertThat(screens).hasSize(3);
+            assertThat(screens.get(0).isPrimary()).isTrue();
+            assertThat(screens.get(2).getBounds()).isEqualTo(new Rectangle(640, 0, 320, 200));
+            assertThat(capture.isSupported()).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should reject invalid screen indexes")
+        void shouldRejectInvalidScreenIndexes() {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 200, 1, MotionPattern.STATIC);
+
+            // When / Then
+            assertThatThrownBy(() -> capture.captureScreen(1)).isInstanceOf(ScreenCaptureException.class);
+            assertThatThrownBy(() -> capture.captureRegion(new Rectangle(300, 0, 50, 50)))
+                    .isInstanceOf(ScreenCaptureException.class);
+        }
+
+        @Test
+        @DisplayName("Should capture regions within a screen")
+        void shouldCaptureRegionsWithinScreen() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 200, 2, MotionPattern.STATIC);
+
+            // When
+            BufferedImage region = capture.captureRegion(new Rectangle(330, 10, 100, 50));
+
+            // Then
+            assertThat(region.getWidth()).isEqualTo(100);
+            assertThat(region.getRGB(0, 0)).isEqualTo(capture.captureScreen(1).getRGB(10, 10));
+        }
+    }
+
+    @Nested
+    @DisplayName("Motion Pattern Tests")
+    class MotionPatternTests {
+
+        @Test
+        @DisplayName("Should produce the same frame sequence on every run")
+        void shouldProduceSameFrameSequenceOnEveryRun() throws Exception {
+            for (MotionPattern pattern : MotionPattern.values()) {
+                // Given
+                SyntheticScreenCapture first = new SyntheticScreenCapture(320, 200, 1, pattern);
+                SyntheticScreenCapture second = new SyntheticScreenCapture(320, 200, 1, pattern);
+
+                // When / Then
+                for (int frame = 0; frame < 3; frame++) {
+                    assertThat(pixels(first.captureScreen(0))).as("%s frame %d", pattern, frame)
+                        .isEqualTo(pixels(second.captureScreen(0)));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should change frames only for moving patterns")
+        void shouldChangeFramesOnlyForMovingPatterns() throws Exception {
+            // Given
+            SyntheticScreenCapture still = new SyntheticScreenCapture(320, 200, 1, MotionPattern.STATIC);
+            SyntheticScreenCapture text = new SyntheticScreenCapture(320, 200, 1, MotionPattern.SCROLLING_TEXT);
+            SyntheticScreenCapture typing = new SyntheticScreenCapture(320, 200, 1, MotionPattern.TYPING);
+            SyntheticScreenCapture noise = new SyntheticScreenCapture(320, 200, 1, MotionPattern.NOISE);
+
+            // When / Then
+            assertThat(pixels(still.captureScreen(0))).isEqualTo(pixels(still.captureScreen(0)));
+            assertThat(pixels(text.captureScreen(0))).isNotEqualTo(pixels(text.captureScreen(0)));
+            assertThat(pixels(typing.captureScreen(0))).isNotEqualTo(pixels(typing.captureScreen(0)));
+            assertThat(pixels(noise.captureScreen(0))).isNotEqualTo(pixels(noise.captureScreen(0)));
+            assertThat(noise.getFrameCount(0)).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should render into a matching target in place")
+        void shouldRenderIntoMatchingTargetInPlace() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 200, 1, MotionPattern.NOISE);
+            BufferedImage target = new BufferedImage(320, 200, BufferedImage.TYPE_INT_RGB);
+            BufferedImage wrongSize = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+
+            // When / Then
+            assertThat(capture.captureScreen(0, target)).isSameAs(target);
+            assertThat(capture.captureScreen(0, wrongSize)).isNotSameAs(wrongSize);
+        }
+    }
+
+    @Nested
+    @DisplayName("Backend Factory Tests")
+    class BackendFactoryTests {
+
+        @Test
+        @DisplayName("Should create synthetic backends from a description")
+        void shouldCreateSyntheticBackendsFromDescription() throws Exception {
+            // When
+            ScreenCaptureInterface defaults = CaptureBackends.create("synthetic");
+            ScreenCaptureInterface custom = CaptureBackends.create("synthetic:640x360:2:noise");
+
+            // Then
+            assertThat(defaults.getPrimaryScreenBounds()).isEqualTo(new Rectangle(1920, 1080));
+            assertThat(custom.getAvailableScreens()).hasSize(2);
+            assertThat(custom.getPrimaryScreenBounds()).isEqualTo(new Rectangle(640, 360));
+            assertThat(((SyntheticScreenCapture) custom).getPattern()).isEqualTo(MotionPattern.NOISE);
+        }
+
+        @Test
+        @DisplayName("Should reject invalid backend descriptions")
+        void shouldRejectInvalidBackendDescriptions() {
+            assertThatThrownBy(() -> CaptureBackends.create("webcam"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> CaptureBackends.create("synthetic:wide"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> CaptureBackends.create("synthetic:640x360:1:spinning"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> CaptureBackends.create("replay:"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
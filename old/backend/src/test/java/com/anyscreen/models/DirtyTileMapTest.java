@@ -0,0 +1,70 @@
+package com.anyscreen.models;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.BitSet;
+
+/**
+ * Test suite for DirtyTileMap.
+ * Tests tile geometry, region merging and combining change maps.
+ */
+class DirtyTileMapTest {
+
+    /**
+     * 4x3 tiles of 32px over a 100x70 frame, so the last column and row are clipped.
+     */
+    private DirtyTileMap map(int... tiles) {
+        BitSet dirty = new BitSet();
+        for (int tile : tiles) {
+            dirty.set(tile);
+        }
+        return new DirtyTileMap(100, 70, 32, dirty);
+    }
+
+    @Test
+    @DisplayName("Should merge a block of dirty tiles into one region")
+    void shouldMergeBlockOfDirtyTilesIntoOneRegion() {
+        // Given
+        DirtyTileMap changes = map(1, 2, 5, 6);
+
+        // When / Then
+        assertThat(changes.getMergedRegions()).containsExactly(new Rectangle(32, 0, 64, 64));
+        assertThat(changes.getDirtyRegions()).hasSize(4);
+    }
+
+    @Test
+    @DisplayName("Should split runs that do not line up and clip edge tiles")
+    void shouldSplitRunsThatDoNotLineUpAndClipEdgeTiles() {
+        // Given
+        DirtyTileMap changes = map(0, 1, 5, 6, 7, 11);
+
+        // When / Then
+        assertThat(changes.getMergedRegions()).containsExactlyInAnyOrder(
+            new Rectangle(0, 0, 64, 32),
+            new Rectangle(32, 32, 68, 32),
+            new Rectangle(96, 64, 4, 6));
+        assertThat(map().getMergedRegions()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should combine changes of two intervals")
+    void shouldCombineChangesOfTwoIntervals() {
+        // Given
+        DirtyTileMap first = map(0);
+        DirtyTileMap second = map(11);
+
+        // When
+        DirtyTileMap combined = first.union(second);
+        DirtyTileMap resized = first.union(new DirtyTileMap(64, 64, 32, new BitSet()));
+
+        // Then
+        assertThat(combined.getDirtyTiles()).containsExactly(0, 11);
+        assertThat(first.getDirtyTiles()).containsExactly(0);
+        assertThat(resized.getFrameWidth()).isEqualTo(64);
+        assertThat(resized.isAllDirty()).isTrue();
+    }
+}
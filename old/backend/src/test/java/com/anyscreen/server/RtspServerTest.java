@@ -0,0 +1,540 @@
+package com.anyscreen.server;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.services.ClientConnection;
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.RtpStreamSession;
+import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamVariants;
+import com.anyscreen.services.StreamingService;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loopback integration tests for RtspServer.
+ * Plays a synthetic screen over UDP and TCP-interleaved RTP with a minimal RTSP client, checking
+ * that packets arrive in order, without loss and at a steady pace, that they decode, and that the
+ * client's receiver reports reach the stream's stats; then with FFmpeg as the player.
+ */
+class RtspServerTest {
+
+    private static final String QUERY = "?w=320";
+
+    @BeforeAll
+    static void requireEncoder() {
+        assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+    }
+
+    private RtspServer server;
+    private StreamingService streamingService;
+    private String baseUrl;
+
+    private void startServer() throws Exception {
+        ScreenCaptureService captureService = new ScreenCaptureService(
+            new SyntheticScreenCapture(640, 480, 1, MotionPattern.SCROLLING_TEXT),
+            Mockito.mock(ScreenCaptureSaverInterface.class));
+        streamingService = new StreamingService(captureService);
+        server = new RtspServer(new InetSocketAddress("127.0.0.1", 0), captureService, streamingService);
+        server.start();
+        baseUrl = "rtsp://127.0.0.1:" + server.getPort() + "/0";
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+            streamingService.stopStreaming();
+        }
+    }
+
+    private RtpStreamSession findSession() {
+        StreamingConfig config = StreamVariants.select(StreamingProtocol.RTSP, 640, 480, Map.of("w", "320"));
+        return streamingService.findRtspStream(0, config);
+    }
+
+    /**
+     * A response to an RTSP request.
+     */
+    private static final class Response {
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        String body = "";
+    }
+
+    /**
+     * Minimal RTSP client: one request at a time, and interleaved packets read on demand.
+     */
+    private static final class RtspClient implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private int cseq;
+
+        RtspClient(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(10000);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        Response request(String method, String uri, String... headers) throws IOException {
+            StringBuilder request = new StringBuilder(method + " " + uri + " RTSP/1.0\r\nCSeq: " + ++cseq + "\r\n");
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            out.write(request.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            Response response = new Response();
+            String statusLine = readLine();
+            assertThat(statusLine).startsWith("RTSP/1.0 ");
+            response.status = Integer.parseInt(statusLine.split(" ")[1]);
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int separator = line.indexOf(':');
+                response.headers.put(line.substring(0, separator).toLowerCase(), line.substring(separator + 1).trim());
+            }
+            assertThat(response.headers).containsEntry("cseq", String.valueOf(cseq));
+            int length = Integer.parseInt(response.headers.getOrDefault("content-length", "0"));
+            response.body = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+            return response;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int next;
+            while ((next = in.read()) != '\n') {
+                if (next < 0) {
+                    throw new IOException("Connection closed");
+                }
+                if (next != '\r') {
+                    line.write(next);
+                }
+            }
+            return line.toString(StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * @return the next interleaved packet, channel first
+         */
+        byte[] readInterleaved() throws IOException {
+            assertThat(in.readByte()).isEqualTo((byte) '$');
+            int channel = in.readUnsignedByte();
+            byte[] packet = new byte[in.readUnsignedShort() + 1];
+            packet[0] = (byte) channel;
+            in.readFully(packet, 1, packet.length - 1);
+            return packet;
+        }
+
+        void sendInterleaved(int channel, byte[] data) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(4 + data.length);
+            frame.put((byte) '$').put((byte) channel).putShort((short) data.length).put(data);
+            out.write(frame.array());
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * An RTP packet as received, with its arrival time.
+     */
+    private static final class Received {
+        final boolean marker;
+        final int sequence;
+        final long timestamp;
+        final int ssrc;
+        final byte[] payload;
+        final long arrivalNanos;
+
+        Received(byte[] data, int offset, int length, long arrivalNanos) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            assertThat(buffer.get() & 0xC0).isEqualTo(0x80);
+            int second = buffer.get() & 0xFF;
+            assertThat(second & 0x7F).isEqualTo(96);
+            this.marker = (second & 0x80) != 0;
+            this.sequence = buffer.getShort() & 0xFFFF;
+            this.timestamp = buffer.getInt() & 0xFFFFFFFFL;
+            this.ssrc = buffer.getInt();
+            this.payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+
+    /**
+     * What a receiver computes about a stream, as RFC 3550 describes it.
+     */
+    private static final class ReceptionStats {
+        int lost;
+        int highestSequence;
+        double jitterTicks;
+        int pictures;
+    }
+
+    private static ReceptionStats analyze(List<Received> packets) {
+        ReceptionStats stats = new ReceptionStats();
+        Received first = packets.get(0);
+        int expected = first.sequence;
+        int cycles = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            Received packet = packets.get(i);
+            assertThat(packet.ssrc).isEqualTo(first.ssrc);
+            int gap = (packet.sequence - expected) & 0xFFFF;
+            assertThat(gap).as("packet %d arrived out of order", i).isLessThan(0x8000);
+            stats.lost += gap;
+            if (i > 0 && packet.sequence < packets.get(i - 1).sequence) {
+                cycles += 0x10000;
+            }
+            expected = (packet.sequence + 1) & 0xFFFF;
+            stats.highestSequence = cycles + packet.sequence;
+            if (packet.marker) {
+                stats.pictures++;
+            }
+            if (i > 0) {
+                Received previous = packets.get(i - 1);
+                // Timestamps never go back, modulo 2^32
+                long step = (packet.timestamp - previous.timestamp) & 0xFFFFFFFFL;
+                assertThat(step).as("timestamp step of packet %d", i).isLessThan(0x80000000L);
+                double transitChange = (packet.arrivalNanos - previous.arrivalNanos) * 90000.0 / 1e9 - step;
+                stats.jitterTicks += (Math.abs(transitChange) - stats.jitterTicks) / 16;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Reassembles the H.264 stream from the packets and decodes it as a player would.
+     * @return the number of decoded pictures
+     */
+    private static int decode(List<Received> packets, int expectedWidth) throws Exception {
+        ByteArrayOutputStream annexB = new ByteArrayOutputStream();
+        for (Received packet : packets) {
+            int type = packet.payload[0] & 0x1F;
+            if (type == 28) {
+                if ((packet.payload[1] & 0x80) != 0) {
+                    annexB.write(new byte[] {0, 0, 0, 1});
+                    annexB.write((packet.payload[0] & 0xE0) | (packet.payload[1] & 0x1F));
+                }
+                annexB.write(packet.payload, 2, packet.payload.length - 2);
+            } else {
+                annexB.write(new byte[] {0, 0, 0, 1});
+                annexB.write(packet.payload);
+            }
+        }
+        int frames = 0;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(annexB.toByteArray()))) {
+            grabber.setFormat("h264");
+            grabber.start();
+            assertThat(grabber.getImageWidth()).isEqualTo(expectedWidth);
+            while (grabber.grabImage() != null) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * A receiver report with one block about the stream (RFC 3550, 6.4.2).
+     */
+    private static byte[] receiverReport(int mediaSsrc, ReceptionStats stats) {
+        ByteBuffer report = ByteBuffer.allocate(32);
+        report.put((byte) 0x81).put((byte) 201).putShort((short) 7);
+        report.putInt(0x5EED);
+        report.putInt(mediaSsrc);
+        report.putInt(stats.lost & 0xFFFFFF);
+        report.putInt(stats.highestSequence);
+        report.putInt((int) stats.jitterTicks);
+        report.putInt(0).putInt(0);
+        return report.array();
+    }
+
+    private static int parseSsrc(String transport) {
+        for (String field : transport.split(";")) {
+            if (field.startsWith("ssrc=")) {
+                return Integer.parseUnsignedInt(field.substring(5), 16);
+            }
+        }
+        throw new AssertionError("No ssrc in " + transport);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> awaitReceiverReport(RtpStreamSession session) {
+        long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end) {
+            Map<String, Object> stats = session.getStats();
+            if (!((Map<String, Object>) stats.get("receiverReports")).isEmpty()) {
+                return stats;
+            }
+            TestUtils.waitMillis(20);
+        }
+        throw new AssertionError("The receiver report did not reach the stream");
+    }
+
+    @Nested
+    @DisplayName("Playback Tests")
+    class PlaybackTests {
+
+        @Test
+        @DisplayName("Should describe the stream and play it over UDP without loss")
+        @SuppressWarnings("unchecked")
+        void shouldPlayOverUdp() throws Exception {
+            // Given
+            startServer();
+            try (RtspClient client = new RtspClient(server.getPort());
+                 DatagramSocket rtp = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+                 DatagramSocket rtcp = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+                rtp.setReceiveBufferSize(1 << 20);
+
+                // When
+                Response options = client.request("OPTIONS", baseUrl);
+                Response describe = client.request("DESCRIBE", baseUrl + QUERY, "Accept: application/sdp");
+                Response setup = client.request("SETUP", baseUrl + QUERY + "/" + RtspConnection.TRACK_CONTROL,
+                                                "Transport: RTP/AVP;unicast;client_port=" + rtp.getLocalPort() + "-" + rtcp.getLocalPort());
+                String session = setup.headers.get("session").split(";")[0];
+                Response play = client.request("PLAY", baseUrl + QUERY + "/", "Session: " + session, "Range: npt=0-");
+
+                List<Received> packets = new ArrayList<>();
+                byte[] buffer = new byte[2048];
+                DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+                rtp.setSoTimeout(2000);
+                long end = System.currentTimeMillis() + 2000;
+                while (System.currentTimeMillis() < end) {
+                    rtp.receive(datagram);
+                    packets.add(new Received(buffer, datagram.getOffset(), datagram.getLength(), System.nanoTime()));
+                }
+                ReceptionStats stats = analyze(packets);
+                int ssrc = parseSsrc(setup.headers.get("transport"));
+                rtcp.send(new DatagramPacket(receiverReport(ssrc, stats), 32,
+                                             new InetSocketAddress("127.0.0.1", server.getRtpPort() + 1)));
+                Map<String, Object> sessionStats = awaitReceiverReport(findSession());
+
+                // Then
+                assertThat(options.headers.get("public")).contains("DESCRIBE", "SETUP", "PLAY", "TEARDOWN");
+                assertThat(describe.status).isEqualTo(200);
+                assertThat(describe.headers).containsEntry("content-type", "application/sdp")
+                                            .containsEntry("content-base", baseUrl + QUERY + "/");
+                assertThat(describe.body).contains("m=video 0 RTP/AVP 96", "a=rtpmap:96 H264/90000",
+                                                   "packetization-mode=1", "sprop-parameter-sets=", "a=control:trackID=0");
+                assertThat(setup.status).isEqualTo(200);
+                assertThat(setup.headers.get("transport")).contains("server_port=" + server.getRtpPort());
+                assertThat(play.status).isEqualTo(200);
+
+                assertThat(packets.get(0).payload[0] & 0x1F).as("first NAL unit is the SPS").isEqualTo(7);
+                assertThat(packets.get(0).ssrc).isEqualTo(ssrc);
+                assertThat(stats.lost).isZero();
+                assertThat(stats.pictures).isGreaterThan(10);
+                assertThat(stats.jitterTicks / 90).as("jitter in ms").isLessThan(50);
+                assertThat(decode(packets, 320)).isGreaterThanOrEqualTo(stats.pictures / 2);
+
+                assertThat(sessionStats).containsEntry("packetsLost", 0L);
+                Map<String, Object> report = (Map<String, Object>) ((Map<String, Object>) sessionStats.get("receiverReports"))
+                    .values().iterator().next();
+                assertThat(report).containsEntry("highestSequence", (long) stats.highestSequence);
+                LoggerService.info(String.format("RTSP UDP loopback: %d packets, %d pictures in 2 s, %d lost, jitter %.2f ms",
+                                                 packets.size(), stats.pictures, stats.lost, stats.jitterTicks / 90));
+
+                Response teardown = client.request("TEARDOWN", baseUrl + QUERY + "/", "Session: " + session);
+                assertThat(teardown.status).isEqualTo(200);
+                assertThat(findSession().getClientCount()).isZero();
+            }
+        }
+
+        @Test
+        @DisplayName("Should play interleaved in the RTSP connection on the requested channels")
+        void shouldPlayInterleaved() throws Exception {
+            // Given
+            startServer();
+            try (RtspClient client = new RtspClient(server.getPort())) {
+                client.request("DESCRIBE", baseUrl + QUERY);
+
+                // When
+                Response setup = client.request("SETUP", baseUrl + QUERY + "/" + RtspConnection.TRACK_CONTROL,
+                                                "Transport: RTP/AVP/TCP;unicast;interleaved=2-3");
+                String session = setup.headers.get("session").split(";")[0];
+                Response play = client.request("PLAY", baseUrl + QUERY + "/", "Session: " + session);
+
+                List<Received> packets = new ArrayList<>();
+                long end = System.currentTimeMillis() + 1500;
+                while (System.currentTimeMillis() < end) {
+                    byte[] frame = client.readInterleaved();
+                    assertThat(frame[0]).as("channel").isEqualTo((byte) 2);
+                    packets.add(new Received(frame, 1, frame.length - 1, System.nanoTime()));
+                }
+                ReceptionStats stats = analyze(packets);
+                client.sendInterleaved(3, receiverReport(parseSsrc(setup.headers.get("transport")), stats));
+                Map<String, Object> sessionStats = awaitReceiverReport(findSession());
+
+                // Then
+                assertThat(setup.headers.get("transport")).startsWith("RTP/AVP/TCP;unicast;interleaved=2-3");
+                assertThat(play.status).isEqualTo(200);
+                assertThat(packets.get(0).payload[0] & 0x1F).isEqualTo(7);
+                assertThat(stats.lost).isZero();
+                assertThat(decode(packets, 320)).isPositive();
+                assertThat(sessionStats).containsEntry("packetsLost", 0L);
+            }
+
+            // The stream stops with the connection
+            long end = System.currentTimeMillis() + 5000;
+            while (findSession().getClientCount() > 0 && System.currentTimeMillis() < end) {
+                TestUtils.waitMillis(20);
+            }
+            assertThat(findSession().getClientCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should be playable by FFmpeg over TCP and UDP")
+        void shouldPlayWithFfmpeg() throws Exception {
+            // Given
+            startServer();
+
+            for (String transport : List.of("tcp", "udp")) {
+                // When
+                int frames = 0;
+                try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(baseUrl + QUERY)) {
+                    grabber.setOption("rtsp_transport", transport);
+                    grabber.setOption("timeout", "10000000");
+                    grabber.start();
+                    assertThat(grabber.getImageWidth()).as(transport).isEqualTo(320);
+                    assertThat(grabber.getImageHeight()).as(transport).isEqualTo(240);
+                    Frame frame;
+                    while (frames < 10 && (frame = grabber.grabImage()) != null) {
+                        assertThat(frame.imageWidth).isEqualTo(320);
+                        frames++;
+                    }
+                }
+
+                // Then
+                assertThat(frames).as(transport).isEqualTo(10);
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Error Tests")
+    class ErrorTests {
+
+        @Test
+        @DisplayName("Should answer invalid requests with RTSP status codes")
+        void shouldRejectInvalidRequests() throws Exception {
+            // Given
+            startServer();
+            try (RtspClient client = new RtspClient(server.getPort())) {
+                String root = "rtsp://127.0.0.1:" + server.getPort();
+
+                // Then
+                assertThat(client.request("DESCRIBE", root + "/5").status).isEqualTo(404);
+                assertThat(client.request("DESCRIBE", root + "/screen").status).isEqualTo(400);
+                assertThat(client.request("PLAY", baseUrl).status).isEqualTo(455);
+                assertThat(client.request("SETUP", baseUrl, "Transport: RTP/AVP;multicast").status).isEqualTo(461);
+                assertThat(client.request("SETUP", baseUrl, "Transport: RTP/SAVP;unicast;client_port=5000-5001").status)
+                    .isEqualTo(461);
+                assertThat(client.request("PLAY", baseUrl, "Session: 0123").status).isEqualTo(454);
+                assertThat(client.request("RECORD", baseUrl).status).isEqualTo(501);
+                assertThat(client.request("GET_PARAMETER", baseUrl).status).isEqualTo(200);
+            }
+            assertThat(server.getConnectionCount()).isLessThanOrEqualTo(1);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        @Test
+        @DisplayName("Benchmark: latency from capture to the last packet of a picture over UDP")
+        void benchmarkLatency() throws Exception {
+            for (int[] size : new int[][] {{640, 360}, {1280, 720}}) {
+                // Given
+                StreamingConfig config = new StreamingConfig.Builder()
+                    .protocol(StreamingProtocol.RTSP)
+                    .resolution(size[0], size[1])
+                    .frameRate(30)
+                    .quality(80)
+                    .build();
+                RtpStreamSession session = new RtpStreamSession(0, config);
+                SyntheticScreenCapture capture = new SyntheticScreenCapture(size[0], size[1], 1, MotionPattern.SCROLLING_TEXT);
+                List<Double> latencies = new ArrayList<>();
+                try (DatagramSocket sender = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+                     DatagramSocket receiver = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+                    receiver.setReceiveBufferSize(1 << 20);
+                    receiver.setSoTimeout(500);
+                    ClientConnection client = session.addClient("benchmark", new RtspConnection.DatagramTransport(
+                        sender, new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort())));
+                    byte[] buffer = new byte[2048];
+                    DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+
+                    // When: every picture is captured, then waited for until its marker packet arrives
+                    for (int i = 0; i < 150; i++) {
+                        long started = System.nanoTime();
+                        if (!session.publish(capture.captureScreen(0, null))) {
+                            TestUtils.waitMillis(33);
+                            continue;
+                        }
+                        try {
+                            do {
+                                datagram.setLength(buffer.length);
+                                receiver.receive(datagram);
+                            } while ((buffer[1] & 0x80) == 0);
+                            latencies.add((System.nanoTime() - started) / 1e6);
+                        } catch (SocketTimeoutException e) {
+                            // The encoder held the picture back
+                        }
+                        TestUtils.waitMillis(Math.max(0, 33 - (System.nanoTime() - started) / 1_000_000));
+                    }
+                    client.close();
+                } finally {
+                    session.close();
+                }
+
+                // Then
+                assertThat(latencies).hasSizeGreaterThan(100);
+                Collections.sort(latencies);
+                double median = latencies.get(latencies.size() / 2);
+                double p95 = latencies.get((int) (latencies.size() * 0.95));
+                assertThat(median).isLessThan(100);
+                LoggerService.info(String.format(
+                    "RTSP latency benchmark %dx%d: %d pictures, capture to last packet median %.1f ms, p95 %.1f ms, %d RTP packets",
+                    size[0], size[1], latencies.size(), median, p95, session.getStats().get("rtpPackets")));
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.anyscreen.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.anyscreen.implementations.CaptureBackends;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.server.routing.Router;
+import com.anyscreen.services.LoggerService;
+import com.anyscreen.services.ScreenCaptureService;
+import com.anyscreen.services.StreamingService;
+import com.anyscreen.utils.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/**
+ * Load benchmark for the HTTP server executor.
+ * Opens hundreds of long-lived MJPEG streams and measures how fast /status and /screens still answer.
+ */
+class StreamingServerLoadTest {
+
+    private static final int VIEWERS = 300;
+    private static final long MAX_RESPONSE_MS = 2000;
+
+    @Mock
+    private ScreenCaptureInterface mockCaptureInterface;
+
+    @Mock
+    private ScreenCaptureSaverInterface mockSaver;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private StreamingService streamingService;
+    private final List<Socket> viewers = new ArrayList<>();
+
+    private int startServer(String executorType) throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(mockCaptureInterface.getAvailableScreens()).thenReturn(TestUtils.createMockMultiScreenInfo());
+        when(mockCaptureInterface.captureScreen(anyInt())).thenReturn(TestUtils.createMockImage(64, 48));
+        when(mockCaptureInterface.captureScreen(anyInt(), any())).thenReturn(TestUtils.createMockImage(64, 48));
+        return startServer(executorType, mockCaptureInterface);
+    }
+
+    private int startServer(String executorType, ScreenCaptureInterface captureInterface) throws Exception {
+        ScreenCaptureService captureService = new ScreenCaptureService(captureInterface, mockSaver);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        streamingService = new StreamingService(captureService);
+        new Router(server, captureService, streamingService).configureRoutes();
+        executor = ServerExecutors.create(executorType);
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (Socket viewer : viewers) {
+            viewer.close();
+        }
+        if (server != null) {
+            server.stop(0);
+            streamingService.stopStreaming();
+            executor.shutdownNow();
+        }
+    }
+
+    private Socket openStream(int port, int screenIndex) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout((int) MAX_RESPONSE_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /stream/" + screenIndex + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        // Wait for the first frame so we know the viewer is subscribed
+        InputStream in = socket.getInputStream();
+        StringBuilder response = new StringBuilder();
+        int c;
+        while (response.indexOf("Content-Type: image/jpeg") < 0 && (c = in.read()) != -1) {
+            response.append((char) c);
+        }
+        assertThat(response.toString()).startsWith("HTTP/1.1 200");
+        return socket;
+    }
+
+    private String get(int port, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + path).toURL().openConnection();
+        connection.setConnectTimeout((int) MAX_RESPONSE_MS);
+        connection.setReadTimeout((int) MAX_RESPONSE_MS);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Nested
+    @DisplayName("Virtual Thread Executor Tests")
+    class VirtualThreadExecutorTests {
+
+        @Test
+        @DisplayName("Should serve hundreds of concurrent streams and stay responsive")
+        void shouldServeHundredsOfConcurrentStreamsAndStayResponsive() throws Exception {
+            // Given
+            int port = startServer("virtual");
+
+            // When
+            long openStart = System.nanoTime();
+            for (int i = 0; i < VIEWERS; i++) {
+                viewers.add(openStream(port, i % 2));
+            }
+            long openMs = (System.nanoTime() - openStart) / 1_000_000;
+
+            long statusStart = System.nanoTime();
+            String status = get(port, "/status");
+            long statusMs = (System.nanoTime() - statusStart) / 1_000_000;
+
+            long screensStart = System.nanoTime();
+            String screens = get(port, "/screens");
+            long screensMs = (System.nanoTime() - screensStart) / 1_000_000;
+
+            LoggerService.info("Load benchmark: " + VIEWERS + " streams opened in " + openMs + "ms, " +
+                               "/status " + statusMs + "ms, /screens " + screensMs + "ms");
+
+            // Then
+            assertThat(status).contains("\"clients\": " + VIEWERS);
+            assertThat(screens).contains("\"index\": 0");
+            assertThat(statusMs).isLessThan(MAX_RESPONSE_MS);
+            assertThat(screensMs).isLessThan(MAX_RESPONSE_MS);
+        }
+    }
+
+    @Nested
+    @DisplayName("Synthetic Backend Tests")
+    class SyntheticBackendTests {
+
+        @Test
+        @DisplayName("Should measure throughput and first-frame latency on a synthetic screen")
+        void shouldMeasureThroughputAndFirstFrameLatencyOnSyntheticScreen() throws Exception {
+            // Given
+            MockitoAnnotations.openMocks(StreamingServerLoadTest.this);
+            int port = startServer("virtual", CaptureBackends.create("synthetic:1280x720:1:scrolling-text"));
+            long openStart = System.nanoTime();
+            Socket measured = openStream(port, 0);
+            long firstFrameMs = (System.nanoTime() - openStart) / 1_000_000;
+            viewers.add(measured);
+            for (int i = 1; i < 20; i++) {
+                viewers.add(openStream(port, 0));
+            }
+
+            // When
+            InputStream in = measured.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long bytes = 0;
+            long end = System.nanoTime() + 2_000_000_000L;
+            while (System.nanoTime() < end) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                bytes += read;
+            }
+            long frames = streamingService.getBroadcaster(0).getFrameCount();
+            double fps = (double) streamingService.getSessions().get(0).getFrameCount() /
+                         Math.max(1, (System.nanoTime() - openStart) / 1e9);
+            LoggerService.info(String.format("Synthetic benchmark: 1280x720 scrolling text, 20 viewers, " +
+                               "first frame %dms, %.1f fps, %d KB/s per viewer, %d frames captured",
+                               firstFrameMs, fps, bytes / 2 / 1024, frames));
+
+            // Then
+            assertThat(bytes).isPositive();
+            assertThat(frames).isPositive();
+        }
+
+        @Test
+        @DisplayName("Should serve the size asked for in the query and reject invalid values")
+        void shouldServeRequestedSizeAndRejectInvalidValues() throws Exception {
+            // Given
+            MockitoAnnotations.openMocks(StreamingServerLoadTest.this);
+            int port = startServer("virtual", CaptureBackends.create("synthetic:1280x720:1:typing"));
+            HttpURLConnection connection = (HttpURLConnection) URI.create(
+                "http://127.0.0.1:" + port + "/stream/0?w=640&fps=10&q=60").toURL().openConnection();
+            connection.setReadTimeout((int) MAX_RESPONSE_MS);
+
+            // When
+            java.awt.image.BufferedImage frame;
+            try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                StringBuilder headers = new StringBuilder();
+                while (headers.indexOf("\r\n\r\n", headers.indexOf("Content-Length")) < 0) {
+                    headers.append((char) in.read());
+                }
+                String length = headers.substring(headers.indexOf("Content-Length: ") + 16);
+                byte[] jpeg = new byte[Integer.parseInt(length.substring(0, length.indexOf('\r')))];
+                in.readFully(jpeg);
+                frame = javax.imageio.ImageIO.read(new java.io.ByteArrayInputStream(jpeg));
+            } finally {
+                connection.disconnect();
+            }
+            HttpURLConnection invalid = (HttpURLConnection) URI.create(
+                "http://127.0.0.1:" + port + "/stream/0?w=wide").toURL().openConnection();
+
+            // Then
+            assertThat(frame.getWidth()).isEqualTo(640);
+            assertThat(frame.getHeight()).isEqualTo(360);
+            assertThat(streamingService.getSessions().get(0).getConfig().getFrameRate()).isEqualTo(10);
+            assertThat(invalid.getResponseCode()).isEqualTo(400);
+            invalid.disconnect();
+        }
+
+        @Test
+        @DisplayName("Should start a tile stream with a keyframe and serve the tile viewer")
+        void shouldStartTileStreamWithKeyframeAndServeTileViewer() throws Exception {
+            // Given
+            MockitoAnnotations.openMocks(StreamingServerLoadTest.this);
+            int port = startServer("virtual", CaptureBackends.create("synthetic:1280x720:1:typing"));
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + "/tiles/0").toURL().openConnection();
+            connection.setReadTimeout((int) MAX_RESPONSE_MS);
+
+            // When
+            byte[] header = new byte[16];
+            try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                in.readFully(header);
+            } finally {
+                connection.disconnect();
+            }
+            ByteBuffer message = ByteBuffer.wrap(header);
+            String viewerPage = get(port, "/viewer/tiles");
+
+            // Then
+            assertThat(connection.getContentType()).isEqualTo("application/vnd.anyscreen.tiles");
+            assertThat(message.getInt()).isGreaterThan(12);
+            assertThat(message.get()).isEqualTo((byte) 1);
+            assertThat(message.get()).isEqualTo((byte) 0);
+            assertThat(message.getShort()).isEqualTo((short) 1);
+            assertThat(message.getShort()).isEqualTo((short) 1280);
+            assertThat(message.getShort()).isEqualTo((short) 720);
+            assertThat(viewerPage).contains("<canvas", "/tiles/");
+        }
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        private static final int STREAM_CYCLES = 2000;
+        private static final int BATCH_SIZE = 20;
+        private static final long TEARDOWN_TIMEOUT_MS = 15000;
+
+        @Test
+        @DisplayName("Should tear down capture and writers after thousands of streams open and close")
+        void shouldTearDownCaptureAndWritersAfterStreamsOpenAndClose() throws Exception {
+            // Given
+            MockitoAnnotations.openMocks(StreamingServerLoadTest.this);
+            int port = startServer("virtual", CaptureBackends.create("synthetic:320x240:2:typing"));
+            int threadsBefore = Thread.activeCount();
+
+            // When - viewers come and go in small overlapping batches across two screens
+            long start = System.nanoTime();
+            List<Socket> batch = new ArrayList<>();
+            for (int i = 0; i < STREAM_CYCLES; i++) {
+                batch.add(openStream(port, i % 2));
+                if (batch.size() == BATCH_SIZE) {
+                    for (Socket viewer : batch) {
+                        viewer.close();
+                    }
+                    batch.clear();
+                }
+            }
+            long cyclesMs = (System.nanoTime() - start) / 1_000_000;
+
+            // Closed sockets are noticed on the next write
+            long teardownStart = System.nanoTime();
+            long deadline = System.currentTimeMillis() + TEARDOWN_TIMEOUT_MS;
+            while ((streamingService.isStreaming() || countStreamingThreads() > 0)
+                   && System.currentTimeMillis() < deadline) {
+                TestUtils.waitMillis(50);
+            }
+            long teardownMs = (System.nanoTime() - teardownStart) / 1_000_000;
+
+            com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+            long cpuBefore = os.getProcessCpuTime();
+            TestUtils.waitMillis(1000);
+            long idleCpuMs = (os.getProcessCpuTime() - cpuBefore) / 1_000_000;
+
+            LoggerService.info(String.format("Lifecycle benchmark: %d streams opened and closed in %dms, " +
+                               "torn down %dms after the last close, %dms CPU in the following second, " +
+                               "threads %d before and %d after",
+                               STREAM_CYCLES, cyclesMs, teardownMs, idleCpuMs, threadsBefore, Thread.activeCount()));
+
+            // Then
+            assertThat(streamingService.isStreaming()).isFalse();
+            assertThat(streamingService.getConnectedClientsCount()).isZero();
+            assertThat(streamingService.getSessions()).isEmpty();
+            assertThat(countStreamingThreads()).isZero();
+            assertThat(Thread.activeCount()).isLessThanOrEqualTo(threadsBefore + 5);
+            assertThat(idleCpuMs).isLessThan(300L);
+        }
+
+        /**
+         * @return live capture loops and viewer writers
+         */
+        private long countStreamingThreads() {
+            return Thread.getAllStackTraces().keySet().stream()
+                .map(Thread::getName)
+                .filter(name -> name.startsWith("capture-screen-") || name.startsWith("client-writer-"))
+                .count();
+        }
+    }
+
+    @Nested
+    @DisplayName("Executor Factory Tests")
+    class ExecutorFactoryTests {
+
+        @Test
+        @DisplayName("Should answer status beyond ten streams with cached executor")
+        void shouldAnswerStatusBeyondTenStreamsWithCachedExecutor() throws Exception {
+            // Given
+            int port = startServer("cached");
+            for (int i = 0; i < 20; i++) {
+                viewers.add(openStream(port, 0));
+            }
+
+            // When
+            String status = get(port, "/status");
+
+            // Then
+            assertThat(status).contains("\"clients\": 20");
+        }
+
+        @Test
+        @DisplayName("Should reject unknown executor types")
+        void shouldRejectUnknownExecutorTypes() {
+            assertThatThrownBy(() -> ServerExecutors.create("forkjoin"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> ServerExecutors.create("fixed:many"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.models.StreamingConfig;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for ActivityGovernor.
+ * Covers idling after a still period, waking up on changes and the measured frame rate.
+ */
+class ActivityGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private ActivityGovernor governor;
+    private long start;
+
+    @BeforeEach
+    void setUp() {
+        governor = new ActivityGovernor();
+        start = System.nanoTime();
+        governor.recordFrame(true, start);
+    }
+
+    @Nested
+    @DisplayName("Rate Selection Tests")
+    class RateSelectionTests {
+
+        @Test
+        @DisplayName("Should keep the full rate while the screen is still for less than the idle period")
+        void shouldKeepFullRateBeforeIdlePeriod() {
+            // When
+            int frameRate = governor.selectFrameRate(30, 2, 3 * SECOND, start + 2 * SECOND);
+
+            // Then
+            assertThat(frameRate).isEqualTo(30);
+            assertThat(governor.isIdle()).isFalse();
+        }
+
+        @Test
+        @DisplayName("Should drop to the idle rate after the idle period")
+        void shouldDropToIdleRateAfterIdlePeriod() {
+            // Given
+            governor.recordFrame(false, start + SECOND);
+
+            // When
+            int frameRate = governor.selectFrameRate(30, 2, 3 * SECOND, start + 3 * SECOND);
+
+            // Then
+            assertThat(frameRate).isEqualTo(2);
+            assertThat(governor.isIdle()).isTrue();
+            assertThat(governor.getCurrentFrameRate()).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should return to the full rate on the first changed frame")
+        void shouldReturnToFullRateOnChange() {
+            // Given
+            governor.selectFrameRate(30, 2, SECOND, start + 5 * SECOND);
+
+            // When
+            governor.recordFrame(true, start + 5 * SECOND);
+            int frameRate = governor.selectFrameRate(30, 2, SECOND, start + 5 * SECOND);
+
+            // Then
+            assertThat(frameRate).isEqualTo(30);
+            assertThat(governor.isIdle()).isFalse();
+        }
+
+        @Test
+        @DisplayName("Should return to the full rate when woken")
+        void shouldReturnToFullRateWhenWoken() {
+            // Given
+            long now = System.nanoTime() + 5 * SECOND;
+            governor.selectFrameRate(30, 2, SECOND, now);
+
+            // When
+            governor.wake();
+
+            // Then
+            assertThat(governor.selectFrameRate(30, 2, SECOND, System.nanoTime())).isEqualTo(30);
+        }
+
+        @Test
+        @DisplayName("Should never idle when the idle period is disabled")
+        void shouldNeverIdleWhenDisabled() {
+            // Then
+            assertThat(governor.selectFrameRate(30, 2, 0, start + 60 * SECOND)).isEqualTo(30);
+            assertThat(governor.isIdle()).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Measurement and Config Tests")
+    class MeasurementAndConfigTests {
+
+        @Test
+        @DisplayName("Should measure the effective frame rate over one second")
+        void shouldMeasureEffectiveFrameRate() {
+            // When - 10 frames 100ms apart after the first one
+            for (int i = 1; i <= 10; i++) {
+                governor.recordFrame(false, start + i * SECOND / 10);
+            }
+
+            // Then
+            assertThat(governor.getEffectiveFrameRate()).isCloseTo(11.0, within(0.01));
+
+            // When
+            governor.reset();
+
+            // Then
+            assertThat(governor.getEffectiveFrameRate()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should read idle settings from the session config")
+        void shouldReadIdleSettingsFromConfig() {
+            // Given
+            StreamingConfig defaults = new StreamingConfig.Builder().frameRate(30).build();
+            StreamingConfig custom = new StreamingConfig.Builder().frameRate(30)
+                .addParam(ActivityGovernor.PARAM_IDLE_FRAME_RATE, 60)
+                .addParam(ActivityGovernor.PARAM_IDLE_AFTER_MILLIS, 0)
+                .build();
+
+            // Then
+            assertThat(ActivityGovernor.idleFrameRateOf(defaults)).isEqualTo(ActivityGovernor.DEFAULT_IDLE_FRAME_RATE);
+            assertThat(ActivityGovernor.idleAfterNanosOf(defaults))
+                .isEqualTo(TimeUnit.MILLISECONDS.toNanos(ActivityGovernor.DEFAULT_IDLE_AFTER_MILLIS));
+            assertThat(ActivityGovernor.idleFrameRateOf(custom)).isEqualTo(30);
+            assertThat(ActivityGovernor.idleAfterNanosOf(custom)).isZero();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for ClientConnection.
+ * Covers the per-client writer, its bounded mailbox, the latest-frame-wins policy and
+ * packet reference counting.
+ */
+class ClientConnectionTest {
+
+    private static final byte[] HEADER = "header".getBytes();
+
+    private ClientConnection connection;
+
+    private static FramePacket packet(byte[] payload) {
+        byte[] buffer = new byte[HEADER.length + payload.length];
+        System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+        System.arraycopy(payload, 0, buffer, HEADER.length, payload.length);
+        return new FramePacket(buffer, 0, buffer.length, payload.length, recycled -> {});
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Output stream that blocks every write until released, like a viewer on a stalled link.
+     */
+    private static class StalledOutputStream extends OutputStream {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            written.write(b, off, len);
+        }
+    }
+
+    @Nested
+    @DisplayName("Writer Tests")
+    class WriterTests {
+
+        @Test
+        @DisplayName("Should write queued frames on its own thread")
+        void shouldWriteQueuedFramesOnItsOwnThread() {
+            // Given
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            connection = new ClientConnection("client-1", output);
+            connection.start();
+
+            // When
+            boolean queued = connection.offerFrame(packet(new byte[] {1, 2, 3}));
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(queued).isTrue();
+            assertThat(output.size()).isEqualTo(HEADER.length + 3);
+            assertThat(connection.getFramesWritten()).isEqualTo(1);
+            assertThat(connection.getBytesWritten()).isEqualTo(3);
+        }
+
+        @Test
+        @DisplayName("Should close connection when write fails")
+        void shouldCloseConnectionWhenWriteFails() throws InterruptedException {
+            // Given
+            OutputStream failing = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+            connection = new ClientConnection("client-1", failing);
+            connection.start();
+
+            // When
+            connection.offerFrame(packet(new byte[] {1}));
+            connection.awaitDisconnection();
+
+            // Then
+            assertThat(connection.isActive()).isFalse();
+            assertThat(connection.offerFrame(packet(new byte[] {1}))).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Mailbox Tests")
+    class MailboxTests {
+
+        @Test
+        @DisplayName("Should never block the producer on a stalled client")
+        void shouldNeverBlockProducerOnStalledClient() {
+            // Given
+            StalledOutputStream stalled = new StalledOutputStream();
+            connection = new ClientConnection("slow", stalled);
+            connection.start();
+
+            // When
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                connection.offerFrame(packet(new byte[1024]));
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Then
+            assertThat(elapsedMs).isLessThan(500L);
+            assertThat(connection.getQueueDepth()).isLessThanOrEqualTo(ClientConnection.DEFAULT_MAILBOX_CAPACITY);
+            assertThat(connection.getDroppedFrames()).isGreaterThanOrEqualTo(98);
+            stalled.release.countDown();
+        }
+
+        @Test
+        @DisplayName("Should replace unsent frame with the latest one")
+        void shouldReplaceUnsentFrameWithLatestOne() {
+            // Given
+            StalledOutputStream stalled = new StalledOutputStream();
+            connection = new ClientConnection("slow", stalled);
+            connection.start();
+            connection.offerFrame(packet(new byte[] {0}));
+            TestUtils.waitMillis(50); // writer picks frame 0 and stalls on it
+
+            // When
+            connection.offerFrame(packet(new byte[] {1}));
+            connection.offerFrame(packet(new byte[] {2}));
+            stalled.release.countDown();
+            TestUtils.waitMillis(100);
+
+            // Then - frame 1 was dropped, frames 0 and 2 were written
+            byte[] written = stalled.written.toByteArray();
+            assertThat(written[HEADER.length]).isEqualTo((byte) 0);
+            assertThat(written[written.length - 1]).isEqualTo((byte) 2);
+            assertThat(connection.getDroppedFrames()).isEqualTo(1);
+            assertThat(connection.getFramesWritten()).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should release every packet it retained")
+        void shouldReleaseEveryPacketItRetained() {
+            // Given
+            StalledOutputStream stalled = new StalledOutputStream();
+            connection = new ClientConnection("slow", stalled);
+            connection.start();
+            FramePacket written = packet(new byte[] {0});
+            FramePacket dropped = packet(new byte[] {1});
+            FramePacket pending = packet(new byte[] {2});
+
+            // When
+            connection.offerFrame(written);
+            TestUtils.waitMillis(50);
+            connection.offerFrame(dropped);
+            connection.offerFrame(pending);
+            connection.close();
+            stalled.release.countDown();
+            TestUtils.waitMillis(50);
+
+            // Then - only the producer's own reference is left
+            assertThat(written.getRefCount()).isEqualTo(1);
+            assertThat(dropped.getRefCount()).isEqualTo(1);
+            assertThat(pending.getRefCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should reject empty mailbox capacity")
+        void shouldRejectEmptyMailboxCapacity() {
+            assertThatThrownBy(() -> new ClientConnection("client-1", new ByteArrayOutputStream(), 0, bytes -> {}))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Test suite for DashSegmentStore.
+ * Covers the segment and byte limits and the MPD it writes.
+ */
+class DashSegmentStoreTest {
+
+    private DashSegmentStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new DashSegmentStore(3, 1000, 2.0, 0);
+        store.addRepresentation("720p", 1280, 720, 2_000_000);
+        store.addRepresentation("360p", 640, 360, 500_000);
+        store.setInitSegment("720p", new byte[10], "avc1.42c01f");
+        store.setInitSegment("360p", new byte[10], "avc1.42c01e");
+    }
+
+    private long addSegment(long start, int highBytes, int lowBytes) {
+        return store.addSegment(start, 180_000, Map.of("720p", new byte[highBytes], "360p", new byte[lowBytes]));
+    }
+
+    private static Document parse(String manifest) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(manifest.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Nested
+    @DisplayName("Limit Tests")
+    class LimitTests {
+
+        @Test
+        @DisplayName("Should keep only the newest segments of every representation")
+        void shouldSlideWindow() {
+            // When
+            for (int i = 0; i < 5; i++) {
+                addSegment(i * 180_000L, 100 + i, 10);
+            }
+
+            // Then
+            assertThat(store.getSegmentCount()).isEqualTo(3);
+            assertThat(store.getSegment("720p", 2)).isNull();
+            assertThat(store.getSegment("720p", 3)).hasSize(102);
+            assertThat(store.getSegment("360p", 5)).hasSize(10);
+            assertThat(store.getSegment("1080p", 5)).isNull();
+            assertThat(store.getBytesStored()).isEqualTo(102 + 103 + 104 + 30);
+        }
+
+        @Test
+        @DisplayName("Should drop the oldest segments once the byte limit is passed, keeping the newest")
+        void shouldBoundBytes() {
+            // When
+            addSegment(0, 300, 100);
+            addSegment(180_000, 300, 100);
+            addSegment(360_000, 300, 100);
+            long bytesAfterThree = store.getBytesStored();
+            addSegment(540_000, 1500, 100);
+
+            // Then
+            assertThat(bytesAfterThree).isEqualTo(800);
+            assertThat(store.getSegmentCount()).isEqualTo(1);
+            assertThat(store.getSegment("720p", 4)).hasSize(1500);
+            assertThat(store.getStats()).containsEntry("segmentsEvictedForBytes", 3L);
+        }
+
+        @Test
+        @DisplayName("Should refuse segments of representations without an init segment")
+        void shouldRejectUnknownRepresentation() {
+            store.addRepresentation("1080p", 1920, 1080, 4_000_000);
+            assertThatThrownBy(() -> store.addSegment(0, 1, Map.of("1080p", new byte[1])))
+                .isInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> store.addRepresentation("720p", 1, 1, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Manifest Tests")
+    class ManifestTests {
+
+        @Test
+        @DisplayName("Should write a dynamic MPD with a shared timeline and one representation per rendition")
+        void shouldWriteManifest() throws Exception {
+            // Given
+            for (int i = 0; i < 4; i++) {
+                addSegment(i * 180_000L, 100, 25);
+            }
+
+            // When
+            String manifest = store.manifest(30, "?w=1280&q=80");
+
+            // Then
+            Element mpd = parse(manifest).getDocumentElement();
+            assertThat(mpd.getAttribute("type")).isEqualTo("dynamic");
+            assertThat(mpd.getAttribute("availabilityStartTime")).isEqualTo("1970-01-01T00:00:00Z");
+            assertThat(mpd.getAttribute("timeShiftBufferDepth")).isEqualTo("PT6.000S");
+            Element template = (Element) mpd.getElementsByTagName("SegmentTemplate").item(0);
+            assertThat(template.getAttribute("media")).isEqualTo("$RepresentationID$/$Number$.m4s?w=1280&q=80");
+            assertThat(template.getAttribute("initialization")).isEqualTo("$RepresentationID$/init.mp4?w=1280&q=80");
+            assertThat(template.getAttribute("startNumber")).isEqualTo("2");
+            NodeList timeline = mpd.getElementsByTagName("S");
+            assertThat(timeline.getLength()).isEqualTo(3);
+            assertThat(((Element) timeline.item(0)).getAttribute("t")).isEqualTo("180000");
+            assertThat(((Element) timeline.item(0)).getAttribute("d")).isEqualTo("180000");
+            NodeList representations = mpd.getElementsByTagName("Representation");
+            assertThat(representations.getLength()).isEqualTo(2);
+            Element high = (Element) representations.item(0);
+            assertThat(high.getAttribute("id")).isEqualTo("720p");
+            assertThat(high.getAttribute("codecs")).isEqualTo("avc1.42c01f");
+            assertThat(high.getAttribute("width")).isEqualTo("1280");
+            // Peak of 100 bytes per 2 s segment
+            assertThat(high.getAttribute("bandwidth")).isEqualTo("400");
+        }
+
+        @Test
+        @DisplayName("Should announce the encoder target before segments exist and omit renditions without init")
+        void shouldWriteNominalBandwidth() throws Exception {
+            // Given
+            store.addRepresentation("1080p", 1920, 1080, 4_000_000);
+            store.setInitSegment("1080p", new byte[10], "avc1.640028");
+            store.addRepresentation("2160p", 3840, 2160, 16_000_000);
+            DashSegmentStore empty = new DashSegmentStore(3, 1000, 2.0, 0);
+
+            // When
+            addSegment(0, 100, 25);
+
+            // Then
+            assertThat(empty.manifest(30, "")).isNull();
+            NodeList representations = parse(store.manifest(30, "")).getElementsByTagName("Representation");
+            assertThat(representations.getLength()).isEqualTo(3);
+            Element full = (Element) representations.item(2);
+            assertThat(full.getAttribute("id")).isEqualTo("1080p");
+            assertThat(full.getAttribute("bandwidth")).isEqualTo("4000000");
+        }
+    }
+}
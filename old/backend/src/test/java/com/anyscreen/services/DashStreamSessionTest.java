@@ -0,0 +1,348 @@
+package com.anyscreen.services;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.EncodedVideoFrame;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.server.routing.Router;
+import com.anyscreen.utils.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for DashStreamSession and the /dash endpoint.
+ * Checks the ladder, that every rendition's segments play back with FFmpeg and line up, serves
+ * them over HTTP and benchmarks the cost of the ladder.
+ */
+class DashStreamSessionTest {
+
+    @BeforeAll
+    static void requireEncoder() {
+        assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+    }
+
+    private static StreamingConfig createConfig(int width, int height, long segmentMillis) {
+        return new StreamingConfig.Builder()
+            .protocol(StreamingProtocol.DASH)
+            .resolution(width, height)
+            .frameRate(30)
+            .quality(70)
+            .addParam(DashStreamSession.PARAM_SEGMENT_MILLIS, segmentMillis)
+            .build();
+    }
+
+    /**
+     * Publishes captures of the synthetic screen at up to 30 fps for the given time.
+     */
+    private static void publishFor(DashStreamSession session, SyntheticScreenCapture capture, long millis) throws Exception {
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            session.publish(capture.captureScreen(0, null));
+            TestUtils.waitMillis(33);
+        }
+    }
+
+    /**
+     * @return the number of frames FFmpeg decodes from the init segment followed by the segment
+     */
+    private static int decode(byte[] init, byte[] segment, int expectedWidth, int expectedHeight) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(init);
+        stream.write(segment);
+        int frames = 0;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(stream.toByteArray()))) {
+            grabber.setFormat("mp4");
+            grabber.start();
+            assertThat(grabber.getImageWidth()).isEqualTo(expectedWidth);
+            assertThat(grabber.getImageHeight()).isEqualTo(expectedHeight);
+            while (grabber.grabImage() != null) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    @Nested
+    @DisplayName("Ladder Tests")
+    class LadderTests {
+
+        @Test
+        @DisplayName("Should add the standard heights below the configured size")
+        void shouldBuildLadder() {
+            assertThat(new DashStreamSession(0, createConfig(2560, 1440, 2000)).getRenditionIds())
+                .containsExactly("1440p", "1080p", "720p", "360p");
+            assertThat(new DashStreamSession(0, createConfig(1920, 1080, 2000)).getRenditionIds())
+                .containsExactly("1080p", "720p", "360p");
+            assertThat(new DashStreamSession(0, createConfig(640, 360, 2000)).getRenditionIds())
+                .containsExactly("360p");
+        }
+
+        @Test
+        @DisplayName("Should cut aligned segments that play back in every rendition")
+        void shouldCutAlignedSegments() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1280, 720, 1, MotionPattern.SCROLLING_TEXT);
+            DashStreamSession session = new DashStreamSession(0, createConfig(1280, 720, 500));
+
+            // When
+            publishFor(session, capture, 2000);
+
+            // Then
+            DashSegmentStore store = session.getStore();
+            assertThat(store.getSegmentCount()).isGreaterThanOrEqualTo(2);
+            int highFrames = decode(store.getInitSegment("720p"), store.getSegment("720p", 2), 1280, 720);
+            int lowFrames = decode(store.getInitSegment("360p"), store.getSegment("360p", 2), 640, 360);
+            assertThat(highFrames).isPositive().isEqualTo(lowFrames);
+            assertThat(store.manifest(30, "")).contains("id=\"720p\"").contains("id=\"360p\"")
+                .contains("width=\"640\" height=\"360\"");
+        }
+
+        @Test
+        @DisplayName("Should rescale the changes of throttled frames in the lower renditions")
+        void shouldRescaleThrottledChanges() throws Exception {
+            // Given: encoders that keep the last picture of their rendition
+            Map<Integer, BufferedImage> pictures = new ConcurrentHashMap<>();
+            DashStreamSession session = new DashStreamSession(0, createConfig(1280, 720, 2000)) {
+                @Override
+                protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+                    return new PictureKeeper(pictures);
+                }
+            };
+            BufferedImage black = new BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB);
+            BufferedImage red = fill(black, 128, 128, Color.RED);
+            BufferedImage redAndBlue = fill(red, 960, 512, Color.BLUE);
+
+            // When: the red tile only changes in a frame the throttle drops
+            assertThat(session.publish(black, DirtyTileMap.allDirty(1280, 720, 64))).isTrue();
+            assertThat(session.publish(red, tileAt(128, 128))).isFalse();
+            TestUtils.waitMillis(100);
+            assertThat(session.publish(redAndBlue, tileAt(960, 512))).isTrue();
+
+            // Then
+            BufferedImage low = pictures.get(640);
+            assertThat(new Color(low.getRGB(80, 80))).isEqualTo(Color.RED);
+            assertThat(new Color(low.getRGB(496, 272))).isEqualTo(Color.BLUE);
+            assertThat(new Color(low.getRGB(300, 100))).isEqualTo(Color.BLACK);
+        }
+    }
+
+    private static BufferedImage fill(BufferedImage source, int x, int y, Color color) {
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = copy.createGraphics();
+        graphics.drawImage(source, 0, 0, null);
+        graphics.setColor(color);
+        graphics.fillRect(x, y, 64, 64);
+        graphics.dispose();
+        return copy;
+    }
+
+    /**
+     * @return the changes of a 1280x720 frame in which only the 64 pixel tile at x, y changed
+     */
+    private static DirtyTileMap tileAt(int x, int y) {
+        BitSet dirty = new BitSet();
+        dirty.set((y / 64) * 20 + x / 64);
+        return new DirtyTileMap(1280, 720, 64, dirty);
+    }
+
+    /**
+     * Encoder stand-in that keeps the last picture it was given, by width, and encodes nothing.
+     */
+    private static final class PictureKeeper implements VideoEncoderInterface {
+        private final Map<Integer, BufferedImage> pictures;
+        private int width;
+        private int height;
+
+        PictureKeeper(Map<Integer, BufferedImage> pictures) {
+            this.pictures = pictures;
+        }
+
+        @Override
+        public String getName() {
+            return "picture-keeper";
+        }
+
+        @Override
+        public EncodedVideoFrame encode(BufferedImage image, long timestamp, boolean keyframe) {
+            width = image.getWidth();
+            height = image.getHeight();
+            pictures.put(width, image);
+            return null;
+        }
+
+        @Override
+        public byte[] getSequenceParameterSet() {
+            return null;
+        }
+
+        @Override
+        public byte[] getPictureParameterSet() {
+            return null;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    @Nested
+    @DisplayName("HTTP Tests")
+    class HttpTests {
+
+        private HttpServer server;
+        private ExecutorService executor;
+        private StreamingService streamingService;
+
+        private int startServer() throws Exception {
+            ScreenCaptureService captureService = new ScreenCaptureService(
+                new SyntheticScreenCapture(640, 480, 1, MotionPattern.SCROLLING_TEXT),
+                Mockito.mock(ScreenCaptureSaverInterface.class));
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            streamingService = new StreamingService(captureService);
+            new Router(server, captureService, streamingService).configureRoutes();
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+            server.start();
+            return server.getAddress().getPort();
+        }
+
+        @AfterEach
+        void tearDown() throws Exception {
+            if (server != null) {
+                server.stop(0);
+                streamingService.stopStreaming();
+                executor.shutdownNow();
+            }
+        }
+
+        private HttpURLConnection open(int port, String path) throws Exception {
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + path).toURL().openConnection();
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            return connection;
+        }
+
+        private byte[] get(int port, String path, String expectedType) throws Exception {
+            HttpURLConnection connection = open(port, path);
+            try {
+                assertThat(connection.getResponseCode()).isEqualTo(200);
+                assertThat(connection.getContentType()).isEqualTo(expectedType);
+                try (InputStream in = connection.getInputStream()) {
+                    return in.readAllBytes();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        @Test
+        @DisplayName("Should serve the MPD and the segments of every rendition it lists")
+        void shouldServeManifestAndSegments() throws Exception {
+            // Given
+            int port = startServer();
+
+            // When
+            String manifest = new String(get(port, "/dash/0/manifest.mpd", "application/dash+xml"),
+                                         StandardCharsets.UTF_8);
+
+            // Then
+            assertThat(manifest).contains("<Representation id=\"480p\"").contains("<Representation id=\"360p\"");
+            String startNumber = manifest.substring(manifest.indexOf("startNumber=\"") + 13);
+            startNumber = startNumber.substring(0, startNumber.indexOf('"'));
+            for (String id : new String[] {"480p", "360p"}) {
+                byte[] init = get(port, "/dash/0/" + id + "/init.mp4", "video/mp4");
+                byte[] segment = get(port, "/dash/0/" + id + "/" + startNumber + ".m4s", "video/mp4");
+                assertThat(decode(init, segment, id.equals("480p") ? 640 : 480, id.equals("480p") ? 480 : 360))
+                    .isPositive();
+            }
+            assertThat(open(port, "/dash/0/720p/init.mp4").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/dash/0/480p/999.m4s").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/dash/0/other.mpd").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/dash/x/manifest.mpd").getResponseCode()).isEqualTo(400);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        @Test
+        @DisplayName("Should report the cost and bitrate of each rendition of a 1080p ladder")
+        void shouldBenchmarkLadder() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1920, 1080, 1, MotionPattern.SCROLLING_TEXT);
+            DashStreamSession session = new DashStreamSession(0, createConfig(1920, 1080, 1000));
+            session.publish(capture.captureScreen(0, null));
+
+            // When
+            int frames = 0;
+            long encodeNanos = 0;
+            long end = System.currentTimeMillis() + 4000;
+            while (System.currentTimeMillis() < end) {
+                BufferedImage frame = capture.captureScreen(0, null);
+                TestUtils.waitMillis(33);
+                long start = System.nanoTime();
+                if (session.publish(frame)) {
+                    encodeNanos += System.nanoTime() - start;
+                    frames++;
+                }
+            }
+
+            // Then
+            DashSegmentStore store = session.getStore();
+            assertThat(store.getSegmentCount()).isGreaterThanOrEqualTo(2);
+            StringBuilder bitrates = new StringBuilder();
+            for (String id : session.getRenditionIds()) {
+                String manifest = store.manifest(30, "");
+                String representation = manifest.substring(manifest.indexOf("id=\"" + id + "\""));
+                String bandwidth = representation.substring(representation.indexOf("bandwidth=\"") + 11);
+                bitrates.append(' ').append(id).append('=')
+                    .append(Long.parseLong(bandwidth.substring(0, bandwidth.indexOf('"'))) / 1000).append("kbit/s");
+            }
+            LoggerService.info(String.format("DASH ladder benchmark 1920x1080: %d frames, %.1f ms per frame for %d renditions, peak%s",
+                                             frames, encodeNanos / 1e6 / frames, session.getRenditionIds().size(),
+                                             bitrates));
+        }
+    }
+}
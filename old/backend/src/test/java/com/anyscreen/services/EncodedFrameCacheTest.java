@@ -0,0 +1,200 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Test suite for EncodedFrameCache.
+ * Covers hits, LRU eviction under the byte cap, packet references, reuse by a session and a
+ * benchmark of switching between windows.
+ */
+class EncodedFrameCacheTest {
+
+    private static final EncodingProfile PROFILE = new EncodingProfile(StreamingProtocol.MJPEG, 64, 48, 30, 80);
+    private static final EncodingProfile OTHER_PROFILE = new EncodingProfile(StreamingProtocol.MJPEG, 64, 48, 30, 50);
+
+    private static FramePacket packet(int length) {
+        byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) i;
+        }
+        return new FramePacket(buffer, 0, length, length, recycled -> {});
+    }
+
+    private static byte[] bytes(FramePacket packet) {
+        ByteBuffer view = packet.asByteBuffer();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+
+    @Nested
+    @DisplayName("Cache Tests")
+    class CacheTests {
+
+        @Test
+        @DisplayName("Should return a copy of the cached packet for the same frame and profile only")
+        void shouldHitOnSameFrameAndProfileOnly() {
+            // Given
+            EncodedFrameCache cache = new EncodedFrameCache(1024);
+            FramePacket packet = packet(100);
+            cache.put(42L, PROFILE, packet);
+            packet.release();
+
+            // When
+            FramePacket hit = cache.get(42L, PROFILE);
+            FramePacket otherFrame = cache.get(43L, PROFILE);
+            FramePacket otherProfile = cache.get(42L, OTHER_PROFILE);
+
+            // Then
+            assertThat(hit).isNotNull();
+            assertThat(bytes(hit)).isEqualTo(bytes(packet(100)));
+            assertThat(hit.getRefCount()).isEqualTo(2);
+            assertThat(otherFrame).isNull();
+            assertThat(otherProfile).isNull();
+            assertThat(cache.getHits()).isEqualTo(1);
+            assertThat(cache.getMisses()).isEqualTo(2);
+            assertThat(cache.getHitRate()).isCloseTo(1 / 3.0, within(1e-9));
+            hit.release();
+        }
+
+        @Test
+        @DisplayName("Should evict the least recently used packets to stay under the byte cap")
+        void shouldEvictLeastRecentlyUsedPackets() {
+            // Given
+            EncodedFrameCache cache = new EncodedFrameCache(250);
+            cache.put(1L, PROFILE, packet(100));
+            cache.put(2L, PROFILE, packet(100));
+            FramePacket first = cache.get(1L, PROFILE);
+
+            // When - the third packet pushes out the least recently used, frame 2
+            cache.put(3L, PROFILE, packet(100));
+
+            // Then
+            assertThat(cache.getEntryCount()).isEqualTo(2);
+            assertThat(cache.getBytes()).isEqualTo(200);
+            assertThat(cache.getEvictions()).isEqualTo(1);
+            assertThat(cache.get(2L, PROFILE)).isNull();
+            assertThat(cache.get(3L, PROFILE)).isNotNull();
+            // A packet taken before its eviction stays usable until released
+            cache.clear();
+            assertThat(first.getRefCount()).isEqualTo(1);
+            assertThat(cache.getBytes()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should skip packets larger than the cache and cache nothing when disabled")
+        void shouldSkipOversizedPacketsAndDisabledCache() {
+            // Given
+            EncodedFrameCache small = new EncodedFrameCache(50);
+            EncodedFrameCache disabled = new EncodedFrameCache(0);
+
+            // When
+            small.put(1L, PROFILE, packet(100));
+            disabled.put(1L, PROFILE, packet(10));
+
+            // Then
+            assertThat(small.getEntryCount()).isZero();
+            assertThat(disabled.getEntryCount()).isZero();
+            assertThat(disabled.get(1L, PROFILE)).isNull();
+            assertThat(disabled.isEnabled()).isFalse();
+            assertThat(disabled.getStats()).containsEntry("hits", 0L).containsEntry("misses", 0L);
+        }
+    }
+
+    @Nested
+    @DisplayName("Session Tests")
+    class SessionTests {
+
+        @Test
+        @DisplayName("Should send a returning screen state from the cache with the same bytes")
+        void shouldSendReturningScreenStateFromCache() throws Exception {
+            // Given - switching back and forth between two windows
+            StreamingConfig config = new StreamingConfig.Builder().resolution(64, 48).frameRate(1000).build();
+            StreamSession session = new StreamSession(0, config);
+            EncodedFrameCache cache = new EncodedFrameCache(1024 * 1024);
+            session.setFrameCache(cache);
+            BufferedImage editor = TestUtils.createMockImage(64, 48, Color.BLUE);
+            BufferedImage browser = TestUtils.createMockImage(64, 48, Color.RED);
+            FramePacketPool pool = new FramePacketPool();
+            FramePacket encoded = StreamingService.createFramePacket(
+                editor, new JpegFrameEncoder(80, JpegFrameEncoder.ChromaSubsampling.YUV420, false), pool);
+
+            // When
+            // Sleeps keep consecutive frames outside the session's 1 ms throttle interval
+            session.publish(editor);
+            Thread.sleep(2);
+            session.publish(browser);
+            Thread.sleep(2);
+            session.publish(editor);
+            Thread.sleep(2);
+            session.publish(browser);
+
+            // Then
+            assertThat(session.getFrameCount()).isEqualTo(4);
+            assertThat(session.getCachedFrames()).isEqualTo(2);
+            assertThat(cache.getEntryCount()).isEqualTo(2);
+            assertThat(cache.getHits()).isEqualTo(2);
+            assertThat(session.getStats()).containsEntry("cachedFrames", 2L);
+            FramePacket cached = cache.get(FrameFingerprint.of(editor), session.getProfile());
+            assertThat(bytes(cached)).isEqualTo(bytes(encoded));
+            cached.release();
+            encoded.release();
+        }
+    }
+
+    @Test
+    @DisplayName("Benchmark: switching between three 1080p windows with and without the cache")
+    void benchmarkSwitchingBetweenWindows() throws Exception {
+        // Given - three distinct screen states, revisited in turn
+        BufferedImage[] windows = new BufferedImage[3];
+        MotionPattern[] patterns = {MotionPattern.SCROLLING_TEXT, MotionPattern.TYPING, MotionPattern.NOISE};
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new SyntheticScreenCapture(1920, 1080, 1, patterns[i]).captureScreen(0, null);
+        }
+        StreamingConfig config = new StreamingConfig.Builder().resolution(1920, 1080).frameRate(1000).build();
+        int frames = 12;
+        long[] nanos = new long[2];
+        EncodedFrameCache cache = new EncodedFrameCache(EncodedFrameCache.DEFAULT_MAX_BYTES);
+
+        // When
+        for (int run = 0; run < 2; run++) {
+            StreamSession session = new StreamSession(0, config);
+            session.setFrameCache(run == 0 ? new EncodedFrameCache(0) : cache);
+            session.addClient("viewer", new ByteArrayOutputStream());
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                session.publish(windows[i % windows.length]);
+                Thread.sleep(1);
+            }
+            nanos[run] = System.nanoTime() - start - frames * 1_000_000L;
+            session.close();
+        }
+
+        LoggerService.info(String.format(
+            "Frame cache benchmark 1920x1080, %d frames over %d windows: uncached %.1fms/frame, " +
+            "cached %.1fms/frame, hit rate %.0f%%, %d KB cached",
+            frames, windows.length, nanos[0] / 1e6 / frames, nanos[1] / 1e6 / frames,
+            cache.getHitRate() * 100, cache.getBytes() / 1024));
+
+        // Then - only the first visit of each window is encoded
+        assertThat(cache.getHits()).isEqualTo(frames - windows.length);
+        assertThat(nanos[1]).isLessThan(nanos[0]);
+    }
+}
@@ -0,0 +1,175 @@
+package com.anyscreen.services;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.models.EncodedVideoFrame;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test suite for Fmp4Muxer.
+ * Checks the box layout of init segments and fragments, and that FFmpeg plays them back.
+ */
+class Fmp4MuxerTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, 0x01};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private static EncodedVideoFrame frame(long timestamp, boolean keyframe, int size) {
+        byte[] nalUnit = new byte[size];
+        nalUnit[0] = (byte) (keyframe ? 0x65 : 0x41);
+        return new EncodedVideoFrame(List.of(nalUnit), timestamp, keyframe);
+    }
+
+    /**
+     * @return the types of the boxes at the top level of the data
+     */
+    private static List<String> boxTypes(byte[] data) {
+        List<String> types = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int size = buffer.getInt();
+            types.add(new String(data, start + 4, 4, StandardCharsets.US_ASCII));
+            buffer.position(start + size);
+        }
+        assertThat(buffer.remaining()).isZero();
+        return types;
+    }
+
+    /**
+     * @return offset of the first box of the type anywhere in the data, or -1
+     */
+    private static int find(byte[] data, String type) {
+        byte[] pattern = type.getBytes(StandardCharsets.US_ASCII);
+        outer:
+        for (int i = 4; i + 4 <= data.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i - 4;
+        }
+        return -1;
+    }
+
+    @Nested
+    @DisplayName("Layout Tests")
+    class LayoutTests {
+
+        @Test
+        @DisplayName("Should write ftyp and moov with the parameter sets in avcC")
+        void shouldWriteInitSegment() {
+            // When
+            byte[] init = Fmp4Muxer.initSegment(640, 360, SPS, PPS);
+
+            // Then
+            assertThat(boxTypes(init)).containsExactly("ftyp", "moov");
+            int avcC = find(init, "avcC");
+            assertThat(avcC).isPositive();
+            ByteBuffer config = ByteBuffer.wrap(init, avcC + 8, 11 + SPS.length + PPS.length);
+            assertThat(config.get()).isEqualTo((byte) 1);
+            assertThat(config.get()).isEqualTo(SPS[1]);
+            config.position(config.position() + 3);
+            assertThat(config.get() & 0x1F).isEqualTo(1);
+            assertThat(config.getShort()).isEqualTo((short) SPS.length);
+            config.position(config.position() + SPS.length);
+            assertThat(config.get()).isEqualTo((byte) 1);
+            assertThat(config.getShort()).isEqualTo((short) PPS.length);
+            assertThat(find(init, "trex")).isPositive();
+        }
+
+        @Test
+        @DisplayName("Should point the trun data offset at the first length-prefixed sample in mdat")
+        void shouldWriteFragment() {
+            // Given
+            List<Fmp4Muxer.Sample> samples = List.of(new Fmp4Muxer.Sample(frame(9000, true, 100), 3000),
+                                                     new Fmp4Muxer.Sample(frame(12000, false, 20), 3000));
+
+            // When
+            byte[] fragment = Fmp4Muxer.fragment(7, samples);
+
+            // Then
+            assertThat(boxTypes(fragment)).containsExactly("moof", "mdat");
+            ByteBuffer buffer = ByteBuffer.wrap(fragment);
+            assertThat(buffer.getInt(find(fragment, "mfhd") + 12)).isEqualTo(7);
+            assertThat(buffer.getLong(find(fragment, "tfdt") + 12)).isEqualTo(9000);
+            int trun = find(fragment, "trun");
+            assertThat(buffer.getInt(trun + 12)).isEqualTo(2);
+            int dataOffset = buffer.getInt(trun + 16);
+            assertThat(buffer.getInt(dataOffset)).isEqualTo(100);
+            assertThat(fragment[dataOffset + 4]).isEqualTo((byte) 0x65);
+            assertThat(buffer.getInt(trun + 24)).isEqualTo(104);
+            assertThat(buffer.getInt(trun + 36)).isEqualTo(24);
+            assertThat(fragment.length).isEqualTo(dataOffset + 104 + 24);
+        }
+
+        @Test
+        @DisplayName("Should reject a fragment without samples")
+        void shouldRejectEmptyFragment() {
+            assertThatThrownBy(() -> Fmp4Muxer.fragment(1, List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Playback Tests")
+    class PlaybackTests {
+
+        @Test
+        @DisplayName("Should decode every frame of an encoded init segment and fragment with FFmpeg")
+        void shouldDecodeWithFfmpeg() throws Exception {
+            // Given
+            assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT);
+            FfmpegH264Encoder encoder = new FfmpegH264Encoder(70, 30);
+            List<Fmp4Muxer.Sample> samples = new ArrayList<>();
+            try {
+                for (int i = 0; i < 10; i++) {
+                    EncodedVideoFrame encoded = encoder.encode(capture.captureScreen(0, null), i * 3000L, i == 0);
+                    samples.add(new Fmp4Muxer.Sample(encoded, 3000));
+                }
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                stream.write(Fmp4Muxer.initSegment(encoder.getWidth(), encoder.getHeight(),
+                                                   encoder.getSequenceParameterSet(), encoder.getPictureParameterSet()));
+                stream.write(Fmp4Muxer.fragment(1, samples));
+
+                // When
+                int decoded = 0;
+                try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(stream.toByteArray()))) {
+                    grabber.setFormat("mp4");
+                    grabber.start();
+                    assertThat(grabber.getImageWidth()).isEqualTo(320);
+                    assertThat(grabber.getImageHeight()).isEqualTo(240);
+                    Frame decodedFrame;
+                    while ((decodedFrame = grabber.grabImage()) != null) {
+                        assertThat(decodedFrame.imageWidth).isEqualTo(320);
+                        decoded++;
+                    }
+                }
+
+                // Then
+                assertThat(samples.get(0).getFrame().isKeyframe()).isTrue();
+                assertThat(decoded).isEqualTo(10);
+            } finally {
+                encoder.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.models.CapturedFrame;
+import com.anyscreen.models.ScreenInfo;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test suite for FrameBufferPool and the capture-into-buffer path.
+ * Includes an allocation-rate benchmark of the steady-state capture loop.
+ */
+class FrameBufferPoolTest {
+
+    /**
+     * Backend that draws a counter into the frame; fills targets in place when it can.
+     */
+    private static class InPlaceCapture implements ScreenCaptureInterface {
+        private int width;
+        private int height;
+        private int frame;
+
+        InPlaceCapture(int width, int height) {
+            resize(width, height);
+        }
+
+        void resize(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public BufferedImage captureScreen(int screenIndex, BufferedImage target) {
+            if (target == null || target.getWidth() != width || target.getHeight() != height) {
+                target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            Arrays.fill(((DataBufferInt) target.getRaster().getDataBuffer()).getData(), frame++);
+            return target;
+        }
+
+        public BufferedImage captureScreen(int screenIndex) {
+            return captureScreen(screenIndex, null);
+        }
+
+        public BufferedImage captureScreen() {
+            return captureScreen(0);
+        }
+
+        public BufferedImage captureRegion(Rectangle region) {
+            return captureScreen(0);
+        }
+
+        public List<ScreenInfo> getAvailableScreens() {
+            return TestUtils.createMockMultiScreenInfo();
+        }
+
+        public Rectangle getPrimaryScreenBounds() {
+            return new Rectangle(width, height);
+        }
+
+        public boolean isSupported() {
+            return true;
+        }
+    }
+
+    /**
+     * Backend without capture-into-buffer support; relies on the interface default.
+     */
+    private static class AllocatingCapture extends InPlaceCapture {
+        AllocatingCapture(int width, int height) {
+            super(width, height);
+        }
+
+        @Override
+        public BufferedImage captureScreen(int screenIndex, BufferedImage target) {
+            return super.captureScreen(screenIndex, null);
+        }
+    }
+
+    @Nested
+    @DisplayName("Pooling Tests")
+    class PoolingTests {
+
+        @Test
+        @DisplayName("Should reuse the released buffer for the next capture")
+        void shouldReuseReleasedBufferForNextCapture() throws Exception {
+            // Given
+            ScreenCaptureService service = new ScreenCaptureService(new InPlaceCapture(64, 48), null);
+            FrameBufferPool pool = new FrameBufferPool();
+
+            // When
+            CapturedFrame first = service.captureScreen(0, pool);
+            BufferedImage firstImage = first.getImage();
+            first.release();
+            CapturedFrame second = service.captureScreen(0, pool);
+
+            // Then
+            assertThat(second.getImage()).isSameAs(firstImage);
+            assertThat(pool.getAllocatedCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should drop buffers of the wrong size")
+        void shouldDropBuffersOfWrongSize() throws Exception {
+            // Given
+            InPlaceCapture backend = new InPlaceCapture(64, 48);
+            ScreenCaptureService service = new ScreenCaptureService(backend, null);
+            FrameBufferPool pool = new FrameBufferPool();
+            service.captureScreen(0, pool).release();
+
+            // When
+            backend.resize(32, 24);
+            CapturedFrame resized = service.captureScreen(0, pool);
+
+            // Then
+            assertThat(resized.getImage().getWidth()).isEqualTo(32);
+            assertThat(pool.getAllocatedCount()).isEqualTo(2);
+            assertThat(pool.getPooledCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should fall back to a new image for backends without buffer support")
+        void shouldFallBackToNewImageForBackendsWithoutBufferSupport() throws Exception {
+            // Given
+            ScreenCaptureService service = new ScreenCaptureService(new AllocatingCapture(64, 48), null);
+            FrameBufferPool pool = new FrameBufferPool();
+
+            // When
+            for (int i = 0; i < 3; i++) {
+                service.captureScreen(0, pool).release();
+            }
+
+            // Then
+            assertThat(pool.getAllocatedCount()).isEqualTo(3);
+            assertThat(pool.getPooledCount()).isLessThanOrEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should reject double release and return missing frames empty")
+        void shouldRejectDoubleReleaseAndReturnMissingFramesEmpty() throws Exception {
+            // Given
+            ScreenCaptureService service = new ScreenCaptureService(new InPlaceCapture(64, 48), null);
+            ScreenCaptureService broken = new ScreenCaptureService(new AllocatingCapture(64, 48) {
+                @Override
+                public BufferedImage captureScreen(int screenIndex, BufferedImage target) {
+                    return null;
+                }
+            }, null);
+            FrameBufferPool pool = new FrameBufferPool();
+            CapturedFrame frame = service.captureScreen(0, pool);
+            frame.release();
+
+            // When
+            CapturedFrame missing = broken.captureScreen(0, pool);
+            missing.release();
+
+            // Then
+            assertThatThrownBy(frame::release).isInstanceOf(IllegalStateException.class);
+            assertThat(missing.getImage()).isNull();
+            assertThat(pool.getPooledCount()).isEqualTo(1);
+        }
+    }
+
+    @Nested
+    @DisplayName("Allocation Benchmark Tests")
+    class AllocationBenchmarkTests {
+
+        private static final int WIDTH = 3840;
+        private static final int HEIGHT = 2160;
+        private static final int FRAMES = 30;
+
+        @Test
+        @DisplayName("Should capture 4K frames without allocating in the steady state")
+        void shouldCapture4kFramesWithoutAllocatingInSteadyState() throws Exception {
+            // Given
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().threadId();
+            ScreenCaptureService service = new ScreenCaptureService(new InPlaceCapture(WIDTH, HEIGHT), null);
+            FrameBufferPool pool = new FrameBufferPool();
+            service.captureScreen(0, pool).release();
+            service.captureScreen(0);
+
+            // When
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < FRAMES; i++) {
+                service.captureScreen(0);
+            }
+            long perFrameLegacy = (threads.getThreadAllocatedBytes(threadId) - before) / FRAMES;
+
+            before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < FRAMES; i++) {
+                CapturedFrame frame = service.captureScreen(0, pool);
+                frame.release();
+            }
+            long perFramePooled = (threads.getThreadAllocatedBytes(threadId) - before) / FRAMES;
+
+            LoggerService.info(String.format(
+                "Capture allocation at 3840x2160@30fps: new image per frame %.1f MB/s, pooled buffers %.1f KB/s",
+                perFrameLegacy * 30 / 1e6, perFramePooled * 30 / 1e3));
+
+            // Then
+            assertThat(perFrameLegacy).isGreaterThanOrEqualTo((long) WIDTH * HEIGHT * 4);
+            assertThat(perFramePooled).isLessThan(1024);
+            assertThat(pool.getAllocatedCount()).isEqualTo(1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * Test suite for FrameFingerprint.
+ * Includes a hashing-speed benchmark on 1080p frames.
+ */
+class FrameFingerprintTest {
+
+    @Nested
+    @DisplayName("Fingerprint Tests")
+    class FingerprintTests {
+
+        @Test
+        @DisplayName("Should give identical frames the same fingerprint")
+        void shouldGiveIdenticalFramesSameFingerprint() {
+            // Given
+            BufferedImage first = TestUtils.createMockImage(100, 70, Color.BLUE);
+            BufferedImage second = TestUtils.createMockImage(100, 70, Color.BLUE);
+
+            // When / Then
+            assertThat(FrameFingerprint.of(first)).isEqualTo(FrameFingerprint.of(second));
+        }
+
+        @Test
+        @DisplayName("Should tell apart frames differing in one pixel, swapped pixels or size")
+        void shouldTellApartFramesDifferingInOnePixelSwappedPixelsOrSize() {
+            // Given
+            BufferedImage frame = TestUtils.createMockImage(100, 70, Color.BLUE);
+            long original = FrameFingerprint.of(frame);
+
+            // When
+            frame.setRGB(99, 69, Color.RED.getRGB());
+            long changed = FrameFingerprint.of(frame);
+            frame.setRGB(99, 69, Color.BLUE.getRGB());
+            frame.setRGB(0, 0, Color.RED.getRGB());
+            long moved = FrameFingerprint.of(frame);
+
+            // Then
+            assertThat(changed).isNotEqualTo(original);
+            assertThat(moved).isNotEqualTo(original).isNotEqualTo(changed);
+            assertThat(FrameFingerprint.of(TestUtils.createMockImage(70, 100, Color.BLUE))).isNotEqualTo(original);
+        }
+
+        @Test
+        @DisplayName("Should hash the same pixels alike in any layout and in sub-images")
+        void shouldHashSamePixelsAlikeInAnyLayoutAndInSubImages() {
+            // Given
+            BufferedImage packed = TestUtils.createMockImage(64, 48, Color.ORANGE);
+            packed.setRGB(10, 10, Color.BLACK.getRGB());
+            BufferedImage bgr = new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+            bgr.createGraphics().drawImage(packed, 0, 0, null);
+            BufferedImage larger = TestUtils.createMockImage(128, 96, Color.GREEN);
+            larger.createGraphics().drawImage(packed, 32, 16, null);
+
+            // When / Then
+            assertThat(FrameFingerprint.of(bgr)).isEqualTo(FrameFingerprint.of(packed));
+            assertThat(FrameFingerprint.of(larger.getSubimage(32, 16, 64, 48))).isEqualTo(FrameFingerprint.of(packed));
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        private static final int FRAMES = 60;
+
+        @Test
+        @DisplayName("Should fingerprint 1080p frames in a few milliseconds")
+        void shouldFingerprint1080pFramesInFewMilliseconds() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1920, 1080, 1, MotionPattern.TYPING);
+            BufferedImage frame = capture.captureScreen(0);
+            FrameFingerprint.of(frame);
+
+            // When
+            long elapsed = 0;
+            long previous = 0;
+            int distinct = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                capture.captureScreen(0, frame);
+                long start = System.nanoTime();
+                long fingerprint = FrameFingerprint.of(frame);
+                elapsed += System.nanoTime() - start;
+                distinct += fingerprint != previous ? 1 : 0;
+                previous = fingerprint;
+            }
+            double millisPerFrame = elapsed / 1e6 / FRAMES;
+            LoggerService.info(String.format("Frame fingerprint at 1920x1080: %.2f ms/frame", millisPerFrame));
+
+            // Then
+            assertThat(distinct).isEqualTo(FRAMES);
+            assertThat(millisPerFrame).isLessThan(20);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.models.FramePacket;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test suite for FramePacketPool and FramePacket.
+ * Covers packet layout, single-write output and buffer recycling.
+ */
+class FramePacketPoolTest {
+
+    @Nested
+    @DisplayName("Packet Layout Tests")
+    class PacketLayoutTests {
+
+        @Test
+        @DisplayName("Should place headers directly in front of the payload")
+        void shouldPlaceHeadersDirectlyInFrontOfPayload() throws Exception {
+            // Given
+            FramePacketPool pool = new FramePacketPool();
+            FramePacketPool.PacketBuffer buffer = pool.acquire();
+            buffer.write(new byte[] {1, 2, 3});
+
+            // When
+            FramePacket packet = buffer.toPacket("HDR".getBytes(StandardCharsets.US_ASCII));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            packet.writeTo(output);
+
+            // Then
+            assertThat(output.toByteArray()).containsExactly('H', 'D', 'R', 1, 2, 3);
+            assertThat(packet.getLength()).isEqualTo(6);
+            assertThat(packet.getPayloadLength()).isEqualTo(3);
+            assertThat(packet.asByteBuffer().remaining()).isEqualTo(6);
+        }
+
+        @Test
+        @DisplayName("Should build a complete MJPEG part from a frame")
+        void shouldBuildCompleteMjpegPartFromFrame() throws Exception {
+            // Given
+            FramePacketPool pool = new FramePacketPool();
+
+            // When
+            FramePacket packet = StreamingService.createFramePacket(
+                TestUtils.createMockImage(64, 48), new JpegFrameEncoder(80, JpegFrameEncoder.ChromaSubsampling.YUV420, false), pool);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            packet.writeTo(output);
+            String text = output.toString(StandardCharsets.ISO_8859_1);
+
+            // Then
+            assertThat(text).startsWith("\r\n--frame\r\nContent-Type: image/jpeg\r\n");
+            assertThat(text).contains("Content-Length: " + packet.getPayloadLength() + "\r\n\r\n");
+            assertThat(packet.getLength()).isEqualTo(output.size());
+        }
+
+        @Test
+        @DisplayName("Should grow buffer for large payloads")
+        void shouldGrowBufferForLargePayloads() {
+            // Given
+            FramePacketPool.PacketBuffer buffer = new FramePacketPool().acquire();
+
+            // When
+            buffer.write(new byte[200 * 1024], 0, 200 * 1024);
+            FramePacket packet = buffer.toPacket(new byte[10]);
+
+            // Then
+            assertThat(packet.getPayloadLength()).isEqualTo(200 * 1024);
+        }
+    }
+
+    @Nested
+    @DisplayName("Reference Counting Tests")
+    class ReferenceCountingTests {
+
+        @Test
+        @DisplayName("Should recycle buffer after the last release")
+        void shouldRecycleBufferAfterLastRelease() {
+            // Given
+            FramePacketPool pool = new FramePacketPool();
+            FramePacket packet = pool.acquire().toPacket(new byte[0]);
+            packet.retain();
+
+            // When
+            packet.release();
+
+            // Then
+            assertThat(pool.getPooledCount()).isZero();
+
+            // When
+            packet.release();
+
+            // Then
+            assertThat(pool.getPooledCount()).isEqualTo(1);
+            assertThatThrownBy(packet::retain).isInstanceOf(IllegalStateException.class);
+        }
+
+        @Test
+        @DisplayName("Should cap the number of pooled buffers")
+        void shouldCapNumberOfPooledBuffers() {
+            // Given
+            FramePacketPool pool = new FramePacketPool(2);
+
+            // When
+            for (int i = 0; i < 5; i++) {
+                pool.acquire().toPacket(new byte[0]).release();
+                pool.acquire();
+            }
+
+            // Then
+            assertThat(pool.getPooledCount()).isLessThanOrEqualTo(2);
+        }
+    }
+}
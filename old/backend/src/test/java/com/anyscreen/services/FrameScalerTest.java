@@ -0,0 +1,181 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Test suite for FrameScaler.
+ * Covers box filtering, partial updates and a benchmark of serving a small variant of a 4K screen.
+ */
+class FrameScalerTest {
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Nested
+    @DisplayName("Scaling Tests")
+    class ScalingTests {
+
+        @Test
+        @DisplayName("Should average the source pixels under every output pixel")
+        void shouldAverageSourcePixelsUnderEveryOutputPixel() {
+            // Given - a 4x2 frame whose left half is black and white columns, right half solid red
+            BufferedImage source = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+            source.setRGB(0, 0, 4, 2, new int[] {
+                0x000000, 0xFFFFFF, 0xFF0000, 0xFF0000,
+                0x000000, 0xFFFFFF, 0xFF0000, 0xFF0000}, 0, 4);
+
+            // When
+            BufferedImage scaled = new FrameScaler(2, 1).scale(source);
+
+            // Then
+            assertThat(scaled.getWidth()).isEqualTo(2);
+            assertThat(scaled.getHeight()).isEqualTo(1);
+            assertThat(scaled.getRGB(0, 0) & 0xFFFFFF).isEqualTo(0x808080);
+            assertThat(scaled.getRGB(1, 0) & 0xFFFFFF).isEqualTo(0xFF0000);
+        }
+
+        @Test
+        @DisplayName("Should pass through frames that are not larger than the output")
+        void shouldPassThroughFramesNotLargerThanOutput() {
+            // Given
+            BufferedImage source = TestUtils.createMockImage(64, 48);
+
+            // When / Then
+            assertThat(new FrameScaler(64, 48).scale(source)).isSameAs(source);
+            assertThat(new FrameScaler(128, 96).scale(source)).isSameAs(source);
+        }
+
+        @Test
+        @DisplayName("Should give the same result for packed and byte frames")
+        void shouldGiveSameResultForPackedAndByteFrames() throws Exception {
+            // Given
+            BufferedImage packed = new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT).captureScreen(0, null);
+            BufferedImage bgr = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+            bgr.createGraphics().drawImage(packed, 0, 0, null);
+
+            // When
+            int[] fromPacked = pixels(new FrameScaler(100, 75).scale(packed));
+            int[] fromBgr = pixels(new FrameScaler(100, 75).scale(bgr));
+
+            // Then
+            assertThat(fromBgr).isEqualTo(fromPacked);
+        }
+    }
+
+    @Nested
+    @DisplayName("Partial Update Tests")
+    class PartialUpdateTests {
+
+        @Test
+        @DisplayName("Should match a full rescale after updating only changed tiles")
+        void shouldMatchFullRescaleAfterUpdatingOnlyChangedTiles() throws Exception {
+            // Given
+            SyntheticScreenCapture screen = new SyntheticScreenCapture(1280, 720, 1, MotionPattern.TYPING);
+            TileChangeDetector detector = new TileChangeDetector();
+            FrameScaler incremental = new FrameScaler(427, 240);
+            BufferedImage frame = screen.captureScreen(0, null);
+            incremental.scale(frame, detector.detect(frame));
+
+            // When - the screen keeps changing in small places
+            BufferedImage scaled = null;
+            for (int i = 0; i < 10; i++) {
+                frame = screen.captureScreen(0, frame);
+                scaled = incremental.scale(frame, detector.detect(frame));
+            }
+
+            // Then
+            assertThat(pixels(scaled)).isEqualTo(pixels(new FrameScaler(427, 240).scale(frame)));
+        }
+
+        @Test
+        @DisplayName("Should carry changed tiles over to the scaled frame")
+        void shouldCarryChangedTilesOverToScaledFrame() {
+            // Given
+            TileChangeDetector detector = new TileChangeDetector(32);
+            detector.detect(TestUtils.createMockImage(640, 320, Color.BLUE));
+            BufferedImage changed = TestUtils.createMockImage(640, 320, Color.BLUE);
+            changed.setRGB(400, 200, 0xFFFFFF);
+
+            // When
+            DirtyTileMap scaled = detector.detect(changed).scaledTo(320, 160);
+
+            // Then - source tile (12, 6) covers (384, 192), which lands in scaled tile (6, 3)
+            assertThat(scaled.getFrameWidth()).isEqualTo(320);
+            assertThat(scaled.getDirtyCount()).isEqualTo(1);
+            assertThat(scaled.isDirty(6, 3)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Benchmark: serving a 960px variant of a 4K screen")
+    void benchmarkServingSmallVariantOf4kScreen() throws Exception {
+        // Given
+        SyntheticScreenCapture screen = new SyntheticScreenCapture(3840, 2160, 1, MotionPattern.TYPING);
+        TileChangeDetector detector = new TileChangeDetector();
+        FrameScaler scaler = new FrameScaler(960, 540);
+        JpegFrameEncoder encoder = new JpegFrameEncoder(80, JpegFrameEncoder.ChromaSubsampling.YUV420, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedImage frame = screen.captureScreen(0, null);
+        encoder.encode(scaler.scale(frame, detector.detect(frame)), out);
+        encoder.encode(frame, out);
+
+        // When
+        int frames = 10;
+        long fullScaleNanos = 0;
+        long partialScaleNanos = 0;
+        long smallEncodeNanos = 0;
+        long nativeEncodeNanos = 0;
+        long smallBytes = 0;
+        long nativeBytes = 0;
+        for (int i = 0; i < frames; i++) {
+            frame = screen.captureScreen(0, frame);
+            DirtyTileMap changes = detector.detect(frame);
+
+            long start = System.nanoTime();
+            new FrameScaler(960, 540).scale(frame);
+            fullScaleNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            BufferedImage small = scaler.scale(frame, changes);
+            partialScaleNanos += System.nanoTime() - start;
+
+            out.reset();
+            start = System.nanoTime();
+            encoder.encode(small, out);
+            smallEncodeNanos += System.nanoTime() - start;
+            smallBytes += out.size();
+
+            out.reset();
+            start = System.nanoTime();
+            encoder.encode(frame, out);
+            nativeEncodeNanos += System.nanoTime() - start;
+            nativeBytes += out.size();
+        }
+        encoder.dispose();
+
+        LoggerService.info(String.format(
+            "Variant benchmark: 3840x2160 typing to 960x540, per frame: full scale %.2fms, incremental scale %.2fms, " +
+            "960px encode %.2fms (%d KB), native encode %.2fms (%d KB)",
+            fullScaleNanos / 1e6 / frames, partialScaleNanos / 1e6 / frames,
+            smallEncodeNanos / 1e6 / frames, smallBytes / 1024 / frames,
+            nativeEncodeNanos / 1e6 / frames, nativeBytes / 1024 / frames));
+
+        // Then
+        assertThat(partialScaleNanos + smallEncodeNanos).isLessThan(nativeEncodeNanos);
+        assertThat(smallBytes).isLessThan(nativeBytes);
+    }
+}
@@ -0,0 +1,172 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for FrameScheduler.
+ * Covers deadline pacing, overrun policies and the pacing counters.
+ */
+class FrameSchedulerTest {
+
+    @Nested
+    @DisplayName("Pacing Tests")
+    class PacingTests {
+
+        @Test
+        @DisplayName("Should pace frames at the requested rate")
+        void shouldPaceFramesAtRequestedRate() throws InterruptedException {
+            // Given
+            FrameScheduler scheduler = new FrameScheduler();
+            FrameScheduler.FrameClock clock = scheduler.newClock(50);
+
+            // When
+            long start = System.nanoTime();
+            for (int i = 0; i < 11; i++) {
+                clock.awaitNextFrame();
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Then - 10 periods of 20ms after the immediate first frame
+            assertThat(elapsedMs).isBetween(190L, 400L);
+            assertThat(scheduler.getScheduledFrames()).isEqualTo(10);
+            assertThat(scheduler.getLateFrames()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should not burn CPU while waiting")
+        void shouldNotBurnCpuWhileWaiting() throws InterruptedException {
+            // Given
+            FrameScheduler.FrameClock clock = new FrameScheduler().newClock(10);
+            java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+
+            // When
+            long cpuBefore = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < 6; i++) {
+                clock.awaitNextFrame();
+            }
+            long cpuMs = TimeUnit.NANOSECONDS.toMillis(threads.getCurrentThreadCpuTime() - cpuBefore);
+
+            // Then - 500ms of waiting should cost a tiny fraction of that in CPU
+            assertThat(cpuMs).isLessThan(100L);
+        }
+
+        @Test
+        @DisplayName("Should throw when interrupted while waiting")
+        void shouldThrowWhenInterruptedWhileWaiting() throws InterruptedException {
+            // Given
+            FrameScheduler.FrameClock clock = new FrameScheduler().newClock(1);
+            clock.awaitNextFrame();
+
+            // When
+            Thread.currentThread().interrupt();
+
+            // Then
+            assertThatThrownBy(clock::awaitNextFrame).isInstanceOf(InterruptedException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Rate Change Tests")
+    class RateChangeTests {
+
+        @Test
+        @DisplayName("Should pull in the pending deadline when the rate goes up")
+        void shouldPullInDeadlineWhenRateGoesUp() throws InterruptedException {
+            // Given - a clock at 1 fps that just delivered a frame
+            FrameScheduler.FrameClock clock = new FrameScheduler().newClock(1);
+            clock.awaitNextFrame();
+
+            // When
+            clock.setFrameRate(50);
+            long start = System.nanoTime();
+            clock.awaitNextFrame();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Then - the next frame comes after one 20ms period, not one second
+            assertThat(elapsedMs).isLessThan(200L);
+        }
+
+        @Test
+        @DisplayName("Should end the wait early when woken up")
+        void shouldEndWaitEarlyWhenWokenUp() throws InterruptedException {
+            // Given
+            FrameScheduler.FrameClock clock = new FrameScheduler().newClock(1);
+            clock.awaitNextFrame();
+            Thread waker = new Thread(() -> {
+                TestUtils.waitMillis(50);
+                clock.wakeUp();
+            });
+
+            // When
+            long start = System.nanoTime();
+            waker.start();
+            clock.awaitNextFrame();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            waker.join();
+
+            // Then
+            assertThat(elapsedMs).isBetween(40L, 500L);
+        }
+    }
+
+    @Nested
+    @DisplayName("Overrun Tests")
+    class OverrunTests {
+
+        @Test
+        @DisplayName("Should count late and skipped frames with SKIP policy")
+        void shouldCountLateAndSkippedFramesWithSkipPolicy() throws InterruptedException {
+            // Given
+            FrameScheduler scheduler = new FrameScheduler(FrameScheduler.OverrunPolicy.SKIP);
+            FrameScheduler.FrameClock clock = scheduler.newClock(100);
+            clock.awaitNextFrame();
+
+            // When - a frame takes roughly five budgets
+            TestUtils.waitMillis(55);
+            clock.awaitNextFrame();
+
+            // Then
+            assertThat(scheduler.getLateFrames()).isEqualTo(1);
+            assertThat(scheduler.getSkippedFrames()).isGreaterThanOrEqualTo(3);
+        }
+
+        @Test
+        @DisplayName("Should catch up without skipping small overruns")
+        void shouldCatchUpWithoutSkippingSmallOverruns() throws InterruptedException {
+            // Given
+            FrameScheduler scheduler = new FrameScheduler(FrameScheduler.OverrunPolicy.CATCH_UP);
+            FrameScheduler.FrameClock clock = scheduler.newClock(20);
+            clock.awaitNextFrame();
+
+            // When - a frame overruns its 50ms budget by less than one period
+            TestUtils.waitMillis(70);
+            long start = System.nanoTime();
+            clock.awaitNextFrame();
+            clock.awaitNextFrame();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Then - the late frame runs immediately and the schedule is kept
+            assertThat(scheduler.getLateFrames()).isEqualTo(1);
+            assertThat(scheduler.getSkippedFrames()).isZero();
+            assertThat(elapsedMs).isLessThan(50L);
+        }
+
+        @Test
+        @DisplayName("Should reject non-positive frame rates")
+        void shouldRejectNonPositiveFrameRates() {
+            // Given
+            FrameScheduler scheduler = new FrameScheduler();
+
+            // Then
+            assertThatThrownBy(() -> scheduler.newClock(0)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
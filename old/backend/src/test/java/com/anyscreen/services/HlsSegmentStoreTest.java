@@ -0,0 +1,302 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Test suite for HlsSegmentStore.
+ * Covers the sliding window, the playlist text, discontinuities, partial segments and waiting
+ * for segments and parts.
+ */
+class HlsSegmentStoreTest {
+
+    private HlsSegmentStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new HlsSegmentStore(3, 2.0);
+    }
+
+    @Nested
+    @DisplayName("Window Tests")
+    class WindowTests {
+
+        @Test
+        @DisplayName("Should keep only the newest segments and their init segment")
+        void shouldSlideWindow() {
+            // Given
+            int firstInit = store.setInitSegment(new byte[10]);
+
+            // When
+            for (int i = 0; i < 5; i++) {
+                store.addSegment(new byte[100 + i], 2.0);
+            }
+
+            // Then
+            assertThat(store.getSegmentCount()).isEqualTo(3);
+            assertThat(store.getSegment(1)).isNull();
+            assertThat(store.getSegment(2).getData()).hasSize(102);
+            assertThat(store.getSegment(4).getData()).hasSize(104);
+            assertThat(store.getInitSegment(firstInit)).hasSize(10);
+            assertThat(store.getBytesStored()).isEqualTo(102 + 103 + 104);
+        }
+
+        @Test
+        @DisplayName("Should drop an init segment once no stored segment uses it")
+        void shouldDropUnusedInitSegment() {
+            // Given
+            int firstInit = store.setInitSegment(new byte[10]);
+            store.addSegment(new byte[1], 2.0);
+            int secondInit = store.setInitSegment(new byte[20]);
+
+            // When
+            for (int i = 0; i < 3; i++) {
+                store.addSegment(new byte[1], 2.0);
+            }
+
+            // Then
+            assertThat(store.getInitSegment(firstInit)).isNull();
+            assertThat(store.getInitSegment(secondInit)).hasSize(20);
+        }
+
+        @Test
+        @DisplayName("Should refuse segments before an init segment and windows under two segments")
+        void shouldRejectInvalidUse() {
+            assertThatThrownBy(() -> store.addSegment(new byte[1], 2.0)).isInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> new HlsSegmentStore(1, 2.0)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Playlist Tests")
+    class PlaylistTests {
+
+        @Test
+        @DisplayName("Should list the window with media sequence, map and durations")
+        void shouldWritePlaylist() {
+            // Given
+            store.setInitSegment(new byte[10]);
+            for (int i = 0; i < 4; i++) {
+                store.addSegment(new byte[1], i == 3 ? 2.5 : 2.0);
+            }
+
+            // When
+            String playlist = store.playlist("?w=640");
+
+            // Then
+            assertThat(playlist).isEqualTo(
+                "#EXTM3U\n"
+                + "#EXT-X-VERSION:7\n"
+                + "#EXT-X-TARGETDURATION:3\n"
+                + "#EXT-X-MEDIA-SEQUENCE:1\n"
+                + "#EXT-X-DISCONTINUITY-SEQUENCE:0\n"
+                + "#EXT-X-INDEPENDENT-SEGMENTS\n"
+                + "#EXT-X-MAP:URI=\"init-0.mp4?w=640\"\n"
+                + "#EXTINF:2.000,\n1.m4s?w=640\n"
+                + "#EXTINF:2.000,\n2.m4s?w=640\n"
+                + "#EXTINF:2.500,\n3.m4s?w=640\n");
+        }
+
+        @Test
+        @DisplayName("Should mark a new init segment as a discontinuity and count it once it slides out")
+        void shouldWriteDiscontinuity() {
+            // Given
+            store.setInitSegment(new byte[10]);
+            store.addSegment(new byte[1], 2.0);
+            store.addSegment(new byte[1], 2.0);
+            store.setInitSegment(new byte[10]);
+            store.addSegment(new byte[1], 2.0);
+
+            // When
+            String before = store.playlist("");
+            store.addSegment(new byte[1], 2.0);
+            store.addSegment(new byte[1], 2.0);
+            String after = store.playlist("");
+
+            // Then
+            assertThat(before).contains("0.m4s\n#EXTINF:2.000,\n1.m4s\n#EXT-X-DISCONTINUITY\n#EXT-X-MAP:URI=\"init-1.mp4\"\n")
+                .contains("#EXT-X-DISCONTINUITY-SEQUENCE:0\n");
+            assertThat(after).doesNotContain("#EXT-X-DISCONTINUITY\n").doesNotContain("init-0.mp4")
+                .contains("#EXT-X-DISCONTINUITY-SEQUENCE:1\n");
+        }
+
+        @Test
+        @DisplayName("Should have no playlist before the first segment")
+        void shouldHaveNoPlaylistWhenEmpty() {
+            store.setInitSegment(new byte[10]);
+            assertThat(store.playlist("")).isNull();
+        }
+    }
+
+    @Nested
+    @DisplayName("Wait Tests")
+    class WaitTests {
+
+        @Test
+        @DisplayName("Should wake a waiting request when a segment is added and time out otherwise")
+        void shouldAwaitSegments() throws Exception {
+            // Given
+            store.setInitSegment(new byte[10]);
+            CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return store.awaitSegments(1, 5000);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            });
+
+            // When
+            Thread.sleep(50);
+            store.addSegment(new byte[1], 2.0);
+
+            // Then
+            assertThat(waiting.get()).isTrue();
+            assertThat(store.awaitSegments(2, 20)).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Partial Segment Tests")
+    class PartialSegmentTests {
+
+        private HlsSegmentStore lowLatency;
+
+        @BeforeEach
+        void setUp() {
+            lowLatency = new HlsSegmentStore(3, 1.0, 0.2);
+            lowLatency.setInitSegment(new byte[10]);
+        }
+
+        @Test
+        @DisplayName("Should join the parts of a segment into the segment")
+        void shouldCompleteSegmentFromParts() {
+            // Given
+            lowLatency.addPart(new byte[] {1, 2}, 0.2, true);
+            lowLatency.addPart(new byte[] {3}, 0.15, false);
+
+            // When
+            long sequence = lowLatency.completeSegment();
+
+            // Then
+            HlsSegmentStore.Segment segment = lowLatency.getSegment(sequence);
+            assertThat(segment.getData()).containsExactly(1, 2, 3);
+            assertThat(segment.getDuration()).isCloseTo(0.35, within(1e-9));
+            assertThat(segment.getParts()).hasSize(2);
+            assertThat(lowLatency.getPart(sequence, 1).getData()).containsExactly(3);
+            assertThat(lowLatency.getBytesStored()).isEqualTo(6);
+            assertThatThrownBy(() -> store.addPart(new byte[1], 0.2, true)).isInstanceOf(IllegalStateException.class);
+        }
+
+        @Test
+        @DisplayName("Should list parts near the live edge with server control and a preload hint")
+        void shouldWriteLowLatencyPlaylist() {
+            // Given
+            lowLatency.addPart(new byte[1], 0.2, true);
+            lowLatency.completeSegment();
+            lowLatency.addPart(new byte[1], 0.2, true);
+            lowLatency.addPart(new byte[1], 0.2, false);
+
+            // When
+            String playlist = lowLatency.playlist("?w=640");
+
+            // Then
+            assertThat(playlist).isEqualTo(
+                "#EXTM3U\n"
+                + "#EXT-X-VERSION:7\n"
+                + "#EXT-X-TARGETDURATION:1\n"
+                + "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=0.600\n"
+                + "#EXT-X-PART-INF:PART-TARGET=0.200\n"
+                + "#EXT-X-MEDIA-SEQUENCE:0\n"
+                + "#EXT-X-DISCONTINUITY-SEQUENCE:0\n"
+                + "#EXT-X-INDEPENDENT-SEGMENTS\n"
+                + "#EXT-X-MAP:URI=\"init-0.mp4?w=640\"\n"
+                + "#EXT-X-PART:DURATION=0.200,URI=\"0.0.m4s?w=640\",INDEPENDENT=YES\n"
+                + "#EXTINF:0.200,\n0.m4s?w=640\n"
+                + "#EXT-X-PART:DURATION=0.200,URI=\"1.0.m4s?w=640\",INDEPENDENT=YES\n"
+                + "#EXT-X-PART:DURATION=0.200,URI=\"1.1.m4s?w=640\"\n"
+                + "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"1.2.m4s?w=640\"\n");
+        }
+
+        @Test
+        @DisplayName("Should raise the part target for a long part only while it is in the window")
+        void shouldAdvertisePartTargetOfWindow() {
+            // Given: a part twice the target, as a capture loop idling below two frames a part cuts
+            lowLatency.addPart(new byte[1], 0.4, true);
+            lowLatency.completeSegment();
+            String raised = lowLatency.playlist("");
+
+            // When: three more segments push it out of the window
+            for (int i = 0; i < 3; i++) {
+                lowLatency.addPart(new byte[1], 0.2, true);
+                lowLatency.completeSegment();
+            }
+
+            // Then
+            assertThat(raised).contains("PART-HOLD-BACK=1.200\n").contains("#EXT-X-PART-INF:PART-TARGET=0.400\n");
+            assertThat(lowLatency.playlist("")).contains("PART-HOLD-BACK=0.600\n")
+                .contains("#EXT-X-PART-INF:PART-TARGET=0.200\n");
+        }
+
+        @Test
+        @DisplayName("Should hold a blocking reload until the requested part or segment exists")
+        void shouldAwaitPlaylist() throws Exception {
+            // Given
+            lowLatency.addPart(new byte[1], 0.2, true);
+            CompletableFuture<Boolean> part = CompletableFuture.supplyAsync(() -> await(0, 1));
+            CompletableFuture<Boolean> segment = CompletableFuture.supplyAsync(() -> await(0, -1));
+
+            // When
+            Thread.sleep(50);
+            boolean heldPart = !part.isDone();
+            lowLatency.addPart(new byte[1], 0.2, false);
+            boolean partReleased = part.get();
+            boolean heldSegment = !segment.isDone();
+            lowLatency.completeSegment();
+
+            // Then
+            assertThat(heldPart).isTrue();
+            assertThat(partReleased).isTrue();
+            assertThat(heldSegment).isTrue();
+            assertThat(segment.get()).isTrue();
+            assertThat(lowLatency.awaitPlaylist(0, 5, 0)).isFalse();
+            lowLatency.addPart(new byte[1], 0.2, true);
+            assertThat(lowLatency.awaitPlaylist(0, 5, 0)).isTrue();
+            assertThat(lowLatency.awaitPlaylist(2, -1, 20)).isFalse();
+        }
+
+        @Test
+        @DisplayName("Should hold a request for the hinted part until it is added")
+        void shouldAwaitHintedPart() throws Exception {
+            // Given
+            CompletableFuture<HlsSegmentStore.Part> hinted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lowLatency.awaitPart(0, 0, 5000);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            });
+
+            // When
+            Thread.sleep(50);
+            lowLatency.addPart(new byte[] {7}, 0.2, true);
+
+            // Then
+            assertThat(hinted.get().getData()).containsExactly(7);
+            assertThat(lowLatency.awaitPart(5, 0, 5000)).isNull();
+        }
+
+        private boolean await(long sequence, int part) {
+            try {
+                return lowLatency.awaitPlaylist(sequence, part, 5000);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package com.anyscreen.services;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.interfaces.VideoEncoderInterface;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.server.routing.Router;
+import com.anyscreen.utils.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test suite for HlsStreamSession and the /hls endpoint.
+ * Cuts segments and partial segments from synthetic captures, plays them back with FFmpeg, serves
+ * them over HTTP and benchmarks the encoder and the capture-to-player latency.
+ */
+class HlsStreamSessionTest {
+
+    @BeforeAll
+    static void requireEncoder() {
+        assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+    }
+
+    private static StreamingConfig createConfig(int width, int height, long segmentMillis) {
+        return new StreamingConfig.Builder()
+            .protocol(StreamingProtocol.HLS)
+            .resolution(width, height)
+            .frameRate(30)
+            .quality(70)
+            .addParam(HlsStreamSession.PARAM_SEGMENT_MILLIS, segmentMillis)
+            .addParam(HlsStreamSession.PARAM_WINDOW_SEGMENTS, 4)
+            .build();
+    }
+
+    /**
+     * Publishes captures of the synthetic screen at about 30 fps for the given time.
+     */
+    private static void publishFor(HlsStreamSession session, SyntheticScreenCapture capture, long millis) throws Exception {
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            session.publish(capture.captureScreen(0, null));
+            TestUtils.waitMillis(33);
+        }
+    }
+
+    /**
+     * @return the number of frames FFmpeg decodes from the init segment followed by the segment
+     */
+    private static int decode(byte[] init, byte[] segment, int expectedWidth) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(init);
+        stream.write(segment);
+        int frames = 0;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(stream.toByteArray()))) {
+            grabber.setFormat("mp4");
+            grabber.start();
+            assertThat(grabber.getImageWidth()).isEqualTo(expectedWidth);
+            while (grabber.grabImage() != null) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    @Nested
+    @DisplayName("Segment Tests")
+    class SegmentTests {
+
+        @Test
+        @DisplayName("Should cut independently decodable segments of about the target duration")
+        void shouldCutPlayableSegments() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT);
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(320, 240, 300));
+
+            // When
+            publishFor(session, capture, 1500);
+
+            // Then
+            HlsSegmentStore store = session.getStore();
+            assertThat(store.getSegmentCount()).isGreaterThanOrEqualTo(3);
+            String playlist = store.playlist("");
+            assertThat(playlist).contains("#EXT-X-MAP:URI=\"init-0.mp4\"").doesNotContain("#EXT-X-DISCONTINUITY\n");
+            HlsSegmentStore.Segment segment = store.getSegment(1);
+            assertThat(segment.getDuration()).isBetween(0.25, 0.6);
+            assertThat(decode(store.getInitSegment(0), segment.getData(), 320)).isPositive();
+        }
+
+        @Test
+        @DisplayName("Should keep cutting segments while the screen is still")
+        void shouldCutSegmentsOfStillScreen() throws Exception {
+            // Given
+            BufferedImage still = TestUtils.createMockImage(160, 120);
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(160, 120, 300));
+
+            // When
+            long end = System.currentTimeMillis() + 1500;
+            while (System.currentTimeMillis() < end) {
+                session.publish(still);
+                TestUtils.waitMillis(33);
+            }
+
+            // Then
+            assertThat(session.getUnchangedFrames()).isPositive();
+            assertThat(session.getStore().getSegmentCount()).isGreaterThanOrEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should start a new init segment after a discontinuity when the picture size changes")
+        void shouldRestartOnSizeChange() throws Exception {
+            // Given
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(320, 240, 200));
+            publishFor(session, new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT), 600);
+
+            // When
+            publishFor(session, new SyntheticScreenCapture(160, 120, 1, MotionPattern.SCROLLING_TEXT), 600);
+
+            // Then
+            HlsSegmentStore store = session.getStore();
+            assertThat(store.playlist("")).contains("#EXT-X-DISCONTINUITY\n#EXT-X-MAP:URI=\"init-1.mp4\"");
+            assertThat(store.getInitSegment(1)).isNotNull();
+            long lastSequence = (long) store.getStats().get("lastSequence");
+            assertThat(store.getSegment(lastSequence).getInitId()).isEqualTo(1);
+            assertThat(decode(store.getInitSegment(1), store.getSegment(lastSequence).getData(), 160)).isPositive();
+        }
+
+        @Test
+        @DisplayName("Should publish parts within the part target, independent only at segment starts")
+        void shouldPublishPartialSegments() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT);
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(320, 240, 1000));
+
+            // When
+            publishFor(session, capture, 2500);
+
+            // Then
+            HlsSegmentStore store = session.getStore();
+            HlsSegmentStore.Segment segment = store.getSegment(1);
+            assertThat(segment.getParts()).hasSizeGreaterThanOrEqualTo(4);
+            double total = 0;
+            for (HlsSegmentStore.Part part : segment.getParts()) {
+                assertThat(part.getDuration()).isLessThanOrEqualTo(0.2 + 1e-6);
+                assertThat(part.isIndependent()).isEqualTo(part.getIndex() == 0);
+                total += part.getDuration();
+            }
+            assertThat(total).isCloseTo(segment.getDuration(), within(1e-6));
+            assertThat(store.playlist("")).contains("#EXT-X-PART:DURATION=").contains("#EXT-X-PRELOAD-HINT:TYPE=PART");
+        }
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("Should dispose its encoder when closed and drop later frames")
+        void shouldDisposeEncoderWhenClosed() throws Exception {
+            // Given
+            List<VideoEncoderInterface> encoders = new ArrayList<>();
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(160, 120, 300)) {
+                @Override
+                protected VideoEncoderInterface createEncoder(StreamingConfig config) {
+                    VideoEncoderInterface encoder = Mockito.spy(super.createEncoder(config));
+                    encoders.add(encoder);
+                    return encoder;
+                }
+            };
+            session.publish(TestUtils.createMockImage(160, 120));
+
+            // When
+            session.close();
+            boolean sent = session.publish(TestUtils.createMockImage(160, 120, Color.RED));
+
+            // Then
+            assertThat(encoders).hasSize(1);
+            Mockito.verify(encoders.get(0)).dispose();
+            assertThat(sent).isFalse();
+            assertThat(session.getStats()).doesNotContainKey("videoEncoder");
+        }
+    }
+
+    @Nested
+    @DisplayName("HTTP Tests")
+    class HttpTests {
+
+        private HttpServer server;
+        private ExecutorService executor;
+        private StreamingService streamingService;
+
+        private int startServer() throws Exception {
+            ScreenCaptureService captureService = new ScreenCaptureService(
+                new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT),
+                Mockito.mock(ScreenCaptureSaverInterface.class));
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            streamingService = new StreamingService(captureService);
+            new Router(server, captureService, streamingService).configureRoutes();
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+            server.start();
+            return server.getAddress().getPort();
+        }
+
+        @AfterEach
+        void tearDown() throws Exception {
+            if (server != null) {
+                server.stop(0);
+                streamingService.stopStreaming();
+                executor.shutdownNow();
+            }
+        }
+
+        private HttpURLConnection open(int port, String path) throws Exception {
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + path).toURL().openConnection();
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            return connection;
+        }
+
+        private byte[] get(int port, String path, String expectedType) throws Exception {
+            HttpURLConnection connection = open(port, path);
+            try {
+                assertThat(connection.getResponseCode()).isEqualTo(200);
+                assertThat(connection.getContentType()).isEqualTo(expectedType);
+                assertThat(connection.getHeaderField("Access-Control-Allow-Origin")).isEqualTo("*");
+                try (InputStream in = connection.getInputStream()) {
+                    return in.readAllBytes();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        @Test
+        @DisplayName("Should serve the playlist and the segments it lists from memory")
+        void shouldServePlaylistAndSegments() throws Exception {
+            // Given
+            int port = startServer();
+
+            // When
+            String playlist = new String(get(port, "/hls/0/index.m3u8?w=320", "application/vnd.apple.mpegurl"),
+                                         StandardCharsets.UTF_8);
+
+            // Then
+            assertThat(playlist).startsWith("#EXTM3U\n").contains("#EXT-X-MAP:URI=\"init-0.mp4?w=320\"");
+            String segmentUri = playlist.lines().filter(line -> line.endsWith(".m4s?w=320")).findFirst().orElseThrow();
+            byte[] init = get(port, "/hls/0/init-0.mp4?w=320", "video/mp4");
+            byte[] segment = get(port, "/hls/0/" + segmentUri, "video/mp4");
+            assertThat(decode(init, segment, 320)).isPositive();
+            assertThat(streamingService.getSessions()).hasSize(1);
+        }
+
+        @Test
+        @DisplayName("Should answer 404 for unknown segments and 400 for bad requests")
+        void shouldRejectBadRequests() throws Exception {
+            // Given
+            int port = startServer();
+            get(port, "/hls/0/index.m3u8", "application/vnd.apple.mpegurl");
+
+            // Then
+            assertThat(open(port, "/hls/0/999.m4s").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/hls/0/init-9.mp4").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/hls/0/other.txt").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/hls/0/999.m4s?w=640").getResponseCode()).isEqualTo(404);
+            assertThat(open(port, "/hls/x/index.m3u8").getResponseCode()).isEqualTo(400);
+            assertThat(open(port, "/hls/0/index.m3u8?q=abc").getResponseCode()).isEqualTo(400);
+        }
+
+        @Test
+        @DisplayName("Should hold a blocking playlist reload until the next part and serve the hinted part")
+        void shouldServeLowLatencyRequests() throws Exception {
+            // Given
+            int port = startServer();
+            String playlist = new String(get(port, "/hls/0/index.m3u8", "application/vnd.apple.mpegurl"),
+                                         StandardCharsets.UTF_8);
+            String hintTag = "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"";
+            String hint = playlist.substring(playlist.indexOf(hintTag) + hintTag.length());
+            hint = hint.substring(0, hint.indexOf('"'));
+            long msn = Long.parseLong(hint.substring(0, hint.indexOf('.')));
+            int part = Integer.parseInt(hint.substring(hint.indexOf('.') + 1, hint.lastIndexOf('.')));
+
+            // When
+            String reloaded = new String(get(port, "/hls/0/index.m3u8?_HLS_msn=" + msn + "&_HLS_part=" + part,
+                                             "application/vnd.apple.mpegurl"), StandardCharsets.UTF_8);
+            byte[] partData = get(port, "/hls/0/" + hint, "video/mp4");
+
+            // Then
+            assertThat(playlist).contains("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES");
+            assertThat(reloaded).containsAnyOf("URI=\"" + hint + "\"", "URI=\"" + (msn + 1) + ".0.m4s\"")
+                .doesNotContain("_HLS_");
+            assertThat(partData).isNotEmpty();
+            assertThat(open(port, "/hls/0/index.m3u8?_HLS_msn=" + (msn + 5)).getResponseCode()).isEqualTo(400);
+            assertThat(open(port, "/hls/0/index.m3u8?_HLS_msn=x").getResponseCode()).isEqualTo(400);
+        }
+
+        @Test
+        @DisplayName("Should stop the stream once no request renewed its lease")
+        void shouldExpireUnwatchedStream() throws Exception {
+            // Given
+            int port = startServer();
+            get(port, "/hls/0/index.m3u8", "application/vnd.apple.mpegurl");
+            assertThat(streamingService.getSessions()).hasSize(1);
+            streamingService.setLeaseMillis(200);
+
+            // When
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!streamingService.getSessions().isEmpty() && System.currentTimeMillis() < deadline) {
+                TestUtils.waitMillis(50);
+            }
+
+            // Then
+            assertThat(streamingService.getSessions()).isEmpty();
+            assertThat(open(port, "/hls/0/0.m4s").getResponseCode()).isEqualTo(404);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        @Test
+        @DisplayName("Should report H.264 encode time and segment size at 720p")
+        void shouldBenchmarkEncoder() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1280, 720, 1, MotionPattern.SCROLLING_TEXT);
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(1280, 720, 1000));
+            for (int i = 0; i < 5; i++) {
+                session.publish(capture.captureScreen(0, null));
+                TestUtils.waitMillis(33);
+            }
+
+            // When
+            long frames = session.getFrameCount();
+            long encodeNanos = 0;
+            long end = System.currentTimeMillis() + 3000;
+            while (System.currentTimeMillis() < end) {
+                BufferedImage frame = capture.captureScreen(0, null);
+                long start = System.nanoTime();
+                session.publish(frame);
+                encodeNanos += System.nanoTime() - start;
+                TestUtils.waitMillis(33);
+            }
+            frames = session.getFrameCount() - frames;
+
+            // Then
+            HlsSegmentStore store = session.getStore();
+            Map<String, Object> stats = store.getStats();
+            assertThat(store.getSegmentCount()).isPositive();
+            double segmentSeconds = 0;
+            long segmentBytes = 0;
+            for (long sequence = (long) stats.get("firstSequence"); sequence <= (long) stats.get("lastSequence"); sequence++) {
+                segmentSeconds += store.getSegment(sequence).getDuration();
+                segmentBytes += store.getSegment(sequence).getData().length;
+            }
+            LoggerService.info(String.format(
+                "HLS benchmark 1280x720: %d frames, %.1f ms per frame, %.0f kbit/s, %.1f KB per second of video",
+                frames, encodeNanos / 1e6 / frames, segmentBytes * 8 / segmentSeconds / 1000,
+                segmentBytes / 1024.0 / segmentSeconds));
+        }
+
+        @Test
+        @DisplayName("Should make stamped test frames playable well within 1.5 s with low-latency parts")
+        void shouldBenchmarkLatency() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(640, 360, 1, MotionPattern.SCROLLING_TEXT);
+            HlsStreamSession session = new HlsStreamSession(0, createConfig(640, 360, 1000));
+            HlsSegmentStore store = session.getStore();
+            Map<Integer, Long> captureNanos = new ConcurrentHashMap<>();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread publisher = new Thread(() -> {
+                int counter = 0;
+                try {
+                    while (running.get()) {
+                        long start = System.nanoTime();
+                        BufferedImage frame = capture.captureScreen(0, null);
+                        stamp(frame, ++counter);
+                        captureNanos.put(counter, System.nanoTime());
+                        session.publish(frame);
+                        TestUtils.waitMillis(Math.max(1, 33 - (System.nanoTime() - start) / 1_000_000));
+                    }
+                } catch (Exception e) {
+                    LoggerService.error("Publisher failed: " + e.getMessage());
+                }
+            });
+            publisher.start();
+
+            // When
+            List<Long> latencies = new ArrayList<>();
+            try {
+                assertThat(store.awaitSegments(1, 5000)).isTrue();
+                // Join at the start of the next segment, as a player does
+                long sequence = store.getLastSequence() + 2;
+                assertThat(store.awaitPlaylist(sequence - 1, -1, 5000)).isTrue();
+                int index = 0;
+                List<byte[]> segmentParts = new ArrayList<>();
+                int newest = 0;
+                long end = System.currentTimeMillis() + 5000;
+                while (System.currentTimeMillis() < end) {
+                    HlsSegmentStore.Part part = store.awaitPart(sequence, index, 3000);
+                    if (part == null) {
+                        // The segment ended before this part; the next one starts a new segment
+                        assertThat(index).isPositive();
+                        sequence++;
+                        index = 0;
+                        segmentParts.clear();
+                        continue;
+                    }
+                    long arrival = System.nanoTime();
+                    segmentParts.add(part.getData());
+                    index++;
+                    // The oldest new frame of the part is the stalest one the player gets
+                    int oldest = Integer.MAX_VALUE;
+                    for (int stamp : decodeStamps(store.getInitSegment(0), segmentParts)) {
+                        if (stamp > newest) {
+                            oldest = Math.min(oldest, stamp);
+                            newest = stamp;
+                        }
+                    }
+                    Long captured = captureNanos.get(oldest);
+                    if (captured != null) {
+                        latencies.add((arrival - captured) / 1_000_000);
+                    }
+                }
+            } finally {
+                running.set(false);
+                publisher.join();
+            }
+
+            // Then
+            assertThat(latencies).hasSizeGreaterThan(10);
+            Collections.sort(latencies);
+            long median = latencies.get(latencies.size() / 2);
+            long p95 = latencies.get(latencies.size() * 95 / 100);
+            long holdBack = Math.round(3 * store.getPartTarget() * 1000);
+            LoggerService.info(String.format(
+                "LL-HLS latency 640x360: %d parts, capture to downloaded part median %d ms, p95 %d ms; "
+                + "with the %d ms part hold-back about %d ms glass-to-glass",
+                latencies.size(), median, p95, holdBack, median + holdBack));
+            assertThat(median + holdBack).isLessThan(1500);
+        }
+
+        /**
+         * Writes the value as 16 black or white 32x32 blocks along the top edge.
+         */
+        private void stamp(BufferedImage frame, int value) {
+            Graphics2D g = frame.createGraphics();
+            for (int bit = 0; bit < 16; bit++) {
+                g.setColor((value >> bit & 1) != 0 ? Color.WHITE : Color.BLACK);
+                g.fillRect(bit * 32, 0, 32, 32);
+            }
+            g.dispose();
+        }
+
+        /**
+         * @return the stamps of every frame FFmpeg decodes from the init segment and parts
+         */
+        private List<Integer> decodeStamps(byte[] init, List<byte[]> parts) throws Exception {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(init);
+            for (byte[] part : parts) {
+                stream.write(part);
+            }
+            List<Integer> stamps = new ArrayList<>();
+            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(stream.toByteArray()));
+                 Java2DFrameConverter converter = new Java2DFrameConverter()) {
+                grabber.setFormat("mp4");
+                grabber.start();
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    BufferedImage image = converter.convert(frame);
+                    int value = 0;
+                    for (int bit = 0; bit < 16; bit++) {
+                        if ((image.getRGB(bit * 32 + 16, 16) >> 8 & 0xFF) > 128) {
+                            value |= 1 << bit;
+                        }
+                    }
+                    stamps.add(value);
+                }
+            }
+            return stamps;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.services.JpegFrameEncoder.ChromaSubsampling;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for JpegFrameEncoder.
+ * Verifies quality, subsampling and Huffman settings, and benchmarks the encoder against
+ * a plain ImageIO.write.
+ */
+class JpegFrameEncoderTest {
+
+    private BufferedImage screenImage;
+
+    @BeforeEach
+    void setUp() {
+        screenImage = createScreenLikeImage(1280, 720);
+    }
+
+    /**
+     * Desktop-like content: a gradient background, a few windows and lines of text.
+     */
+    private static BufferedImage createScreenLikeImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), width, height, new Color(200, 120, 40)));
+        g.fillRect(0, 0, width, height);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        for (int w = 0; w < 3; w++) {
+            int x = 40 + w * 400;
+            g.setColor(Color.WHITE);
+            g.fillRect(x, 60, 360, 560);
+            g.setColor(Color.DARK_GRAY);
+            for (int line = 0; line < 30; line++) {
+                g.drawString("public void frame" + line + "() { return " + (line * 31 + w) + "; }", x + 8, 80 + line * 18);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static byte[] encode(JpegFrameEncoder encoder, BufferedImage image) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.encode(image, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Reads the luma sampling factors from the SOF0 marker.
+     */
+    private static int lumaSampling(byte[] jpeg) {
+        for (int i = 0; i < jpeg.length - 12; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xC0) {
+                return jpeg[i + 11] & 0xFF;
+            }
+        }
+        throw new AssertionError("No SOF0 marker");
+    }
+
+    @Nested
+    @DisplayName("Encoding Settings Tests")
+    class EncodingSettingsTests {
+
+        @Test
+        @DisplayName("Should produce a decodable JPEG of the same size")
+        void shouldProduceDecodableJpegOfSameSize() throws Exception {
+            // Given
+            JpegFrameEncoder encoder = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+
+            // When
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(encoder, screenImage)));
+
+            // Then
+            assertThat(decoded.getWidth()).isEqualTo(1280);
+            assertThat(decoded.getHeight()).isEqualTo(720);
+        }
+
+        @Test
+        @DisplayName("Should honor the configured quality")
+        void shouldHonorConfiguredQuality() throws Exception {
+            // Given
+            StreamingConfig low = new StreamingConfig.Builder().quality(30).build();
+            StreamingConfig high = new StreamingConfig.Builder().quality(95).build();
+
+            // When
+            int lowSize = encode(JpegFrameEncoder.forConfig(low), screenImage).length;
+            int highSize = encode(JpegFrameEncoder.forConfig(high), screenImage).length;
+
+            // Then
+            assertThat(lowSize).isLessThan(highSize);
+        }
+
+        @Test
+        @DisplayName("Should apply chroma subsampling from the config")
+        void shouldApplyChromaSubsamplingFromConfig() throws Exception {
+            // Given
+            StreamingConfig full = new StreamingConfig.Builder()
+                .addParam(JpegFrameEncoder.PARAM_CHROMA_SUBSAMPLING, "4:4:4").build();
+            StreamingConfig half = new StreamingConfig.Builder()
+                .addParam(JpegFrameEncoder.PARAM_CHROMA_SUBSAMPLING, "4:2:2").build();
+
+            // When
+            byte[] fullJpeg = encode(JpegFrameEncoder.forConfig(full), screenImage);
+            byte[] halfJpeg = encode(JpegFrameEncoder.forConfig(half), screenImage);
+            byte[] defaultJpeg = encode(JpegFrameEncoder.forConfig(new StreamingConfig.Builder().build()), screenImage);
+
+            // Then
+            assertThat(lumaSampling(fullJpeg)).isEqualTo(0x11);
+            assertThat(lumaSampling(halfJpeg)).isEqualTo(0x21);
+            assertThat(lumaSampling(defaultJpeg)).isEqualTo(0x22);
+            assertThat(defaultJpeg.length).isLessThan(fullJpeg.length);
+        }
+
+        @Test
+        @DisplayName("Should shrink frames with optimized Huffman tables")
+        void shouldShrinkFramesWithOptimizedHuffmanTables() throws Exception {
+            // Given
+            JpegFrameEncoder standard = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+            JpegFrameEncoder optimized = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, true);
+
+            // When
+            int standardSize = encode(standard, screenImage).length;
+            int optimizedSize = encode(optimized, screenImage).length;
+
+            // Then
+            assertThat(optimizedSize).isLessThan(standardSize);
+        }
+
+        @Test
+        @DisplayName("Should reuse the encoder across frames and image types")
+        void shouldReuseEncoderAcrossFramesAndImageTypes() throws Exception {
+            // Given
+            JpegFrameEncoder encoder = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+            BufferedImage argb = new BufferedImage(64, 48, BufferedImage.TYPE_INT_ARGB);
+
+            // When
+            byte[] first = encode(encoder, screenImage);
+            byte[] converted = encode(encoder, argb);
+            byte[] second = encode(encoder, screenImage);
+
+            // Then
+            assertThat(second).isEqualTo(first);
+            assertThat(ImageIO.read(new ByteArrayInputStream(converted)).getWidth()).isEqualTo(64);
+        }
+
+        @Test
+        @DisplayName("Should hand only large frames to the strip encoder")
+        void shouldHandOnlyLargeFramesToStripEncoder() throws Exception {
+            // Given
+            JpegFrameEncoder encoder = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false, true);
+            BufferedImage large = createScreenLikeImage(1920, 1080);
+
+            // When
+            encode(encoder, screenImage);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(encoder, large)));
+
+            // Then
+            assertThat(encoder.getStripEncoder().getEncodedFrames()).isEqualTo(1);
+            assertThat(decoded.getWidth()).isEqualTo(1920);
+            assertThat(new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false).getStripEncoder()).isNull();
+        }
+
+        @Test
+        @DisplayName("Should encode with ImageIO unless parallel strips are requested")
+        void shouldUseStripEncoderOnlyWhenRequested() {
+            // Given
+            StreamingConfig parallel = new StreamingConfig.Builder()
+                .addParam(JpegFrameEncoder.PARAM_PARALLEL_STRIPS, true).build();
+
+            // Then
+            assertThat(JpegFrameEncoder.forConfig(new StreamingConfig.Builder().build()).getStripEncoder()).isNull();
+            assertThat(JpegFrameEncoder.forConfig(parallel).getStripEncoder()).isNotNull();
+        }
+
+        @Test
+        @DisplayName("Should reject invalid settings")
+        void shouldRejectInvalidSettings() {
+            assertThatThrownBy(() -> new JpegFrameEncoder(0, ChromaSubsampling.YUV420, false))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> ChromaSubsampling.fromLabel("4:1:1"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        private static final int WARMUP_FRAMES = 20;
+        private static final int FRAMES = 50;
+
+        @Test
+        @DisplayName("Should report bytes and time per frame against ImageIO.write")
+        void shouldReportBytesAndTimePerFrameAgainstImageIOWrite() throws Exception {
+            // Given
+            JpegFrameEncoder encoder = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+            JpegFrameEncoder optimized = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, true);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(256 * 1024);
+
+            // When
+            double[] imageIO = measure(() -> ImageIO.write(screenImage, "jpeg", output), output);
+            double[] cached = measure(() -> encoder.encode(screenImage, output), output);
+            double[] huffman = measure(() -> optimized.encode(screenImage, output), output);
+
+            LoggerService.info(String.format(
+                "JPEG benchmark 1280x720: ImageIO.write %.0f B/frame %.2f ms/frame, " +
+                "cached q80 %.0f B/frame %.2f ms/frame, cached q80+huffman %.0f B/frame %.2f ms/frame",
+                imageIO[0], imageIO[1], cached[0], cached[1], huffman[0], huffman[1]));
+
+            // Then
+            assertThat(cached[0]).isPositive();
+            assertThat(huffman[0]).isLessThan(cached[0]);
+        }
+
+        private double[] measure(EncodeCall call, ByteArrayOutputStream output) throws Exception {
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                output.reset();
+                call.run();
+            }
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                output.reset();
+                call.run();
+                bytes += output.size();
+            }
+            double msPerFrame = (System.nanoTime() - start) / 1_000_000.0 / FRAMES;
+            return new double[] {(double) bytes / FRAMES, msPerFrame};
+        }
+    }
+
+    @FunctionalInterface
+    private interface EncodeCall {
+        void run() throws Exception;
+    }
+}
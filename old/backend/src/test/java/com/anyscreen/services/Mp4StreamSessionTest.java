@@ -0,0 +1,344 @@
+package com.anyscreen.services;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mockito;
+
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.FrameEncoders;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.server.routing.Router;
+import com.anyscreen.utils.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for Mp4StreamSession and the /stream/{screen}.mp4 endpoint.
+ * Checks that viewers joining at any time get a stream FFmpeg plays from its first byte, that
+ * lagging viewers resume at a keyframe, and compares its bandwidth with MJPEG.
+ */
+class Mp4StreamSessionTest {
+
+    @BeforeAll
+    static void requireEncoder() {
+        assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+    }
+
+    private static StreamingConfig createConfig(StreamingProtocol protocol, int width, int height, long gopMillis) {
+        return new StreamingConfig.Builder()
+            .protocol(protocol)
+            .resolution(width, height)
+            .frameRate(30)
+            .quality(80)
+            .addParam(Mp4StreamSession.PARAM_GOP_MILLIS, gopMillis)
+            .build();
+    }
+
+    /**
+     * Publishes captures of the synthetic screen at up to 30 fps for the given time.
+     * @return the last frame that was sent
+     */
+    private static BufferedImage publishFor(StreamSession session, SyntheticScreenCapture capture, long millis) throws Exception {
+        BufferedImage lastSent = null;
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            BufferedImage frame = capture.captureScreen(0, null);
+            if (session.publish(frame)) {
+                lastSent = frame;
+            }
+            TestUtils.waitMillis(33);
+        }
+        return lastSent;
+    }
+
+    /**
+     * Waits until the viewer's writer has written everything queued.
+     */
+    private static void drain(ClientConnection client) {
+        long end = System.currentTimeMillis() + 5000;
+        while (client.getQueueDepth() > 0 && System.currentTimeMillis() < end) {
+            TestUtils.waitMillis(10);
+        }
+        TestUtils.waitMillis(100);
+    }
+
+    /**
+     * Decodes a stream from its first byte, as a player opening the response would.
+     * @return the last picture, after checking its size and counting the pictures
+     */
+    private static Decoded decode(byte[] stream, int expectedWidth, int expectedHeight) throws Exception {
+        Decoded decoded = new Decoded();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(stream));
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            grabber.setFormat("mp4");
+            grabber.start();
+            assertThat(grabber.getImageWidth()).isEqualTo(expectedWidth);
+            assertThat(grabber.getImageHeight()).isEqualTo(expectedHeight);
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null) {
+                decoded.frames++;
+                decoded.last = copy(converter.convert(frame));
+            }
+        }
+        return decoded;
+    }
+
+    private static final class Decoded {
+        int frames;
+        BufferedImage last;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        copy.getGraphics().drawImage(image, 0, 0, null);
+        return copy;
+    }
+
+    /**
+     * Peak signal-to-noise ratio over the three channels, in dB.
+     */
+    private static double psnr(BufferedImage expected, BufferedImage actual) {
+        double squaredError = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    squaredError += difference * difference;
+                }
+            }
+        }
+        double meanSquaredError = squaredError / (3.0 * expected.getWidth() * expected.getHeight());
+        return 10 * Math.log10(255 * 255 / Math.max(meanSquaredError, 1e-9));
+    }
+
+    /**
+     * Output stream that blocks every write until released, like a viewer on a stalled link.
+     */
+    private static class StalledOutputStream extends OutputStream {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            written.write(b, off, len);
+        }
+    }
+
+    @Nested
+    @DisplayName("Viewer Tests")
+    class ViewerTests {
+
+        @Test
+        @DisplayName("Should start a late viewer at the latest keyframe while encoding each frame once")
+        void shouldJoinAtLatestKeyframe() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(640, 360, 1, MotionPattern.SCROLLING_TEXT);
+            Mp4StreamSession session = new Mp4StreamSession(0, createConfig(StreamingProtocol.MP4, 640, 360, 1000));
+            ByteArrayOutputStream early = new ByteArrayOutputStream();
+            ByteArrayOutputStream late = new ByteArrayOutputStream();
+            ClientConnection earlyClient = session.addClient("early", early);
+
+            // When
+            publishFor(session, capture, 1500);
+            ClientConnection lateClient = session.addClient("late", late);
+            publishFor(session, capture, 500);
+            drain(earlyClient);
+            drain(lateClient);
+            session.close();
+
+            // Then
+            Decoded fromStart = decode(early.toByteArray(), 640, 360);
+            Decoded fromKeyframe = decode(late.toByteArray(), 640, 360);
+            assertThat(fromStart.frames).isEqualTo((int) session.getFrameCount());
+            // Joined a GOP that began about 1 s in, so it missed the first second but not the last half
+            assertThat(fromKeyframe.frames).isLessThan(fromStart.frames).isGreaterThan(fromStart.frames / 4);
+            assertThat(psnr(fromStart.last, fromKeyframe.last)).isGreaterThan(60);
+            assertThat(session.getKeyframeCount()).isGreaterThanOrEqualTo(2);
+            assertThat(new String(late.toByteArray(), 4, 4, StandardCharsets.US_ASCII)).isEqualTo("ftyp");
+        }
+
+        @Test
+        @DisplayName("Should make a stalled viewer wait for a keyframe instead of dropping fragments")
+        void shouldResyncStalledViewer() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(320, 240, 1, MotionPattern.SCROLLING_TEXT);
+            Mp4StreamSession session = new Mp4StreamSession(0, createConfig(StreamingProtocol.MP4, 320, 240, 500));
+            StalledOutputStream stalled = new StalledOutputStream();
+            ClientConnection client = session.addClient("stalled", stalled);
+
+            // When
+            publishFor(session, capture, 700);
+            long droppedWhileStalled = client.getDroppedFrames();
+            long resyncs = session.getResyncCount();
+            stalled.release.countDown();
+            publishFor(session, capture, 1200);
+            drain(client);
+            session.close();
+
+            // Then
+            assertThat(resyncs).isEqualTo(1);
+            assertThat(droppedWhileStalled).isZero();
+            assertThat(session.getStats()).containsEntry("awaitingKeyframe", 0);
+            Decoded decoded = decode(stalled.written.toByteArray(), 320, 240);
+            assertThat(decoded.frames).isPositive().isLessThan((int) session.getFrameCount());
+        }
+
+        @Test
+        @DisplayName("Should refuse an invalid GOP length")
+        void shouldRejectInvalidGop() {
+            assertThatThrownBy(() -> new Mp4StreamSession(0, createConfig(StreamingProtocol.MP4, 320, 240, 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+            assertThat(StreamSession.create(0, createConfig(StreamingProtocol.MP4, 320, 240, 1000)))
+                .isInstanceOf(Mp4StreamSession.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("HTTP Tests")
+    class HttpTests {
+
+        private HttpServer server;
+        private ExecutorService executor;
+        private StreamingService streamingService;
+
+        private int startServer() throws Exception {
+            ScreenCaptureService captureService = new ScreenCaptureService(
+                new SyntheticScreenCapture(640, 480, 1, MotionPattern.SCROLLING_TEXT),
+                Mockito.mock(ScreenCaptureSaverInterface.class));
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            streamingService = new StreamingService(captureService);
+            new Router(server, captureService, streamingService).configureRoutes();
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+            server.start();
+            return server.getAddress().getPort();
+        }
+
+        @AfterEach
+        void tearDown() throws Exception {
+            if (server != null) {
+                server.stop(0);
+                streamingService.stopStreaming();
+                executor.shutdownNow();
+            }
+        }
+
+        private HttpURLConnection open(int port, String path) throws Exception {
+            HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + path).toURL().openConnection();
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+            return connection;
+        }
+
+        @Test
+        @DisplayName("Should stream fragmented MP4 that plays from the first byte")
+        void shouldStreamMp4() throws Exception {
+            // Given
+            int port = startServer();
+            HttpURLConnection connection = open(port, "/stream/0.mp4?w=320");
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+            // When
+            try {
+                assertThat(connection.getResponseCode()).isEqualTo(200);
+                assertThat(connection.getContentType()).isEqualTo("video/mp4");
+                byte[] buffer = new byte[8192];
+                long end = System.currentTimeMillis() + 1500;
+                try (InputStream in = connection.getInputStream()) {
+                    int read;
+                    while (System.currentTimeMillis() < end && (read = in.read(buffer)) > 0) {
+                        received.write(buffer, 0, read);
+                    }
+                }
+            } finally {
+                connection.disconnect();
+            }
+
+            // Then
+            assertThat(new String(received.toByteArray(), 4, 4, StandardCharsets.US_ASCII)).isEqualTo("ftyp");
+            assertThat(decode(received.toByteArray(), 320, 240).frames).isPositive();
+            assertThat(open(port, "/stream/x.mp4").getResponseCode()).isEqualTo(400);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        @Test
+        @DisplayName("Should report the bandwidth and quality of fragmented MP4 against MJPEG")
+        void shouldBenchmarkAgainstMjpeg() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1280, 720, 1, MotionPattern.SCROLLING_TEXT);
+            StreamingConfig mjpegConfig = createConfig(StreamingProtocol.MJPEG, 1280, 720, 2000);
+            StreamSession mjpeg = new StreamSession(0, mjpegConfig);
+            Mp4StreamSession mp4 = new Mp4StreamSession(0, createConfig(StreamingProtocol.MP4, 1280, 720, 2000));
+            mjpeg.addClient("mjpeg", OutputStream.nullOutputStream());
+            ByteArrayOutputStream mp4Output = new ByteArrayOutputStream();
+            ClientConnection mp4Client = mp4.addClient("mp4", mp4Output);
+
+            // When
+            long mjpegStart = System.nanoTime();
+            BufferedImage lastJpegSource = publishFor(mjpeg, capture, 4000);
+            double mjpegSeconds = (System.nanoTime() - mjpegStart) / 1e9;
+            long mp4Start = System.nanoTime();
+            BufferedImage lastMp4Source = publishFor(mp4, capture, 4000);
+            double mp4Seconds = (System.nanoTime() - mp4Start) / 1e9;
+            drain(mp4Client);
+            mjpeg.close();
+            mp4.close();
+
+            // Then
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            FrameEncoders.forConfig(mjpegConfig).encode(lastJpegSource, jpeg);
+            double mjpegPsnr = psnr(lastJpegSource, ImageIO.read(new ByteArrayInputStream(jpeg.toByteArray())));
+            double mp4Psnr = psnr(lastMp4Source, decode(mp4Output.toByteArray(), 1280, 720).last);
+            double mjpegRate = mjpeg.getBytesTransferred() * 8 / mjpegSeconds / 1000;
+            double mp4Rate = mp4.getBytesTransferred() * 8 / mp4Seconds / 1000;
+            assertThat(mp4Rate).isLessThan(mjpegRate);
+            LoggerService.info(String.format(
+                "MP4 vs MJPEG benchmark 1280x720 q80: MJPEG %d frames %.0f kbit/s %.1f dB, MP4 %d frames %.0f kbit/s %.1f dB, %.1fx less",
+                mjpeg.getFrameCount(), mjpegRate, mjpegPsnr, mp4.getFrameCount(), mp4Rate, mp4Psnr, mjpegRate / mp4Rate));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.services.JpegFrameEncoder.ChromaSubsampling;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for RgbFrameAdapter.
+ * Verifies that frames reach the JPEG writer without per-frame full-size image allocations.
+ */
+class RgbFrameAdapterTest {
+
+    private static BufferedImage createImage(int width, int height, int type, Color color) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+
+    @Nested
+    @DisplayName("Pixel Layout Tests")
+    class PixelLayoutTests {
+
+        @Test
+        @DisplayName("Should pass interleaved RGB byte frames through")
+        void shouldPassInterleavedRgbByteFramesThrough() {
+            // Given
+            RgbFrameAdapter adapter = new RgbFrameAdapter();
+            BufferedImage rgb = RgbFrameAdapter.createRgbImage(64, 48);
+
+            // When / Then
+            assertThat(adapter.adapt(rgb)).isSameAs(rgb);
+            assertThat(adapter.getConvertedFrames()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should convert packed, BGR and other layouts with the same colors")
+        void shouldConvertPackedBgrAndOtherLayoutsWithSameColors() {
+            // Given
+            RgbFrameAdapter adapter = new RgbFrameAdapter();
+            Color color = new Color(0x12, 0x34, 0x56);
+            int[] types = {
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_565_RGB
+            };
+
+            for (int type : types) {
+                // When
+                BufferedImage converted = adapter.adapt(createImage(64, 48, type, color));
+
+                // Then
+                assertThat(converted.getRGB(63, 47) & 0xF8FCF8)
+                    .as("image type %d", type).isEqualTo(0x123456 & 0xF8FCF8);
+            }
+            assertThat(adapter.getConvertedFrames()).isEqualTo(types.length);
+        }
+
+        @Test
+        @DisplayName("Should reuse one buffer for frames of the same size")
+        void shouldReuseOneBufferForFramesOfSameSize() {
+            // Given
+            RgbFrameAdapter adapter = new RgbFrameAdapter();
+
+            // When
+            BufferedImage first = adapter.adapt(TestUtils.createMockImage(64, 48));
+            BufferedImage second = adapter.adapt(TestUtils.createMockImage(64, 48));
+            BufferedImage resized = adapter.adapt(TestUtils.createMockImage(32, 24));
+
+            // Then
+            assertThat(second).isSameAs(first);
+            assertThat(resized).isNotSameAs(first);
+            assertThat(resized.getWidth()).isEqualTo(32);
+        }
+
+        @Test
+        @DisplayName("Should convert sub-images from their own origin")
+        void shouldConvertSubImagesFromTheirOwnOrigin() {
+            // Given
+            RgbFrameAdapter adapter = new RgbFrameAdapter();
+            BufferedImage rgb = createImage(64, 48, BufferedImage.TYPE_INT_RGB, Color.BLACK);
+            BufferedImage bgr = createImage(64, 48, BufferedImage.TYPE_3BYTE_BGR, Color.BLACK);
+            rgb.setRGB(10, 20, 0x123456);
+            bgr.setRGB(10, 20, 0x654321);
+
+            // When
+            int fromRgb = adapter.adapt(rgb.getSubimage(10, 20, 16, 16)).getRGB(0, 0);
+            int fromBgr = adapter.adapt(bgr.getSubimage(10, 20, 16, 16)).getRGB(0, 0);
+
+            // Then
+            assertThat(fromRgb & 0xFFFFFF).isEqualTo(0x123456);
+            assertThat(fromBgr & 0xFFFFFF).isEqualTo(0x654321);
+        }
+    }
+
+    @Nested
+    @DisplayName("Encoding Tests")
+    class EncodingTests {
+
+        @Test
+        @DisplayName("Should encode ARGB frames with their original colors")
+        void shouldEncodeArgbFramesWithTheirOriginalColors() throws Exception {
+            // Given
+            JpegFrameEncoder encoder = new JpegFrameEncoder(95, ChromaSubsampling.YUV444, false);
+            BufferedImage argb = createImage(64, 48, BufferedImage.TYPE_INT_ARGB, new Color(200, 40, 40));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            // When
+            encoder.encode(argb, output);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+
+            // Then
+            Color pixel = new Color(decoded.getRGB(32, 24));
+            assertThat(pixel.getRed()).isBetween(190, 210);
+            assertThat(pixel.getGreen()).isBetween(30, 50);
+            assertThat(pixel.getBlue()).isBetween(30, 50);
+        }
+
+        @Test
+        @DisplayName("Should encode full HD frames without a full-frame allocation each")
+        void shouldEncodeFullHdFramesWithoutFullFrameAllocationEach() throws Exception {
+            // Given
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            JpegFrameEncoder encoder = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+            BufferedImage frame = TestUtils.createMockImage(1920, 1080, Color.GRAY);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(1024 * 1024);
+            long frameBytes = 1920L * 1080 * 4;
+            encoder.encode(frame, output);
+
+            // When
+            int frames = 10;
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().threadId());
+            for (int i = 0; i < frames; i++) {
+                output.reset();
+                encoder.encode(frame, output);
+            }
+            long perFrame = (threads.getThreadAllocatedBytes(Thread.currentThread().threadId()) - before) / frames;
+            LoggerService.info("RGB adapter: 1920x1080 INT_RGB frame encoded with " + perFrame + " bytes allocated");
+
+            // Then
+            assertThat(perFrame).isLessThan(frameBytes / 2);
+        }
+    }
+}
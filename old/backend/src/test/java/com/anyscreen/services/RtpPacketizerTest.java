@@ -0,0 +1,238 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test suite for RtpPacketizer and RtcpReceiverReport.
+ * Checks that pictures are cut into packets a receiver reassembles exactly, and that receiver
+ * reports are read from compound RTCP packets.
+ */
+class RtpPacketizerTest {
+
+    private static final int SSRC = 0x12345678;
+
+    /**
+     * An RTP packet read back from the interleaved output.
+     */
+    private static final class Packet {
+        int channel;
+        boolean marker;
+        int payloadType;
+        int sequence;
+        int timestamp;
+        int ssrc;
+        byte[] payload;
+    }
+
+    private static List<Packet> parse(byte[] interleaved) {
+        List<Packet> packets = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(interleaved);
+        while (buffer.hasRemaining()) {
+            assertThat(buffer.get()).isEqualTo(RtpPacketizer.INTERLEAVED_MAGIC);
+            Packet packet = new Packet();
+            packet.channel = buffer.get() & 0xFF;
+            int length = buffer.getShort() & 0xFFFF;
+            assertThat(buffer.get() & 0xFF).isEqualTo(0x80);
+            int second = buffer.get() & 0xFF;
+            packet.marker = (second & 0x80) != 0;
+            packet.payloadType = second & 0x7F;
+            packet.sequence = buffer.getShort() & 0xFFFF;
+            packet.timestamp = buffer.getInt();
+            packet.ssrc = buffer.getInt();
+            packet.payload = new byte[length - RtpPacketizer.HEADER_LENGTH];
+            buffer.get(packet.payload);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    /**
+     * Reassembles NAL units from single NAL unit and FU-A packets, as RFC 6184 receivers do.
+     */
+    private static List<byte[]> reassemble(List<Packet> packets) {
+        List<byte[]> nalUnits = new ArrayList<>();
+        ByteArrayOutputStream fragmented = null;
+        for (Packet packet : packets) {
+            int type = packet.payload[0] & 0x1F;
+            if (type != RtpPacketizer.NAL_FU_A) {
+                assertThat(fragmented).isNull();
+                nalUnits.add(packet.payload);
+                continue;
+            }
+            int fuHeader = packet.payload[1] & 0xFF;
+            if ((fuHeader & 0x80) != 0) {
+                assertThat(fragmented).isNull();
+                fragmented = new ByteArrayOutputStream();
+                fragmented.write((packet.payload[0] & 0xE0) | (fuHeader & 0x1F));
+            }
+            assertThat(fragmented).isNotNull();
+            fragmented.write(packet.payload, 2, packet.payload.length - 2);
+            if ((fuHeader & 0x40) != 0) {
+                nalUnits.add(fragmented.toByteArray());
+                fragmented = null;
+            }
+        }
+        assertThat(fragmented).isNull();
+        return nalUnits;
+    }
+
+    private static byte[] nalUnit(int header, int length) {
+        byte[] nalUnit = new byte[length];
+        nalUnit[0] = (byte) header;
+        for (int i = 1; i < length; i++) {
+            nalUnit[i] = (byte) (i * 31);
+        }
+        return nalUnit;
+    }
+
+    @Nested
+    @DisplayName("Packetization Tests")
+    class PacketizationTests {
+
+        @Test
+        @DisplayName("Should send small NAL units as single packets with the marker on the last")
+        void shouldSendSingleNalUnits() throws Exception {
+            // Given
+            RtpPacketizer packetizer = new RtpPacketizer(SSRC, 100, 1000, 1400);
+            List<byte[]> picture = List.of(nalUnit(0x67, 20), nalUnit(0x68, 4), nalUnit(0x65, 500));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            // When
+            int written = packetizer.packetize(picture, 3000, out);
+
+            // Then
+            List<Packet> packets = parse(out.toByteArray());
+            assertThat(written).isEqualTo(3);
+            assertThat(packets).extracting(p -> p.sequence).containsExactly(100, 101, 102);
+            assertThat(packets).extracting(p -> p.marker).containsExactly(false, false, true);
+            assertThat(packets).allSatisfy(p -> {
+                assertThat(p.channel).isZero();
+                assertThat(p.payloadType).isEqualTo(RtpPacketizer.PAYLOAD_TYPE);
+                assertThat(p.timestamp).isEqualTo(4000);
+                assertThat(p.ssrc).isEqualTo(SSRC);
+            });
+            assertThat(reassemble(packets)).containsExactlyElementsOf(picture);
+            assertThat(packetizer.getFragmentedUnitCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should split large NAL units into FU-A fragments that reassemble exactly")
+        void shouldFragmentLargeNalUnits() throws Exception {
+            // Given
+            RtpPacketizer packetizer = new RtpPacketizer(SSRC, 0, 0, 200);
+            byte[] large = nalUnit(0x65, 1000);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            // When
+            packetizer.packetize(List.of(nalUnit(0x06, 10), large), 0, out);
+
+            // Then
+            List<Packet> packets = parse(out.toByteArray());
+            // 999 bytes after the NAL header, 186 per fragment
+            assertThat(packets).hasSize(1 + 6);
+            assertThat(packets).allSatisfy(p -> assertThat(p.payload.length + RtpPacketizer.HEADER_LENGTH).isLessThanOrEqualTo(200));
+            assertThat(packets.get(1).payload[0] & 0xFF).isEqualTo(0x60 | RtpPacketizer.NAL_FU_A);
+            assertThat(packets.get(1).payload[1] & 0xFF).isEqualTo(0x80 | 5);
+            assertThat(packets.get(6).payload[1] & 0xFF).isEqualTo(0x40 | 5);
+            assertThat(packets).extracting(p -> p.marker).containsOnlyOnce(true);
+            assertThat(packets.get(6).marker).isTrue();
+            assertThat(reassemble(packets)).containsExactly(nalUnit(0x06, 10), large);
+            assertThat(packetizer.getFragmentedUnitCount()).isEqualTo(1);
+            assertThat(packetizer.getPacketCount()).isEqualTo(7);
+        }
+
+        @Test
+        @DisplayName("Should wrap sequence numbers and timestamps")
+        void shouldWrap() throws Exception {
+            // Given
+            RtpPacketizer packetizer = new RtpPacketizer(SSRC, 0xFFFE, -10, 1400);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            // When
+            packetizer.packetize(List.of(nalUnit(0x41, 10), nalUnit(0x41, 10), nalUnit(0x41, 10)), 20, out);
+
+            // Then
+            assertThat(parse(out.toByteArray())).extracting(p -> p.sequence).containsExactly(0xFFFE, 0xFFFF, 0);
+            assertThat(parse(out.toByteArray()).get(0).timestamp).isEqualTo(10);
+            assertThat(packetizer.getSequence()).isEqualTo(1);
+            assertThat(packetizer.toRtpTimestamp(0xFFFFFFFFL + 10)).isEqualTo(-1);
+        }
+
+        @Test
+        @DisplayName("Should reject packet sizes that cannot hold a fragment or an interleaved length")
+        void shouldRejectInvalidPacketSize() {
+            assertThatThrownBy(() -> new RtpPacketizer(SSRC, 0, 0, RtpPacketizer.HEADER_LENGTH + 2))
+                .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> new RtpPacketizer(SSRC, 0, 0, 0x10000))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Receiver Report Tests")
+    class ReceiverReportTests {
+
+        private void putReportBlock(ByteBuffer buffer, int ssrc, int fractionLost, int cumulativeLost,
+                                    int highestSequence, int jitter) {
+            buffer.putInt(ssrc);
+            buffer.putInt((fractionLost << 24) | (cumulativeLost & 0xFFFFFF));
+            buffer.putInt(highestSequence);
+            buffer.putInt(jitter);
+            buffer.putInt(0);
+            buffer.putInt(0);
+        }
+
+        @Test
+        @DisplayName("Should find the report about the stream in a compound packet")
+        void shouldParseCompoundPacket() {
+            // Given: a sender report about another stream, then a receiver report with two blocks
+            ByteBuffer buffer = ByteBuffer.allocate(28 + 24 + 8 + 48 + 12);
+            buffer.put((byte) 0x81).put((byte) RtcpReceiverReport.TYPE_SENDER_REPORT).putShort((short) 12);
+            buffer.putInt(1).put(new byte[20]);
+            putReportBlock(buffer, 7, 0, 1, 1, 1);
+            buffer.put((byte) 0x82).put((byte) RtcpReceiverReport.TYPE_RECEIVER_REPORT).putShort((short) 13);
+            buffer.putInt(2);
+            putReportBlock(buffer, 7, 0, 1, 1, 1);
+            putReportBlock(buffer, SSRC, 64, 42, 0x10005, 900);
+            // SDES, which is skipped
+            buffer.put((byte) 0x81).put((byte) 202).putShort((short) 2).putInt(2).putInt(0);
+
+            // When
+            RtcpReceiverReport report = RtcpReceiverReport.parse(buffer.array(), 0, buffer.position(), SSRC);
+
+            // Then
+            assertThat(report).isNotNull();
+            assertThat(report.getFractionLost()).isEqualTo(0.25);
+            assertThat(report.getCumulativeLost()).isEqualTo(42);
+            assertThat(report.getHighestSequence()).isEqualTo(0x10005);
+            assertThat(report.getJitter()).isEqualTo(900);
+            assertThat(report.getStats()).containsEntry("jitterMs", 10.0);
+        }
+
+        @Test
+        @DisplayName("Should read negative cumulative loss and ignore other streams and malformed packets")
+        void shouldHandleEdgeCases() {
+            // Given
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            buffer.put((byte) 0x81).put((byte) RtcpReceiverReport.TYPE_RECEIVER_REPORT).putShort((short) 7);
+            buffer.putInt(2);
+            putReportBlock(buffer, SSRC, 0, -3, 5, 0);
+
+            // Then
+            assertThat(RtcpReceiverReport.parse(buffer.array(), 0, 32, SSRC).getCumulativeLost()).isEqualTo(-3);
+            assertThat(RtcpReceiverReport.parse(buffer.array(), 0, 32, SSRC + 1)).isNull();
+            assertThat(RtcpReceiverReport.parse(buffer.array(), 0, 20, SSRC)).isNull();
+            buffer.put(0, (byte) 0x41);
+            assertThat(RtcpReceiverReport.parse(buffer.array(), 0, 32, SSRC)).isNull();
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.anyscreen.exceptions.ScreenCaptureException;
+import com.anyscreen.implementations.FfmpegH264Encoder;
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.interfaces.ScreenCaptureInterface;
+import com.anyscreen.interfaces.ScreenCaptureSaverInterface;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for ScreenBroadcaster.
+ * Verifies that a screen is captured once regardless of the number of subscribers.
+ */
+class ScreenBroadcasterTest {
+
+    @Mock
+    private ScreenCaptureInterface mockCaptureInterface;
+
+    @Mock
+    private ScreenCaptureSaverInterface mockSaver;
+
+    private ScreenBroadcaster broadcaster;
+    private StreamingConfig config;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(mockCaptureInterface.captureScreen(anyInt())).thenReturn(TestUtils.createMockImage(64, 48));
+        when(mockCaptureInterface.captureScreen(anyInt(), any())).thenReturn(TestUtils.createMockImage(64, 48));
+        broadcaster = new ScreenBroadcaster(0, new ScreenCaptureService(mockCaptureInterface, mockSaver));
+        config = new StreamingConfig.Builder().resolution(64, 48).frameRate(30).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("Should start capturing on first subscriber")
+        void shouldStartCapturingOnFirstSubscriber() {
+            // Given
+            assertThat(broadcaster.isRunning()).isFalse();
+
+            // When
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+
+            // Then
+            assertThat(broadcaster.isRunning()).isTrue();
+            assertThat(broadcaster.getSubscriberCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should stop capturing when last subscriber leaves")
+        void shouldStopCapturingWhenLastSubscriberLeaves() {
+            // Given
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+            broadcaster.subscribe("client-2", new ByteArrayOutputStream(), config);
+
+            // When
+            broadcaster.unsubscribe("client-1");
+
+            // Then
+            assertThat(broadcaster.isRunning()).isTrue();
+
+            // When
+            broadcaster.unsubscribe("client-2");
+
+            // Then
+            assertThat(broadcaster.isRunning()).isFalse();
+            assertThat(broadcaster.getSubscriberCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should close a session once its last viewer leaves")
+        void shouldCloseRetiredSession() {
+            // Given
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+            StreamSession session = broadcaster.getSessions().iterator().next();
+
+            // When
+            broadcaster.unsubscribe("client-1");
+            broadcaster.subscribe("client-2", new ByteArrayOutputStream(), config);
+
+            // Then
+            assertThat(session.isClosed()).isTrue();
+            assertThat(broadcaster.getSessions()).doesNotContain(session);
+            assertThat(broadcaster.getSessions().iterator().next().isClosed()).isFalse();
+        }
+
+        @Test
+        @DisplayName("Should skip a capture that returned no frame and keep its viewers")
+        void shouldSkipEmptyCapture() throws Exception {
+            // Given
+            when(mockCaptureInterface.captureScreen(anyInt(), any()))
+                .thenReturn(null)
+                .thenReturn(TestUtils.createMockImage(64, 48));
+
+            // When
+            StreamSession session = broadcaster.attach("player", config);
+            TestUtils.waitMillis(300);
+
+            // Then
+            assertThat(session.isClosed()).isFalse();
+            assertThat(session.getFrameCount()).isPositive();
+        }
+
+        @Test
+        @DisplayName("Should start a new capture loop for a viewer arriving after a capture error")
+        void shouldRecoverFromCaptureError() throws Exception {
+            // Given - the first capture fails, and closes the session of the first viewer
+            when(mockCaptureInterface.captureScreen(anyInt(), any()))
+                .thenThrow(new ScreenCaptureException("Display lost"))
+                .thenReturn(TestUtils.createMockImage(64, 48));
+            StreamSession failed = broadcaster.attach("player-1", config);
+            TestUtils.waitMillis(200);
+
+            // When
+            StreamSession session = broadcaster.attach("player-2", config);
+            TestUtils.waitMillis(300);
+
+            // Then
+            assertThat(failed.isClosed()).isTrue();
+            assertThat(session).isNotSameAs(failed);
+            assertThat(session.getFrameCount()).isPositive();
+            assertThat(broadcaster.isRunning()).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should release waiting handler when subscriber is closed")
+        void shouldReleaseWaitingHandlerWhenSubscriberIsClosed() throws Exception {
+            // Given
+            ClientConnection client = broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+
+            // When
+            broadcaster.unsubscribe("client-1");
+
+            // Then
+            assertThatCode(client::awaitDisconnection).doesNotThrowAnyException();
+            assertThat(client.isActive()).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Fan-out Tests")
+    class FanOutTests {
+
+        @Test
+        @DisplayName("Should capture once per frame for many subscribers")
+        void shouldCaptureOncePerFrameForManySubscribers() throws Exception {
+            // Given
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.add(output);
+                broadcaster.subscribe("client-" + i, output, config);
+            }
+
+            // When
+            TestUtils.waitMillis(300);
+            broadcaster.shutdown();
+
+            // Then
+            long frames = broadcaster.getFrameCount();
+            assertThat(frames).isPositive();
+            verify(mockCaptureInterface, atMost((int) frames + 1)).captureScreen(eq(0), any());
+            for (ByteArrayOutputStream output : outputs) {
+                assertThat(output.size()).isPositive();
+            }
+        }
+
+        @Test
+        @DisplayName("Should group subscribers into one session per encoding profile")
+        void shouldGroupSubscribersIntoOneSessionPerEncodingProfile() {
+            // Given
+            StreamingConfig lowRate = new StreamingConfig.Builder().resolution(64, 48).frameRate(10).build();
+
+            // When
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+            broadcaster.subscribe("client-2", new ByteArrayOutputStream(), config);
+            broadcaster.subscribe("client-3", new ByteArrayOutputStream(), lowRate);
+
+            // Then
+            assertThat(broadcaster.getSessions()).hasSize(2);
+            assertThat(broadcaster.getSubscriberCount()).isEqualTo(3);
+
+            // When
+            broadcaster.unsubscribe("client-3");
+
+            // Then
+            assertThat(broadcaster.getSessions()).hasSize(1);
+        }
+
+        @Test
+        @DisplayName("Should not share a session between different encoder settings")
+        void shouldSeparateSessionsByEncoderSettings() {
+            // Given
+            StreamingConfig fullChroma = new StreamingConfig.Builder().resolution(64, 48)
+                .addParam(JpegFrameEncoder.PARAM_CHROMA_SUBSAMPLING, "4:4:4").build();
+            StreamingConfig sameFullChroma = new StreamingConfig.Builder().resolution(64, 48)
+                .addParam(JpegFrameEncoder.PARAM_CHROMA_SUBSAMPLING, "4:4:4")
+                .addParam(ActivityGovernor.PARAM_IDLE_FRAME_RATE, 5).build();
+
+            // When
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), config);
+            broadcaster.subscribe("client-2", new ByteArrayOutputStream(), fullChroma);
+            broadcaster.subscribe("client-3", new ByteArrayOutputStream(), sameFullChroma);
+
+            // Then: capture settings do not change the encoded bytes
+            assertThat(broadcaster.getSessions()).hasSize(2);
+            assertThat(broadcaster.getSessions()).extracting(session -> session.getProfile().getEncoderParams())
+                .contains(Map.of(JpegFrameEncoder.PARAM_CHROMA_SUBSAMPLING, "4:4:4"));
+        }
+
+        @Test
+        @DisplayName("Should keep serving other subscribers when one fails")
+        void shouldKeepServingOtherSubscribersWhenOneFails() throws Exception {
+            // Given
+            OutputStream failing = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+            ByteArrayOutputStream healthy = new ByteArrayOutputStream();
+            ClientConnection failingClient = broadcaster.subscribe("failing", failing, config);
+            broadcaster.subscribe("healthy", healthy, config);
+
+            // When
+            TestUtils.waitMillis(200);
+
+            // Then
+            assertThat(failingClient.isActive()).isFalse();
+            assertThat(healthy.size()).isPositive();
+        }
+    }
+
+    @Nested
+    @DisplayName("Variant Tests")
+    class VariantTests {
+
+        /**
+         * Decodes the first JPEG of an MJPEG response.
+         */
+        private java.awt.image.BufferedImage firstFrame(ByteArrayOutputStream output) throws IOException {
+            byte[] bytes = output.toByteArray();
+            String text = new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1);
+            int start = text.indexOf("\r\n\r\n") + 4;
+            return javax.imageio.ImageIO.read(new java.io.ByteArrayInputStream(bytes, start, bytes.length - start));
+        }
+
+        @Test
+        @DisplayName("Should send each subscriber its own size from one capture")
+        void shouldSendEachSubscriberItsOwnSizeFromOneCapture() throws Exception {
+            // Given
+            StreamingConfig small = new StreamingConfig.Builder().resolution(32, 24).frameRate(30).build();
+            StreamingConfig smallLowRate = new StreamingConfig.Builder().resolution(32, 24).frameRate(10).build();
+            ByteArrayOutputStream nativeOutput = new ByteArrayOutputStream();
+            ByteArrayOutputStream smallOutput = new ByteArrayOutputStream();
+            ByteArrayOutputStream smallLowRateOutput = new ByteArrayOutputStream();
+
+            // When
+            broadcaster.subscribe("native", nativeOutput, config);
+            broadcaster.subscribe("small", smallOutput, small);
+            broadcaster.subscribe("small-low-rate", smallLowRateOutput, smallLowRate);
+            TestUtils.waitMillis(300);
+
+            // Then - three sessions, but the small size is scaled only once per frame
+            assertThat(broadcaster.getSessions()).hasSize(3);
+            assertThat(broadcaster.getScalerCount()).isEqualTo(1);
+            assertThat(firstFrame(nativeOutput).getWidth()).isEqualTo(64);
+            assertThat(firstFrame(smallOutput).getWidth()).isEqualTo(32);
+            assertThat(firstFrame(smallOutput).getHeight()).isEqualTo(24);
+            assertThat(firstFrame(smallLowRateOutput).getWidth()).isEqualTo(32);
+
+            // When
+            broadcaster.unsubscribe("small");
+            broadcaster.unsubscribe("small-low-rate");
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(broadcaster.getScalerCount()).isZero();
+        }
+    }
+
+    @Nested
+    @DisplayName("Adaptive Rate Tests")
+    class AdaptiveRateTests {
+
+        @Test
+        @DisplayName("Should drop to the idle rate on a still screen and recover on change")
+        void shouldIdleOnStillScreenAndRecoverOnChange() throws Exception {
+            // Given
+            StreamingConfig idling = new StreamingConfig.Builder().resolution(64, 48).frameRate(30)
+                .addParam(ActivityGovernor.PARAM_IDLE_AFTER_MILLIS, 200)
+                .addParam(ActivityGovernor.PARAM_IDLE_FRAME_RATE, 2)
+                .build();
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), idling);
+
+            // When - the mock screen never changes
+            TestUtils.waitMillis(1500);
+
+            // Then
+            assertThat(broadcaster.getGovernor().isIdle()).isTrue();
+            assertThat(broadcaster.getGovernor().getCurrentFrameRate()).isEqualTo(2);
+            assertThat(broadcaster.getEffectiveFrameRate()).isLessThan(10.0);
+
+            // When - the screen starts changing on every capture
+            when(mockCaptureInterface.captureScreen(eq(0), any())).thenAnswer(new org.mockito.stubbing.Answer<Object>() {
+                private int calls;
+
+                @Override
+                public Object answer(org.mockito.invocation.InvocationOnMock invocation) {
+                    return TestUtils.createMockImage(64, 48, calls++ % 2 == 0 ? java.awt.Color.RED : java.awt.Color.BLUE);
+                }
+            });
+            TestUtils.waitMillis(1200);
+
+            // Then
+            assertThat(broadcaster.getGovernor().isIdle()).isFalse();
+            assertThat(broadcaster.getGovernor().getCurrentFrameRate()).isEqualTo(30);
+            assertThat(broadcaster.getEffectiveFrameRate()).isGreaterThan(10.0);
+        }
+
+        @Test
+        @DisplayName("Should keep capturing two frames per HLS part on a still screen")
+        void shouldNotIdleBelowTwoFramesPerPart() {
+            // Given
+            assumeTrue(FfmpegH264Encoder.isAvailable(), "No H.264 encoder available");
+            StreamingConfig hls = new StreamingConfig.Builder().protocol(StreamingProtocol.HLS)
+                .resolution(64, 48).frameRate(30)
+                .addParam(ActivityGovernor.PARAM_IDLE_AFTER_MILLIS, 200)
+                .addParam(ActivityGovernor.PARAM_IDLE_FRAME_RATE, 1)
+                .build();
+            broadcaster.attach("player", hls);
+
+            // When - the mock screen never changes
+            TestUtils.waitMillis(1000);
+
+            // Then
+            assertThat(broadcaster.getGovernor().isIdle()).isTrue();
+            assertThat(broadcaster.getGovernor().getCurrentFrameRate())
+                .isEqualTo((int) (2000 / HlsStreamSession.DEFAULT_PART_MILLIS));
+        }
+
+        @Test
+        @DisplayName("Should capture at the full rate when idling is disabled")
+        void shouldCaptureAtFullRateWhenIdlingDisabled() {
+            // Given
+            StreamingConfig alwaysOn = new StreamingConfig.Builder().resolution(64, 48).frameRate(30)
+                .addParam(ActivityGovernor.PARAM_IDLE_AFTER_MILLIS, 0)
+                .build();
+            broadcaster.subscribe("client-1", new ByteArrayOutputStream(), alwaysOn);
+
+            // When
+            TestUtils.waitMillis(1200);
+
+            // Then
+            assertThat(broadcaster.getGovernor().isIdle()).isFalse();
+            assertThat(broadcaster.getEffectiveFrameRate()).isGreaterThan(10.0);
+        }
+
+        @Test
+        @DisplayName("Benchmark: CPU time of a still 1080p screen with and without idling")
+        void benchmarkCpuTimeOfStillScreen() throws Exception {
+            // Given
+            long alwaysOnCpu = measureStillScreenCpu(0);
+            long idlingCpu = measureStillScreenCpu(300);
+
+            LoggerService.info(String.format(
+                "Adaptive rate benchmark: still 1920x1080 screen at 30 fps for 3s, CPU %dms always on, %dms idling at %d fps",
+                alwaysOnCpu, idlingCpu, ActivityGovernor.DEFAULT_IDLE_FRAME_RATE));
+
+            // Then
+            assertThat(idlingCpu).isLessThan(alwaysOnCpu);
+        }
+
+        private long measureStillScreenCpu(long idleAfterMillis) {
+            com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            ScreenBroadcaster still = new ScreenBroadcaster(0, new ScreenCaptureService(
+                new SyntheticScreenCapture(1920, 1080, 1, SyntheticScreenCapture.MotionPattern.STATIC), mockSaver));
+            StreamingConfig stillConfig = new StreamingConfig.Builder().resolution(1920, 1080).frameRate(30)
+                .addParam(ActivityGovernor.PARAM_IDLE_AFTER_MILLIS, idleAfterMillis)
+                .build();
+            try {
+                still.subscribe("client-1", OutputStream.nullOutputStream(), stillConfig);
+                // Let the first keyframe encode before measuring
+                TestUtils.waitMillis(1000);
+                long cpuBefore = os.getProcessCpuTime();
+                TestUtils.waitMillis(3000);
+                return TimeUnit.NANOSECONDS.toMillis(os.getProcessCpuTime() - cpuBefore);
+            } finally {
+                still.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+
+/**
+ * Test suite for StreamSession.
+ * Verifies that sessions keep their own config, viewers and throttle.
+ */
+class StreamSessionTest {
+
+    private BufferedImage testImage;
+
+    @BeforeEach
+    void setUp() {
+        testImage = TestUtils.createMockImage(64, 48);
+    }
+
+    private StreamingConfig createConfig(int frameRate) {
+        return new StreamingConfig.Builder().resolution(64, 48).frameRate(frameRate).build();
+    }
+
+    private StreamingConfig createConfig(int frameRate, long keepaliveMillis) {
+        return new StreamingConfig.Builder().resolution(64, 48).frameRate(frameRate)
+            .addParam(StreamSession.PARAM_KEEPALIVE_MILLIS, keepaliveMillis).build();
+    }
+
+    @Nested
+    @DisplayName("Throttle Tests")
+    class ThrottleTests {
+
+        @Test
+        @DisplayName("Should throttle frames arriving faster than the session rate")
+        void shouldThrottleFramesArrivingFasterThanSessionRate() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(10));
+            session.addClient("client-1", new ByteArrayOutputStream());
+
+            // When
+            boolean first = session.publish(testImage);
+            boolean second = session.publish(TestUtils.createMockImage(64, 48, Color.RED));
+
+            // Then
+            assertThat(first).isTrue();
+            assertThat(second).isFalse();
+            assertThat(session.getFrameCount()).isEqualTo(1);
+            assertThat(session.getStats()).containsEntry("throttledFrames", 1L);
+        }
+
+        @Test
+        @DisplayName("Should not throttle sessions of different screens against each other")
+        void shouldNotThrottleSessionsOfDifferentScreensAgainstEachOther() throws Exception {
+            // Given
+            StreamSession screen0 = new StreamSession(0, createConfig(30));
+            StreamSession screen1 = new StreamSession(1, createConfig(30));
+            screen0.addClient("client-0", new ByteArrayOutputStream());
+            screen1.addClient("client-1", new ByteArrayOutputStream());
+
+            // When
+            boolean sent0 = screen0.publish(testImage);
+            boolean sent1 = screen1.publish(testImage);
+
+            // Then
+            assertThat(sent0).isTrue();
+            assertThat(sent1).isTrue();
+        }
+    }
+
+    @Nested
+    @DisplayName("Client Registry Tests")
+    class ClientRegistryTests {
+
+        @Test
+        @DisplayName("Should write frames only to its own clients")
+        void shouldWriteFramesOnlyToItsOwnClients() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(30));
+            StreamSession other = new StreamSession(0, createConfig(15));
+            ByteArrayOutputStream own = new ByteArrayOutputStream();
+            ByteArrayOutputStream foreign = new ByteArrayOutputStream();
+            session.addClient("own", own);
+            other.addClient("foreign", foreign);
+
+            // When
+            session.publish(testImage);
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(own.size()).isPositive();
+            assertThat(foreign.size()).isZero();
+            assertThat(session.getBytesTransferred()).isPositive();
+            assertThat(other.getBytesTransferred()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should remove and close clients")
+        void shouldRemoveAndCloseClients() {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(30));
+            ClientConnection client = session.addClient("client-1", new ByteArrayOutputStream());
+
+            // When
+            boolean removed = session.removeClient("client-1");
+
+            // Then
+            assertThat(removed).isTrue();
+            assertThat(client.isActive()).isFalse();
+            assertThat(session.isEmpty()).isTrue();
+            assertThat(session.removeClient("client-1")).isFalse();
+        }
+    }
+
+    @Nested
+    @DisplayName("Unchanged Frame Tests")
+    class UnchangedFrameTests {
+
+        private final DirtyTileMap unchanged = new DirtyTileMap(64, 48, 32, new BitSet());
+
+        @Test
+        @DisplayName("Should skip encoding when nothing changed")
+        void shouldSkipEncodingWhenNothingChanged() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000));
+            session.addClient("client-1", new ByteArrayOutputStream());
+            session.publish(testImage, DirtyTileMap.allDirty(64, 48, 32));
+            TestUtils.waitMillis(5);
+
+            // When
+            boolean sent = session.publish(testImage, unchanged);
+
+            // Then
+            assertThat(sent).isFalse();
+            assertThat(session.getFrameCount()).isEqualTo(1);
+            assertThat(session.getStats()).containsEntry("unchangedFrames", 1L)
+                                           .containsEntry("throttledFrames", 0L);
+        }
+
+        @Test
+        @DisplayName("Should encode an unchanged frame when the last change was throttled")
+        void shouldEncodeUnchangedFrameWhenLastChangeWasThrottled() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(10));
+            session.publish(testImage, DirtyTileMap.allDirty(64, 48, 32));
+            session.publish(testImage, DirtyTileMap.allDirty(64, 48, 32));
+            TestUtils.waitMillis(120);
+
+            // When
+            boolean sent = session.publish(testImage, unchanged);
+
+            // Then
+            assertThat(sent).isTrue();
+            assertThat(session.getUnchangedFrames()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should send the last frame to a viewer joining a still screen")
+        void shouldSendLastFrameToViewerJoiningStillScreen() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(30));
+            session.publish(testImage, DirtyTileMap.allDirty(64, 48, 32));
+            ByteArrayOutputStream late = new ByteArrayOutputStream();
+
+            // When
+            session.addClient("late", late);
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(late.size()).isPositive();
+            assertThat(session.getFrameCount()).isEqualTo(1);
+        }
+    }
+
+    @Nested
+    @DisplayName("Identical Frame Tests")
+    class IdenticalFrameTests {
+
+        @Test
+        @DisplayName("Should skip identical frames published without a change map")
+        void shouldSkipIdenticalFramesPublishedWithoutChangeMap() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000));
+            session.publish(testImage);
+            TestUtils.waitMillis(5);
+
+            // When
+            boolean identical = session.publish(TestUtils.createMockImage(64, 48));
+            TestUtils.waitMillis(5);
+            BufferedImage changed = TestUtils.createMockImage(64, 48);
+            changed.setRGB(63, 47, Color.RED.getRGB());
+            boolean different = session.publish(changed);
+
+            // Then
+            assertThat(identical).isFalse();
+            assertThat(different).isTrue();
+            assertThat(session.getUnchangedFrames()).isEqualTo(1);
+            assertThat(session.getStats()).containsEntry("throttledFrames", 0L);
+        }
+
+        @Test
+        @DisplayName("Should resend the cached frame at the keepalive interval")
+        void shouldResendCachedFrameAtKeepaliveInterval() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000, 50));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            session.publish(testImage);
+            TestUtils.waitMillis(50);
+            int frameSize = viewer.size();
+
+            // When
+            for (int i = 0; i < 12; i++) {
+                TestUtils.waitMillis(10);
+                session.publish(testImage);
+            }
+            TestUtils.waitMillis(50);
+
+            // Then
+            assertThat(session.getFrameCount()).isEqualTo(1);
+            assertThat(session.getKeepaliveFrames()).isPositive();
+            assertThat(viewer.size()).isEqualTo(frameSize * (1 + (int) session.getKeepaliveFrames()));
+        }
+
+        @Test
+        @DisplayName("Should send nothing for a still screen when keepalive is disabled")
+        void shouldSendNothingForStillScreenWhenKeepaliveIsDisabled() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000, 0));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            session.publish(testImage);
+            TestUtils.waitMillis(50);
+            int frameSize = viewer.size();
+
+            // When
+            for (int i = 0; i < 5; i++) {
+                TestUtils.waitMillis(10);
+                session.publish(testImage);
+            }
+            TestUtils.waitMillis(50);
+
+            // Then
+            assertThat(session.getKeepaliveFrames()).isZero();
+            assertThat(viewer.size()).isEqualTo(frameSize);
+        }
+    }
+
+    @Nested
+    @DisplayName("Lifecycle Tests")
+    class LifecycleTests {
+
+        @Test
+        @DisplayName("Should disconnect viewers and drop frames once closed")
+        void shouldDropFramesOnceClosed() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000));
+            ClientConnection client = session.addClient("viewer", new ByteArrayOutputStream());
+            session.publish(testImage);
+
+            // When
+            session.close();
+            TestUtils.waitMillis(10);
+            boolean sent = session.publish(TestUtils.createMockImage(64, 48, Color.RED));
+
+            // Then
+            assertThat(session.isClosed()).isTrue();
+            assertThat(client.isActive()).isFalse();
+            assertThat(sent).isFalse();
+            assertThat(session.getFrameCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should keep encoding after a reconfiguration replaced the encoder")
+        void shouldEncodeAfterReconfiguration() throws Exception {
+            // Given
+            StreamSession session = new StreamSession(0, createConfig(1000));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            session.publish(testImage);
+
+            // When
+            session.reconfigure(new StreamingConfig.Builder().resolution(64, 48).frameRate(1000).quality(30).build());
+            TestUtils.waitMillis(10);
+            boolean sent = session.publish(TestUtils.createMockImage(64, 48, Color.RED));
+            TestUtils.waitMillis(50);
+
+            // Then
+            assertThat(sent).isTrue();
+            assertThat(session.getFrameCount()).isEqualTo(2);
+            assertThat(viewer.size()).isPositive();
+        }
+    }
+}
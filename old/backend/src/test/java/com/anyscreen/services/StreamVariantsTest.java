@@ -0,0 +1,90 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import com.anyscreen.models.EncodingProfile;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Map;
+
+/**
+ * Test suite for StreamVariants.
+ * Tests how viewer requests are rounded onto shared variants.
+ */
+class StreamVariantsTest {
+
+    @Test
+    @DisplayName("Should serve the native size at 30 fps and quality 80 by default")
+    void shouldServeNativeSizeByDefault() {
+        // When
+        StreamingConfig config = StreamVariants.select(StreamingProtocol.MJPEG, 2560, 1440, Map.of());
+
+        // Then
+        assertThat(config.getWidth()).isEqualTo(2560);
+        assertThat(config.getHeight()).isEqualTo(1440);
+        assertThat(config.getFrameRate()).isEqualTo(30);
+        assertThat(config.getQuality()).isEqualTo(80);
+        assertThat(config.getProtocol()).isEqualTo(StreamingProtocol.MJPEG);
+    }
+
+    @Test
+    @DisplayName("Should round requests down to shared steps and keep the aspect ratio")
+    void shouldRoundRequestsToSharedSteps() {
+        // When
+        StreamingConfig config = StreamVariants.select(StreamingProtocol.TILES, 1920, 1080,
+            Map.of("w", "1000", "fps", "12", "q", "64"));
+
+        // Then
+        assertThat(config.getWidth()).isEqualTo(960);
+        assertThat(config.getHeight()).isEqualTo(540);
+        assertThat(config.getFrameRate()).isEqualTo(10);
+        assertThat(config.getQuality()).isEqualTo(60);
+        assertThat(config.getProtocol()).isEqualTo(StreamingProtocol.TILES);
+    }
+
+    @Test
+    @DisplayName("Should never go above the native size or 30 fps")
+    void shouldNeverExceedNativeSizeOrFullRate() {
+        // When
+        StreamingConfig large = StreamVariants.select(StreamingProtocol.MJPEG, 1280, 800,
+            Map.of("w", "3840", "fps", "60", "q", "150"));
+        StreamingConfig tiny = StreamVariants.select(StreamingProtocol.MJPEG, 300, 200, Map.of("w", "100"));
+
+        // Then
+        assertThat(large.getWidth()).isEqualTo(1280);
+        assertThat(large.getHeight()).isEqualTo(800);
+        assertThat(large.getFrameRate()).isEqualTo(30);
+        assertThat(large.getQuality()).isEqualTo(100);
+        assertThat(tiny.getWidth()).isEqualTo(300);
+        assertThat(tiny.getHeight()).isEqualTo(200);
+    }
+
+    @Test
+    @DisplayName("Should reject parameters that are not positive numbers")
+    void shouldRejectInvalidParameters() {
+        assertThatThrownBy(() -> StreamVariants.select(StreamingProtocol.MJPEG, 1920, 1080, Map.of("w", "wide")))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("w");
+        assertThatThrownBy(() -> StreamVariants.select(StreamingProtocol.MJPEG, 1920, 1080, Map.of("fps", "0")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Should carry a requested frame encoder into its own variant")
+    void shouldCarryRequestedEncoder() {
+        // When
+        StreamingConfig webp = StreamVariants.select(StreamingProtocol.MJPEG, 1920, 1080, Map.of("encoder", "FFmpeg-WebP"));
+        StreamingConfig plain = StreamVariants.select(StreamingProtocol.MJPEG, 1920, 1080, Map.of());
+
+        // Then
+        assertThat(EncodingProfile.of(webp).getEncoder()).isEqualTo("ffmpeg-webp");
+        assertThat(EncodingProfile.of(webp)).isNotEqualTo(EncodingProfile.of(plain));
+        assertThatThrownBy(() -> StreamVariants.select(StreamingProtocol.MJPEG, 1920, 1080, Map.of("encoder", "gif")))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("encoder");
+    }
+}
@@ -0,0 +1,217 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.services.JpegFrameEncoder.ChromaSubsampling;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for StripJpegEncoder.
+ * Decodes the parallel output and compares it with a single-strip encode, the source and ImageIO,
+ * and benchmarks a 4K frame against ImageIO.
+ */
+class StripJpegEncoderTest {
+
+    private static final int THREADS = 4;
+
+    private static ForkJoinPool singleThread;
+    private static ForkJoinPool parallel;
+
+    @BeforeAll
+    static void createPools() {
+        singleThread = StripJpegEncoder.newPool(1);
+        parallel = StripJpegEncoder.newPool(THREADS);
+    }
+
+    @AfterAll
+    static void shutDownPools() {
+        singleThread.shutdown();
+        parallel.shutdown();
+    }
+
+    private static BufferedImage screen(int width, int height) throws Exception {
+        return new SyntheticScreenCapture(width, height, 1, MotionPattern.SCROLLING_TEXT).captureScreen(0, null);
+    }
+
+    private static byte[] encode(StripJpegEncoder encoder, BufferedImage image) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.encode(image, output);
+        return output.toByteArray();
+    }
+
+    private static byte[] encode(JpegFrameEncoder encoder, BufferedImage image) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.encode(image, output);
+        return output.toByteArray();
+    }
+
+    private static int[] decode(byte[] jpeg) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static int count(byte[] jpeg, int marker) {
+        int count = 0;
+        for (int i = 0; i < jpeg.length - 1; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Peak signal-to-noise ratio over all channels, in dB.
+     */
+    private static double psnr(int[] expected, int[] actual) {
+        double squares = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = ((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF);
+                squares += difference * difference;
+            }
+        }
+        return 10 * Math.log10(255.0 * 255.0 / (squares / (expected.length * 3.0)));
+    }
+
+    @Nested
+    @DisplayName("Correctness Tests")
+    class CorrectnessTests {
+
+        @Test
+        @DisplayName("Should decode to the same pixels as a single-threaded encode")
+        void shouldDecodeToSamePixelsAsSingleThreadedEncode() throws Exception {
+            for (ChromaSubsampling subsampling : ChromaSubsampling.values()) {
+                for (BufferedImage frame : new BufferedImage[] {screen(1920, 1080), screen(333, 211)}) {
+                    // Given
+                    StripJpegEncoder single = new StripJpegEncoder(80, subsampling, singleThread);
+                    StripJpegEncoder strips = new StripJpegEncoder(80, subsampling, parallel);
+
+                    // When
+                    byte[] singleJpeg = encode(single, frame);
+                    byte[] stripJpeg = encode(strips, frame);
+
+                    // Then - one restart marker between every pair of strips
+                    String name = subsampling + " " + frame.getWidth() + "x" + frame.getHeight();
+                    assertThat(count(singleJpeg, 0xDD)).as(name).isZero();
+                    assertThat(count(stripJpeg, 0xDD)).as(name).isEqualTo(1);
+                    assertThat(count(stripJpeg, 0xD0)).as(name).isEqualTo(1);
+                    assertThat(decode(stripJpeg)).as(name).isEqualTo(decode(singleJpeg));
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should cycle through the eight restart markers")
+        void shouldCycleThroughEightRestartMarkers() throws Exception {
+            // Given - 4:4:4 at 1080p has 135 MCU rows, so 8 strips of 17 rows
+            StripJpegEncoder strips = new StripJpegEncoder(80, ChromaSubsampling.YUV444, parallel);
+
+            // When
+            byte[] jpeg = encode(strips, screen(1920, 1080));
+
+            // Then
+            for (int marker = 0xD0; marker <= 0xD6; marker++) {
+                assertThat(count(jpeg, marker)).isEqualTo(1);
+            }
+            assertThat(count(jpeg, 0xD7)).isZero();
+            assertThat(decode(jpeg)).hasSize(1920 * 1080);
+        }
+
+        @Test
+        @DisplayName("Should stay as close to the source as ImageIO at the same quality")
+        void shouldStayAsCloseToSourceAsImageIO() throws Exception {
+            // Given
+            BufferedImage frame = screen(1280, 720);
+            int[] source = frame.getRGB(0, 0, 1280, 720, null, 0, 1280);
+
+            // When
+            int[] strips = decode(encode(new StripJpegEncoder(80, ChromaSubsampling.YUV420, parallel), frame));
+            int[] imageIO = decode(encode(new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false), frame));
+
+            // Then
+            assertThat(psnr(source, strips)).isGreaterThan(30).isGreaterThan(psnr(source, imageIO) - 1);
+        }
+
+        @Test
+        @DisplayName("Should encode sub-images and byte frames like packed frames")
+        void shouldEncodeSubImagesAndByteFramesLikePackedFrames() throws Exception {
+            // Given
+            BufferedImage packed = screen(400, 300).getSubimage(37, 21, 250, 170);
+            BufferedImage bgr = new BufferedImage(250, 170, BufferedImage.TYPE_3BYTE_BGR);
+            bgr.createGraphics().drawImage(packed, 0, 0, null);
+            StripJpegEncoder encoder = new StripJpegEncoder(90, ChromaSubsampling.YUV420, parallel);
+
+            // When / Then
+            assertThat(encode(encoder, bgr)).isEqualTo(encode(encoder, packed));
+        }
+
+        @Test
+        @DisplayName("Should reject invalid quality")
+        void shouldRejectInvalidQuality() {
+            assertThatThrownBy(() -> new StripJpegEncoder(101, ChromaSubsampling.YUV420, parallel))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Benchmark: encoding a 4K frame in strips against ImageIO")
+    void benchmarkEncoding4kFrameInStrips() throws Exception {
+        // Given
+        BufferedImage frame = screen(3840, 2160);
+        JpegFrameEncoder imageIO = new JpegFrameEncoder(80, ChromaSubsampling.YUV420, false);
+        StripJpegEncoder single = new StripJpegEncoder(80, ChromaSubsampling.YUV420, singleThread);
+        StripJpegEncoder strips = new StripJpegEncoder(80, ChromaSubsampling.YUV420, parallel);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(1 << 20);
+        for (int i = 0; i < 3; i++) {
+            imageIO.encode(frame, output);
+            single.encode(frame, output);
+            strips.encode(frame, output);
+        }
+
+        // When
+        int frames = 5;
+        long[] nanos = new long[3];
+        long[] bytes = new long[3];
+        for (int i = 0; i < frames; i++) {
+            for (int encoder = 0; encoder < 3; encoder++) {
+                output.reset();
+                long start = System.nanoTime();
+                switch (encoder) {
+                    case 0 -> imageIO.encode(frame, output);
+                    case 1 -> single.encode(frame, output);
+                    default -> strips.encode(frame, output);
+                }
+                nanos[encoder] += System.nanoTime() - start;
+                bytes[encoder] += output.size();
+            }
+        }
+        imageIO.dispose();
+
+        LoggerService.info(String.format(
+            "Strip JPEG benchmark 3840x2160 q80 4:2:0 on %d processors: ImageIO %.1fms (%d KB), " +
+            "1 strip %.1fms (%d KB), %d threads %.1fms (%d KB)",
+            Runtime.getRuntime().availableProcessors(),
+            nanos[0] / 1e6 / frames, bytes[0] / 1024 / frames,
+            nanos[1] / 1e6 / frames, bytes[1] / 1024 / frames,
+            THREADS, nanos[2] / 1e6 / frames, bytes[2] / 1024 / frames));
+
+        // Then - the restart markers cost a few bytes per strip at most
+        assertThat(bytes[2] - bytes[1]).isLessThan(frames * 2L * THREADS * 16);
+        assertThat(nanos[2]).isLessThan(nanos[1] * 2);
+    }
+}
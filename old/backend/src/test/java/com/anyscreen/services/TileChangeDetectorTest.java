@@ -0,0 +1,174 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.models.DirtyTileMap;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Test suite for TileChangeDetector and DirtyTileMap.
+ * Includes a throughput benchmark on synthetic 1080p frames.
+ */
+class TileChangeDetectorTest {
+
+    private TileChangeDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        detector = new TileChangeDetector(32);
+    }
+
+    @Nested
+    @DisplayName("Detection Tests")
+    class DetectionTests {
+
+        @Test
+        @DisplayName("Should mark every tile dirty on the first frame")
+        void shouldMarkEveryTileDirtyOnFirstFrame() {
+            // Given
+            BufferedImage frame = TestUtils.createMockImage(100, 70, Color.BLUE);
+
+            // When
+            DirtyTileMap changes = detector.detect(frame);
+
+            // Then
+            assertThat(changes.getColumns()).isEqualTo(4);
+            assertThat(changes.getRows()).isEqualTo(3);
+            assertThat(changes.isAllDirty()).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should report no change for an identical frame")
+        void shouldReportNoChangeForIdenticalFrame() {
+            // Given
+            detector.detect(TestUtils.createMockImage(100, 70, Color.BLUE));
+
+            // When
+            DirtyTileMap changes = detector.detect(TestUtils.createMockImage(100, 70, Color.BLUE));
+
+            // Then
+            assertThat(changes.isEmpty()).isTrue();
+            assertThat(changes.getDirtyBounds()).isNull();
+            assertThat(detector.getUnchangedFrames()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should mark only the tile holding a changed pixel, including clipped edge tiles")
+        void shouldMarkOnlyTileHoldingChangedPixel() {
+            // Given
+            BufferedImage frame = TestUtils.createMockImage(100, 70, Color.BLUE);
+            detector.detect(frame);
+
+            // When
+            frame.setRGB(40, 10, Color.RED.getRGB());
+            DirtyTileMap inner = detector.detect(frame);
+            frame.setRGB(99, 69, Color.RED.getRGB());
+            DirtyTileMap edge = detector.detect(frame);
+
+            // Then
+            assertThat(inner.getDirtyTiles()).containsExactly(1);
+            assertThat(inner.getDirtyBounds()).isEqualTo(new Rectangle(32, 0, 32, 32));
+            assertThat(edge.getDirtyTiles()).containsExactly(11);
+            assertThat(edge.getDirtyBounds()).isEqualTo(new Rectangle(96, 64, 4, 6));
+        }
+
+        @Test
+        @DisplayName("Should compare frames that are not packed int RGB")
+        void shouldCompareFramesThatAreNotPackedIntRgb() {
+            // Given
+            BufferedImage frame = new BufferedImage(64, 64, BufferedImage.TYPE_3BYTE_BGR);
+            detector.detect(frame);
+
+            // When
+            DirtyTileMap unchanged = detector.detect(frame);
+            frame.setRGB(33, 33, Color.WHITE.getRGB());
+            DirtyTileMap changed = detector.detect(frame);
+
+            // Then
+            assertThat(unchanged.isEmpty()).isTrue();
+            assertThat(changed.getDirtyTiles()).containsExactly(3);
+        }
+
+        @Test
+        @DisplayName("Should compare sub-images by their own pixels")
+        void shouldCompareSubImagesByTheirOwnPixels() {
+            // Given
+            BufferedImage full = TestUtils.createMockImage(128, 128, Color.BLUE);
+            detector.detect(full.getSubimage(64, 64, 64, 64));
+
+            // When
+            full.setRGB(0, 0, Color.RED.getRGB());
+            DirtyTileMap outside = detector.detect(full.getSubimage(64, 64, 64, 64));
+            full.setRGB(64, 64, Color.RED.getRGB());
+            DirtyTileMap inside = detector.detect(full.getSubimage(64, 64, 64, 64));
+
+            // Then
+            assertThat(outside.isEmpty()).isTrue();
+            assertThat(inside.getDirtyTiles()).containsExactly(0);
+        }
+
+        @Test
+        @DisplayName("Should start over when the frame size changes or on reset")
+        void shouldStartOverWhenFrameSizeChangesOrOnReset() {
+            // Given
+            detector.detect(TestUtils.createMockImage(64, 64, Color.BLUE));
+
+            // When
+            DirtyTileMap resized = detector.detect(TestUtils.createMockImage(96, 64, Color.BLUE));
+            detector.reset();
+            DirtyTileMap afterReset = detector.detect(TestUtils.createMockImage(96, 64, Color.BLUE));
+
+            // Then
+            assertThat(resized.isAllDirty()).isTrue();
+            assertThat(afterReset.isAllDirty()).isTrue();
+            assertThatThrownBy(() -> new TileChangeDetector(0)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        private static final int FRAMES = 60;
+
+        @Test
+        @DisplayName("Should find the scrolling window and compare 1080p frames quickly")
+        void shouldFindScrollingWindowAndCompare1080pFramesQuickly() throws Exception {
+            // Given
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1920, 1080, 1, MotionPattern.SCROLLING_TEXT);
+            BufferedImage frame = capture.captureScreen(0);
+            TileChangeDetector fullHd = new TileChangeDetector();
+            fullHd.detect(frame);
+
+            // When
+            long elapsed = 0;
+            DirtyTileMap changes = null;
+            for (int i = 0; i < FRAMES; i++) {
+                capture.captureScreen(0, frame);
+                long start = System.nanoTime();
+                changes = fullHd.detect(frame);
+                elapsed += System.nanoTime() - start;
+            }
+            double millisPerFrame = elapsed / 1e6 / FRAMES;
+
+            LoggerService.info(String.format("Tile change detection at 1920x1080: %.2f ms/frame, %.0f%% of tiles dirty",
+                                             millisPerFrame, changes.getDirtyRatio() * 100));
+
+            // Then
+            assertThat(new Rectangle(480, 256, 960, 576).contains(changes.getDirtyBounds())).isTrue();
+            assertThat(changes.getDirtyRatio()).isBetween(0.1, 0.3);
+            assertThat(millisPerFrame).isLessThan(50);
+        }
+    }
+}
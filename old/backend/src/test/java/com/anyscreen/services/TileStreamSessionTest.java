@@ -0,0 +1,310 @@
+package com.anyscreen.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+
+import com.anyscreen.implementations.SyntheticScreenCapture;
+import com.anyscreen.implementations.SyntheticScreenCapture.MotionPattern;
+import com.anyscreen.models.StreamingConfig;
+import com.anyscreen.models.StreamingProtocol;
+import com.anyscreen.utils.TestUtils;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Test suite for TileStreamSession.
+ * Decodes the binary messages viewers receive and compares bandwidth and encode time with MJPEG.
+ */
+class TileStreamSessionTest {
+
+    private record Patch(Rectangle bounds, byte[] image) {}
+
+    private record Message(int type, int format, int width, int height, List<Patch> patches) {}
+
+    private BufferedImage screen;
+    private TileChangeDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        screen = TestUtils.createMockImage(128, 96, Color.BLUE);
+        detector = new TileChangeDetector(32);
+    }
+
+    private StreamingConfig createConfig(int frameRate, int quality) {
+        return new StreamingConfig.Builder()
+            .protocol(StreamingProtocol.TILES)
+            .resolution(128, 96)
+            .frameRate(frameRate)
+            .quality(quality)
+            .build();
+    }
+
+    private boolean capture(TileStreamSession session) throws Exception {
+        // Keeps consecutive frames outside the session's 1 ms throttle interval
+        TestUtils.waitMillis(3);
+        return session.publish(screen, detector.detect(screen));
+    }
+
+    private static List<Message> parse(byte[] stream) {
+        List<Message> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        while (buffer.remaining() >= Integer.BYTES) {
+            int end = buffer.getInt() + buffer.position();
+            int type = buffer.get();
+            int format = buffer.get();
+            int count = buffer.getShort() & 0xFFFF;
+            int width = buffer.getShort() & 0xFFFF;
+            int height = buffer.getShort() & 0xFFFF;
+            buffer.getInt();
+            List<Patch> patches = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Rectangle bounds = new Rectangle(buffer.getShort(), buffer.getShort(), buffer.getShort(), buffer.getShort());
+                byte[] image = new byte[buffer.getInt()];
+                buffer.get(image);
+                patches.add(new Patch(bounds, image));
+            }
+            assertThat(buffer.position()).isEqualTo(end);
+            messages.add(new Message(type, format, width, height, patches));
+        }
+        return messages;
+    }
+
+    @Nested
+    @DisplayName("Protocol Tests")
+    class ProtocolTests {
+
+        @Test
+        @DisplayName("Should send a keyframe on join and then only the changed tiles")
+        void shouldSendKeyframeOnJoinThenOnlyChangedTiles() throws Exception {
+            // Given
+            TileStreamSession session = new TileStreamSession(0, createConfig(1000, 80));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            capture(session);
+
+            // When
+            screen.setRGB(40, 10, Color.RED.getRGB());
+            screen.setRGB(41, 40, Color.RED.getRGB());
+            capture(session);
+            TestUtils.waitMillis(100);
+
+            // Then
+            List<Message> messages = parse(viewer.toByteArray());
+            assertThat(messages).hasSize(2);
+            assertThat(messages.get(0).type()).isEqualTo(TileStreamSession.TYPE_KEYFRAME);
+            assertThat(messages.get(0).patches()).extracting(Patch::bounds)
+                                                 .containsExactly(new Rectangle(0, 0, 128, 96));
+            Message delta = messages.get(1);
+            assertThat(delta.type()).isEqualTo(TileStreamSession.TYPE_DELTA);
+            assertThat(delta.format()).isEqualTo(TileStreamSession.FORMAT_JPEG);
+            assertThat(delta.width()).isEqualTo(128);
+            assertThat(delta.patches()).extracting(Patch::bounds).containsExactly(new Rectangle(32, 0, 32, 64));
+            BufferedImage patch = ImageIO.read(new ByteArrayInputStream(delta.patches().get(0).image()));
+            assertThat(patch.getWidth()).isEqualTo(32);
+            assertThat(patch.getHeight()).isEqualTo(64);
+        }
+
+        @Test
+        @DisplayName("Should send nothing for unchanged frames but a keyframe to a late viewer")
+        void shouldSendNothingForUnchangedFramesButKeyframeToLateViewer() throws Exception {
+            // Given
+            TileStreamSession session = new TileStreamSession(0, createConfig(1000, 80));
+            ByteArrayOutputStream early = new ByteArrayOutputStream();
+            session.addClient("early", early);
+            capture(session);
+
+            // When
+            boolean unchanged = capture(session);
+            ByteArrayOutputStream late = new ByteArrayOutputStream();
+            session.addClient("late", late);
+            capture(session);
+            boolean unchangedAgain = capture(session);
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(unchanged).isFalse();
+            assertThat(unchangedAgain).isFalse();
+            assertThat(parse(early.toByteArray())).hasSize(1);
+            assertThat(parse(late.toByteArray())).extracting(Message::type)
+                                                 .containsExactly(TileStreamSession.TYPE_KEYFRAME);
+            assertThat(session.getKeyframeCount()).isEqualTo(2);
+            assertThat(session.getDeltaCount()).isZero();
+        }
+
+        @Test
+        @DisplayName("Should carry changes of throttled frames into the next delta")
+        void shouldCarryChangesOfThrottledFramesIntoNextDelta() throws Exception {
+            // Given
+            TileStreamSession session = new TileStreamSession(0, createConfig(10, 80));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            session.publish(screen, detector.detect(screen));
+
+            // When
+            screen.setRGB(100, 80, Color.RED.getRGB());
+            boolean throttled = session.publish(screen, detector.detect(screen));
+            TestUtils.waitMillis(120);
+            boolean sent = session.publish(screen, detector.detect(screen));
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(throttled).isFalse();
+            assertThat(sent).isTrue();
+            List<Message> messages = parse(viewer.toByteArray());
+            assertThat(messages).hasSize(2);
+            assertThat(messages.get(1).patches()).extracting(Patch::bounds)
+                                                 .containsExactly(new Rectangle(96, 64, 32, 32));
+        }
+
+        @Test
+        @DisplayName("Should send a keyframe when most of the screen changed")
+        void shouldSendKeyframeWhenMostOfScreenChanged() throws Exception {
+            // Given
+            TileStreamSession session = new TileStreamSession(0, createConfig(1000, 80));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            capture(session);
+
+            // When
+            Graphics2D g = screen.createGraphics();
+            g.setColor(Color.GREEN);
+            g.fillRect(0, 0, 128, 64);
+            g.dispose();
+            capture(session);
+            TestUtils.waitMillis(100);
+
+            // Then
+            assertThat(parse(viewer.toByteArray())).extracting(Message::type)
+                .containsExactly(TileStreamSession.TYPE_KEYFRAME, TileStreamSession.TYPE_KEYFRAME);
+        }
+
+        @Test
+        @DisplayName("Should send an empty delta as keepalive while the screen is still")
+        void shouldSendEmptyDeltaAsKeepaliveWhileScreenIsStill() throws Exception {
+            // Given
+            StreamingConfig config = new StreamingConfig.Builder().protocol(StreamingProtocol.TILES)
+                .resolution(128, 96).frameRate(1000).addParam(StreamSession.PARAM_KEEPALIVE_MILLIS, 20).build();
+            TileStreamSession session = new TileStreamSession(0, config);
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+            capture(session);
+
+            // When
+            TestUtils.waitMillis(30);
+            capture(session);
+            TestUtils.waitMillis(100);
+
+            // Then
+            List<Message> messages = parse(viewer.toByteArray());
+            assertThat(messages).hasSize(2);
+            assertThat(messages.get(1).type()).isEqualTo(TileStreamSession.TYPE_DELTA);
+            assertThat(messages.get(1).patches()).isEmpty();
+            assertThat(session.getKeepaliveFrames()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should send lossless PNG patches at quality 100")
+        void shouldSendLosslessPngPatchesAtQuality100() throws Exception {
+            // Given
+            TileStreamSession session = new TileStreamSession(0, createConfig(1000, 100));
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            session.addClient("viewer", viewer);
+
+            // When
+            capture(session);
+            TestUtils.waitMillis(100);
+
+            // Then
+            Message keyframe = parse(viewer.toByteArray()).get(0);
+            assertThat(keyframe.format()).isEqualTo(TileStreamSession.FORMAT_PNG);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(keyframe.patches().get(0).image()));
+            assertThat(decoded.getRGB(5, 5)).isEqualTo(Color.BLUE.getRGB());
+        }
+
+        @Test
+        @DisplayName("Should create tile sessions for the tiles protocol only")
+        void shouldCreateTileSessionsForTilesProtocolOnly() {
+            // Given
+            StreamingConfig mjpeg = new StreamingConfig.Builder().resolution(128, 96).build();
+
+            // When / Then
+            assertThat(StreamSession.create(0, createConfig(30, 80))).isInstanceOf(TileStreamSession.class);
+            assertThat(StreamSession.create(0, mjpeg)).isNotInstanceOf(TileStreamSession.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Benchmark Tests")
+    class BenchmarkTests {
+
+        private static final int FRAMES = 30;
+
+        /**
+         * Streams the same synthetic frames through a session and returns bytes and encode time.
+         */
+        private long[] stream(StreamSession session, MotionPattern pattern) throws Exception {
+            SyntheticScreenCapture capture = new SyntheticScreenCapture(1920, 1080, 1, pattern);
+            TileChangeDetector changes = new TileChangeDetector();
+            ByteArrayOutputStream viewer = new ByteArrayOutputStream();
+            ClientConnection client = session.addClient("viewer", viewer);
+            BufferedImage frame = capture.captureScreen(0);
+            long encodeNanos = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                capture.captureScreen(0, frame);
+                TestUtils.waitMillis(2);
+                long start = System.nanoTime();
+                session.publish(frame, changes.detect(frame));
+                encodeNanos += System.nanoTime() - start;
+                while (client.getQueueDepth() > 0) {
+                    TestUtils.waitMillis(1);
+                }
+            }
+            TestUtils.waitMillis(50);
+            session.close();
+            return new long[] {viewer.size(), encodeNanos};
+        }
+
+        @Test
+        @DisplayName("Should need far less bandwidth and encode time than MJPEG for an office screen")
+        void shouldNeedFarLessBandwidthAndEncodeTimeThanMjpegForOfficeScreen() throws Exception {
+            // Given
+            StreamingConfig tiles = new StreamingConfig.Builder()
+                .protocol(StreamingProtocol.TILES).resolution(1920, 1080).frameRate(1000).build();
+            StreamingConfig mjpeg = new StreamingConfig.Builder()
+                .protocol(StreamingProtocol.MJPEG).resolution(1920, 1080).frameRate(1000).build();
+
+            // When
+            long[] mjpegTyping = stream(StreamSession.create(0, mjpeg), MotionPattern.TYPING);
+            long[] tilesTyping = stream(StreamSession.create(0, tiles), MotionPattern.TYPING);
+            long[] mjpegScrolling = stream(StreamSession.create(0, mjpeg), MotionPattern.SCROLLING_TEXT);
+            long[] tilesScrolling = stream(StreamSession.create(0, tiles), MotionPattern.SCROLLING_TEXT);
+
+            LoggerService.info(String.format(
+                "Tiles vs MJPEG at 1920x1080, %d frames: typing %d vs %d KB, %.1f vs %.1f ms/frame; " +
+                "scrolling text %d vs %d KB, %.1f vs %.1f ms/frame", FRAMES,
+                tilesTyping[0] / 1024, mjpegTyping[0] / 1024, tilesTyping[1] / 1e6 / FRAMES, mjpegTyping[1] / 1e6 / FRAMES,
+                tilesScrolling[0] / 1024, mjpegScrolling[0] / 1024, tilesScrolling[1] / 1e6 / FRAMES, mjpegScrolling[1] / 1e6 / FRAMES));
+
+            // Then
+            assertThat(tilesTyping[0]).isLessThan(mjpegTyping[0] / 10);
+            assertThat(tilesTyping[1]).isLessThan(mjpegTyping[1] / 5);
+            // Scrolling changes the whole window every frame, the worst case for tiles
+            assertThat(tilesScrolling[0]).isLessThan(mjpegScrolling[0]);
+            assertThat(tilesScrolling[1]).isLessThan(mjpegScrolling[1]);
+        }
+    }
+}